@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.texlipse.bibparser.BibParser;
+import org.eclipse.texlipse.model.ReferenceContainer;
+import org.eclipse.texlipse.model.ReferenceEntry;
+import org.eclipse.texlipse.model.ReferenceManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Parses generated BibTeX files, organizes their entries into a reference
+ * container and completes citations from it.
+ *
+ * @author The TeXlipse team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class BibBenchmark {
+
+    /**
+     * The number of BibTeX files the entries are split into
+     */
+    private static final int SOURCES = 4;
+
+    /**
+     * The number of entries in all the files
+     */
+    @Param({ "100", "1000", "10000", "100000" })
+    public int entries;
+
+    private String bibtex;
+    private List<List<ReferenceEntry>> sources;
+    private ReferenceManager manager;
+    private String[] prefixes;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        bibtex = Corpus.bibtex(entries, 42);
+
+        List<ReferenceEntry> all = new BibParser(new StringReader(bibtex)).getEntries();
+        sources = new ArrayList<List<ReferenceEntry>>(SOURCES);
+        for (int i = 0; i < SOURCES; i++) {
+            sources.add(new ArrayList<ReferenceEntry>(
+                    all.subList(i * all.size() / SOURCES, (i + 1) * all.size() / SOURCES)));
+        }
+
+        ReferenceContainer bibs = new ReferenceContainer();
+        bibs.addRefSource("refs.bib", new ArrayList<ReferenceEntry>(all));
+        bibs.organize();
+        // the commands need the images of the plugin, and aren't used here
+        manager = new ReferenceManager(bibs, new ReferenceContainer(), null);
+
+        // prefixes of existing keys, as typed in a \cite
+        prefixes = new String[64];
+        for (int i = 0; i < prefixes.length; i++) {
+            String key = Corpus.bibKey(i * 7919 % entries);
+            prefixes[i] = key.substring(0, Math.min(key.length(), 1 + i % 6));
+        }
+    }
+
+    @Benchmark
+    public List<?> getEntries() throws IOException {
+        return new BibParser(new StringReader(bibtex)).getEntries();
+    }
+
+    /**
+     * Adds the entries of several files and makes them visible, as done
+     * after the BibTeX files of a project have been parsed.
+     */
+    @Benchmark
+    public ReferenceContainer organize() {
+        ReferenceContainer container = new ReferenceContainer();
+        for (int i = 0; i < sources.size(); i++) {
+            container.addRefSource("refs" + i + ".bib", new ArrayList<ReferenceEntry>(sources.get(i)));
+        }
+        container.organize();
+        return container;
+    }
+
+    @Benchmark
+    public List<ReferenceEntry> getCompletionsBib() {
+        next = (next + 1) & (prefixes.length - 1);
+        return manager.getCompletionsBib(prefixes[next]);
+    }
+}
@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Generates the inputs of the benchmarks. The generated documents look like
+ * real ones: a preamble, nested sections with labels, references and
+ * citations, environments and verbatim blocks. The same size and seed
+ * always give the same text, so results of different runs are comparable.
+ *
+ * @author The TeXlipse team
+ */
+public final class Corpus {
+
+    private static final String[] WORDS = {
+        "the", "of", "and", "a", "to", "in", "is", "that", "for", "it",
+        "as", "with", "be", "on", "by", "this", "are", "which", "from", "or",
+        "theorem", "proof", "lemma", "function", "space", "we", "show", "let",
+        "matrix", "vector", "algorithm", "result", "section", "equation",
+        "consider", "follows", "bounded", "continuous", "converges", "sequence",
+        "parser", "document", "reference", "editor", "outline", "completion"
+    };
+
+    private static final String[] SECTIONS = {
+        "\\part", "\\chapter", "\\section", "\\subsection", "\\subsubsection", "\\paragraph"
+    };
+
+    private static final String[] ENVIRONMENTS = {
+        "itemize", "enumerate", "equation", "figure", "table", "theorem", "proof"
+    };
+
+    private Corpus() {
+    }
+
+    /**
+     * Returns a LaTeX document of about the given number of lines.
+     *
+     * @param lines The number of lines
+     * @param seed The seed of the generated text
+     * @return The document
+     */
+    public static String latex(int lines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(lines * 60);
+        sb.append("\\documentclass[a4paper,11pt]{article}\n");
+        sb.append("\\usepackage[utf8]{inputenc}\n");
+        sb.append("\\usepackage{amsmath,amssymb}\n");
+        sb.append("\\bibliographystyle{plain}\n");
+        sb.append("\\begin{document}\n");
+        int line = 5;
+        int label = 0;
+        int level = 2;
+        while (line < lines - 2) {
+            int kind = random.nextInt(20);
+            if (kind == 0) {
+                // a new section, at most one level deeper than the last one
+                level = 1 + random.nextInt(Math.min(level + 1, SECTIONS.length - 1));
+                sb.append(SECTIONS[level]).append('{');
+                words(sb, random, 1 + random.nextInt(4));
+                sb.append("}\n\\label{sec:").append(label++).append("}\n");
+                line += 2;
+            } else if (kind == 1 && line < lines - 8) {
+                String env = ENVIRONMENTS[random.nextInt(ENVIRONMENTS.length)];
+                sb.append("\\begin{").append(env).append("}\n");
+                int items = 1 + random.nextInt(4);
+                for (int i = 0; i < items; i++) {
+                    sb.append("  \\item ");
+                    words(sb, random, 3 + random.nextInt(8));
+                    sb.append('\n');
+                }
+                sb.append("\\end{").append(env).append("}\n");
+                line += items + 2;
+            } else if (kind == 2 && line < lines - 5) {
+                sb.append("\\begin{verbatim}\n  int x = 0; {[\n  x++;\n\\end{verbatim}\n");
+                line += 4;
+            } else {
+                words(sb, random, 5 + random.nextInt(10));
+                if (label > 0 && random.nextInt(4) == 0) {
+                    sb.append(" \\ref{sec:").append(random.nextInt(label)).append('}');
+                }
+                if (random.nextInt(4) == 0) {
+                    sb.append(" \\cite{key").append(random.nextInt(1000)).append('}');
+                }
+                if (random.nextInt(8) == 0) {
+                    sb.append(" \\emph{");
+                    words(sb, random, 2);
+                    sb.append("} \\verb|a{b|");
+                }
+                sb.append(" % a comment\n");
+                line++;
+            }
+        }
+        sb.append("\\bibliography{refs}\n");
+        sb.append("\\end{document}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Returns a BibTeX file with the given number of entries.
+     *
+     * @param entries The number of entries
+     * @param seed The seed of the generated text
+     * @return The BibTeX file
+     */
+    public static String bibtex(int entries, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(entries * 200);
+        sb.append("@string{jacm = \"Journal of the ACM\"}\n\n");
+        for (int i = 0; i < entries; i++) {
+            boolean article = random.nextBoolean();
+            sb.append(article ? "@article{" : "@book{").append(bibKey(i)).append(",\n");
+            sb.append("  author = {");
+            words(sb, random, 2);
+            sb.append(" and ");
+            words(sb, random, 2);
+            sb.append("},\n  title = {");
+            words(sb, random, 4 + random.nextInt(6));
+            sb.append("},\n");
+            if (article) {
+                sb.append("  journal = jacm,\n  volume = ").append(1 + random.nextInt(60)).append(",\n");
+            } else {
+                sb.append("  publisher = \"");
+                words(sb, random, 2);
+                sb.append("\",\n");
+            }
+            sb.append("  year = ").append(1950 + random.nextInt(70)).append("\n}\n\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the key of the given entry of a generated BibTeX file.
+     *
+     * @param entry The index of the entry
+     * @return The key
+     */
+    public static String bibKey(int entry) {
+        return WORDS[entry % WORDS.length] + ':' + entry;
+    }
+
+    /**
+     * Returns the output of a LaTeX run with about the given number of
+     * lines, with opened files, overfull boxes, warnings and errors.
+     *
+     * @param lines The number of lines
+     * @param seed The seed of the generated text
+     * @return The output
+     */
+    public static String latexLog(int lines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(lines * 50);
+        sb.append("This is pdfTeX, Version 3.14159265-2.6-1.40.20 (TeX Live 2019)\n");
+        sb.append("(./document.tex\nLaTeX2e <2019-10-01>\n");
+        int line = 2;
+        int page = 1;
+        while (line < lines - 1) {
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                sb.append("(./chapter").append(random.nextInt(20)).append(".tex [")
+                        .append(page++).append("])\n");
+                line++;
+            } else if (kind == 1) {
+                sb.append("Overfull \\hbox (").append(random.nextInt(50))
+                        .append(".0pt too wide) in paragraph at lines ")
+                        .append(random.nextInt(1000)).append("--").append(random.nextInt(1000))
+                        .append("\n[]\\OT1/cmr/m/n/10.95 ");
+                words(sb, random, 6);
+                sb.append("\n\n");
+                line += 3;
+            } else if (kind == 2) {
+                sb.append("LaTeX Warning: Reference `sec:").append(random.nextInt(100))
+                        .append("' on page ").append(page).append(" undefined on input line ")
+                        .append(random.nextInt(1000)).append(".\n\n");
+                line += 2;
+            } else if (kind == 3 && line < lines - 4) {
+                sb.append("! Undefined control sequence.\nl.").append(random.nextInt(1000))
+                        .append(" \\foo\n             bar\n\n");
+                line += 4;
+            } else {
+                sb.append('[').append(page++).append("] ");
+                words(sb, random, 4);
+                sb.append('\n');
+                line++;
+            }
+        }
+        sb.append(")\nOutput written on document.pdf (").append(page).append(" pages).\n");
+        return sb.toString();
+    }
+
+    /**
+     * Returns a word list with the given number of words, one per line.
+     *
+     * @param words The number of words
+     * @return The word list
+     */
+    public static String wordList(int words) {
+        StringBuilder sb = new StringBuilder(words * 10);
+        for (int i = 0; i < words; i++) {
+            sb.append(dictionaryWord(i)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the given word of a generated word list.
+     *
+     * @param index The index of the word
+     * @return The word
+     */
+    public static String dictionaryWord(int index) {
+        return WORDS[index % WORDS.length] + Integer.toString(index / WORDS.length, 26)
+                .replace('0', 'z').replace('1', 'y').replace('2', 'x').replace('3', 'w')
+                .replace('4', 'v').replace('5', 'u').replace('6', 't').replace('7', 's')
+                .replace('8', 'r').replace('9', 'q');
+    }
+
+    /**
+     * Returns words to look up from a word list of the given size, with
+     * the given share of words that are not in the list.
+     *
+     * @param count The number of words to return
+     * @param dictionarySize The size of the word list
+     * @param missing The share of words that are not in the list
+     * @param seed The seed of the choice
+     * @return The words
+     */
+    public static List<String> lookups(int count, int dictionarySize, double missing, long seed) {
+        Random random = new Random(seed);
+        List<String> words = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            String word = dictionaryWord(random.nextInt(dictionarySize));
+            if (random.nextDouble() < missing) {
+                word = word + "qq";
+            } else if (random.nextInt(10) == 0) {
+                word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+            }
+            words.add(word);
+        }
+        return words;
+    }
+
+    private static void words(StringBuilder sb, Random random, int count) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jface.text.Document;
+import org.eclipse.texlipse.model.OutlineNode;
+import org.eclipse.texlipse.model.ReferenceEntry;
+import org.eclipse.texlipse.texparser.LatexRefExtractingParser;
+import org.eclipse.texlipse.texparser.TexParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Parses generated LaTeX documents with the parser of the editor and with
+ * the parser that only extracts the references of the files that are not
+ * open.
+ *
+ * @author The TeXlipse team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class LatexParserBenchmark {
+
+    /**
+     * The number of lines of the document
+     */
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int lines;
+
+    private String document;
+    private Document input;
+
+    @Setup
+    public void setUp() {
+        document = Corpus.latex(lines, 42);
+        input = new Document(document);
+    }
+
+    @Benchmark
+    public List<OutlineNode> parseDocument() throws IOException {
+        TexParser parser = new TexParser(input);
+        parser.parseDocument(document, true);
+        return parser.getOutlineTree();
+    }
+
+    @Benchmark
+    public List<ReferenceEntry> extractReferences() throws IOException {
+        LatexRefExtractingParser parser = new LatexRefExtractingParser();
+        parser.parse(document);
+        return parser.getLabels();
+    }
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.benchmarks;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.texlipse.spelling.TexSpellDictionary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Checks the spelling of words against a generated word list, as the
+ * spell checker does for every word of a document.
+ *
+ * @author The TeXlipse team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xms1g", "-Xmx1g" })
+public class SpellBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    /**
+     * The number of words in the word list
+     */
+    @Param({ "10000", "100000", "1000000" })
+    public int words;
+
+    /**
+     * The share of the looked up words that are misspelled
+     */
+    @Param({ "0.1" })
+    public double missing;
+
+    private TexSpellDictionary dictionary;
+    private String[] lookups;
+
+    @Setup
+    public void setUp() throws IOException {
+        dictionary = new TexSpellDictionary(new StringReader(Corpus.wordList(words)));
+        List<String> list = Corpus.lookups(LOOKUPS, words, missing, 42);
+        lookups = list.toArray(new String[list.size()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void isCorrect(Blackhole bh) {
+        for (int i = 0; i < lookups.length; i++) {
+            bh.consume(dictionary.isCorrect(lookups[i]));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.texlipse.benchmarks.Corpus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Analyzes the output of generated LaTeX runs. The benchmark is in the
+ * package of the runner to reach <code>parseErrors</code>.
+ *
+ * There's no workspace, so the resource is a stub whose workspace discards
+ * the marker batches: this measures the parsing of the output, not the
+ * creation of the markers.
+ *
+ * @author The TeXlipse team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = { "-Xms2g", "-Xmx2g" })
+public class LatexLogBenchmark {
+
+    /**
+     * The number of lines of the output
+     */
+    @Param({ "1000", "10000", "100000", "1000000" })
+    public int lines;
+
+    private String output;
+    private IResource resource;
+
+    @Setup
+    public void setUp() {
+        output = Corpus.latexLog(lines, 42);
+
+        final IWorkspace workspace = stub(IWorkspace.class, null);
+        final IProject project = stub(IProject.class, workspace);
+        resource = (IResource) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { IFile.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getProject")) {
+                            return project;
+                        } else if (method.getName().equals("getWorkspace")) {
+                            return workspace;
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                });
+    }
+
+    @Benchmark
+    public boolean parseErrors() {
+        return new LatexRunner().parseErrors(resource, output);
+    }
+
+    /**
+     * Returns a stub of the given interface, whose methods do nothing.
+     */
+    private static <T> T stub(Class<T> type, final IWorkspace workspace) {
+        return type.cast(Proxy.newProxyInstance(LatexLogBenchmark.class.getClassLoader(),
+                new Class<?>[] { type }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getWorkspace")) {
+                            return workspace;
+                        }
+                        return defaultValue(proxy, method, args);
+                    }
+                }));
+    }
+
+    private static Object defaultValue(Object proxy, Method method, Object[] args) {
+        if (method.getName().equals("equals")) {
+            return proxy == args[0];
+        } else if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        } else if (method.getName().equals("toString")) {
+            return "stub";
+        }
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return Boolean.FALSE;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.bibparser;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.eclipse.texlipse.model.ReferenceEntry;
+import org.junit.Test;
+
+/**
+ * Checks that <code>BibEntryReader</code> skips @comment and @preamble
+ * blocks in braces and in parentheses.
+ *
+ * @author The TeXlipse team
+ */
+public class BibEntryReaderTest {
+
+    @Test
+    public void bracedBlocks() throws IOException {
+        assertKeys("@preamble{ \"\\newcommand{\\x}{(}\" }\n"
+                + "@comment{ an @article{skipped, title={x}} }\n"
+                + "@article{one, title={One}}\n", "one");
+    }
+
+    @Test
+    public void parenthesizedBlocks() throws IOException {
+        assertKeys("@preamble( \"\\newcommand{\\x}{)}\" )\n"
+                + "@Comment(an @article{skipped, title={x}})\n"
+                + "@article{one, title={One}}\n"
+                + "@PREAMBLE (\"(\" # \")\")\n"
+                + "@book(two, title={Two})\n", "one two");
+    }
+
+    @Test
+    public void unclosedBlock() throws IOException {
+        BibEntryReader reader = new BibEntryReader(new StringReader(
+                "@article{one, title={One}}\n@preamble( \"text\" \n"));
+        assertEquals("one", reader.next().key);
+        assertEquals(null, reader.next());
+        assertEquals(1, reader.getErrors().size());
+    }
+
+    private static void assertKeys(String input, String keys) throws IOException {
+        BibEntryReader reader = new BibEntryReader(new StringReader(input));
+        StringBuilder sb = new StringBuilder();
+        for (ReferenceEntry entry = reader.next(); entry != null; entry = reader.next()) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(entry.key);
+        }
+        assertEquals(input, keys, sb.toString());
+        assertEquals(input, 0, reader.getErrors().size());
+    }
+}
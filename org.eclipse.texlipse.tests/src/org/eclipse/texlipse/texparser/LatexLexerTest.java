@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.texparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.texlipse.texparser.lexer.LexerException;
+import org.eclipse.texlipse.texparser.node.EOF;
+import org.eclipse.texlipse.texparser.node.Token;
+import org.junit.Test;
+
+/**
+ * Compares the tokens of <code>LatexLexer</code> with the token streams
+ * recorded in the <code>lexer</code> folder. The streams were recorded
+ * with the lexer that read its input through a <code>PushbackReader</code>,
+ * so the lexer reading the input in place must produce the same tokens,
+ * positions and errors.
+ *
+ * @author The TeXlipse team
+ */
+public class LatexLexerTest {
+
+    @Test
+    public void templates() throws IOException {
+        assertTokens("article");
+        assertTokens("beamer");
+    }
+
+    @Test
+    public void generatedDocument() throws IOException {
+        assertTokens("generated");
+    }
+
+    @Test
+    public void arguments() throws IOException {
+        assertTokens("arguments");
+        assertTokens("argument-unclosed");
+        assertTokens("optargument-unclosed");
+    }
+
+    @Test
+    public void commands() throws IOException {
+        assertTokens("commands");
+        assertTokens("commands-misc");
+    }
+
+    @Test
+    public void verbatim() throws IOException {
+        assertTokens("verbatim");
+        assertTokens("verbatim-mismatch");
+        assertTokens("verbatim-unclosed");
+        assertTokens("verb-unclosed");
+    }
+
+    @Test
+    public void lineEnds() throws IOException {
+        assertTokens("line-ends");
+    }
+
+    @Test
+    public void unicode() throws IOException {
+        assertTokens("unicode");
+    }
+
+    private static void assertTokens(String name) throws IOException {
+        String input = read(name + ".tex");
+        assertEquals(name, read(name + ".tokens"), tokenize(input));
+    }
+
+    /**
+     * Returns the tokens of the input, one per line with the type, the
+     * line, the column and the text of the token. The line terminators
+     * and tabs in the text are escaped. If the lexer fails, the last line
+     * is its error message.
+     *
+     * @param input The input
+     * @return The tokens
+     */
+    static String tokenize(CharSequence input) {
+        StringBuilder sb = new StringBuilder();
+        LatexLexer lexer = new LatexLexer(input);
+        try {
+            for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
+                sb.append(t.getClass().getSimpleName()).append(' ').append(t.getLine())
+                    .append(':').append(t.getPos()).append(' ');
+                escape(sb, t.getText());
+                sb.append('\n');
+            }
+        } catch (LexerException e) {
+            sb.append("! ").append(e.getMessage()).append('\n');
+        } catch (IOException e) {
+            sb.append("! ").append(e).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void escape(StringBuilder sb, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            case '\f':
+                sb.append("\\f");
+                break;
+            default:
+                sb.append(c);
+            }
+        }
+    }
+
+    private static String read(String name) throws IOException {
+        InputStream in = LatexLexerTest.class.getResourceAsStream("lexer/" + name);
+        assertNotNull(name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buff = new byte[8192];
+            int len;
+            while ((len = in.read(buff)) != -1) {
+                out.write(buff, 0, len);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.texparser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.texlipse.model.DocumentReference;
+import org.eclipse.texlipse.model.OutlineNode;
+import org.eclipse.texlipse.model.ReferenceEntry;
+import org.eclipse.texlipse.model.TexCommandEntry;
+import org.junit.Test;
+
+/**
+ * Checks that parsing only the changed sectioning unit with
+ * <code>TexParser.parseChangedLines</code> gives the same results as
+ * parsing the whole changed document.
+ *
+ * @author The TeXlipse team
+ */
+public class TexParserTest {
+
+    private static final String DOCUMENT =
+        "\\documentclass{article}\n" +
+        "\\newcommand{\\foo}[1]{#1}\n" +
+        "\\begin{document}\n" +
+        "\\section{One}\n" +
+        "Text of one, see \\ref{two}.\n" +
+        "\\label{one}\n" +
+        "\n" +
+        "\\section{Two}\n" +
+        "First line of two.\n" +
+        "\\label{two}\n" +
+        "Middle of two \\cite{key}.\n" +
+        "\\begin{itemize}\n" +
+        "\\item \\foo{x}\n" +
+        "\\end{itemize}\n" +
+        "Last line of two.\n" +
+        "\n" +
+        "\\section{Three}\n" +
+        "\\label{three}\n" +
+        "After \\ref{one}.\n" +
+        "\\subsection{Four}\n" +
+        "\\label{four}\n" +
+        "\\end{document}\n";
+
+    @Test
+    public void editInsideUnit() throws Exception {
+        assertIncrementalParse("Middle of two", "Middle\nof\ntwo");
+        assertIncrementalParse("Middle of two \\cite{key}.\n", "");
+    }
+
+    @Test
+    public void editAtStartOfUnit() throws Exception {
+        // the label before the unit has the first lines of the unit in its info
+        assertIncrementalParse("First line of two.", "First line\nof two.");
+        assertIncrementalParse("First line of two.\n", "");
+        assertIncrementalParse("First line", "Changed line");
+    }
+
+    @Test
+    public void editAtEndOfUnit() throws Exception {
+        // the labels after the unit have the last lines of the unit in their
+        // info and are moved
+        assertIncrementalParse("Last line of two.", "Last\nline\nof two.");
+        assertIncrementalParse("Last line of two.\n", "");
+        assertIncrementalParse("Last line", "Changed line");
+    }
+
+    @Test
+    public void editInLastUnit() throws Exception {
+        assertIncrementalParse("After", "After\nall,");
+    }
+
+    /**
+     * Parses the document, replaces the first occurrence of the given text
+     * and checks that parsing the changed lines gives the same results as
+     * parsing the changed document.
+     */
+    private static void assertIncrementalParse(String find, String replacement)
+            throws IOException, BadLocationException {
+        IDocument document = new Document(DOCUMENT);
+        TexParser parser = new TexParser(document);
+        parser.parseDocument(false);
+        // sets the infos of the labels like the document model does
+        parser.getLabels();
+
+        int offset = DOCUMENT.indexOf(find);
+        int firstLine = document.getLineOfOffset(offset);
+        int lastLine = document.getLineOfOffset(offset + find.length());
+        document.replace(offset, find.length(), replacement);
+        int lineDelta = document.computeNumberOfLines(replacement) - (lastLine - firstLine);
+        assertTrue("the change is parsed incrementally",
+                parser.parseChangedLines(firstLine + 1, lastLine + 1, lineDelta));
+
+        TexParser full = new TexParser(new Document(document.get()));
+        full.parseDocument(false);
+        assertEquals(find, describe(full), describe(parser));
+    }
+
+    /**
+     * @return The results of the parser as text
+     */
+    private static String describe(TexParser parser) {
+        StringBuilder sb = new StringBuilder();
+        describeNodes(sb, parser.getOutlineTree(), "");
+        for (ReferenceEntry label : parser.getLabels()) {
+            sb.append("label ").append(label.key).append(' ').append(label.startLine)
+                .append(" [").append(label.info).append("]\n");
+        }
+        describeReferences(sb, "ref", parser.getRefs());
+        describeReferences(sb, "cite", parser.getCites());
+        describeReferences(sb, "begin", parser.getEnvironmentBegins());
+        describeReferences(sb, "end", parser.getEnvironmentEnds());
+        for (TexCommandEntry command : parser.getCommands()) {
+            sb.append("command ").append(command.key).append(' ').append(command.startLine)
+                .append('\n');
+        }
+        sb.append("errors ").append(parser.getErrors().size())
+            .append(", tasks ").append(parser.getTasks().size()).append('\n');
+        return sb.toString();
+    }
+
+    private static void describeNodes(StringBuilder sb, List<OutlineNode> nodes, String indent) {
+        for (OutlineNode node : nodes) {
+            sb.append(indent).append(node.getType()).append(' ').append(node.getName())
+                .append(' ').append(node.getBeginLine()).append('-').append(node.getEndLine())
+                .append('\n');
+            if (node.getChildren() != null) {
+                describeNodes(sb, node.getChildren(), indent + "  ");
+            }
+        }
+    }
+
+    private static void describeReferences(StringBuilder sb, String kind,
+            List<DocumentReference> refs) {
+        for (DocumentReference ref : refs) {
+            sb.append(kind).append(' ').append(ref.getKey()).append(' ').append(ref.getLine())
+                .append(':').append(ref.getPos()).append('\n');
+        }
+    }
+}
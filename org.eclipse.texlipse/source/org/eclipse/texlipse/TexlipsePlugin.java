@@ -17,8 +17,10 @@ import java.util.ResourceBundle;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.jface.text.templates.ContextTypeRegistry;
 import org.eclipse.jface.text.templates.persistence.TemplateStore;
@@ -28,6 +30,7 @@ import org.eclipse.texlipse.bibeditor.BibCodeScanner;
 import org.eclipse.texlipse.bibeditor.BibColorProvider;
 import org.eclipse.texlipse.bibeditor.BibEntryScanner;
 import org.eclipse.texlipse.properties.StringListFieldEditor;
+import org.eclipse.texlipse.spelling.TexSpellingEngine;
 import org.eclipse.texlipse.templates.BibTexContextType;
 import org.eclipse.texlipse.templates.TexContextType;
 import org.eclipse.ui.IEditorInput;
@@ -105,6 +108,17 @@ public class TexlipsePlugin extends AbstractUIPlugin {
      */
     public void start(BundleContext context) throws Exception {
         super.start(context);
+        
+        // load the spelling dictionaries of the open projects before
+        // the first editor needs them
+        Job preload = new Job("Loading dictionaries") {
+            protected IStatus run(IProgressMonitor monitor) {
+                TexSpellingEngine.preloadDictionaries();
+                return Status.OK_STATUS;
+            }
+        };
+        preload.setSystem(true);
+        preload.schedule();
     }
     
     /**
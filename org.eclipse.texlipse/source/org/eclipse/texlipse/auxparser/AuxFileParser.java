@@ -10,29 +10,33 @@
  *******************************************************************************/
 package org.eclipse.texlipse.auxparser;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
-import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.properties.TexlipseProperties;
-import org.eclipse.texlipse.texparser.LatexLexer;
-import org.eclipse.texlipse.texparser.node.EOF;
-import org.eclipse.texlipse.texparser.node.TArgument;
-import org.eclipse.texlipse.texparser.node.TCcite;
-import org.eclipse.texlipse.texparser.node.TCsymbol;
-import org.eclipse.texlipse.texparser.node.TCword;
-import org.eclipse.texlipse.texparser.node.TWord;
-import org.eclipse.texlipse.texparser.node.Token;
 
 /**
- * Extracts information from the .aux file which is created by a latex run. 
- * If \include is used, several .aux-files exist. They are parsed recursively. 
+ * Extracts information from the .aux file which is created by a latex run.
+ * If \include is used, several .aux-files exist. They are parsed recursively.
  *
  * At the moment, this information is used to
  *
@@ -43,22 +47,53 @@ import org.eclipse.texlipse.texparser.node.Token;
  *    does not find them
  *
  * further use cases are possible ...
- * 
+ *
+ * Each .aux-file is read once and everything is extracted from it in the
+ * same pass. The results are cached by the modification time of the file,
+ * so that the .aux-files of unchanged chapters are not read again on the
+ * next build. Only the most recently used files are kept. The .aux-files
+ * included with \@input are read concurrently.
+ *
  * @author Frank Lehrieder
  *
  */
 public class AuxFileParser {
 
+    /**
+     * The maximum number of parsed .aux-files to keep
+     */
+    private static final int CACHE_SIZE = 256;
+
+    /**
+     * The parsed .aux-files by their location, least recently used first
+     */
+    private static final Map<String, AuxFile> cache = Collections.synchronizedMap(
+            new LinkedHashMap<String, AuxFile>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                protected boolean removeEldestEntry(Map.Entry<String, AuxFile> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            });
+
+    private static ExecutorService pool;
+
     /**
      * The corresponding project
      */
     private IProject project;
 
-    /** 
+    /**
      * The .aux-file of the main document
      */
     private String rootAuxfile;
 
+    /**
+     * The contents of all .aux-files, or null if not parsed yet
+     */
+    private List<String> citations;
+    private List<ReferenceEntry> labels;
+
     public AuxFileParser(IProject project, String auxFile) {
         this.project = project;
         this.rootAuxfile = auxFile;
@@ -72,89 +107,307 @@ public class AuxFileParser {
         return rootAuxfile;
     }
 
+    /**
+     * @return a list of all cited keys in the order of the citations
+     */
     public List<String> getCitations() {
-        return doParse(rootAuxfile, "\\citation");
+        parse();
+        return citations;
     }
 
     /**
      * @return a list of all labels in the aux-file as
-     * <code>ReferenceEntry</code>
+     * <code>ReferenceEntry</code>, with the number and page of the label
+     * as info
      */
     public List<ReferenceEntry> getLabels() {
-        List<String> labels = doParse(rootAuxfile, "\\newlabel");
-        List<ReferenceEntry> result = new LinkedList<ReferenceEntry>();
-        for (String key : labels) {
-            result.add(new ReferenceEntry(key, "No info available"));
+        parse();
+        return labels;
+    }
+
+    /**
+     * Reads the root .aux-file and the files it includes, and collects
+     * their contents.
+     */
+    private synchronized void parse() {
+        if (citations != null) {
+            return;
+        }
+        citations = new ArrayList<String>();
+        labels = new LinkedList<ReferenceEntry>();
+
+        IFile root = project.getFile(rootAuxfile);
+        Map<IPath, AuxFile> files = readAll(root);
+        collect(root.getFullPath(), root.getParent().getFullPath(), files, new HashSet<IPath>());
+    }
+
+    /**
+     * Adds the contents of the given file and the files it includes to the
+     * results, in the order latex has read them.
+     *
+     * @param path the file to add
+     * @param dir the directory latex was run in
+     * @param files the parsed files
+     * @param visited the files added so far, to guard against cycles
+     */
+    private void collect(IPath path, IPath dir, Map<IPath, AuxFile> files, Set<IPath> visited) {
+        AuxFile aux = files.get(path);
+        if (aux == null || !visited.add(path)) {
+            return;
+        }
+        int cited = 0;
+        for (int i = 0; i < aux.inputs.size(); i++) {
+            // the citations before the \@input belong before the included ones
+            int pos = aux.inputPositions.get(i).intValue();
+            citations.addAll(aux.citations.subList(cited, pos));
+            cited = pos;
+            collect(dir.append(aux.inputs.get(i)), dir, files, visited);
+        }
+        citations.addAll(aux.citations.subList(cited, aux.citations.size()));
+        for (Map.Entry<String, String> label : aux.labels.entrySet()) {
+            labels.add(new ReferenceEntry(label.getKey(), label.getValue()));
+        }
+    }
+
+    /**
+     * Reads the given file and all files included in it. The files of one
+     * level of inclusion are read concurrently.
+     *
+     * @param root the root .aux-file
+     * @return the parsed files by their workspace path
+     */
+    private static Map<IPath, AuxFile> readAll(IFile root) {
+        Map<IPath, AuxFile> files = new LinkedHashMap<IPath, AuxFile>();
+        // the names of the included files are relative to the directory latex runs in
+        IPath dir = root.getParent().getFullPath();
+        Set<IPath> seen = new HashSet<IPath>();
+        seen.add(root.getFullPath());
+        List<IFile> level = Collections.singletonList(root);
+        while (!level.isEmpty()) {
+            List<AuxFile> parsed = read(level);
+            List<IFile> next = new ArrayList<IFile>();
+            for (int i = 0; i < level.size(); i++) {
+                AuxFile aux = parsed.get(i);
+                if (aux == null) {
+                    continue;
+                }
+                files.put(level.get(i).getFullPath(), aux);
+                for (String name : aux.inputs) {
+                    IPath input = dir.append(name);
+                    if (seen.add(input)) {
+                        next.add(root.getWorkspace().getRoot().getFile(input));
+                    }
+                }
+            }
+            level = next;
+        }
+        return files;
+    }
+
+    /**
+     * Reads the given files, concurrently if there are several of them.
+     *
+     * @param files the .aux-files
+     * @return the parsed files in the same order, null for the files that
+     *  could not be read
+     */
+    private static List<AuxFile> read(List<IFile> files) {
+        List<AuxFile> result = new ArrayList<AuxFile>(files.size());
+        if (files.size() == 1) {
+            result.add(getAuxFile(files.get(0)));
+            return result;
+        }
+        List<Future<AuxFile>> futures = new ArrayList<Future<AuxFile>>(files.size());
+        for (final IFile file : files) {
+            futures.add(getPool().submit(new Callable<AuxFile>() {
+                public AuxFile call() {
+                    return getAuxFile(file);
+                }
+            }));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                result.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.add(null);
+            } catch (ExecutionException e) {
+                TexlipsePlugin.log("Could not parse .aux-file " + files.get(i), e.getCause());
+                result.add(null);
+            }
         }
         return result;
     }
 
     /**
-     * Parses <code>input</code> and collects all tokens which follow the given
-     * <code>command</code>. Used to extract e.g., labels, citations, bibcites
+     * Returns the shared pool for reading included .aux-files, creating it
+     * if necessary. The threads are daemons, so the pool doesn't need to be
+     * shut down.
      *
-     * @param filename name of the file to be parsed
-     * @param command
-     * @return list of Strings following the given command
+     * @return the pool
      */
-    private List<String> doParse(String filename, String command) {
-        IResource auxFile = project.getFile(filename);
-        String input = null;
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TeXlipse aux-file reader");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
 
+    /**
+     * Returns the parsed contents of the given file, from the cache if the
+     * file hasn't changed since it was last read.
+     *
+     * @param auxFile the .aux-file
+     * @return the contents, or null if the file couldn't be read
+     */
+    private static AuxFile getAuxFile(IFile auxFile) {
+        if (auxFile.getLocation() == null) {
+            return null;
+        }
+        File f = auxFile.getLocation().toFile();
+        String key = f.getAbsolutePath();
+        long modified = f.lastModified();
+        long length = f.length();
+        AuxFile cached = cache.get(key);
+        if (cached != null && cached.modified == modified && cached.length == length) {
+            return cached;
+        }
+
+        String input = null;
         try {
             input = TexlipseProperties.getFileContents(auxFile);
         } catch (IOException e) {
             TexlipsePlugin.log("Could not parse .aux-file " + auxFile, e);
-            return new LinkedList<String>();
         }
+        if (input == null) {
+            cache.remove(key);
+            return null;
+        }
+        AuxFile aux = new AuxFile(modified, length);
+        aux.parse(input);
+        cache.put(key, aux);
+        return aux;
+    }
+
+    /**
+     * The contents of a single .aux-file
+     */
+    private static final class AuxFile {
 
-        LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
-        Token prevCommand = null;
-        Token prevSymbol = null;
-        Token prevText = null;
-        List<String> results = new LinkedList<String>();
+        private final long modified;
+        private final long length;
 
-        try {
-            for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) {
-                // extract the strings following <code>command</code>
-                if (prevCommand == null) {
-                    if ((t instanceof TCword || t instanceof TCcite)
-                            && t.getText().equalsIgnoreCase(command)) {
-                        prevCommand = t;
-                    }
-                } else {
-                    if (t instanceof TWord || t instanceof TArgument) {
-                        if (command.equalsIgnoreCase(prevCommand.getText())) {
-                            results.add(t.getText());
-                            prevCommand = null;
-                        } 
-                    }
-                }
+        private final List<String> citations = new ArrayList<String>();
+        // the label keys with their number and page
+        private final Map<String, String> labels = new LinkedHashMap<String, String>();
+        // the included files and the number of citations before each of them
+        private final List<String> inputs = new ArrayList<String>();
+        private final List<Integer> inputPositions = new ArrayList<Integer>();
 
-                // look for additional .aux-files and parse them
-                if (prevText != null) {
-                    if (prevText.getText().equalsIgnoreCase("input") &&
-                            t instanceof TWord) {
-                        prevText = null;   
-                        String newAuxFileName = t.getText();
-                        results.addAll(doParse(newAuxFileName, command));
-                    }
+        private AuxFile(long modified, long length) {
+            this.modified = modified;
+            this.length = length;
+        }
+
+        /**
+         * Extracts the citations, labels and included files from
+         * the given contents of the .aux-file.
+         *
+         * @param input the contents of the file
+         */
+        private void parse(String input) {
+            int len = input.length();
+            int i = input.indexOf('\\');
+            while (i >= 0 && i < len) {
+                int start = i + 1;
+                int end = start;
+                while (end < len && (Character.isLetter(input.charAt(end)) || input.charAt(end) == '@')) {
+                    end++;
                 }
-                if (prevSymbol == null) {
-                    if (t instanceof TCsymbol) {
-                        prevSymbol = t;
+                String command = input.substring(start, end);
+                int[] next = new int[] { end };
+                if ("citation".equals(command)) {
+                    String arg = argument(input, next);
+                    if (arg != null) {
+                        for (String key : arg.split(",")) {
+                            key = key.trim();
+                            if (key.length() > 0) {
+                                citations.add(key);
+                            }
+                        }
                     }
-                } else {
-                    if (prevSymbol.getText().equals("\\@")) {
-                        prevText = t;
+                } else if ("newlabel".equals(command)) {
+                    String key = argument(input, next);
+                    if (key != null) {
+                        labels.put(key, labelInfo(argument(input, next)));
+                    }
+                } else if ("@input".equals(command)) {
+                    String name = argument(input, next);
+                    if (name != null) {
+                        inputs.add(name.trim());
+                        inputPositions.add(Integer.valueOf(citations.size()));
                     }
-                    prevSymbol = null;
                 }
+                i = input.indexOf('\\', Math.max(next[0], start));
             }
-        } catch (Exception e) {
-            // do nothing
         }
-        return results;
-    }
 
-}
\ No newline at end of file
+        /**
+         * @param value the second argument of \newlabel
+         * @return the number and page of the label as a readable text
+         */
+        private static String labelInfo(String value) {
+            if (value == null) {
+                return "No info available";
+            }
+            int[] pos = new int[] { 0 };
+            String number = argument(value, pos);
+            String page = argument(value, pos);
+            if (number == null || number.length() == 0) {
+                return page != null && page.length() > 0 ? "Page " + page : "No info available";
+            }
+            return page != null && page.length() > 0 ? number + ", page " + page : number;
+        }
+
+        /**
+         * Reads a brace delimited argument, skipping whitespace before it.
+         *
+         * @param input the text
+         * @param pos the position to start at; updated to the position after
+         *  the argument
+         * @return the argument without the outer braces, or null if there
+         *  is no argument at the position
+         */
+        private static String argument(String input, int[] pos) {
+            int i = pos[0];
+            int len = input.length();
+            while (i < len && Character.isWhitespace(input.charAt(i))) {
+                i++;
+            }
+            if (i >= len || input.charAt(i) != '{') {
+                return null;
+            }
+            int depth = 0;
+            for (int j = i; j < len; j++) {
+                char c = input.charAt(j);
+                if (c == '\\') {
+                    // skip escaped braces
+                    j++;
+                } else if (c == '{') {
+                    depth++;
+                } else if (c == '}' && --depth == 0) {
+                    pos[0] = j + 1;
+                    return input.substring(i + 1, j);
+                }
+            }
+            return null;
+        }
+    }
+}
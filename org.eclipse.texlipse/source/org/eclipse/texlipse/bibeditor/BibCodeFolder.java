@@ -12,12 +12,14 @@ package org.eclipse.texlipse.bibeditor;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 
 import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.model.ReferenceEntry;
@@ -33,8 +35,11 @@ public class BibCodeFolder {
     
     private BibEditor editor;
     private ProjectionAnnotationModel model;
-    private ArrayList oldNodes;
-    //private ArrayList<TexProjectionAnnotation> oldNodes;
+    
+    /**
+     * The annotations of the entries of the last update
+     */
+    private Map<ReferenceEntry, BibProjectionAnnotation> annotations;
     
     private boolean firstRun;
     
@@ -46,6 +51,7 @@ public class BibCodeFolder {
     public BibCodeFolder(BibEditor editor) {
         this.editor = editor;
         this.firstRun = true;
+        this.annotations = new IdentityHashMap<ReferenceEntry, BibProjectionAnnotation>();
     }
     
     /**
@@ -60,6 +66,52 @@ public class BibCodeFolder {
         }
     }
     
+    /**
+     * Updates the code folds of the changed entries. An entry that was
+     * replaced by an entry with the same key keeps its fold.
+     * 
+     * @param outline All the entries after the change
+     * @param removed The entries that were removed
+     * @param added The entries that were added
+     */
+    public void update(List<ReferenceEntry> outline, List<ReferenceEntry> removed,
+            List<ReferenceEntry> added) {
+        model = (ProjectionAnnotationModel)editor.getAdapter(ProjectionAnnotationModel.class);
+        if (model == null) {
+            return;
+        }
+        if (firstRun) {
+            this.addMarks(outline);
+            return;
+        }
+        Map<String, BibProjectionAnnotation> old = new HashMap<String, BibProjectionAnnotation>();
+        List<Annotation> deletions = new ArrayList<Annotation>();
+        for (ReferenceEntry re : removed) {
+            BibProjectionAnnotation annotation = annotations.remove(re);
+            if (annotation != null) {
+                // only one of the entries with a duplicate key is kept
+                BibProjectionAnnotation duplicate = old.put(re.key, annotation);
+                if (duplicate != null) {
+                    deletions.add(duplicate);
+                }
+            }
+        }
+        Map<Annotation, Position> additions = new HashMap<Annotation, Position>();
+        for (ReferenceEntry re : added) {
+            BibProjectionAnnotation annotation = old.remove(re.key);
+            if (annotation == null) {
+                annotation = new BibProjectionAnnotation(re);
+                additions.put(annotation, re.position);
+            }
+            annotations.put(re, annotation);
+        }
+        deletions.addAll(old.values());
+        if (!deletions.isEmpty() || !additions.isEmpty()) {
+            model.modifyAnnotations(deletions.toArray(new Annotation[deletions.size()]),
+                    additions, null);
+        }
+    }
+    
     /**
      * Manages adding and removing the folding marks from the editor.
      * 
@@ -73,42 +125,34 @@ public class BibCodeFolder {
             model.modifyAnnotations(null, map, null);
             firstRun = false;	
         } else {
-            oldNodes = new ArrayList();
-            
-            // save old nodes
+            // the old annotations by key, the ones left over are removed
+            Map<String, BibProjectionAnnotation> oldNodes = new HashMap<String, BibProjectionAnnotation>();
+            List<BibProjectionAnnotation> deletes = new ArrayList<BibProjectionAnnotation>();
             for (Iterator iter = model.getAnnotationIterator(); iter.hasNext();) {
-                oldNodes.add((BibProjectionAnnotation) iter.next());
+                BibProjectionAnnotation annotation = (BibProjectionAnnotation) iter.next();
+                BibProjectionAnnotation duplicate = oldNodes.put(annotation.getNode().key, annotation);
+                if (duplicate != null) {
+                    deletes.add(duplicate);
+                }
             }
             
-            markTreeNodes(outline);
-            
-            BibProjectionAnnotation[] deletes = new BibProjectionAnnotation[oldNodes.size()];
-            oldNodes.toArray(deletes);
-            model.modifyAnnotations(deletes, null, null);
-        }
-    }
-    
-    /**
-     * Adds new folding markers for positions that do not yet have markers.
-     * 
-     * @param outline The outline data structure containing the document positions
-     */
-    private void markTreeNodes(List outline) {
-        markloop:
+            Map<ReferenceEntry, BibProjectionAnnotation> newAnnotations =
+                new IdentityHashMap<ReferenceEntry, BibProjectionAnnotation>();
+            Map<Annotation, Position> additions = new HashMap<Annotation, Position>();
             for (ListIterator iter = outline.listIterator(); iter.hasNext();) {
                 ReferenceEntry re = (ReferenceEntry) iter.next();
-                
-                Position pos = re.position;
-                for (ListIterator li2 = oldNodes.listIterator(); li2.hasNext();) {
-                    BibProjectionAnnotation cAnnotation = (BibProjectionAnnotation) li2.next();
-                    if (cAnnotation.isSame(re)) {
-                        oldNodes.remove(cAnnotation);
-                        //                    model.modifyAnnotationPosition(cAnnotation, pos);
-                        continue markloop;
-                    }
+                BibProjectionAnnotation annotation = oldNodes.remove(re.key);
+                if (annotation == null) {
+                    annotation = new BibProjectionAnnotation(re);
+                    additions.put(annotation, re.position);
                 }
-                model.addAnnotation(new BibProjectionAnnotation(re), pos);
+                newAnnotations.put(re, annotation);
             }
+            annotations = newAnnotations;
+            
+            deletes.addAll(oldNodes.values());
+            model.modifyAnnotations(deletes.toArray(new Annotation[deletes.size()]), additions, null);
+        }
     }
     
     /**
@@ -119,6 +163,7 @@ public class BibCodeFolder {
      * @param fold Whether entries should be set as folded or not
      */
     private void fillAnnotationMap(List documentTree, Map map, boolean fold) {
+        annotations.clear();
         for (ListIterator iter = documentTree.listIterator(); iter.hasNext();) {
             ReferenceEntry node = (ReferenceEntry) iter.next();
             
@@ -126,6 +171,7 @@ public class BibCodeFolder {
             
             BibProjectionAnnotation tpa = new BibProjectionAnnotation(node, fold);
             map.put(tpa, pos);
+            annotations.put(node, tpa);
         }
     }
 }
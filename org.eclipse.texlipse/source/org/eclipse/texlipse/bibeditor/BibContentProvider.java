@@ -13,9 +13,7 @@ package org.eclipse.texlipse.bibeditor;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.eclipse.jface.text.DefaultPositionUpdater;
 import org.eclipse.jface.text.IDocument;
-import org.eclipse.jface.text.IPositionUpdater;
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.Viewer;
 import org.eclipse.texlipse.bibparser.BibOutlineContainer;
@@ -29,7 +27,6 @@ import org.eclipse.texlipse.model.ReferenceEntry;
  */
 public class BibContentProvider implements ITreeContentProvider {
     
-    private IPositionUpdater fPositionUpdater = new DefaultPositionUpdater(BibOutlinePage.SEGMENTS);
     private Map contentIndex = new HashMap();
     private BibOutlineContainer content;
     private String sortBy = BibOutlineContainer.SORTNATURAL;
@@ -59,9 +56,6 @@ public class BibContentProvider implements ITreeContentProvider {
                     content = changeSort(sortBy);
                 }
             }
-            if (document != null) {
-                document.addPositionUpdater(fPositionUpdater);
-            }
         }
     }
     
@@ -118,6 +112,18 @@ public class BibContentProvider implements ITreeContentProvider {
         return new Object[0];
     }
     
+    /**
+     * Removes the sortings built from the naturally sorted entries, after
+     * the entries have been changed.
+     */
+    public void clearSortings() {
+        Object natural = contentIndex.get(BibOutlineContainer.SORTNATURAL);
+        contentIndex.clear();
+        if (natural != null) {
+            contentIndex.put(BibOutlineContainer.SORTNATURAL, natural);
+        }
+    }
+    
     /**
      * Change the Bibtex field by which the outline should be indexed
      * @param sBy sBy specifies the field by which the outline should be ordered
@@ -12,16 +12,25 @@ package org.eclipse.texlipse.bibeditor;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.DefaultPositionUpdater;
+import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.eclipse.jface.text.Position;
 import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.bibparser.BibEntryReader;
 import org.eclipse.texlipse.bibparser.BibOutlineContainer;
 import org.eclipse.texlipse.bibparser.BibParser;
 import org.eclipse.texlipse.editor.TexDocumentParseException;
@@ -35,126 +44,413 @@ import org.eclipse.ui.part.FileEditorInput;
 
 /**
  * Document model for the BibTeX -editor.
- * 
+ *
+ * The document is parsed completely when it is opened. After that, only
+ * the entries touched by the edits since the last update are parsed
+ * again, and the entries that were removed and added are passed on to
+ * the reference container, the outline and the code folder. The whole
+ * document is parsed again if an abbreviation (@string) may have changed
+ * or the changed entries contain errors.
+ *
+ * The warnings about duplicate keys and missing cross references
+ * between the parsed entries and the rest of the document are those of
+ * the last parse of each entry.
+ *
  * @author Oskar Ojala
  */
 public class BibDocumentModel {
-    
+
+    /**
+     * Matches the start of an abbreviation definition
+     */
+    private static final Pattern STRING_START = Pattern.compile("@\\s*string", Pattern.CASE_INSENSITIVE);
+
     private BibEditor editor;
-    private List entryList;    
-    private List abbrevs;
+    private List<ReferenceEntry> entryList;
+    private List<ReferenceEntry> abbrevs;
     private AbbrevManager abbrManager;
-    
+
     private ReferenceContainer bibContainer;
-    
+
+    /**
+     * The abbreviations defined in the document, for parsing the changed
+     * entries
+     */
+    private Map<String, String> abbrevMap;
+    private List<ParseErrorMessage> warnings;
+    private List<ParseErrorMessage> tasks;
+
+    /**
+     * The document being tracked, with the positions of the entries and
+     * abbreviations in the <code>BibOutlinePage.SEGMENTS</code> category
+     */
+    private IDocument document;
+    private final IPositionUpdater positionUpdater = new DefaultPositionUpdater(BibOutlinePage.SEGMENTS);
+
+    /**
+     * The region changed since the last update, -1 if there are no changes
+     */
+    private int dirtyStart = -1;
+    private int dirtyEnd;
+
+    /**
+     * The outline page that was last updated
+     */
+    private BibOutlinePage updatedOutline;
+
+    private final IDocumentListener documentListener = new IDocumentListener() {
+        public void documentAboutToBeChanged(DocumentEvent event) {
+        }
+
+        public void documentChanged(DocumentEvent event) {
+            int start = event.getOffset();
+            int oldEnd = start + event.getLength();
+            int end = start + (event.getText() == null ? 0 : event.getText().length());
+            if (dirtyStart < 0) {
+                dirtyStart = start;
+                dirtyEnd = end;
+            } else {
+                int delta = end - oldEnd;
+                dirtyStart = Math.min(dirtyStart >= oldEnd ? dirtyStart + delta : dirtyStart, start);
+                dirtyEnd = Math.max(dirtyEnd >= oldEnd ? dirtyEnd + delta : Math.min(dirtyEnd, start), end);
+            }
+        }
+    };
+
     /**
      * Constructs a new document model.
-     * 
+     *
      * @param editor The editor that this model is associated with.
      */
     public BibDocumentModel(BibEditor editor) {
         this.editor = editor;
         abbrManager = new AbbrevManager();
     }
-    
+
     /**
      * @return Returns the abbrManager.
      */
     public AbbrevManager getAbbrManager() {
         return abbrManager;
     }
-    
+
     /**
      * Parses the BibTeX -document and retrieves parse errors and other useful
      * data.
-     * 
+     *
      * @throws TexDocumentParseException
      *             If there is an error in the document preventing further
      *             parsing
      */
     private void doParse() throws TexDocumentParseException {
         try {
-            BibParser parser = new BibParser(new StringReader(this.editor.getDocumentProvider().getDocument(this.editor.getEditorInput()).get()));
-            
+            dirtyStart = -1;
+            BibParser parser = new BibParser(new StringReader(document.get()));
+
             this.entryList = parser.getEntries();
-            
+
             List<ParseErrorMessage> parseErrors = parser.getErrors();
             List parseWarnings = parser.getWarnings();
             List tasks = parser.getTasks();
-            
-            MarkerHandler marker = MarkerHandler.getInstance();
-            marker.clearErrorMarkers(editor);
+
+            MarkerHandler.MarkerUpdate markers = MarkerHandler.getInstance().beginUpdate(editor, true);
             if (parseErrors.size() > 0) {
-                marker.createErrorMarkers(editor, parseErrors);                
+                markers.addErrors(parseErrors);
+                markers.apply();
                 throw new TexDocumentParseException("Fatal errors in file");
             }
-            if (parseWarnings.size() > 0) {
-                marker.createErrorMarkers(editor, parseWarnings);                
-            }
-            if (tasks.size() > 0) {
-                marker.createTaskMarkers(editor, tasks);
-            }
-            
+            markers.addErrors(parseWarnings);
+            markers.addTasks(tasks);
+            markers.apply();
+            this.warnings = new ArrayList<ParseErrorMessage>(parseWarnings);
+            this.tasks = new ArrayList<ParseErrorMessage>(tasks);
+
             this.abbrevs = parser.getAbbrevs();
+            this.abbrevMap = new HashMap<String, String>();
+            for (ReferenceEntry abbrev : abbrevs) {
+                abbrevMap.put(abbrev.key, abbrev.info);
+            }
         } catch (IOException e) {
             TexlipsePlugin.log("Can't read file.", e);
             throw new TexDocumentParseException(e);
         }
     }
-    
+
+    /**
+     * Parses the entries touched by the changes since the last update
+     * and updates the model with them.
+     *
+     * @return False if the whole document needs to be parsed
+     */
+    private boolean doIncrementalParse() {
+        if (dirtyStart < 0) {
+            return true;
+        }
+        try {
+            // the untouched entries before and after the changes
+            int n = entryList.size();
+            int prefix = 0;
+            while (prefix < n && isBefore(entryList.get(prefix).position, dirtyStart)) {
+                prefix++;
+            }
+            // the position of the last entry may not include its last
+            // line, see updateDocumentPositions()
+            if (prefix == n && n > 0) {
+                prefix--;
+            }
+            int suffix = n;
+            while (suffix > prefix && isAfter(entryList.get(suffix - 1).position, dirtyEnd)) {
+                suffix--;
+            }
+            int regionStart = prefix > 0 ? end(entryList.get(prefix - 1).position) : 0;
+            int regionEnd = suffix < n ? entryList.get(suffix).position.getOffset() : document.getLength();
+            if (regionEnd < regionStart) {
+                return false;
+            }
+
+            // the abbreviations are expanded in the entries, so they must
+            // stay the same
+            for (ReferenceEntry abbrev : abbrevs) {
+                Position p = abbrev.position;
+                if (p == null || p.isDeleted()
+                        || (p.getOffset() <= regionEnd && p.getOffset() + p.getLength() >= regionStart)) {
+                    return false;
+                }
+            }
+            String text = document.get(regionStart, regionEnd - regionStart);
+            if (STRING_START.matcher(text).find()) {
+                return false;
+            }
+
+            // lines are counted from 1, the region starts at a line start
+            int lineOffset = document.getLineOfOffset(regionStart);
+            int oldRegionEndLine = Integer.MAX_VALUE;
+            int lineDelta = 0;
+            if (suffix < n) {
+                ReferenceEntry next = entryList.get(suffix);
+                oldRegionEndLine = next.startLine;
+                lineDelta = document.getLineOfOffset(next.position.getOffset()) + 1 - next.startLine;
+            }
+
+            Map<String, Integer> outsideKeys = new HashMap<String, Integer>();
+            for (int i = 0; i < n; i++) {
+                if (i == prefix) {
+                    i = suffix - 1;
+                    continue;
+                }
+                ReferenceEntry re = entryList.get(i);
+                if (i >= suffix) {
+                    re.startLine += lineDelta;
+                    re.endLine += lineDelta;
+                }
+                outsideKeys.put(re.key, Integer.valueOf(re.startLine));
+            }
+
+            BibEntryReader reader = new BibEntryReader(new StringReader(text), abbrevMap);
+            reader.setOutsideKeys(outsideKeys);
+            List<ReferenceEntry> added = new ArrayList<ReferenceEntry>();
+            for (ReferenceEntry re = reader.next(); re != null; re = reader.next()) {
+                re.startLine += lineOffset;
+                re.endLine += lineOffset;
+                added.add(re);
+            }
+            if (!reader.getErrors().isEmpty()) {
+                // let the full parse report the errors
+                for (int i = suffix; i < n; i++) {
+                    entryList.get(i).startLine -= lineDelta;
+                    entryList.get(i).endLine -= lineDelta;
+                }
+                return false;
+            }
+
+            int lastLine = document.getNumberOfLines();
+            for (ReferenceEntry re : added) {
+                setPosition(re, lastLine);
+            }
+            List<ReferenceEntry> removed = new ArrayList<ReferenceEntry>(entryList.subList(prefix, suffix));
+            // entries that were parsed again without changes are kept
+            int same = 0;
+            while (same < removed.size() && same < added.size()
+                    && isSame(removed.get(same), added.get(same))) {
+                same++;
+            }
+            int sameEnd = 0;
+            while (sameEnd < removed.size() - same && sameEnd < added.size() - same
+                    && isSame(removed.get(removed.size() - 1 - sameEnd), added.get(added.size() - 1 - sameEnd))) {
+                sameEnd++;
+            }
+            removed = new ArrayList<ReferenceEntry>(removed.subList(same, removed.size() - sameEnd));
+            added = new ArrayList<ReferenceEntry>(added.subList(same, added.size() - sameEnd));
+            int firstChanged = prefix + same;
+
+            for (ReferenceEntry re : removed) {
+                if (re.position != null) {
+                    document.removePosition(BibOutlinePage.SEGMENTS, re.position);
+                }
+            }
+            for (ReferenceEntry re : added) {
+                document.addPosition(BibOutlinePage.SEGMENTS, re.position);
+            }
+            entryList.subList(firstChanged, firstChanged + removed.size()).clear();
+            entryList.addAll(firstChanged, added);
+
+            updateMessages(warnings, reader.getWarnings(), lineOffset, oldRegionEndLine, lineDelta);
+            updateMessages(tasks, reader.getTasks(), lineOffset, oldRegionEndLine, lineDelta);
+            MarkerHandler.MarkerUpdate markers = MarkerHandler.getInstance().beginUpdate(editor, true);
+            markers.addErrors(warnings);
+            markers.addTasks(tasks);
+            markers.apply();
+            dirtyStart = -1;
+
+            if (!removed.isEmpty() || !added.isEmpty()) {
+                updateBibContainer(removed, added);
+                if (this.editor.getOutlinePage() != null) {
+                    if (this.editor.getOutlinePage() == updatedOutline) {
+                        updatedOutline.update(entryList, removed, added, firstChanged);
+                    } else {
+                        updateOutline();
+                    }
+                }
+                editor.updateCodeFolder(entryList, removed, added);
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (BadLocationException e) {
+            return false;
+        } catch (BadPositionCategoryException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the messages of the parsed lines with the new ones and
+     * moves the messages after them.
+     *
+     * @param messages The messages of the document
+     * @param parsed The messages of the parsed lines, counted from the
+     *  start of the parsed text
+     * @param lineOffset The number of lines before the parsed text
+     * @param oldEndLine The first line after the parsed text before the
+     *  changes
+     * @param lineDelta The number of lines added by the changes
+     */
+    private static void updateMessages(List<ParseErrorMessage> messages,
+            List<ParseErrorMessage> parsed, int lineOffset, int oldEndLine, int lineDelta) {
+        for (int i = 0; i < messages.size(); i++) {
+            ParseErrorMessage msg = messages.get(i);
+            if (msg.getLine() >= oldEndLine) {
+                if (lineDelta != 0) {
+                    messages.set(i, new ParseErrorMessage(msg.getLine() + lineDelta, msg.getPos(),
+                            msg.getLength(), msg.getMsg(), msg.getSeverity()));
+                }
+            } else if (msg.getLine() > lineOffset) {
+                messages.remove(i--);
+            }
+        }
+        for (ParseErrorMessage msg : parsed) {
+            messages.add(new ParseErrorMessage(msg.getLine() + lineOffset, msg.getPos(),
+                    msg.getLength(), msg.getMsg(), msg.getSeverity()));
+        }
+    }
+
+    private static boolean isBefore(Position p, int offset) {
+        return p != null && !p.isDeleted() && p.getOffset() + p.getLength() < offset;
+    }
+
+    private static boolean isAfter(Position p, int offset) {
+        return p != null && !p.isDeleted() && p.getOffset() > offset;
+    }
+
+    private static int end(Position p) {
+        return p.getOffset() + p.getLength();
+    }
+
+    private static boolean isSame(ReferenceEntry a, ReferenceEntry b) {
+        return a.key.equals(b.key) && a.startLine == b.startLine && a.endLine == b.endLine
+                && a.info.equals(b.info) && b.position.equals(a.position);
+    }
+
     /**
      * Updates the abbreviation data in the abbreviation manager.
      */
     private void updateAbbrManager() {
-        ReferenceEntry[] esar = new ReferenceEntry[abbrevs.size()];
-        abbrevs.toArray(esar);
+        ReferenceEntry[] esar = abbrevs.toArray(new ReferenceEntry[abbrevs.size()]);
         Arrays.sort(esar);
         this.abbrManager.setAbbrevs(esar);
     }
-    
+
     /**
-     * Updates the BibTeX -data in the BibTeX-container.
+     * @return The key of this file in the BibTeX-container, or null if
+     * the container doesn't exist
      */
-    private void updateBibContainer() {
+    private String getContainerKey() {
     	IProject project = editor.getProject();
-    	if (project == null) return;
-    	
-        IResource resource = ((FileEditorInput)editor.getEditorInput()).getFile();
+    	if (project == null) return null;
+
         if (bibContainer == null) {
             ReferenceContainer refCon = (ReferenceContainer) TexlipseProperties.getSessionProperty(project,
                     TexlipseProperties.BIBCONTAINER_PROPERTY);
             if (refCon != null) {
                 bibContainer = refCon;
             } else {
-                return;
+                return null;
             }
         }
-        boolean changed = bibContainer.updateRefSource(
-                resource.getFullPath().removeFirstSegments(1).toString(),
-                entryList);
+        IResource resource = ((FileEditorInput)editor.getEditorInput()).getFile();
+        return resource.getFullPath().removeFirstSegments(1).toString();
+    }
+
+    /**
+     * Updates the BibTeX -data in the BibTeX-container.
+     */
+    private void updateBibContainer() {
+        String key = getContainerKey();
+        if (key == null) return;
+        // the container gets its own list, the entry list is changed by
+        // the later updates
+        boolean changed = bibContainer.updateRefSource(key,
+                new ArrayList<ReferenceEntry>(entryList));
+        setBibFilesChanged(changed);
+    }
+
+    /**
+     * Updates the changed entries in the BibTeX-container.
+     *
+     * @param removed The entries that were removed
+     * @param added The entries that were added
+     */
+    private void updateBibContainer(List<ReferenceEntry> removed, List<ReferenceEntry> added) {
+        String key = getContainerKey();
+        if (key == null) return;
+        boolean changed = bibContainer.updateRefSource(key,
+                new ArrayList<ReferenceEntry>(entryList), removed, added);
+        setBibFilesChanged(changed);
+    }
+
+    private void setBibFilesChanged(boolean changed) {
         if (changed) {
-            TexlipseProperties.setSessionProperty(project,
+            TexlipseProperties.setSessionProperty(editor.getProject(),
                     TexlipseProperties.BIBFILES_CHANGED,
                     new Boolean(true));
         }
     }
-    
+
     /**
      * Updates the outline view when outline.doSave is called.
      */
     private void updateOutline() {
         BibOutlineContainer boc = new BibOutlineContainer(entryList, true);
         this.editor.getOutlinePage().update(boc);
+        updatedOutline = this.editor.getOutlinePage();
     }
-    
-    
+
+
     /**
      * Updates the document positions of the outline. These are used both
      * for outline navigation and code folding.
      */
     private void updateDocumentPositions() {
-        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
-        
         try {
             document.removePositionCategory(BibOutlinePage.SEGMENTS);
         } catch (BadPositionCategoryException bpce) {
@@ -163,45 +459,16 @@ public class BibDocumentModel {
         document.addPositionCategory(BibOutlinePage.SEGMENTS);
 
         try {
-            /*
-            int beginOffset = -1, endOffset = -1;
-            ReferenceEntry prev = null, next = null;
-            //Iterator it = currentOutline.iterator();
-            Iterator it = entryList.iterator();
-            if (it.hasNext()) {
-                prev = (ReferenceEntry) it.next();
-                beginOffset = document.getLineOffset(prev.startLine - 1);
-            }
-            while (it.hasNext()) {
-                next = (ReferenceEntry) it.next();
-                
-                endOffset = document.getLineOffset(next.startLine - 1);
-                int length =  endOffset - beginOffset;
-                
-                prev.setPosition(beginOffset, length);
-                document.addPosition(BibOutlinePage.SEGMENTS, prev.position);
-                
-                prev = next;
-                beginOffset = endOffset;
-            }
-            if (beginOffset != -1) {
-                prev.setPosition(beginOffset, document.getLength() - beginOffset);
-                document.addPosition(BibOutlinePage.SEGMENTS, prev.position);                    
-            }
-            */
-            // This hack is needed because Eclipse doesn't allow us to get 
-            // the offset of the last line in the document
-            if (entryList.isEmpty()) return;
+            // the positions of the abbreviations tell whether they are
+            // changed by an edit
+            for (ReferenceEntry abbrev : abbrevs) {
+                if (abbrev.position != null) {
+                    document.addPosition(BibOutlinePage.SEGMENTS, abbrev.position);
+                }
+            }
             int lastLine = document.getNumberOfLines();
-            ReferenceEntry rel = (ReferenceEntry) entryList.get(entryList.size() - 1);
-            if (rel.endLine == lastLine) {
-                rel.endLine--;
-            }
-            for (Iterator iter = entryList.iterator(); iter.hasNext();) {
-                ReferenceEntry re = (ReferenceEntry) iter.next();
-                int beginOffset = document.getLineOffset(re.startLine - 1);
-                int length = document.getLineOffset(re.endLine) - beginOffset;
-                re.setPosition(beginOffset, length);
+            for (ReferenceEntry re : entryList) {
+                setPosition(re, lastLine);
                 document.addPosition(BibOutlinePage.SEGMENTS, re.position);
             }
         } catch (BadPositionCategoryException bpce) {
@@ -210,22 +477,56 @@ public class BibDocumentModel {
             TexlipsePlugin.log("BibDocumentModel.updateDocumentPositions: bad position ", ble);
         }
     }
-    
+
+    /**
+     * Sets the position of an entry to its lines.
+     *
+     * @param re The entry
+     * @param lastLine The number of lines in the document
+     */
+    private void setPosition(ReferenceEntry re, int lastLine) throws BadLocationException {
+        // This hack is needed because Eclipse doesn't allow us to get
+        // the offset of the last line in the document
+        if (re.endLine == lastLine) {
+            re.endLine--;
+        }
+        int beginOffset = document.getLineOffset(re.startLine - 1);
+        int length = document.getLineOffset(re.endLine) - beginOffset;
+        re.setPosition(beginOffset, length);
+    }
+
     /**
      * Updates the document model. This includes parsing the document
      * and retrieving updated outline and abbreviation informaiton as
      * well as updating these into the editor.
      */
     public void update() {
+        IDocument doc = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+        if (doc != document) {
+            if (document != null) {
+                document.removeDocumentListener(documentListener);
+                document.removePositionUpdater(positionUpdater);
+            }
+            document = doc;
+            document.addDocumentListener(documentListener);
+            document.addPositionUpdater(positionUpdater);
+            entryList = null;
+        }
         try {
-            doParse();
-            this.updateDocumentPositions();
-            updateBibContainer();
-            if (this.editor.getOutlinePage() != null) {
+            if (entryList == null || !doIncrementalParse()) {
+                doParse();
+                this.updateDocumentPositions();
+                updateBibContainer();
+                if (this.editor.getOutlinePage() != null) {
+                    this.updateOutline();
+                }
+                updateAbbrManager();
+                editor.updateCodeFolder(entryList);
+            } else if (this.editor.getOutlinePage() != null
+                    && this.editor.getOutlinePage() != updatedOutline) {
+                // the outline was opened after the last update
                 this.updateOutline();
             }
-            updateAbbrManager();
-            editor.updateCodeFolder(entryList);
         } catch (TexDocumentParseException e) {
             // We do nothing, since the error is already added
             // TexlipsePlugin.log("There were parse errors in the document", e);
@@ -23,6 +23,7 @@ import org.eclipse.jface.text.source.projection.ProjectionViewer;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.editor.TexPairMatcher;
+import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.ui.editors.text.TextEditor;
 import org.eclipse.ui.texteditor.ITextEditorActionDefinitionIds;
@@ -184,6 +185,18 @@ public class BibEditor extends TextEditor {
         this.folder.update(outlineTree);
     }
     
+    /**
+     * Updates the code folds of the changed entries.
+     * 
+     * @param outlineTree All the entries after the change
+     * @param removed The entries that were removed
+     * @param added The entries that were added
+     */
+    public void updateCodeFolder(List<ReferenceEntry> outlineTree, List<ReferenceEntry> removed,
+            List<ReferenceEntry> added) {
+        this.folder.update(outlineTree, removed, added);
+    }
+    
     /**
      * @return The outline page of this editor.
      */
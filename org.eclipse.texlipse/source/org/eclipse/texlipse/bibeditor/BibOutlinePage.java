@@ -125,6 +125,38 @@ public class BibOutlinePage extends ContentOutlinePage {
             }
         }
     }
+    
+    /**
+     * Updates the outline with changed entries. If the outline is sorted
+     * naturally and shows the given entry list, only the changed entries
+     * are removed from and inserted into the tree, otherwise the outline
+     * is built again.
+     * 
+     * @param entries All the entries after the change
+     * @param removed The entries that were removed
+     * @param added The entries that were added
+     * @param index The index of the first added entry in the entries
+     */
+    public void update(List<ReferenceEntry> entries, List<ReferenceEntry> removed,
+            List<ReferenceEntry> added, int index) {
+        TreeViewer viewer = getTreeViewer();
+        if (viewer == null || content == null || content.getChildEntries() != entries
+                || !BibOutlineContainer.SORTNATURAL.equals(content.getSorting())) {
+            update(new BibOutlineContainer(entries, true));
+            return;
+        }
+        Control control = viewer.getControl();
+        if (control != null && !control.isDisposed()) {
+            ((BibContentProvider) viewer.getContentProvider()).clearSortings();
+            control.setRedraw(false);
+            viewer.remove(removed.toArray());
+            for (int i = 0; i < added.size(); i++) {
+                viewer.insert(content, added.get(i), index + i);
+            }
+            control.setRedraw(true);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.eclipse.jface.viewers.ISelectionChangedListener#selectionChanged(org.eclipse.jface.viewers.SelectionChangedEvent)
      */
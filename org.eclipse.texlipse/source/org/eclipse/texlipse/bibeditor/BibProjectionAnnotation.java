@@ -45,6 +45,13 @@ public class BibProjectionAnnotation extends ProjectionAnnotation {
     }
 
 	
+    /**
+     * @return The entry of this annotation
+     */
+    public ReferenceEntry getNode() {
+        return node;
+    }
+
     /**
      * Tests whether this annotation corresponds to the same
      * document area as the argument.
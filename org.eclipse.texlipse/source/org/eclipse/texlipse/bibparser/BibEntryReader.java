@@ -0,0 +1,753 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.bibparser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.texlipse.model.ParseErrorMessage;
+import org.eclipse.texlipse.model.ReferenceEntry;
+
+/**
+ * Reads the entries of a BibTeX file one at a time, without building a
+ * syntax tree of the whole file. Each call of <code>next()</code> reads
+ * the input only up to the end of the next entry, so the caller decides
+ * how many entries are held in memory.
+ *
+ * Abbreviations (@string) are expanded as they are read. Cross references
+ * can point to entries later in the file, so for each entry with a
+ * crossref only its type and field names are kept until the referenced
+ * entry is found; the remaining ones are reported when the end of the
+ * input is reached.
+ *
+ * The reader stops at the first syntax error, which is then available
+ * from <code>getErrors()</code>.
+ *
+ * @author The TeXlipse team
+ */
+public final class BibEntryReader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Map<String, String> predefAbbrevs = new HashMap<String, String>();
+
+    /**
+     * A list of required fields for the different BibTeX entries
+     */
+    private static final Map<String, List<String>> requiredFieldsPerType = new HashMap<String, List<String>>();
+
+    static {
+        predefAbbrevs.put("jan", "January");
+        predefAbbrevs.put("feb", "February");
+        predefAbbrevs.put("mar", "March");
+        predefAbbrevs.put("apr", "April");
+        predefAbbrevs.put("may", "May");
+        predefAbbrevs.put("jun", "June");
+        predefAbbrevs.put("jul", "July");
+        predefAbbrevs.put("aug", "August");
+        predefAbbrevs.put("sep", "September");
+        predefAbbrevs.put("oct", "October");
+        predefAbbrevs.put("nov", "November");
+        predefAbbrevs.put("dec", "December");
+
+        requiredFieldsPerType.put("article", Arrays.asList("author", "title", "journal", "year"));
+        requiredFieldsPerType.put("book", Arrays.asList("title", "publisher", "year"));
+        requiredFieldsPerType.put("booklet", Arrays.asList("title"));
+        requiredFieldsPerType.put("conference", Arrays.asList("author", "title", "booktitle", "year"));
+        requiredFieldsPerType.put("inbook", Arrays.asList("title", "publisher", "year"));
+        requiredFieldsPerType.put("incollection", Arrays.asList("author", "title", "booktitle", "publisher", "year"));
+        requiredFieldsPerType.put("inproceedings", Arrays.asList("author", "title", "booktitle", "year"));
+        requiredFieldsPerType.put("manual", Arrays.asList("title"));
+        requiredFieldsPerType.put("mastersthesis", Arrays.asList("author", "title", "school", "year"));
+        requiredFieldsPerType.put("phdthesis", Arrays.asList("author", "title", "school", "year"));
+        requiredFieldsPerType.put("techreport", Arrays.asList("author", "title", "institution", "year"));
+        requiredFieldsPerType.put("proceedings", Arrays.asList("title", "year"));
+        requiredFieldsPerType.put("unpublished", Arrays.asList("author", "title", "note"));
+    }
+
+    /**
+     * An entry whose required fields can only be checked when the entry
+     * it cross references has been read
+     */
+    private static final class PendingCrossref {
+        final String type;
+        final String key;
+        final int line;
+        final int column;
+        final Set<String> fields;
+
+        PendingCrossref(String type, String key, int line, int column, Set<String> fields) {
+            this.type = type;
+            this.key = key;
+            this.line = line;
+            this.column = column;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * A syntax error, stops the reading
+     */
+    private static final class SyntaxError extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int line;
+        final int column;
+
+        SyntaxError(String message, int line, int column) {
+            super(message);
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int bufferPos;
+    private int bufferLength;
+
+    // the position of the next character, starting from 1
+    private int line = 1;
+    private int column = 1;
+    private boolean afterCr;
+    // the number of characters read
+    private int offset;
+    // the number of bytes read, if the input is UTF-8, otherwise characters
+    private int byteOffset;
+    private boolean utf8;
+
+    // the characters of the entry last returned by next()
+    private int entryStart;
+    private int entryLength;
+    private int entryByteStart;
+    private int entryByteLength;
+
+    private boolean finished;
+
+    private final List<ParseErrorMessage> errors = new ArrayList<ParseErrorMessage>();
+    private final List<ParseErrorMessage> warnings = new ArrayList<ParseErrorMessage>();
+    private final List<ParseErrorMessage> tasks = new ArrayList<ParseErrorMessage>();
+    private final List<ReferenceEntry> abbrevList = new ArrayList<ReferenceEntry>();
+
+    private final Map<String, String> abbrevs = new HashMap<String, String>(predefAbbrevs);
+    private final Map<String, Integer> definedKeys = new HashMap<String, Integer>();
+    private final Map<String, List<PendingCrossref>> crossrefs = new HashMap<String, List<PendingCrossref>>();
+    // the keys of the entries outside the input, when it is a part of a file
+    private final Set<String> outsideKeys = new HashSet<String>();
+
+    private final StringBuilder info = new StringBuilder();
+    private final StringBuilder value = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Creates a new reader. The reader does its own buffering.
+     *
+     * @param in The BibTeX data
+     */
+    public BibEntryReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Creates a new reader for a part of a BibTeX file that uses the
+     * abbreviations defined elsewhere in the file.
+     *
+     * @param in The BibTeX data
+     * @param abbrevs The abbreviations defined before the data, by key
+     */
+    public BibEntryReader(Reader in, Map<String, String> abbrevs) {
+        this(in);
+        this.abbrevs.putAll(abbrevs);
+    }
+
+    /**
+     * Makes the byte offsets of the entries count the characters as UTF-8.
+     * Otherwise each character is counted as one byte, as in the single
+     * byte encodings.
+     *
+     * @param utf8 true if the input was decoded from UTF-8
+     */
+    void setUtf8(boolean utf8) {
+        this.utf8 = utf8;
+    }
+
+    /**
+     * Sets the keys of the entries of the file outside the part that is
+     * read. Entries with the same keys are reported as duplicates, and
+     * cross references to them are not reported as missing (the required
+     * fields of the referring entries are then not checked).
+     *
+     * @param keys The keys and the lines of the entries
+     */
+    public void setOutsideKeys(Map<String, Integer> keys) {
+        definedKeys.putAll(keys);
+        outsideKeys.addAll(keys.keySet());
+    }
+
+    /**
+     * Reads the next entry.
+     *
+     * @return The entry, or null if there are no more entries or a syntax
+     *  error was found
+     * @throws IOException If the input can't be read
+     */
+    public ReferenceEntry next() throws IOException {
+        try {
+            while (!finished) {
+                if (!skipToEntry()) {
+                    finish();
+                    return null;
+                }
+                int entryLine = line;
+                int entryColumn = column;
+                int start = offset;
+                int byteStart = byteOffset;
+                read(); // @
+                String type = readLetters();
+                if (type.length() == 0) {
+                    throw new SyntaxError("expecting: entry type", line, column);
+                }
+                String lowerType = type.toLowerCase();
+                if ("comment".equals(lowerType) || "preamble".equals(lowerType)) {
+                    skipBlock(entryLine, entryColumn);
+                    continue;
+                }
+                skipWhitespace();
+                int open = read();
+                if (open != '{' && open != '(') {
+                    throw new SyntaxError("expecting: '{', '('", line, column - 1);
+                }
+                char close = open == '{' ? '}' : ')';
+                if ("string".equals(lowerType)) {
+                    readAbbrev(close);
+                    abbrevList.get(abbrevList.size() - 1).setPosition(start, offset - start);
+                } else {
+                    ReferenceEntry entry = readEntry(type, lowerType, entryLine, entryColumn, close);
+                    entryStart = start;
+                    entryLength = offset - start;
+                    entryByteStart = byteStart;
+                    entryByteLength = byteOffset - byteStart;
+                    return entry;
+                }
+            }
+        } catch (SyntaxError e) {
+            errors.add(new ParseErrorMessage(e.line, Math.max(0, e.column - 1), 2,
+                    e.getMessage(), IMarker.SEVERITY_ERROR));
+            finished = true;
+        }
+        return null;
+    }
+
+    /**
+     * @return The offset of the entry last returned by <code>next()</code>
+     *  in characters from the start of the input
+     */
+    public int getEntryOffset() {
+        return entryStart;
+    }
+
+    /**
+     * @return The length of the entry last returned by <code>next()</code>
+     *  in characters, from the @ to the closing brace
+     */
+    public int getEntryLength() {
+        return entryLength;
+    }
+
+    /**
+     * @return The offset of the entry last returned by <code>next()</code>
+     *  in bytes from the start of the input, see <code>setUtf8()</code>
+     */
+    int getEntryByteOffset() {
+        return entryByteStart;
+    }
+
+    /**
+     * @return The length of the entry last returned by <code>next()</code>
+     *  in bytes, see <code>setUtf8()</code>
+     */
+    int getEntryByteLength() {
+        return entryByteLength;
+    }
+
+    /**
+     * @return The syntax error, if one was found
+     */
+    public List<ParseErrorMessage> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return The warnings about the entries read so far; the warnings
+     *  about missing cross references are added at the end of the input
+     */
+    public List<ParseErrorMessage> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * @return The TODO comments read so far
+     */
+    public List<ParseErrorMessage> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * @return The abbreviations read so far, as <code>ReferenceEntry</code>s
+     *  with the expansion as info and the offset and length of the @string
+     *  in characters as position
+     */
+    public List<ReferenceEntry> getAbbrevs() {
+        return abbrevList;
+    }
+
+    /**
+     * Reports the cross references to entries that were not found.
+     */
+    private void finish() {
+        finished = true;
+        for (Map.Entry<String, List<PendingCrossref>> mapping : crossrefs.entrySet()) {
+            if (outsideKeys.contains(mapping.getKey())) {
+                continue;
+            }
+            for (PendingCrossref pc : mapping.getValue()) {
+                setMissingWarnings(pc);
+                warnings.add(new ParseErrorMessage(pc.line, pc.column - 1, pc.type.length(),
+                        "Cross reference " + mapping.getKey() + " does not exist",
+                        IMarker.SEVERITY_WARNING));
+            }
+        }
+        crossrefs.clear();
+    }
+
+    private ReferenceEntry readEntry(String type, String lowerType, int typeLine, int typeColumn,
+            char close) throws IOException, SyntaxError {
+        skipWhitespace();
+        int keyLine = line;
+        int keyColumn = column;
+        String key = readIdentifier();
+        if (key.length() == 0) {
+            throw new SyntaxError("expecting: identifier", line, column);
+        }
+        ReferenceEntry entry = new ReferenceEntry(key);
+        entry.startLine = keyLine;
+        Integer previous = definedKeys.put(key, Integer.valueOf(keyLine));
+        if (previous != null) {
+            warnings.add(new ParseErrorMessage(keyLine, keyColumn - 1, key.length(),
+                    "BibTex key " + key + " is not unique: also defined in line " + previous,
+                    IMarker.SEVERITY_WARNING));
+        }
+
+        info.setLength(0);
+        info.append(type).append('\n');
+        Set<String> fields = new HashSet<String>();
+        String crossref = null;
+        while (true) {
+            skipWhitespace();
+            int c = read();
+            if (c == close) {
+                break;
+            }
+            if (c != ',') {
+                throw unexpected(c, "',', '" + close + "'");
+            }
+            skipWhitespace();
+            if (peek() == close) {
+                read();
+                break;
+            }
+            int fieldLine = line;
+            int fieldColumn = column;
+            String field = readIdentifier().toLowerCase();
+            if (field.length() == 0) {
+                throw unexpected(peek(), "identifier");
+            }
+            info.append(field).append(": ");
+            if (!fields.add(field)) {
+                warnings.add(new ParseErrorMessage(fieldLine, fieldColumn - 1, field.length(),
+                        "Field " + field + " appears more than once in entry " + key,
+                        IMarker.SEVERITY_WARNING));
+            }
+            skipWhitespace();
+            c = read();
+            if (c != '=') {
+                throw unexpected(c, "'='");
+            }
+            skipWhitespace();
+            int valueLine = line;
+            int valueColumn = column;
+            String fieldValue = readValue();
+            if (fieldValue != null) {
+                info.append(fieldValue);
+                if ("author".equals(field) || "editor".equals(field)) {
+                    entry.author = fieldValue;
+                } else if ("journal".equals(field)) {
+                    entry.journal = fieldValue;
+                } else if ("year".equals(field)) {
+                    entry.year = fieldValue;
+                } else if ("crossref".equals(field)) {
+                    crossref = fieldValue;
+                }
+                if (fieldValue.length() == 0) {
+                    warnings.add(new ParseErrorMessage(valueLine, valueColumn, 0,
+                            field + " is empty in " + key,
+                            IMarker.SEVERITY_WARNING));
+                }
+            }
+            info.append('\n');
+        }
+        entry.endLine = line;
+
+        if (entry.author == null) {
+            entry.author = "-";
+        }
+        if (entry.year == null) {
+            entry.year = "-";
+        }
+        if (entry.journal == null) {
+            entry.journal = "-";
+        }
+        entry.info = info.toString();
+
+        PendingCrossref pc = new PendingCrossref(lowerType, key, typeLine, typeColumn, fields);
+        if (crossref != null) {
+            List<PendingCrossref> pending = crossrefs.get(crossref);
+            if (pending == null) {
+                pending = new ArrayList<PendingCrossref>(2);
+                crossrefs.put(crossref, pending);
+            }
+            pending.add(pc);
+        } else {
+            setMissingWarnings(pc);
+        }
+        List<PendingCrossref> referring = crossrefs.remove(key);
+        if (referring != null) {
+            for (PendingCrossref r : referring) {
+                r.fields.addAll(fields);
+                setMissingWarnings(r);
+            }
+        }
+        return entry;
+    }
+
+    private void readAbbrev(char close) throws IOException, SyntaxError {
+        skipWhitespace();
+        int keyLine = line;
+        int keyColumn = column;
+        String key = readIdentifier();
+        if (key.length() == 0) {
+            throw unexpected(peek(), "identifier");
+        }
+        skipWhitespace();
+        int c = read();
+        if (c != '=') {
+            throw unexpected(c, "'='");
+        }
+        skipWhitespace();
+        String expansion = readValue();
+        skipWhitespace();
+        c = read();
+        if (c != close) {
+            throw unexpected(c, "'" + close + "'");
+        }
+        if (expansion == null) {
+            expansion = "";
+        }
+        if (abbrevs.put(key, expansion) != null) {
+            warnings.add(new ParseErrorMessage(keyLine, keyColumn - 1, key.length(),
+                    "String key " + key + " is not unique",
+                    IMarker.SEVERITY_WARNING));
+        }
+        abbrevList.add(new ReferenceEntry(key, expansion));
+    }
+
+    /**
+     * Reads a field value: braced or quoted strings, numbers and
+     * abbreviations, concatenated with #. The white space in the value
+     * is collapsed to single spaces.
+     *
+     * @return The value, or null if it only consists of undefined
+     *  abbreviations
+     */
+    private String readValue() throws IOException, SyntaxError {
+        value.setLength(0);
+        boolean defined = false;
+        while (true) {
+            int c = peek();
+            if (c == '{' || c == '"') {
+                readString();
+                defined = true;
+            } else if (c >= '0' && c <= '9') {
+                while (peek() >= '0' && peek() <= '9') {
+                    value.append((char) read());
+                }
+                defined = true;
+            } else if (isIdentifierChar(c)) {
+                int idLine = line;
+                int idColumn = column;
+                String id = readIdentifier();
+                String expansion = abbrevs.get(id);
+                if (expansion != null) {
+                    value.append(expansion);
+                    defined = true;
+                } else {
+                    warnings.add(new ParseErrorMessage(idLine, idColumn - 1, id.length(),
+                            "The abbreviation " + id + " is undefined",
+                            IMarker.SEVERITY_WARNING));
+                }
+            } else {
+                throw unexpected(c, "value");
+            }
+            skipWhitespace();
+            if (peek() != '#') {
+                break;
+            }
+            read();
+            skipWhitespace();
+        }
+        if (!defined) {
+            return null;
+        }
+        // collapse the white space
+        text.setLength(0);
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space) {
+                    text.append(' ');
+                    space = false;
+                }
+                text.append(c);
+            }
+        }
+        if (space) {
+            text.append(' ');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Reads a braced or quoted string into <code>value</code>, without
+     * the outer delimiters. Quotes inside braces don't end a quoted string.
+     */
+    private void readString() throws IOException, SyntaxError {
+        int startLine = line;
+        int startColumn = column;
+        char delimiter = (char) read();
+        int depth = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new SyntaxError("Unexpected end of file", startLine, startColumn);
+            }
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (depth == 0) {
+                    if (delimiter == '{') {
+                        return;
+                    }
+                    throw new SyntaxError("Unbalanced braces", line, column - 1);
+                }
+                depth--;
+            } else if (c == '"' && delimiter == '"' && depth == 0) {
+                return;
+            }
+            value.append((char) c);
+        }
+    }
+
+    /**
+     * Skips the text between entries up to the next @, collecting the
+     * TODO comments.
+     *
+     * @return true if an @ was found
+     */
+    private boolean skipToEntry() throws IOException {
+        int c;
+        while ((c = peek()) != -1) {
+            if (c == '@') {
+                return true;
+            }
+            if (c == '%') {
+                int taskLine = line;
+                int taskColumn = column;
+                read();
+                text.setLength(0);
+                while ((c = peek()) != -1 && c != '\n' && c != '\r' && c != '@') {
+                    text.append((char) read());
+                }
+                String comment = text.toString().trim();
+                if (comment.startsWith("TODO")) {
+                    String taskText = comment.substring(4).trim();
+                    tasks.add(new ParseErrorMessage(taskLine, taskColumn,
+                            taskText.length(), taskText, IMarker.SEVERITY_INFO));
+                }
+            } else {
+                read();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Skips a @comment or @preamble: everything up to the end of the first
+     * block of braces or parentheses. In a block of parentheses, only a
+     * closing parenthesis outside braces ends the block.
+     */
+    private void skipBlock(int startLine, int startColumn) throws IOException, SyntaxError {
+        int depth = 0;
+        char close = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new SyntaxError("Unexpected end of file", startLine, startColumn);
+            }
+            if (close == 0) {
+                if (c == '{') {
+                    close = '}';
+                    depth++;
+                } else if (c == '(') {
+                    close = ')';
+                }
+            } else if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+                if (depth == 0 && close == '}') {
+                    return;
+                }
+            } else if (c == ')' && close == ')' && depth <= 0) {
+                return;
+            }
+        }
+    }
+
+    private String readLetters() throws IOException {
+        text.setLength(0);
+        int c;
+        while ((c = peek()) != -1 && ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))) {
+            text.append((char) read());
+        }
+        return text.toString();
+    }
+
+    private String readIdentifier() throws IOException {
+        text.setLength(0);
+        while (isIdentifierChar(peek())) {
+            text.append((char) read());
+        }
+        return text.toString();
+    }
+
+    private static boolean isIdentifierChar(int c) {
+        if (c == -1 || Character.isWhitespace(c)) {
+            return false;
+        }
+        switch (c) {
+        case '"': case '{': case '}': case '(': case ')': case ',': case '=': case '#':
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    private void skipWhitespace() throws IOException {
+        int c;
+        while ((c = peek()) != -1 && Character.isWhitespace(c)) {
+            read();
+        }
+    }
+
+    /**
+     * @return A syntax error for the character that was just read
+     */
+    private SyntaxError unexpected(int c, String expected) {
+        if (c == -1) {
+            return new SyntaxError("Unexpected end of file", line, column);
+        }
+        return new SyntaxError("expecting: " + expected, line, column - 1);
+    }
+
+    private void setMissingWarnings(PendingCrossref pc) {
+        List<String> required = requiredFieldsPerType.get(pc.type);
+        if (required == null || pc.fields.containsAll(required)) {
+            return;
+        }
+        for (String field : required) {
+            if (!pc.fields.contains(field)) {
+                warnings.add(new ParseErrorMessage(pc.line, pc.column - 1, pc.type.length(),
+                        pc.type + " " + pc.key + " is missing required field " + field,
+                        IMarker.SEVERITY_WARNING));
+            }
+        }
+    }
+
+    /**
+     * @return The next character without consuming it, or -1 at the end
+     */
+    private int peek() throws IOException {
+        if (bufferPos == bufferLength) {
+            bufferLength = in.read(buffer, 0, buffer.length);
+            bufferPos = 0;
+            if (bufferLength <= 0) {
+                bufferLength = 0;
+                return -1;
+            }
+        }
+        return buffer[bufferPos];
+    }
+
+    /**
+     * @return The next character, or -1 at the end
+     */
+    private int read() throws IOException {
+        int c = peek();
+        if (c == -1) {
+            return -1;
+        }
+        bufferPos++;
+        offset++;
+        if (!utf8 || c < 0x80) {
+            byteOffset++;
+        } else if (c < 0x800 || Character.isSurrogate((char) c)) {
+            // a surrogate pair takes four bytes
+            byteOffset += 2;
+        } else {
+            byteOffset += 3;
+        }
+        if (c == '\n') {
+            if (!afterCr) {
+                line++;
+            }
+            column = 1;
+            afterCr = false;
+        } else if (c == '\r') {
+            line++;
+            column = 1;
+            afterCr = true;
+        } else {
+            column++;
+            afterCr = false;
+        }
+        return c;
+    }
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.bibparser;
+
+import java.io.BufferedReader;
+import java.io.CharArrayReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.texlipse.model.ReferenceEntry;
+
+/**
+ * A BibTeX file from which the descriptive texts of its entries are read
+ * when they are needed, instead of keeping them in memory for all the
+ * entries of the project. The entries only store their offset and length
+ * in the file, in bytes if the file is UTF-8 or in a single byte encoding,
+ * so that an entry is read without decoding the file up to it. In other
+ * encodings the offsets are in characters.
+ *
+ * The texts that were read last are kept in a small cache shared by all
+ * the files, so showing the same entry again doesn't read the file.
+ *
+ * @author The TeXlipse team
+ */
+public final class BibEntrySource {
+
+    /**
+     * How many texts are kept in the cache
+     */
+    private static final int CACHE_SIZE = 64;
+
+    /**
+     * A text in the cache, keyed by the source object so that the texts
+     * of an earlier parse of the same file are not used
+     */
+    private static final class CacheKey {
+        final BibEntrySource source;
+        final int offset;
+
+        CacheKey(BibEntrySource source, int offset) {
+            this.source = source;
+            this.offset = offset;
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) obj;
+            return source == other.source && offset == other.offset;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(source) * 31 + offset;
+        }
+    }
+
+    private static final Map<CacheKey, String> cache = new LinkedHashMap<CacheKey, String>(CACHE_SIZE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<CacheKey, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String filename;
+    private final String charset;
+    private final boolean byteOffsets;
+    private Map<String, String> abbrevs;
+
+    /**
+     * Creates a new source.
+     *
+     * @param filename The path of the file in the file system
+     * @param charset The name of the encoding the file was parsed with
+     * @param abbrevs The abbreviations (@string) defined in the file, by key
+     */
+    public BibEntrySource(String filename, String charset, Map<String, String> abbrevs) {
+        this.filename = filename;
+        this.charset = charset;
+        this.byteOffsets = hasByteOffsets(charset);
+        setAbbrevs(abbrevs);
+    }
+
+    /**
+     * Creates a new source for a file that is being parsed; the
+     * abbreviations are set when the whole file has been read.
+     */
+    BibEntrySource(String filename, String charset) {
+        this.filename = filename;
+        this.charset = charset;
+        this.byteOffsets = hasByteOffsets(charset);
+        this.abbrevs = Collections.emptyMap();
+    }
+
+    /**
+     * @return true if the offsets of the entries in a file of the given
+     *  encoding are in bytes, false if they are in characters
+     */
+    private static boolean hasByteOffsets(String charset) {
+        try {
+            return isUtf8(charset) || Charset.forName(charset).newEncoder().maxBytesPerChar() == 1.0f;
+        } catch (RuntimeException e) {
+            // unknown or unsupported encoding
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the given encoding is UTF-8
+     */
+    static boolean isUtf8(String charset) {
+        try {
+            return Charset.forName(charset).name().equals("UTF-8");
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sets the abbreviations, before the source is given to other threads.
+     */
+    void setAbbrevs(Map<String, String> abbrevs) {
+        this.abbrevs = Collections.unmodifiableMap(new HashMap<String, String>(abbrevs));
+    }
+
+    /**
+     * @return The path of the file in the file system
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return The name of the encoding of the file
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return true if the offsets of the entries are in bytes, false if
+     *  they are in characters
+     */
+    public boolean hasByteOffsets() {
+        return byteOffsets;
+    }
+
+    /**
+     * @return The abbreviations defined in the file, by key
+     */
+    public Map<String, String> getAbbrevs() {
+        return abbrevs;
+    }
+
+    /**
+     * Returns the descriptive text of an entry of this file, reading it
+     * from the file if it is not in the cache.
+     *
+     * @param key The key of the entry
+     * @param offset The offset of the entry, see <code>hasByteOffsets()</code>
+     * @param length The length of the entry
+     * @return The text, or null if the file can't be read or the entry
+     *  is no longer at the given position
+     */
+    public String getInfo(String key, int offset, int length) {
+        CacheKey cacheKey = new CacheKey(this, offset);
+        synchronized (cache) {
+            String info = cache.get(cacheKey);
+            if (info != null) {
+                return info;
+            }
+        }
+        String info = read(key, offset, length);
+        if (info != null) {
+            synchronized (cache) {
+                cache.put(cacheKey, info);
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Reads and formats the text of an entry.
+     */
+    private String read(String key, int offset, int length) {
+        try {
+            Reader entryText = byteOffsets ? readBytes(offset, length) : readChars(offset, length);
+            if (entryText == null) {
+                return null;
+            }
+            // the file has changed if the entry isn't there anymore; it
+            // is parsed again on the next build of the project data
+            ReferenceEntry entry = new BibEntryReader(entryText, abbrevs).next();
+            if (entry == null || !key.equals(entry.key)) {
+                return null;
+            }
+            return entry.info;
+        } catch (IOException e) {
+            // the file was removed or can't be read
+            return null;
+        }
+    }
+
+    /**
+     * Reads the text of an entry by seeking to its byte offset.
+     *
+     * @return The text, or null if the file is shorter
+     */
+    private Reader readBytes(int offset, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        RandomAccessFile file = new RandomAccessFile(filename, "r");
+        try {
+            if (file.length() < (long) offset + length) {
+                return null;
+            }
+            file.seek(offset);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        return new StringReader(new String(bytes, charset));
+    }
+
+    /**
+     * Reads the text of an entry by decoding the file up to its character
+     * offset, in the encodings with several bytes per character.
+     *
+     * @return The text, or null if the file is shorter
+     */
+    private Reader readChars(int offset, int length) throws IOException {
+        char[] chars = new char[length];
+        Reader r = new BufferedReader(new InputStreamReader(
+                new FileInputStream(filename), charset));
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = r.skip(remaining);
+                if (skipped <= 0) {
+                    return null;
+                }
+                remaining -= skipped;
+            }
+            int read = 0;
+            while (read < length) {
+                int n = r.read(chars, read, length - read);
+                if (n < 0) {
+                    return null;
+                }
+                read += n;
+            }
+        } finally {
+            r.close();
+        }
+        return new CharArrayReader(chars);
+    }
+}
@@ -10,20 +10,20 @@
  *******************************************************************************/
 package org.eclipse.texlipse.bibparser;
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.PushbackReader;
+import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import org.eclipse.core.resources.IMarker;
-import org.eclipse.texlipse.bibparser.lexer.LexerException;
-import org.eclipse.texlipse.bibparser.node.Start;
-import org.eclipse.texlipse.bibparser.parser.Parser;
-import org.eclipse.texlipse.bibparser.parser.ParserException;
 import org.eclipse.texlipse.model.ParseErrorMessage;
+import org.eclipse.texlipse.model.ReferenceEntry;
 
 
 /**
@@ -31,6 +31,15 @@ import org.eclipse.texlipse.model.ParseErrorMessage;
  * the getEntries() -method, after which getAbbrevs() and getErrors() should
  * be called (otherwise the data returned by these two is essentially meaningless.)
  * 
+ * The entries are read with a <code>BibEntryReader</code>, which doesn't
+ * build a syntax tree of the file. To process the entries of a large file
+ * one at a time, use the reader directly.
+ * 
+ * The entries parsed from a file don't keep their descriptive texts in
+ * memory, they are read from the file when needed through a
+ * <code>BibEntrySource</code>. The entries parsed from a reader (the
+ * document of the BibTeX editor) keep all their fields.
+ * 
  * @author Oskar Ojala
  */
 public class BibParser {
@@ -41,7 +50,7 @@ public class BibParser {
     private List<ParseErrorMessage> errors;
     private List warnings;
     private List tasks;
-    private Start ast;
+    private List<ReferenceEntry> abbrevs;
     
     /**
      * Constructs a new BibTeX parser.
@@ -69,67 +78,70 @@ public class BibParser {
      * Parses the document, constructs a list of the entries and returns
      * them.
      * 
-     * @return BibTeX entries (<code>ReferenceEntry</code>)
+     * @return BibTeX entries (<code>ReferenceEntry</code>), or null if the
+     *  document contains a syntax error
      */
-//    public List<ReferenceEntry> getEntries() throws IOException, FileNotFoundException {
-    public List getEntries() throws IOException, FileNotFoundException {
+    public List<ReferenceEntry> getEntries() throws IOException, FileNotFoundException {
+        Reader r = reader;
+        String charset = Charset.defaultCharset().name();
+        if (filename != null) {
+            // the reader buffers itself, the decoder needs a larger buffer
+            r = new BufferedReader(new InputStreamReader(new FileInputStream(filename), charset), 65536);
+        }
         try {
-            BibLexer l;
+            BibEntryReader br = new BibEntryReader(r);
+            BibEntrySource source = null;
             if (filename != null) {
-                l = new BibLexer(new PushbackReader (new FileReader(filename), 1024));
-            } else {
-                l = new BibLexer(new PushbackReader(reader, 1024));
+                source = new BibEntrySource(filename, charset);
+                br.setUtf8(BibEntrySource.isUtf8(charset));
             }
-            
-            Parser p = new Parser(l);
-            this.ast = p.parse();
-            
-            EntryRetriever er = new EntryRetriever();
-            ast.apply(er);
-            er.finishParse();
-            warnings = er.getWarnings();
-            tasks = er.getTasks();
+            List<ReferenceEntry> entries = new ArrayList<ReferenceEntry>();
+            for (ReferenceEntry entry = br.next(); entry != null; entry = br.next()) {
+                if (source != null) {
+                    entry.info = null;
+                    entry.author = null;
+                    entry.journal = null;
+                    entry.year = null;
+                    if (source.hasByteOffsets()) {
+                        entry.setSource(source, br.getEntryByteOffset(), br.getEntryByteLength());
+                    } else {
+                        entry.setSource(source, br.getEntryOffset(), br.getEntryLength());
+                    }
+                }
+                entries.add(entry);
+            }
+            warnings = br.getWarnings();
+            tasks = br.getTasks();
             
             // FIXME
             // Search for files of the referenced material to be able to display
             //new Thread(new BibFileReferenceSearch(sortIndex, project)).start();
             
-            return er.getEntries();
-            
-            // TODO modularize SableCC error parsing
-        } catch (LexerException le) {
-            String msg = le.getMessage();
-            int first = msg.indexOf('[');
-            int last = msg.indexOf(']');
-            String numseq = msg.substring(first + 1, last);
-            String[] numbers = numseq.split(",");
-            this.errors.add(new ParseErrorMessage(Integer.parseInt(numbers[0]),
-                    Integer.parseInt(numbers[1]) - 1,
-                    2,
-                    msg.substring(last+2),
-                    IMarker.SEVERITY_ERROR));
-        } catch (ParserException pe) {
-            String msg = pe.getMessage();
-            int last = msg.indexOf(']');
-            this.errors.add(new ParseErrorMessage(pe.getToken().getLine(),
-                    pe.getToken().getPos(),
-                    pe.getToken().getText().length(),
-                    msg.substring(last+2),
-                    IMarker.SEVERITY_ERROR));
+            if (br.getErrors().size() > 0) {
+                errors.addAll(br.getErrors());
+                return null;
+            }
+            abbrevs = br.getAbbrevs();
+            if (source != null) {
+                Map<String, String> defined = new HashMap<String, String>();
+                for (ReferenceEntry abbrev : abbrevs) {
+                    defined.put(abbrev.key, abbrev.info);
+                }
+                source.setAbbrevs(defined);
+            }
+            return entries;
+        } finally {
+            if (filename != null) {
+                r.close();
+            }
         }
-        return null;
     }
     
     /**
      * @return Returns the abbreviations (<code>ReferenceEntry</code>)
      */
-    public List getAbbrevs() {
-        if (ast != null) {
-            AbbrevRetriever ar = new AbbrevRetriever();
-            ast.apply(ar);
-            return ar.getAbbrevs();
-        }
-        return null;
+    public List<ReferenceEntry> getAbbrevs() {
+        return abbrevs;
     }
     
     /**
@@ -167,6 +167,18 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
      * @return true, if error messages were found in the output, false otherwise
      */
     protected abstract boolean parseErrors(IResource resource, String output);
+
+    /**
+     * Returns a listener that processes the standard output of the program
+     * while it is running. If a listener is returned, the output given to
+     * <code>parseErrors()</code> only contains the error output.
+     * 
+     * @param resource the input file to be processed
+     * @return the listener, or null to parse the whole output afterwards
+     */
+    protected OutputListener createOutputListener(IResource resource) {
+        return null;
+    }
     
     /**
      * Check to see if this program is ready for operation.
@@ -210,8 +222,13 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
             console = getProgramName();
         }
         extrun.setup(command, sourceDir, console);
+        extrun.setOutputListener(createOutputListener(resource));
         
         String output = null;
+        BuildMetrics metrics = BuildMetrics.getMetrics(resource);
+        // the markers are created while the output is parsed
+        long markerTime = metrics != null ? metrics.getNanos("markers") : 0;
+        long runStart = System.nanoTime();
         try {
             
             String[] query = getQueryString();
@@ -226,9 +243,23 @@ public abstract class AbstractProgramRunner implements ProgramRunner {
                     IStatus.ERROR, "Building the project: ", e));
         } finally {
             extrun.stop();
+            if (metrics != null) {
+                // the wall time without starting the process and parsing its output
+                long spawnTime = extrun.getSpawnTime();
+                metrics.add(getProgramName() + " start", spawnTime);
+                metrics.add(getProgramName() + " run",
+                        System.nanoTime() - runStart - spawnTime - extrun.getListenerTime());
+            }
         }
 
-        if (parseErrors(resource, output)) {
+        long parseStart = System.nanoTime();
+        boolean errors = parseErrors(resource, output);
+        if (metrics != null) {
+            long parseTime = System.nanoTime() - parseStart + extrun.getListenerTime();
+            metrics.add(getProgramName() + " log parsing",
+                    parseTime - (metrics.getNanos("markers") - markerTime));
+        }
+        if (errors) {
             throw new BuilderCoreException(TexlipsePlugin.stat("Errors during build. See the problems dialog."));
         }
     }
@@ -11,6 +11,7 @@
 package org.eclipse.texlipse.builder;
 
 import org.eclipse.core.resources.IProject;
+import org.eclipse.texlipse.model.ProjectState;
 
 
 /**
@@ -28,7 +29,8 @@ public interface AdaptableBuilder {
      * of the build process.
      *
      * @param project project to build
+     * @param snapshot the document properties of the project at the start of the build
      */
-    public void updateBuilder(IProject project);
+    public void updateBuilder(IProject project, ProjectState.Snapshot snapshot);
 
 }
@@ -18,6 +18,7 @@ import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.model.ProjectState;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 
 
@@ -28,6 +29,11 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
  */
 public class BibtexRunner extends AbstractProgramRunner {
 
+    /**
+     * The state of the project at the start of the current build
+     */
+    private ProjectState.Snapshot snapshot;
+
     /**
      * Create a new bibtex program runner
      */
@@ -35,6 +41,16 @@ public class BibtexRunner extends AbstractProgramRunner {
         super();
     }
 
+    /**
+     * Sets the state of the project at the start of the build, which the
+     * bibliography settings are read from.
+     * 
+     * @param snapshot the project state of the current build
+     */
+    public void setSnapshot(ProjectState.Snapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
     /**
      * @return bibtex program name in windows
      */
@@ -95,7 +111,10 @@ public class BibtexRunner extends AbstractProgramRunner {
      */
     private String getIncludeDirArguments(IResource project) {
         
-        String[] bibs = (String[]) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILE_PROPERTY);
+        if (snapshot == null) {
+            return " ";
+        }
+        String[] bibs = (String[]) snapshot.get(TexlipseProperties.BIBFILE_PROPERTY);
         if (bibs == null) {
             return " ";
         }
@@ -105,8 +124,7 @@ public class BibtexRunner extends AbstractProgramRunner {
             bibDirs = "";
         }
         
-        Boolean biblatexMode = (Boolean) TexlipseProperties.getSessionProperty(project,
-                TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
+        Boolean biblatexMode = (Boolean) snapshot.get(TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
 
         // TODO useless? shouldn't be such a project property
         String aDir = TexlipseProperties.getProjectProperty(project, TexlipseProperties.BIBFILE_PROPERTY);
@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.texlipse.properties.TexlipseProperties;
+
+/**
+ * Time spent in the phases of a build: starting the external programs,
+ * running them, parsing their output, creating markers, moving the
+ * output files and refreshing the workspace. The phases don't overlap,
+ * e.g. the time of the markers created while the output is parsed is
+ * not counted as parsing.
+ *
+ * The metrics of the running build are kept with its project, so that
+ * the runners find them from the resource they process, and builds of
+ * different projects don't mix. The metrics of the last builds are kept
+ * in a history.
+ *
+ * @author The TeXlipse team
+ */
+public final class BuildMetrics {
+
+    /**
+     * How many builds are kept in the history
+     */
+    private static final int HISTORY_SIZE = 10;
+
+    private static final LinkedList<BuildMetrics> history = new LinkedList<BuildMetrics>();
+
+    private final String name;
+    private final long startTime;
+    private final long startNanos;
+    private volatile long totalNanos = -1;
+
+    /**
+     * The phases in the order they were first recorded, with the number of
+     * times they were recorded and the total time in nanoseconds
+     */
+    private final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+    private BuildMetrics(String name) {
+        this.name = name;
+        this.startTime = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Starts recording a new build of the given project.
+     *
+     * @param project the project to build
+     * @return the metrics of the new build
+     */
+    public static BuildMetrics start(IProject project) {
+        BuildMetrics metrics = new BuildMetrics(project.getName());
+        TexlipseProperties.setSessionProperty(project,
+                TexlipseProperties.SESSION_BUILD_METRICS, metrics);
+        return metrics;
+    }
+
+    /**
+     * Stops recording the build of the given project and adds it to the
+     * history.
+     *
+     * @param project the built project
+     * @return the metrics of the build, or null if no build was started
+     */
+    public static BuildMetrics finish(IProject project) {
+        BuildMetrics metrics = getMetrics(project);
+        if (metrics == null) {
+            return null;
+        }
+        TexlipseProperties.setSessionProperty(project,
+                TexlipseProperties.SESSION_BUILD_METRICS, null);
+        metrics.totalNanos = System.nanoTime() - metrics.startNanos;
+        synchronized (history) {
+            history.addLast(metrics);
+            if (history.size() > HISTORY_SIZE) {
+                history.removeFirst();
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @param resource a resource of the project
+     * @return the metrics of the running build of the project of the
+     *  resource, or null if it isn't being recorded
+     */
+    public static BuildMetrics getMetrics(IResource resource) {
+        IProject project = resource.getProject();
+        return project == null ? null : (BuildMetrics) TexlipseProperties.getSessionProperty(
+                project, TexlipseProperties.SESSION_BUILD_METRICS);
+    }
+
+    /**
+     * Adds time to a phase of the running build of the resource's project.
+     * Does nothing if no build is being recorded.
+     *
+     * @param resource a resource of the project
+     * @param phase the name of the phase
+     * @param startNanos the start time of the phase from
+     *  <code>System.nanoTime()</code>
+     */
+    public static void record(IResource resource, String phase, long startNanos) {
+        recordTime(resource, phase, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Adds time to a phase of the running build of the resource's project.
+     * Does nothing if no build is being recorded.
+     *
+     * @param resource a resource of the project
+     * @param phase the name of the phase
+     * @param nanos the time to add in nanoseconds
+     */
+    public static void recordTime(IResource resource, String phase, long nanos) {
+        BuildMetrics metrics = getMetrics(resource);
+        if (metrics != null) {
+            metrics.add(phase, nanos);
+        }
+    }
+
+    /**
+     * @return the metrics of the last builds, the oldest first
+     */
+    public static List<BuildMetrics> getHistory() {
+        synchronized (history) {
+            return new ArrayList<BuildMetrics>(history);
+        }
+    }
+
+    /**
+     * Adds time to a phase of this build.
+     *
+     * @param phase the name of the phase
+     * @param nanos the time to add in nanoseconds
+     */
+    synchronized void add(String phase, long nanos) {
+        long[] times = phases.get(phase);
+        if (times == null) {
+            times = new long[2];
+            phases.put(phase, times);
+        }
+        times[0]++;
+        times[1] += nanos;
+    }
+
+    /**
+     * @return the name of the build
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time the build started, in milliseconds
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the wall time of the whole build in milliseconds, or -1 if the
+     *  build hasn't finished
+     */
+    public long getTotalTime() {
+        return totalNanos < 0 ? -1 : totalNanos / 1000000;
+    }
+
+    /**
+     * @return the names of the recorded phases
+     */
+    public synchronized List<String> getPhases() {
+        return Collections.unmodifiableList(new ArrayList<String>(phases.keySet()));
+    }
+
+    /**
+     * @param phase the name of the phase
+     * @return the total time of the phase in milliseconds, 0 if it wasn't
+     *  recorded
+     */
+    public synchronized long getTime(String phase) {
+        long[] times = phases.get(phase);
+        return times == null ? 0 : times[1] / 1000000;
+    }
+
+    /**
+     * @param phase the name of the phase
+     * @return the total time of the phase in nanoseconds, 0 if it wasn't
+     *  recorded
+     */
+    synchronized long getNanos(String phase) {
+        long[] times = phases.get(phase);
+        return times == null ? 0 : times[1];
+    }
+
+    /**
+     * @param phase the name of the phase
+     * @return how many times the phase was recorded
+     */
+    public synchronized int getCount(String phase) {
+        long[] times = phases.get(phase);
+        return times == null ? 0 : (int) times[0];
+    }
+
+    /**
+     * Formats the times of this build for the console, compared to the
+     * average of the earlier builds of the same name in the history.
+     *
+     * @return the report
+     */
+    public String getReport() {
+        List<BuildMetrics> earlier = new ArrayList<BuildMetrics>();
+        for (BuildMetrics m : getHistory()) {
+            if (m != this && m.name.equals(name)) {
+                earlier.add(m);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Build times for ").append(name);
+        if (!earlier.isEmpty()) {
+            sb.append(" (average of the last ").append(earlier.size()).append(" builds in brackets)");
+        }
+        sb.append('\n');
+        for (String phase : getPhases()) {
+            long total = 0;
+            for (BuildMetrics m : earlier) {
+                total += m.getTime(phase);
+            }
+            appendLine(sb, phase + " (" + getCount(phase) + "x)", getTime(phase),
+                    earlier.isEmpty() ? -1 : total / earlier.size());
+        }
+        long total = 0;
+        for (BuildMetrics m : earlier) {
+            total += m.getTotalTime();
+        }
+        appendLine(sb, "total", getTotalTime(), earlier.isEmpty() ? -1 : total / earlier.size());
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, String label, long time, long average) {
+        sb.append("  ").append(label);
+        for (int i = label.length(); i < 32; i++) {
+            sb.append(' ');
+        }
+        String ms = String.valueOf(time);
+        for (int i = ms.length(); i < 8; i++) {
+            sb.append(' ');
+        }
+        sb.append(ms).append(" ms");
+        if (average >= 0) {
+            sb.append(" (").append(average).append(" ms)");
+        }
+        sb.append('\n');
+    }
+}
@@ -17,6 +17,8 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.eclipse.texlipse.PathUtils;
 import org.eclipse.texlipse.TexlipsePlugin;
@@ -42,6 +44,18 @@ public class ExternalProgram {
 
     // output messages to this console
     private String consoleOutput;
+
+    // receives the standard output line by line, if set
+    private OutputListener outputListener;
+
+    // time it took to start the process, in nanoseconds
+    private long spawnTime;
+
+    // time spent in the output listener, in nanoseconds
+    private long listenerTime;
+
+    // marks the end of the output in the line queue
+    private static final String END_OF_OUTPUT = new String();
     
     /**
      * Creates a new command runner.
@@ -64,6 +78,37 @@ public class ExternalProgram {
         this.dir = dir;
         this.process = null;
         this.consoleOutput = console;
+        this.outputListener = null;
+        this.spawnTime = 0;
+        this.listenerTime = 0;
+    }
+
+    /**
+     * @return the time it took to start the last process, in nanoseconds
+     */
+    public long getSpawnTime() {
+        return spawnTime;
+    }
+
+    /**
+     * @return the time the output listener took to process the output of
+     *  the last process, in nanoseconds
+     */
+    public long getListenerTime() {
+        return listenerTime;
+    }
+
+    /**
+     * Sets the listener that receives the standard output of the program
+     * line by line while the program is running. The listener is called
+     * from the thread calling <code>run()</code>, so it can create markers
+     * while a build is running. The standard output is then not included
+     * in the text returned by <code>run()</code>.
+     * 
+     * @param listener the listener, or null to return the whole output
+     */
+    public void setOutputListener(OutputListener listener) {
+        this.outputListener = listener;
     }
 
     /**
@@ -151,6 +196,7 @@ public class ExternalProgram {
         	}
         	
             BuilderRegistry.printToConsole("running: " + commandSB.toString());
+            long spawnStart = System.nanoTime();
             Runtime rt = Runtime.getRuntime();
             
             // Add builder program path to environmet variables.
@@ -166,6 +212,7 @@ public class ExternalProgram {
             
             String[] env = PathUtils.mergeEnvFromPrefs(envProp, TexlipseProperties.BUILD_ENV_SETTINGS);
             process = rt.exec(command, env, dir);
+            spawnTime = System.nanoTime() - spawnStart;
             
         } else {
             throw new IllegalStateException();
@@ -173,10 +220,20 @@ public class ExternalProgram {
 
         final StringBuffer thErrorOutput = new StringBuffer();
         final StringBuffer thOutput = new StringBuffer();
+        final BlockingQueue<String> lines = new LinkedBlockingQueue<String>();
+        final boolean streaming = outputListener != null;
         
         // scan the standard output stream
         final OutputScanner scanner = new OutputScanner(process.getInputStream(), 
                 process.getOutputStream(), queryMessage, consoleOutput);
+        if (streaming) {
+            // hand the lines over to this thread
+            scanner.setOutputListener(new OutputListener() {
+                public void outputLine(String line) {
+                    lines.add(line);
+                }
+            });
+        }
         
         // scan also the standard error stream
         final OutputScanner errorScanner = new OutputScanner(process.getErrorStream(), 
@@ -191,8 +248,18 @@ public class ExternalProgram {
         };
         final Thread outputThread = new Thread() {
             public void run() {
+                try {
+                    scanOutput();
+                } finally {
+                    lines.add(END_OF_OUTPUT);
+                }
+            }
+
+            private void scanOutput() {
                 if (scanner.scanOutput()) {
-                    thOutput.append(scanner.getText());
+                    if (!streaming) {
+                        thOutput.append(scanner.getText());
+                    }
                 } else {
                     // Abort by user: Abort build, clear all output
                     process.destroy();
@@ -211,6 +278,15 @@ public class ExternalProgram {
         outputThread.start();
         errorThread.start();
         try {
+            if (streaming) {
+                // process the output while the program is running
+                String line;
+                while ((line = lines.take()) != END_OF_OUTPUT) {
+                    long start = System.nanoTime();
+                    outputListener.outputLine(line);
+                    listenerTime += System.nanoTime() - start;
+                }
+            }
             // Wait until stream read has finished
             errorThread.join();
             outputThread.join();
@@ -11,12 +11,18 @@
 package org.eclipse.texlipse.builder;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.jface.preference.IPreferenceStore;
+import org.eclipse.texlipse.PathUtils;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.builder.Kpath;
 import org.eclipse.texlipse.properties.TexlipseProperties;
@@ -29,11 +35,39 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
  * this lets us integrate with other parts of TeXlipse with
  * minimal effort.
  * 
+ * The results of kpsewhich are cached for all instances, keyed by the
+ * program, the query and the directory kpsewhich is run in. The cache is
+ * cleared when the kpsewhich program or the kpathsea environment
+ * variables change.
+ * 
  * @author Christopher Hoskin
  *
  */
 public class KpsewhichRunner implements ProgramRunner {
 
+    /**
+     * How long (in milliseconds) a file that was not found is remembered,
+     * as it may be installed at any time
+     */
+    private static final long NOT_FOUND_TIMEOUT = 30000;
+
+    /**
+     * A cached result of kpsewhich.
+     */
+    private static class CacheEntry {
+        final Object value;
+        final long time;
+
+        CacheEntry(Object value) {
+            this.value = value;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    private static final Map<String, CacheEntry> cache = new ConcurrentHashMap<String, CacheEntry>();
+    // the program and environment the cached results were produced with
+    private static String cacheEnvironment = null;
+
     // the currently running program
     private ExternalProgram extrun;
     
@@ -168,6 +202,80 @@ public class KpsewhichRunner implements ProgramRunner {
 		
 	}
 	
+    /**
+     * Returns the kpathsea environment of kpsewhich, i.e. the program and
+     * the variables that determine the search paths. The cache is only
+     * valid as long as this stays the same.
+     * 
+     * @return A string describing the environment
+     */
+    private String getEnvironment() {
+        StringBuilder sb = new StringBuilder(getProgramPath());
+        Map<String, String> env = new TreeMap<String, String>(System.getenv());
+        env.putAll(PathUtils.getPreferenceMap(TexlipseProperties.BUILD_ENV_SETTINGS));
+        for (Map.Entry<String, String> e : env.entrySet()) {
+            String key = e.getKey().toUpperCase();
+            if (key.startsWith("TEXMF") || key.startsWith("KPSE") || key.endsWith("INPUTS")
+                    || key.equals("PATH")) {
+                sb.append('\0').append(e.getKey()).append('=').append(e.getValue());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the cached result for the given query, clearing the cache
+     * if the kpathsea environment has changed.
+     * 
+     * @param key The query
+     * @return The cached result or null if there is none
+     */
+    private Object getCached(String key) {
+        String environment = getEnvironment();
+        synchronized (cache) {
+            if (!environment.equals(cacheEnvironment)) {
+                cache.clear();
+                cacheEnvironment = environment;
+                return null;
+            }
+        }
+        CacheEntry entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.value instanceof String) {
+            String path = (String) entry.value;
+            boolean valid;
+            if (path.length() == 0) {
+                // not found, but may have been installed since
+                valid = System.currentTimeMillis() - entry.time < NOT_FOUND_TIMEOUT;
+            } else {
+                // relative paths are relative to the folder in the key
+                File f = new File(path);
+                valid = !f.isAbsolute() || f.exists();
+            }
+            if (!valid) {
+                cache.remove(key);
+                return null;
+            }
+        }
+        return entry.value;
+    }
+
+    /**
+     * @return The cache key of a query run in the given folder
+     */
+    private static String getCacheKey(IResource resource, String query) {
+        return resource.getLocation().toFile().getParent() + '\0' + query;
+    }
+
+    /**
+     * Clears the cached results of kpsewhich.
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
 	/**
 	 * Get the path to a file
 	 * 
@@ -177,14 +285,90 @@ public class KpsewhichRunner implements ProgramRunner {
 	 * @return the path to the file or an empty string if no path was found
 	 */
 	public String getFile(IResource resource, String filename, String progname) throws CoreException {
+	    String key = getCacheKey(resource, progname + '\0' + filename);
+	    String path = (String) getCached(key);
+	    if (path != null) {
+	        return path;
+	    }
 	    
         String[] command = {getProgramPath(),"-progname="+progname, filename};
         
 		String output = run(command, resource);
 		       
         String[] outList = output.split("\r\n|\r|\n");
+        cache.put(key, new CacheEntry(outList[0]));
 		return outList[0];
 	}
+
+    /**
+     * Gets the paths to several files with a single run of kpsewhich.
+     * Files that are already cached are not searched again.
+     * 
+     * @param resource folder to run kpsewhich in
+     * @param filenames Names of the files to find
+     * @param progname Name of the calling program (path searched may depend on this)
+     * @return the paths to the files in the same order as the names, an
+     * empty string for each file that was not found
+     */
+    public String[] getFiles(IResource resource, String[] filenames, String progname) throws CoreException {
+        String[] paths = new String[filenames.length];
+        List<String> command = new ArrayList<String>();
+        List<Integer> searched = new ArrayList<Integer>();
+        command.add(getProgramPath());
+        command.add("-progname=" + progname);
+        for (int i = 0; i < filenames.length; i++) {
+            paths[i] = (String) getCached(getCacheKey(resource, progname + '\0' + filenames[i]));
+            if (paths[i] == null) {
+                command.add(filenames[i]);
+                searched.add(i);
+            }
+        }
+        if (searched.isEmpty()) {
+            return paths;
+        }
+
+        String output = run(command.toArray(new String[command.size()]), resource);
+
+        // kpsewhich prints the paths of the found files in the order of
+        // the arguments and omits the files it didn't find
+        String[] outList = output.split("\r\n|\r|\n");
+        int next = 0;
+        for (String line : outList) {
+            if (line.length() == 0) {
+                continue;
+            }
+            for (int j = next; j < searched.size(); j++) {
+                if (isPathOf(line, filenames[searched.get(j)])) {
+                    paths[searched.get(j)] = line;
+                    next = j + 1;
+                    break;
+                }
+            }
+        }
+        for (int i : searched) {
+            if (paths[i] == null) {
+                paths[i] = "";
+            }
+            cache.put(getCacheKey(resource, progname + '\0' + filenames[i]), new CacheEntry(paths[i]));
+        }
+        return paths;
+    }
+
+    /**
+     * Checks whether the given path found by kpsewhich is the path of the
+     * given file. The file may be given without its extension.
+     */
+    private static boolean isPathOf(String path, String filename) {
+        String name = path.replace('\\', '/');
+        String file = filename.replace('\\', '/');
+        if (name.endsWith(file) && (name.length() == file.length()
+                || name.charAt(name.length() - file.length() - 1) == '/')) {
+            return true;
+        }
+        int ext = name.lastIndexOf('.');
+        return ext > name.lastIndexOf('/') && isPathOf(name.substring(0, ext), file)
+            && file.lastIndexOf('.') <= file.lastIndexOf('/');
+    }
 	
 	/**
 	 * Gets the paths Kpathsea will search for a particular type of file
@@ -194,10 +378,16 @@ public class KpsewhichRunner implements ProgramRunner {
 	 * @throws CoreException Thrown if running kpsewhich throws an exception
 	 */
 	public Kpath[] getSearchPaths(IResource resource, String ext) throws CoreException {
+	    String key = getCacheKey(resource, "-show-path\0" + ext);
+	    Object cached = getCached(key);
+	    if (cached != null) {
+	        return cached instanceof Kpath[] ? ((Kpath[]) cached).clone() : null;
+	    }
 		String[] command = {getProgramPath(), "-show-path", ext};
 		String output = run(command, resource);
 	    
 		if (output.startsWith("warning: kpsewhich: Ignoring unknown file type")) {
+		    cache.put(key, new CacheEntry(Boolean.FALSE));
 			return null;
 		} else {
 			String[] outList = output.split(java.io.File.pathSeparator+"|\r\n|\r|\n");
@@ -206,6 +396,7 @@ public class KpsewhichRunner implements ProgramRunner {
 				String unpack = outList[i];
 				kpaths[i] = new Kpath(unpack);
 			}
+			cache.put(key, new CacheEntry(kpaths.clone()));
 			return kpaths;
 		}
 	}
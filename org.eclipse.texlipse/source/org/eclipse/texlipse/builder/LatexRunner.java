@@ -10,8 +10,9 @@
  *******************************************************************************/
 package org.eclipse.texlipse.builder;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Stack;
-import java.util.StringTokenizer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,7 +20,11 @@ import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.properties.TexlipseProperties;
@@ -35,16 +40,31 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
 public class LatexRunner extends AbstractProgramRunner {
     
     private static final int MAX_LINE_LENGTH = 79;
-	
-	private Stack<String> parsingStack;
-    private boolean alreadyShowError;
+
+    /**
+     * Number of problems that are collected before the markers are created
+     */
+    private static final int MARKER_BATCH_SIZE = 32;
+
+    private static final Pattern LATEXERROR = Pattern.compile("^! LaTeX Error: (.*)$");
+    private static final Pattern LATEXCERROR = Pattern.compile("^(.+?\\.\\w{3}):(\\d+): (.+)$");
+    private static final Pattern TEXERROR = Pattern.compile("^!\\s+(.*)$");
+    private static final Pattern FULLBOX = Pattern.compile("^(?:Over|Under)full \\\\[hv]box .* at lines? (\\d+)-?-?(\\d+)?");
+    private static final Pattern WARNING = Pattern.compile("^.+[Ww]arning.*: (.*)$");
+    private static final Pattern ATLINE =  Pattern.compile("^l\\.(\\d+)(.*)$");
+    private static final Pattern ATLINE2 =  Pattern.compile(".* line (\\d+).*");
+    private static final Pattern NOBIBFILE = Pattern.compile("^No file .+\\.bbl\\.$");
+    private static final Pattern NOTOCFILE = Pattern.compile("^No file .+\\.toc\\.$");
+    private static final Pattern SPACES = Pattern.compile(" {2,}");
+
+    // the parser of the running program's output
+    private LogParser logParser;
     
     /**
      * Create a new ProgramRunner.
      */
     public LatexRunner() {
         super();
-        this.parsingStack = new Stack<String>();
     }
     
     protected String getWindowsProgramName() {
@@ -132,65 +152,182 @@ public class LatexRunner extends AbstractProgramRunner {
     }
     
     /**
-     * Parse the output of the LaTeX program.
+     * Parses the output of the LaTeX program while the program is running.
+     * 
+     * @param resource the input file that is processed
+     * @return the parser of the output
+     */
+    protected OutputListener createOutputListener(IResource resource) {
+        logParser = new LogParser(resource);
+        return logParser;
+    }
+
+    /**
+     * Parse the output of the LaTeX program. The standard output has
+     * already been parsed while the program was running, so only the
+     * remaining (error) output is parsed here.
      * 
      * @param resource the input file that was processed
      * @param output the output of the external program
      * @return true, if error messages were found in the output, false otherwise
      */
     protected boolean parseErrors(IResource resource, String output) {
-        
-        TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN, null);
-        TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_BIBTEX_RERUN, null);
-        
-        parsingStack.clear();
-        boolean errorsFound = false;
-        boolean citeNotfound = false;
-        alreadyShowError = false;
-        StringTokenizer st = new StringTokenizer(output, "\r\n");
+        LogParser parser = logParser != null ? logParser : new LogParser(resource);
+        logParser = null;
 
-        final Pattern LATEXERROR = Pattern.compile("^! LaTeX Error: (.*)$");
-        final Pattern LATEXCERROR = Pattern.compile("^(.+?\\.\\w{3}):(\\d+): (.+)$");
-        final Pattern TEXERROR = Pattern.compile("^!\\s+(.*)$");
-        final Pattern FULLBOX = Pattern.compile("^(?:Over|Under)full \\\\[hv]box .* at lines? (\\d+)-?-?(\\d+)?");
-        final Pattern WARNING = Pattern.compile("^.+[Ww]arning.*: (.*)$");
-        final Pattern ATLINE =  Pattern.compile("^l\\.(\\d+)(.*)$");
-        final Pattern ATLINE2 =  Pattern.compile(".* line (\\d+).*");
-        final Pattern NOBIBFILE = Pattern.compile("^No file .+\\.bbl\\.$");
-        final Pattern NOTOCFILE = Pattern.compile("^No file .+\\.toc\\.$");
-        
-        String line;
-        boolean hasProblem = false;
-        String error = null;
-        int severity = IMarker.SEVERITY_WARNING;
-        int linenr = -1;
-        String occurance = null;
-        
-        while (st.hasMoreTokens()) {
-            line = st.nextToken();
+        int start = 0;
+        while (start < output.length()) {
+            int end = output.indexOf('\n', start);
+            if (end < 0) {
+                end = output.length();
+            }
+            parser.outputLine(output.substring(start, end));
+            start = end + 1;
+        }
+        return parser.finish();
+    }
+
+    /**
+     * A problem found in the output, waiting for its marker to be created.
+     */
+    private static class Problem {
+        final String error;
+        final String causingSourceFile;
+        final int linenr;
+        final int severity;
+        final boolean layout;
+
+        Problem(String error, String causingSourceFile, int linenr, int severity, boolean layout) {
+            this.error = error;
+            this.causingSourceFile = causingSourceFile;
+            this.linenr = linenr;
+            this.severity = severity;
+            this.layout = layout;
+        }
+    }
+
+    /**
+     * Parses the output of the LaTeX program line by line. Some messages
+     * continue on the following line, so the parser remembers what it
+     * expects from the next line. The problems are collected and their
+     * markers created in batches.
+     */
+    private class LogParser implements OutputListener {
+
+        // what the next line is expected to be
+        private static final int EXPECT_NONE = 0;
+        private static final int EXPECT_LATEX_ERROR = 1;
+        private static final int EXPECT_WARNING = 2;
+        private static final int EXPECT_ATLINE = 3;
+
+        private final IResource resource;
+        private final Stack<String> parsingStack;
+        private final List<Problem> problems;
+        private boolean alreadyShowError;
+
+        private boolean errorsFound = false;
+        private boolean citeNotfound = false;
+        private boolean hasProblem = false;
+        private String error = null;
+        private int severity = IMarker.SEVERITY_WARNING;
+        private int linenr = -1;
+        private String occurance = null;
+
+        // a line that is wrapped over several lines of output
+        private String wrappedLine;
+        private int expect = EXPECT_NONE;
+        // the line that expects the next line
+        private String expectingLine;
+
+        LogParser(IResource resource) {
+            this.resource = resource;
+            this.parsingStack = new Stack<String>();
+            this.problems = new ArrayList<Problem>();
+            TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN, null);
+            TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_BIBTEX_RERUN, null);
+        }
+
+        public void outputLine(String output) {
+            int start = 0;
+            while (start < output.length()) {
+                int end = output.indexOf('\r', start);
+                if (end < 0) {
+                    end = output.length();
+                }
+                // empty lines carry no information
+                if (end > start) {
+                    nextLine(output.substring(start, end));
+                }
+                start = end + 1;
+            }
+        }
+
+        /**
+         * Finishes the parsing at the end of the output and creates the
+         * remaining markers.
+         * 
+         * @return true, if error messages were found in the output, false otherwise
+         */
+        boolean finish() {
+            if (wrappedLine != null) {
+                String line = wrappedLine;
+                wrappedLine = null;
+                parseLine(line);
+            }
+            if (expect != EXPECT_NONE) {
+                parseExpectedLine("");
+            }
+            if (hasProblem) {
+                // We have a not reported problem
+                addProblem(error, occurance, linenr, severity, false);
+                hasProblem = false;
+            }
+            createMarkers();
+            return errorsFound;
+        }
+
+        /**
+         * Handles a nonempty line of output.
+         */
+        private void nextLine(String line) {
+            if (expect != EXPECT_NONE) {
+                parseExpectedLine(line);
+                return;
+            }
+            if (wrappedLine != null) {
+                line = wrappedLine + line;
+                wrappedLine = null;
+            }
             //Add more lines if line length is a multiple of 79 and
             //it does not end with ...
-            while (!line.endsWith("...") && st.hasMoreTokens() 
-            		&& line.length() % MAX_LINE_LENGTH == 0) {
-            	line = line + st.nextToken();
+            if (!line.endsWith("...") && line.length() % MAX_LINE_LENGTH == 0) {
+                wrappedLine = line;
+                return;
             }
-            line = line.replaceAll(" {2,}", " ").trim();
+            parseLine(line);
+        }
+
+        /**
+         * Parses a complete line of output.
+         */
+        private void parseLine(String line) {
+            line = SPACES.matcher(line).replaceAll(" ").trim();
             Matcher m = LATEXCERROR.matcher(line);
             if (m.matches()) {
                 //C-Style LaTeX error
-                addProblemMarker(m.group(3), m.group(1), Integer.parseInt(m.group(2)), IMarker.SEVERITY_ERROR, resource, false);
+                addProblem(m.group(3), m.group(1), Integer.parseInt(m.group(2)), IMarker.SEVERITY_ERROR, false);
                 //Maybe parsingStack is empty...
                 if (parsingStack.isEmpty()) {
                     //Add the file to the stack
                     parsingStack.push("(" + m.group(1));
                 }
-                continue;
+                return;
             }
             m = TEXERROR.matcher(line);
             if (m.matches() && line.toLowerCase().indexOf("warning") == -1) {
                 if (hasProblem) {
                     // We have a not reported problem
-                    addProblemMarker(error, occurance, linenr, severity, resource, false);
+                    addProblem(error, occurance, linenr, severity, false);
                     linenr = -1;
                 }
                 hasProblem = true;
@@ -199,34 +336,27 @@ public class LatexRunner extends AbstractProgramRunner {
                 occurance = determineSourceFile();
                 Matcher m2 = LATEXERROR.matcher(line);
                 if (m2.matches()) {
-                    // LaTex error
+                    // LaTex error, continues on the next line
                     error = m2.group(1);
-
-        
-                    String part2 = st.nextToken().trim();
-                    
-                    if (Character.isLowerCase(part2.charAt(0))) {
-                        error += ' ' + part2;
-                    }
-                    updateParsedFile(part2);
-                    continue;
+                    expect(EXPECT_LATEX_ERROR, line);
+                    return;
                 }
                 if (line.startsWith("! Undefined control sequence.")){
                     // Undefined Control Sequence
                     error = "Undefined control sequence: ";
-                    continue;
+                    return;
                 }
                 m2 = WARNING.matcher(line);
                 if (m2.matches())
                     severity = IMarker.SEVERITY_WARNING;
                 error = m.group(1);
-                continue;
+                return;
             }
             m = WARNING.matcher(line);
             if (m.matches()){
                 if (hasProblem){
                     // We have a not reported problem
-                    addProblemMarker(error, occurance, linenr, severity, resource, false);
+                    addProblem(error, occurance, linenr, severity, false);
                     linenr = -1;
                     hasProblem = false;
                 }
@@ -234,7 +364,7 @@ public class LatexRunner extends AbstractProgramRunner {
                     // prepare to re-run latex
                     TexlipseProperties.setSessionProperty(resource.getProject(),
                             TexlipseProperties.SESSION_LATEX_RERUN, "true");
-                    continue;
+                    return;
                 }
                 else if (line.indexOf("There were undefined") > -1) {
                     if (citeNotfound) {
@@ -242,57 +372,37 @@ public class LatexRunner extends AbstractProgramRunner {
                         TexlipseProperties.setSessionProperty(resource.getProject(),
                                 TexlipseProperties.SESSION_BIBTEX_RERUN, "true");
                     }
-                    continue;
+                    return;
                 }
 
                 // Ignore undefined references because they are
                 // found by the parser
                 if (line.indexOf("Warning: Reference ") > -1)
-                    continue;
+                    return;
                 if (line.indexOf("Warning: Citation ") > -1) {
                     citeNotfound = true;
-                    continue;
+                    return;
                 }
                 severity = IMarker.SEVERITY_WARNING;
                 occurance = determineSourceFile();
                 hasProblem = true;
+                error = m.group(1);
+                //Try to get the line number
+                Matcher pM = ATLINE2.matcher(line);
+                if (pM.matches()) {
+                    linenr = Integer.parseInt(pM.group(1));
+                }
                 if (line.startsWith("LaTeX Warning: ") || line.indexOf("pdfTeX warning") != -1) {
-                    error = m.group(1);
-                    //Try to get the line number
-                    Matcher pM = ATLINE2.matcher(line);
-                    if (pM.matches()) {
-                        linenr = Integer.parseInt(pM.group(1));
-                    }
-                    String nextLine = st.nextToken().replaceAll(" {2,}", " ");
-                    pM = ATLINE2.matcher(nextLine);
-                    if (pM.matches()) {
-                        linenr = Integer.parseInt(pM.group(1));
-                    }
-                    updateParsedFile(nextLine);
-                    error += nextLine;
-                    if (linenr != -1) {
-                        addProblemMarker(line, occurance, linenr, severity,
-                                resource, false);
-                        hasProblem = false;
-                        linenr = -1;
-                    }
-                    continue;
-                } else {
-                    error = m.group(1);
-                    //Try to get the line number
-                    Matcher pM = ATLINE2.matcher(line);
-                    if (pM.matches()) {
-                        linenr = Integer.parseInt(pM.group(1));
-                    }
-                    continue;
+                    // the warning continues on the next line
+                    expect(EXPECT_WARNING, line);
                 }
+                return;
             }
             m = FULLBOX.matcher(line);
             if (m.matches()) {
                 if (hasProblem) {
                     // We have a not reported problem
-                    addProblemMarker(error, occurance, linenr, severity,
-                            resource, false);
+                    addProblem(error, occurance, linenr, severity, false);
                     linenr = -1;
                     hasProblem = false;
                 }
@@ -300,87 +410,186 @@ public class LatexRunner extends AbstractProgramRunner {
                 occurance = determineSourceFile();
                 error = line;
                 linenr = Integer.parseInt(m.group(1));
-                addProblemMarker(line, occurance, linenr, severity, resource,
-                        true);
+                addProblem(line, occurance, linenr, severity, true);
                 hasProblem = false;
                 linenr = -1;
-                continue;
+                return;
             }
             m = NOBIBFILE.matcher(line);
             if (m.matches()){
                 // prepare to run bibtex
                 TexlipseProperties.setSessionProperty(resource.getProject(),
                         TexlipseProperties.SESSION_BIBTEX_RERUN, "true");
-                continue;
+                return;
             }
             m = NOTOCFILE.matcher(line);
             if (m.matches()){
                 // prepare to re-run latex
                 TexlipseProperties.setSessionProperty(resource.getProject(),
                         TexlipseProperties.SESSION_LATEX_RERUN, "true");
-                continue;
+                return;
             }
             m = ATLINE.matcher(line);
             if (hasProblem && m.matches()) {
+                // the source line continues on the next line
                 linenr = Integer.parseInt(m.group(1));
-                String part2 = st.nextToken();
+                expect(EXPECT_ATLINE, line);
+                return;
+            }
+            parseOtherLine(line);
+        }
+
+        /**
+         * Parses the line that continues the message of the previous line.
+         */
+        private void parseExpectedLine(String nextLine) {
+            String line = expectingLine;
+            int expected = expect;
+            expect = EXPECT_NONE;
+            expectingLine = null;
+
+            switch (expected) {
+            case EXPECT_LATEX_ERROR:
+                String part2 = nextLine.trim();
+                if (part2.length() > 0 && Character.isLowerCase(part2.charAt(0))) {
+                    error += ' ' + part2;
+                }
+                updateParsedFile(part2);
+                break;
+            case EXPECT_WARNING:
+                nextLine = SPACES.matcher(nextLine).replaceAll(" ");
+                Matcher pM = ATLINE2.matcher(nextLine);
+                if (pM.matches()) {
+                    linenr = Integer.parseInt(pM.group(1));
+                }
+                updateParsedFile(nextLine);
+                error += nextLine;
+                if (linenr != -1) {
+                    addProblem(line, occurance, linenr, severity, false);
+                    hasProblem = false;
+                    linenr = -1;
+                }
+                break;
+            case EXPECT_ATLINE:
                 int index = line.indexOf(' ');
                 if (index > -1) {
-	                error += " " + line.substring(index).trim() + " (followed by: "
-	                        + part2.trim() + ")";
-	                addProblemMarker(error, occurance, linenr, severity, resource,
-	                        false);
-	                linenr = -1;
-	                hasProblem = false;
-	                continue;
+                    error += " " + line.substring(index).trim() + " (followed by: "
+                            + nextLine.trim() + ")";
+                    addProblem(error, occurance, linenr, severity, false);
+                    linenr = -1;
+                    hasProblem = false;
+                } else {
+                    parseOtherLine(line);
                 }
+                break;
             }
-            m = ATLINE2.matcher(line);
+        }
+
+        /**
+         * Parses a line that doesn't start a message.
+         */
+        private void parseOtherLine(String line) {
+            Matcher m = ATLINE2.matcher(line);
             if (hasProblem && m.matches()) {
                 linenr = Integer.parseInt(m.group(1));
-                addProblemMarker(error, occurance, linenr, severity, resource,
-                        false);
+                addProblem(error, occurance, linenr, severity, false);
                 linenr = -1;
                 hasProblem = false;
-                continue;
+                return;
             }
             updateParsedFile(line);
         }
-        if (hasProblem) {
-            // We have a not reported problem
-            addProblemMarker(error, occurance, linenr, severity, resource, false);
+
+        private void expect(int what, String line) {
+            expect = what;
+            expectingLine = line;
         }
-        return errorsFound;
-    }
-    
-    /**
-     * Updates the stack that determines which file we are currently
-     * parsing, so that errors can be annotated in the correct file. 
-     * 
-     * @param logLine A line from latex' output containing which file we are in
-     */
-    private void updateParsedFile(String logLine) {
-        if (logLine.indexOf('(') == -1 && logLine.indexOf(')') == -1)
-            return;
-        for (int i = 0; i < logLine.length(); i++) {
-            if (logLine.charAt(i) == '(') {
-                int j;
-                for (j = i + 1; j < logLine.length()
-                        && isAllowedinName(logLine.charAt(j)); j++)
-                    ;
-                parsingStack.push(logLine.substring(i, j).trim());
-                i = j - 1;
-            } else if (logLine.charAt(i) == ')' && !parsingStack.isEmpty()) {
-                parsingStack.pop();
-            } else if (logLine.charAt(i) == ')' && !alreadyShowError) {
-                alreadyShowError = true;
-                // There was a parsing error, this is very rare
-                TexlipsePlugin.log("Error while parsing the LaTeX output. " +
-                        "Please consult the console output", null);
+
+        /**
+         * Collects a problem, creating the markers when a batch is full.
+         */
+        private void addProblem(String error, String causingSourceFile,
+                int linenr, int severity, boolean layout) {
+            problems.add(new Problem(error, causingSourceFile, linenr, severity, layout));
+            if (problems.size() >= MARKER_BATCH_SIZE) {
+                createMarkers();
+            }
+        }
+
+        /**
+         * Creates the markers of the collected problems in one workspace
+         * operation.
+         */
+        private void createMarkers() {
+            if (problems.isEmpty()) {
+                return;
+            }
+            final Problem[] batch = problems.toArray(new Problem[problems.size()]);
+            problems.clear();
+            long start = System.nanoTime();
+            try {
+                resource.getWorkspace().run(new IWorkspaceRunnable() {
+                    public void run(IProgressMonitor monitor) throws CoreException {
+                        for (Problem p : batch) {
+                            addProblemMarker(p.error, p.causingSourceFile, p.linenr,
+                                    p.severity, resource, p.layout);
+                        }
+                    }
+                }, null, IWorkspace.AVOID_UPDATE, null);
+            } catch (CoreException e) {
+                TexlipsePlugin.log("Unable to create problem markers", e);
+            }
+            BuildMetrics.record(resource, "markers", start);
+        }
+
+        /**
+         * Updates the stack that determines which file we are currently
+         * parsing, so that errors can be annotated in the correct file. 
+         * 
+         * @param logLine A line from latex' output containing which file we are in
+         */
+        private void updateParsedFile(String logLine) {
+            if (logLine.indexOf('(') == -1 && logLine.indexOf(')') == -1)
+                return;
+            for (int i = 0; i < logLine.length(); i++) {
+                if (logLine.charAt(i) == '(') {
+                    int j;
+                    for (j = i + 1; j < logLine.length()
+                            && isAllowedinName(logLine.charAt(j)); j++)
+                        ;
+                    parsingStack.push(logLine.substring(i, j).trim());
+                    i = j - 1;
+                } else if (logLine.charAt(i) == ')' && !parsingStack.isEmpty()) {
+                    parsingStack.pop();
+                } else if (logLine.charAt(i) == ')' && !alreadyShowError) {
+                    alreadyShowError = true;
+                    // There was a parsing error, this is very rare
+                    TexlipsePlugin.log("Error while parsing the LaTeX output. " +
+                            "Please consult the console output", null);
+                }
             }
         }
-    }
 
+        /**
+         * Determines the source file we are currently parsing.
+         * 
+         * @return The filename or null if no file could be determined
+         */
+        private String determineSourceFile() {
+            int i = parsingStack.size()-1;
+            while (i >= 0) {
+                String fileName = parsingStack.get(i).substring(1);
+                //Remove "
+                if (fileName.startsWith("\"") && fileName.endsWith("\"")) {
+                    fileName = fileName.substring(1, fileName.length() - 1);
+                }
+                if (isValidName(fileName)) return fileName;
+                i--;
+            }
+            return null;
+        }
+    }
+    
     /**
      * Check if the character is allowed in a filename
      * @param c the character
@@ -401,23 +610,4 @@ public class LatexRunner extends AbstractProgramRunner {
         if (name.length()-p > 10) return false;
         return true;
     }
-    
-    /**
-     * Determines the source file we are currently parsing.
-     * 
-     * @return The filename or null if no file could be determined
-     */
-    private String determineSourceFile() {
-        int i = parsingStack.size()-1;
-        while (i >= 0) {
-            String fileName = parsingStack.get(i).substring(1);
-            //Remove "
-            if (fileName.startsWith("\"") && fileName.endsWith("\"")) {
-                fileName = fileName.substring(1, fileName.length() - 1);
-            }
-            if (isValidName(fileName)) return fileName;
-            i--;
-        }
-        return null;
-    }
 }
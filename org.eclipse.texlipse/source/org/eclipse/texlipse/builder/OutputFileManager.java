@@ -602,11 +602,13 @@ public class OutputFileManager {
      * @throws CoreException if an error occurs
      */
     public void performBeforeBuild(IProgressMonitor monitor) throws CoreException {
+        long start = System.nanoTime();
         // capture current state of build and temp folder
         tracking.refreshSnapshots(sourceDir, monitor);
 
         // use temp files from previous build
         restoreTempFiles(monitor);
+        BuildMetrics.record(project, "file moves", start);
     }
 
     /**
@@ -633,8 +635,11 @@ public class OutputFileManager {
 
         // make sure this has access to all files (if this fails, it means trouble to
         // all following steps)
+        long start = System.nanoTime();
         refreshView(monitor);
+        BuildMetrics.record(project, "refresh", start);
 
+        start = System.nanoTime();
         Set<IPath> outputFiles = null;
         try { // possibly move output files away from the source dir and mark as derived
             outputFiles = moveOutputFiles(monitor);
@@ -654,6 +659,9 @@ public class OutputFileManager {
             }
         }
 
+        BuildMetrics.record(project, "file moves", start);
+
+        start = System.nanoTime();
         try {
             refreshView(monitor);
         } catch (CoreException e) {
@@ -662,6 +670,7 @@ public class OutputFileManager {
                 ex = e;
             }
         }
+        BuildMetrics.record(project, "refresh", start);
 
         tracking.clearSnapshots();
         // now throw any pending exception, after cleaning up
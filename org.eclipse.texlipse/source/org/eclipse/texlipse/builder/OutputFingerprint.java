@@ -0,0 +1,418 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.builder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.texlipse.TexlipsePlugin;
+
+/**
+ * Fingerprints of the auxiliary files of a LaTeX build. Comparing the
+ * fingerprints taken before and after a program run tells whether the
+ * files changed, i.e. whether LaTeX has to be run again or whether
+ * BibTeX or makeindex would produce the same output as last time.
+ *
+ * A fingerprint is a string listing the checksums of the files, so it can
+ * be stored in a session property and compared with <code>equals()</code>.
+ *
+ * @author The TeXlipse team
+ */
+final class OutputFingerprint {
+
+    /**
+     * The extensions of the files that LaTeX reads back on the next run
+     */
+    private static final String[] LATEX_INPUT_EXTS = { ".toc", ".lof", ".lot", ".bbl", ".ind", ".nls" };
+
+    /**
+     * The data sources in the control file of biber
+     */
+    private static final Pattern BCF_DATASOURCE = Pattern.compile(
+            "<bcf:datasource([^>]*)>([^<]*)</bcf:datasource>");
+
+    /**
+     * The messages in the LaTeX log that ask for another BibTeX or biber run
+     */
+    private static final String[] LOG_RERUN_BIB = { "undefined citations",
+            "Please (re)run Biber", "Please (re)run BibTeX", "Please rerun BibTeX" };
+
+    private OutputFingerprint() {
+    }
+
+    /**
+     * Fingerprints the files written by one LaTeX run and read by the next:
+     * all .aux files of the build directory and the tables, bibliography
+     * and indices of the document.
+     *
+     * @param dir the directory LaTeX is run in
+     * @param baseName the name of the document without extension
+     * @return the fingerprint
+     */
+    static String ofLatexInput(File dir, String baseName) {
+        StringBuilder sb = new StringBuilder();
+        File[] auxFiles = dir.listFiles();
+        if (auxFiles != null) {
+            // listFiles() doesn't guarantee any order
+            Arrays.sort(auxFiles);
+            for (File f : auxFiles) {
+                if (f.getName().endsWith(".aux")) {
+                    append(sb, f);
+                }
+            }
+        }
+        for (String ext : LATEX_INPUT_EXTS) {
+            append(sb, new File(dir, baseName + ext));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Fingerprints the input of BibTeX: the citation, database and style
+     * commands of the .aux files and the database and style files. For
+     * biber, the control file and the data sources it lists are used too.
+     * The files are looked up like the programs do, in the build directory
+     * and with kpsewhich.
+     *
+     * The fingerprint never matches an earlier one if a file can't be
+     * found, or if the .aux files or the log of the LaTeX run show that
+     * citations are undefined.
+     *
+     * @param resource the document being built
+     * @param biber true if the bibliography is processed with biber
+     * @return the fingerprint
+     */
+    static String ofBibtexInput(IResource resource, boolean biber) {
+        File dir = resource.getLocation().toFile().getParentFile();
+        String baseName = resource.getLocation().removeFileExtension().lastSegment();
+        StringBuilder sb = new StringBuilder();
+        List<String> files = new ArrayList<String>();
+        if (biber) {
+            File bcf = new File(dir, baseName + ".bcf");
+            append(sb, bcf);
+            appendDatasources(sb, bcf, files);
+        }
+        Set<String> visited = new HashSet<String>();
+        Set<String> citations = new HashSet<String>();
+        Set<String> bibcites = new HashSet<String>();
+        boolean biblatex = appendBibtexCommands(sb, dir, baseName + ".aux", visited,
+                files, citations, bibcites);
+        appendFiles(sb, resource, dir, files, biber ? "biber" : "bibtex");
+
+        // with biblatex, the citations are defined in the .bbl
+        citations.removeAll(bibcites);
+        citations.remove("*");
+        if ((!biblatex && !citations.isEmpty())
+                || logContains(new File(dir, baseName + ".log"), LOG_RERUN_BIB)) {
+            neverMatch(sb, "citations");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Fingerprints a single file.
+     *
+     * @param file the file
+     * @return the fingerprint
+     */
+    static String ofFile(File file) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, file);
+        return sb.toString();
+    }
+
+    /**
+     * Appends the BibTeX relevant lines of the given .aux file and the files
+     * it refers to, and collects the database and style files, the cited
+     * keys and the keys BibTeX has defined.
+     *
+     * @return true if the .aux files were written by biblatex
+     */
+    private static boolean appendBibtexCommands(StringBuilder sb, File dir, String auxName,
+            Set<String> visited, List<String> files, Set<String> citations,
+            Set<String> bibcites) {
+        if (!visited.add(auxName)) {
+            return false;
+        }
+        File auxFile = new File(dir, auxName);
+        if (!auxFile.exists()) {
+            sb.append(auxName).append(":-;");
+            return false;
+        }
+        boolean biblatex = false;
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(auxFile));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (line.startsWith("\\citation") || line.startsWith("\\bibstyle")) {
+                        sb.append(line).append('\n');
+                        if (line.startsWith("\\bibstyle{")) {
+                            addArgumentFiles(files, line, ".bst");
+                        } else {
+                            addArguments(citations, line);
+                        }
+                    } else if (line.startsWith("\\bibdata{")) {
+                        sb.append(line).append('\n');
+                        addArgumentFiles(files, line, ".bib");
+                    } else if (line.startsWith("\\bibcite{")) {
+                        int end = line.indexOf('}');
+                        if (end > 0) {
+                            bibcites.add(line.substring("\\bibcite{".length(), end));
+                        }
+                    } else if (line.startsWith("\\abx@aux@")) {
+                        biblatex = true;
+                    } else if (line.startsWith("\\@input{")) {
+                        String name = argument(line);
+                        if (name != null) {
+                            biblatex |= appendBibtexCommands(sb, dir, name, visited,
+                                    files, citations, bibcites);
+                        }
+                    }
+                }
+            } finally {
+                br.close();
+            }
+        } catch (IOException e) {
+            neverMatch(sb, auxName);
+        }
+        return biblatex;
+    }
+
+    /**
+     * Collects the data sources listed in the control file of biber. A data
+     * source that isn't a file never matches.
+     */
+    private static void appendDatasources(StringBuilder sb, File bcf, List<String> files) {
+        if (!bcf.exists()) {
+            return;
+        }
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(bcf));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    Matcher m = BCF_DATASOURCE.matcher(line);
+                    while (m.find()) {
+                        String name = unescapeXml(m.group(2).trim());
+                        if (m.group(1).contains("type=\"file\"")) {
+                            files.add(name);
+                        } else {
+                            neverMatch(sb, name);
+                        }
+                    }
+                }
+            } finally {
+                br.close();
+            }
+        } catch (IOException e) {
+            neverMatch(sb, bcf.getName());
+        }
+    }
+
+    /**
+     * Appends the checksums of the given database and style files. The
+     * files are looked up like BibTeX and biber do: absolute paths as they
+     * are, other paths in the build directory first and then with
+     * kpsewhich, which also searches BIBINPUTS and BSTINPUTS. A file that
+     * isn't found never matches.
+     *
+     * @param progname the program name for kpsewhich
+     */
+    private static void appendFiles(StringBuilder sb, IResource resource, File dir,
+            List<String> files, String progname) {
+        File[] found = new File[files.size()];
+        List<String> external = new ArrayList<String>();
+        for (int i = 0; i < found.length; i++) {
+            File f = new File(files.get(i));
+            if (!f.isAbsolute()) {
+                f = new File(dir, files.get(i));
+                if (!f.exists()) {
+                    external.add(files.get(i));
+                    continue;
+                }
+            }
+            found[i] = f;
+        }
+
+        // look up the other files with one kpsewhich run
+        String[] paths = null;
+        KpsewhichRunner filesearch = new KpsewhichRunner();
+        if (!external.isEmpty() && filesearch.isValid()) {
+            try {
+                paths = filesearch.getFiles(resource,
+                        external.toArray(new String[external.size()]), progname);
+            } catch (CoreException e) {
+                TexlipsePlugin.log("Can't run Kpathsea", e);
+            }
+        }
+        int next = 0;
+        for (int i = 0; i < found.length; i++) {
+            if (found[i] == null) {
+                String path = paths != null ? paths[next] : "";
+                next++;
+                if (path.length() > 0) {
+                    found[i] = new File(path);
+                    if (!found[i].isAbsolute()) {
+                        found[i] = new File(dir, path);
+                    }
+                }
+            }
+            if (found[i] == null || !found[i].exists()) {
+                neverMatch(sb, files.get(i));
+            } else {
+                append(sb, found[i]);
+            }
+        }
+    }
+
+    /**
+     * Adds the names of the files in the argument of the given command.
+     */
+    private static void addArgumentFiles(List<String> files, String line, String ext) {
+        List<String> names = new ArrayList<String>();
+        addArguments(names, line);
+        for (String name : names) {
+            files.add(name.endsWith(ext) ? name : name + ext);
+        }
+    }
+
+    /**
+     * Adds the comma separated values in the argument of the given command.
+     */
+    private static void addArguments(Collection<String> values, String line) {
+        String arg = argument(line);
+        if (arg == null) {
+            return;
+        }
+        for (String value : arg.split(",")) {
+            value = value.trim();
+            if (value.length() > 0) {
+                values.add(value);
+            }
+        }
+    }
+
+    /**
+     * @return true if a line of the given log file contains one of the
+     *  given messages
+     */
+    private static boolean logContains(File log, String[] messages) {
+        if (!log.exists()) {
+            return false;
+        }
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(log));
+            try {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    for (String message : messages) {
+                        if (line.contains(message)) {
+                            return true;
+                        }
+                    }
+                    if (line.contains("Citation `") && line.contains("undefined")) {
+                        return true;
+                    }
+                }
+            } finally {
+                br.close();
+            }
+        } catch (IOException e) {
+            // can't tell
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the given XML text with the predefined entities replaced
+     */
+    private static String unescapeXml(String text) {
+        if (text.indexOf('&') < 0) {
+            return text;
+        }
+        return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    /**
+     * Appends a marker that makes the fingerprint differ from all others,
+     * e.g. for a file that can't be read.
+     */
+    private static void neverMatch(StringBuilder sb, String name) {
+        sb.append(name).append(":?").append(System.nanoTime()).append(';');
+    }
+
+    /**
+     * @return the first brace argument of the given command line
+     */
+    private static String argument(String line) {
+        int start = line.indexOf('{');
+        int end = line.lastIndexOf('}');
+        if (start < 0 || end <= start) {
+            return null;
+        }
+        return line.substring(start + 1, end);
+    }
+
+    /**
+     * Appends the name and checksum of the given file, or a marker if the
+     * file doesn't exist.
+     */
+    private static void append(StringBuilder sb, File f) {
+        sb.append(f.getName()).append(':');
+        if (!f.exists()) {
+            sb.append('-');
+        } else {
+            try {
+                sb.append(f.length()).append('/').append(Long.toHexString(checksum(f)));
+            } catch (IOException e) {
+                // an unreadable file never matches
+                sb.append('?').append(System.nanoTime());
+            }
+        }
+        sb.append(';');
+    }
+
+    /**
+     * @return the CRC32 checksum of the contents of the given file
+     */
+    private static long checksum(File f) throws IOException {
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buff = new byte[8192];
+            int len;
+            while ((len = in.read(buff)) != -1) {
+                crc.update(buff, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+}
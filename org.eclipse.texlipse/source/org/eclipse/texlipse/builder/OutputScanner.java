@@ -51,6 +51,13 @@ public class OutputScanner {
     // output messages to console
     private String consoleOutput;
 
+    // receives the complete lines, null if the whole output is kept
+    private OutputListener listener;
+
+    // how much scanned output is kept after an error message when lines
+    // are handed to a listener
+    private static final int MAX_KEPT_OUTPUT = 65536;
+
     /**
      * Create new OutputProducer.
      * 
@@ -69,6 +76,17 @@ public class OutputScanner {
         this.consoleOutput = console;
     }
 
+    /**
+     * Hands each complete line of the output to the given listener. The
+     * buffer then only keeps the output needed for the query dialog
+     * instead of the whole output.
+     * 
+     * @param listener the listener, or null to keep the whole output
+     */
+    public void setOutputListener(OutputListener listener) {
+        this.listener = listener;
+    }
+
     /**
      * @return the contents of the buffer
      */
@@ -130,22 +148,51 @@ public class OutputScanner {
                     }
                 }
                 
-                if (consoleOutput != null && (char)nextByte == '\n') {
+                if ((consoleOutput != null || listener != null) && (char)nextByte == '\n') {
                     
                     int lf = 1;
-                    if (sb.charAt(sb.length()-2) == '\r') { // fix for windows linefeeds
+                    if (sb.length() > 1 && sb.charAt(sb.length()-2) == '\r') { // fix for windows linefeeds
                         lf++;
                     }
-                    // don't print the whole buffer as the printToConsole() outputs a linefeed
-                    BuilderRegistry.printToConsole(consoleOutput + "> " + sb.substring(startOfLine, sb.length()-lf));
+                    String line = sb.substring(startOfLine, sb.length()-lf);
+                    if (consoleOutput != null) {
+                        // don't print the whole buffer as the printToConsole() outputs a linefeed
+                        BuilderRegistry.printToConsole(consoleOutput + "> " + line);
+                    }
                     startOfLine = sb.length();
+                    if (listener != null) {
+                        listener.outputLine(line);
+                        int removed = compactBuffer(startOfLine);
+                        startOfLine -= removed;
+                        okIndex = Math.max(0, okIndex - removed);
+                    }
                 }
                 
             }
+            if (listener != null && startOfLine < sb.length()) {
+                listener.outputLine(sb.substring(startOfLine));
+            }
         } catch (IOException e) {
         }
         return true;
     }
+
+    /**
+     * Removes the lines that have been handed to the listener from the
+     * buffer. The text from the last error message on is kept for the
+     * query dialog, unless it has grown too long.
+     * 
+     * @param endOfLines the end of the complete lines in the buffer
+     * @return the number of removed characters
+     */
+    private int compactBuffer(int endOfLines) {
+        int keepFrom = sb.lastIndexOf("!", endOfLines);
+        if (keepFrom < 0 || endOfLines - keepFrom > MAX_KEPT_OUTPUT) {
+            keepFrom = endOfLines;
+        }
+        sb.delete(0, keepFrom);
+        return keepFrom;
+    }
     
     /**
      * Create the build error input query dialog.
@@ -21,12 +21,14 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.QualifiedName;
 import org.eclipse.jface.dialogs.MessageDialogWithToggle;
 import org.eclipse.swt.widgets.Shell;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.auxparser.AuxFileParser;
+import org.eclipse.texlipse.model.ProjectState;
 import org.eclipse.texlipse.model.ReferenceContainer;
 import org.eclipse.texlipse.model.ReferenceEntry;
 import org.eclipse.texlipse.properties.TexlipseProperties;
@@ -44,6 +46,8 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
 
     private boolean biblatexMode;
     private String biblatexBackend;
+    private String[] bibs;
+    private ProjectState.Snapshot snapshot;
     private ProgramRunner latex;
     private ProgramRunner bibtex;
     private ProgramRunner makeIndex;
@@ -51,6 +55,11 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
     private String output;
     private boolean stopped;
     private int alternative;
+
+    /**
+     * The maximum number of latex runs after bibtex and makeindex
+     */
+    private static final int MAX_LATEX_RERUNS = 2;
     
     public TexBuilder(int i, String outputFormat, int alt) {
         super(i);
@@ -250,10 +259,17 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
     
 		if (!biblatexMode && parseAuxFiles && auxFile.exists()) {
 			// read all citations from the aux-files and save them for later
+			long start = System.nanoTime();
 			AuxFileParser afp = new AuxFileParser(project, auxFileName);
 			oldCitations = afp.getCitations();
+			BuildMetrics.record(project, "aux parsing", start);
 		}		
     	
+    	// what latex reads from the previous run
+    	File buildDir = resource.getLocation().toFile().getParentFile();
+    	String baseName = resource.getLocation().removeFileExtension().lastSegment();
+    	String latexInput = OutputFingerprint.ofLatexInput(buildDir, baseName);
+    	
     	monitor.subTask("Building document");
         try {
             latex.run(resource);
@@ -275,6 +291,7 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
         String rerun = (String) TexlipseProperties.getSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN);
         
 		if (parseAuxFiles && auxFile.exists()) {
+			long start = System.nanoTime();
 			AuxFileParser afp = new AuxFileParser(project, auxFileName);
 
 			if (!biblatexMode) {
@@ -286,11 +303,10 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
 
 			// add the labels defined in the .aux-file to the label container
 			extractLabels(afp);
+			BuildMetrics.record(project, "aux parsing", start);
 		}
         
         // if bibtex is used, the bibliography might be changed
-        String[] bibs = (String[]) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILE_PROPERTY);
-        
         if (bibs != null && bibs.length > 0 && (runBib != null || bibChange != null)) {
             
 /*            if (error) {
@@ -299,50 +315,31 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
                 }
             }*/
             
-            bibtex.run(resource);
-            if (stopped)
-                return;
+            // bibtex would produce the same bibliography from the same input
+            boolean biber = biblatexMode && "biber".equals(biblatexBackend);
+            String bibInput = OutputFingerprint.ofBibtexInput(resource, biber);
+            if (bibChange != null || !new File(buildDir, baseName + ".bbl").exists()
+                    || !bibInput.equals(TexlipseProperties.getSessionProperty(project,
+                            TexlipseProperties.SESSION_BIBTEX_INPUT))) {
+                if (bibtex instanceof BibtexRunner) {
+                    ((BibtexRunner) bibtex).setSnapshot(snapshot);
+                }
+                bibtex.run(resource);
+                if (stopped)
+                    return;
+                TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_INPUT, bibInput);
+            }
             monitor.worked(10);
             
             TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_BIBTEX_RERUN, null);
             TexlipseProperties.setSessionProperty(project, TexlipseProperties.BIBFILES_CHANGED, null);
             
-            if (runIdx != null) {
-                makeIndex.run(resource);
-                if (stopped)
-                    return;
-                monitor.worked(10);
-            }
-            
-            if (runNomencl != null)
-            {
-                // Running makeindex to build nomenclature index
-                // when %input.nlo file is detected
-                makeIndexNomencl.run(resource);
-                if (stopped)
-                    return;
-                monitor.worked(10);
-            }
-              
-            try {
-                latex.run(resource);
-            } catch (BuilderCoreException ex) {
-                //if (!error)
-                //    throw ex;
-            }
-            if (stopped)
+            if (!runIndices(resource, runIdx, runNomencl))
                 return;
-            monitor.worked(10);
-            clearMarkers(project);
-            try {
-                latex.run(resource);
-            } catch (BuilderCoreException ex) {
-                //if (!error)
-                //    throw ex;
-            }
+              
+            rerunLatex(resource, latexInput, buildDir, baseName);
             if (stopped)
                 return;
-            monitor.worked(10);
             
         } else if (rerun != null || runIdx != null || runNomencl != null) {
 
@@ -352,42 +349,101 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
                 }
             }*/
             
-            if (runIdx != null) {
+            if (!runIndices(resource, runIdx, runNomencl))
+                return;
+            
+            rerunLatex(resource, latexInput, buildDir, baseName);
+            if (stopped)
+                return;
+            
+            TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN, null);
+        }
+    }
+
+    /**
+     * Runs makeindex for the index and the nomenclature, unless their
+     * input is the same as in the previous run and its output still exists.
+     * 
+     * @param resource the document being built
+     * @param runIdx the index file, or null if there is no index
+     * @param runNomencl the nomenclature file, or null if there is none
+     * @return false if the build was stopped
+     * @throws CoreException if makeindex fails
+     */
+    private boolean runIndices(IResource resource, IResource runIdx, IResource runNomencl)
+            throws CoreException {
+        IProject project = resource.getProject();
+        // makeindex writes its output next to the document
+        IPath output = resource.getLocation().removeFileExtension();
+        if (runIdx != null) {
+            String idxInput = OutputFingerprint.ofFile(runIdx.getLocation().toFile());
+            if (!output.addFileExtension(TexlipseProperties.OUTPUT_FORMAT_IDX).toFile().exists()
+                    || !idxInput.equals(TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_MAKEINDEX_INPUT))) {
                 makeIndex.run(resource);
                 if (stopped)
-                    return;
-                monitor.worked(10);
+                    return false;
+                TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_MAKEINDEX_INPUT, idxInput);
             }
-            
-            if (runNomencl != null)
-            {
-                // Running makeindex to build nomenclature index
-                // when %input.nlo file is detected
+            monitor.worked(10);
+        }
+        
+        if (runNomencl != null)
+        {
+            // Running makeindex to build nomenclature index
+            // when %input.nlo file is detected
+            String nloInput = OutputFingerprint.ofFile(runNomencl.getLocation().toFile());
+            if (!output.addFileExtension(TexlipseProperties.OUTPUT_FORMAT_NOMENCL).toFile().exists()
+                    || !nloInput.equals(TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_NOMENCL_INPUT))) {
                 makeIndexNomencl.run(resource);
                 if (stopped)
-                    return;
-                monitor.worked(10);
+                    return false;
+                TexlipseProperties.setSessionProperty(project, TexlipseProperties.SESSION_NOMENCL_INPUT, nloInput);
             }
-            
+            monitor.worked(10);
+        }
+        return true;
+    }
+
+    /**
+     * Runs latex again until the auxiliary files it reads stop changing,
+     * like latexmk does, but at most <code>MAX_LATEX_RERUNS</code> times.
+     * 
+     * @param resource the document being built
+     * @param latexInput the fingerprint of the files the last latex run read
+     * @param buildDir the directory latex is run in
+     * @param baseName the name of the document without extension
+     * @throws CoreException if the build fails
+     */
+    private void rerunLatex(IResource resource, String latexInput, File buildDir,
+            String baseName) throws CoreException {
+        for (int i = 0; i < MAX_LATEX_RERUNS; i++) {
+            String current = OutputFingerprint.ofLatexInput(buildDir, baseName);
+            // latex may also ask for a rerun for files we don't track
+            if (current.equals(latexInput) && TexlipseProperties.getSessionProperty(
+                    resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN) == null) {
+                return;
+            }
+            latexInput = current;
+            clearMarkers(resource.getProject());
             try {
                 latex.run(resource);
             } catch (BuilderCoreException ex) {
                 //if (!error)
-                    //throw ex;
+                //    throw ex;
             }
             if (stopped)
                 return;
             monitor.worked(10);
-            
-            TexlipseProperties.setSessionProperty(resource.getProject(), TexlipseProperties.SESSION_LATEX_RERUN, null);
         }
     }
 
-    public void updateBuilder(IProject project) {
+    public void updateBuilder(IProject project, ProjectState.Snapshot snapshot) {
         // Check if runners need to be updated due to changes in BibTeX / BibLaTeX settings
-        Boolean newBiblatexMode = (Boolean) TexlipseProperties.getSessionProperty(project,
+        Boolean newBiblatexMode = (Boolean) snapshot.get(
                 TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
-        String newBiblatexBackend = (String) TexlipseProperties.getSessionProperty(project,
+        String newBiblatexBackend = (String) snapshot.get(
                 TexlipseProperties.SESSION_BIBLATEXBACKEND_PROPERTY);
         boolean blModeVal = newBiblatexMode != null;
         String blBEVal = newBiblatexBackend != null ? newBiblatexBackend : ""; 
@@ -397,6 +453,8 @@ public class TexBuilder extends AbstractBuilder implements AdaptableBuilder {
         }
         biblatexMode = blModeVal;
         biblatexBackend = newBiblatexBackend;
+        bibs = (String[]) snapshot.get(TexlipseProperties.BIBFILE_PROPERTY);
+        this.snapshot = snapshot;
     }
 
     /**
@@ -22,10 +22,9 @@ import org.eclipse.core.resources.IncrementalProjectBuilder;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.Path;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.texlipse.TexlipsePlugin;
-import org.eclipse.texlipse.model.TexDocumentModel;
+import org.eclipse.texlipse.model.ProjectState;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.texlipse.texparser.LatexParserUtils;
 import org.eclipse.texlipse.viewer.ViewerManager;
@@ -73,38 +72,40 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         Object rebuild = TexlipseProperties.getSessionProperty(project,
                 TexlipseProperties.FORCED_REBUILD);
 
-        // Wait for all scheduled parser jobs, since they could change relevant
-        // session properties
-        for (Job parser : Job.getJobManager().find(TexDocumentModel.PARSER_FAMILY)) {
-            int state = parser.getState();
-            if (state == Job.WAITING || state == Job.SLEEPING) {
-                // If waiting, run immediately
-                parser.cancel();
-                parser.schedule();
-            }
-            try {
-                parser.join();
-            } catch (InterruptedException e) {
-            }
-        }
-
         if (rebuild == null && fileManager.isUpToDate()) {
             return null;
         }
 
         BuilderRegistry.clearConsole();
 
-        Object s = TexlipseProperties.getProjectProperty(project,
-                TexlipseProperties.PARTIAL_BUILD_PROPERTY);
-		if (s != null) {
-			partialBuild(project, fileManager, monitor);
-		} else {
-			buildFile(project, null, fileManager, monitor);
-		}
+        // Don't wait for the running parser jobs; if they change a property
+        // the build uses, the project state triggers another build
+        ProjectState state = ProjectState.getState(project);
+        ProjectState.Snapshot snapshot = state.startBuild();
+        BuildMetrics.start(project);
+        try {
+            Object s = TexlipseProperties.getProjectProperty(project,
+                    TexlipseProperties.PARTIAL_BUILD_PROPERTY);
+            if (s != null) {
+                partialBuild(project, snapshot, fileManager, monitor);
+            } else {
+                buildFile(project, null, snapshot, fileManager, monitor);
+            }
+        } finally {
+            state.buildFinished(snapshot);
+            BuildMetrics metrics = BuildMetrics.finish(project);
+            if (metrics != null && TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(
+                    TexlipseProperties.BUILDER_TIMING_REPORT)) {
+                BuilderRegistry.printToConsole(metrics.getReport());
+            }
+        }
 
 		TexlipseProperties.setSessionProperty(project,
 		        TexlipseProperties.FORCED_REBUILD, null);
 
+        // read the new SyncTeX file before the viewer needs it
+        ViewerManager.scheduleSyncTexIndexUpdate(project);
+
 		return null;
 	}
 
@@ -148,11 +149,13 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
      * Perform a partial build.
      *
      * @param project current project
+     * @param snapshot the document properties at the start of the build
      * @param fileManager output file manager instance
      * @param monitor progress monitor
      * @throws CoreException if an error occurs
      */
     private void partialBuild(final IProject project,
+            final ProjectState.Snapshot snapshot,
             final OutputFileManager fileManager,
             final IProgressMonitor monitor) throws CoreException {
 
@@ -188,17 +191,17 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
             // main file can't be built partially
             // also, bib file changes need full build
             TexlipseProperties.setSessionProperty(project, TexlipseProperties.PARTIAL_BUILD_FILE, null);
-        	buildFile(project, null, fileManager, monitor);
+        	buildFile(project, null, snapshot, fileManager, monitor);
         	return;
         } else if (LatexParserUtils.findCommand(content, "\\documentclass", 0) != -1
                 || LatexParserUtils.findCommand(content, "\\documentstyle", 0) != -1
                 || LatexParserUtils.findBeginEnvironment(content, "document", 0) != null) {
             // A complete tex file (just build it)
             TexlipseProperties.setSessionProperty(project, TexlipseProperties.PARTIAL_BUILD_FILE, file);
-            buildFile(project, file, fileManager, monitor);
+            buildFile(project, file, snapshot, fileManager, monitor);
             return;
         }
-        String tempFileContents = getTempFileContents(file, project, monitor);
+        String tempFileContents = getTempFileContents(file, project, snapshot, monitor);
         if (tempFileContents == null) {
             //Can not create a valid tmp file
             return;
@@ -222,7 +225,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         tmpFile.setDerived(true);
         
         // build temp file
-        buildFile(project, tmpFile, fileManager, monitor);
+        buildFile(project, tmpFile, snapshot, fileManager, monitor);
     }
     
     /**
@@ -231,24 +234,24 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
      * 
      * @param file
      * @param project
+     * @param snapshot the document properties at the start of the build
      * @param monitor
      * @return The content of the tmp file or null if no preamble was found
      * @throws CoreException
      */
-    private String getTempFileContents(IFile file, IProject project, final IProgressMonitor monitor) throws CoreException {
+    private String getTempFileContents(IFile file, IProject project, ProjectState.Snapshot snapshot,
+            final IProgressMonitor monitor) throws CoreException {
         
         // get information from the main file
-        String preamble = (String) TexlipseProperties.getSessionProperty(project, TexlipseProperties.PREAMBLE_PROPERTY);
+        String preamble = (String) snapshot.get(TexlipseProperties.PREAMBLE_PROPERTY);
         if (preamble == null) {
             BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("builderNoPreambleFound"));
             return null;
         }
-        String bibsty = (String) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBSTYLE_PROPERTY);
-        String[] bibli = (String[]) TexlipseProperties.getSessionProperty(project, TexlipseProperties.BIBFILE_PROPERTY);
-        Boolean biblatexMode = (Boolean) TexlipseProperties.getSessionProperty(project,
-                TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
-        Boolean localBib = (Boolean) TexlipseProperties.getSessionProperty(project,
-                TexlipseProperties.SESSION_BIBLATEXLOCALBIB_PROPERTY);
+        String bibsty = (String) snapshot.get(TexlipseProperties.BIBSTYLE_PROPERTY);
+        String[] bibli = (String[]) snapshot.get(TexlipseProperties.BIBFILE_PROPERTY);
+        Boolean biblatexMode = (Boolean) snapshot.get(TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY);
+        Boolean localBib = (Boolean) snapshot.get(TexlipseProperties.SESSION_BIBLATEXLOCALBIB_PROPERTY);
 
         // generate the file contents
         //StringBuffer sb = readFile(file.getContents(), monitor);
@@ -319,12 +322,13 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
      *
      * @param project the current project
      * @param resource the file to build, if <code>null</code> build main document
+     * @param snapshot the document properties at the start of the build
      * @param fileManager output file manager instance
      * @param monitor progress monitor
      * @throws CoreException if an error occurs
      */
     private void buildFile(final IProject project, IFile resource,
-            final OutputFileManager fileManager, IProgressMonitor monitor)
+            final ProjectState.Snapshot snapshot, final OutputFileManager fileManager, IProgressMonitor monitor)
                     throws CoreException {
 
         //load settings, if changed on disk
@@ -334,7 +338,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         
         Builder builder = null;
         try {
-            builder = checkBuilderSettings(project);
+            builder = checkBuilderSettings(project, snapshot);
         } catch (CoreException e) {
             // can't get builder, so can't build. error reported to the console
             return;
@@ -419,10 +423,12 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
      * Update builder, if necessary, and check that the builder settings are correct.
      * 
      * @param project the current project
+     * @param snapshot the document properties at the start of the build
      * @return builder for this project
      * @throws CoreException if some setting is not correct
      */
-    private Builder checkBuilderSettings(IProject project) throws CoreException {
+    private Builder checkBuilderSettings(IProject project, ProjectState.Snapshot snapshot)
+            throws CoreException {
         
         String format = TexlipseProperties.getProjectProperty(project, TexlipseProperties.OUTPUT_FORMAT);
         if (format == null || format.length() == 0) {
@@ -444,7 +450,7 @@ public class TexlipseBuilder extends IncrementalProjectBuilder {
         
         Builder builder = BuilderRegistry.get(number);
         if (builder instanceof AdaptableBuilder) {
-            ((AdaptableBuilder) builder).updateBuilder(project);
+            ((AdaptableBuilder) builder).updateBuilder(project, snapshot);
         }
         if (builder == null) {
             BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("builderErrorBuilderNumberNotSet").replaceAll("%s", project.getName()).replaceAll("%f", format).replaceAll("%i", number+""));
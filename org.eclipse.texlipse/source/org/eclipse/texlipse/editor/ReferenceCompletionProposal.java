@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.editor;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.contentassist.ICompletionProposal;
+import org.eclipse.jface.text.contentassist.IContextInformation;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.texlipse.model.ReferenceEntry;
+
+/**
+ * A completion proposal for the key of a reference. The descriptive text
+ * of the reference is only fetched when the proposal is selected, since
+ * the texts of BibTeX entries are read from their files.
+ *
+ * @author The TeXlipse team
+ */
+public class ReferenceCompletionProposal implements ICompletionProposal {
+    private ReferenceEntry fentry;
+    private int fReplacementOffset;
+    private int fReplacementLength;
+
+    /**
+     * Constructs a new completion proposal for a reference
+     *
+     * @param entry The reference entry
+     * @param replacementOffset Offset of where it is to be replaced
+     * @param replacementLength The length of the replacement
+     */
+    public ReferenceCompletionProposal(ReferenceEntry entry, int replacementOffset, int replacementLength) {
+        fentry = entry;
+        fReplacementOffset = replacementOffset;
+        fReplacementLength = replacementLength;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#apply(org.eclipse.jface.text.IDocument)
+     */
+    public void apply(IDocument document) {
+        try {
+            document.replace(fReplacementOffset, fReplacementLength, fentry.key);
+        } catch (BadLocationException x) {
+        }
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getSelection(org.eclipse.jface.text.IDocument)
+     */
+    public Point getSelection(IDocument document) {
+        return new Point(fReplacementOffset + fentry.key.length(), 0);
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getAdditionalProposalInfo()
+     */
+    public String getAdditionalProposalInfo() {
+        String info = fentry.getInfo();
+        if (info == null) {
+            return null;
+        }
+        return (info.length() > TexCompletionProcessor.assistLineLength ?
+                TexCompletionProcessor.wrapString(info, TexCompletionProcessor.assistLineLength)
+                : info);
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getDisplayString()
+     */
+    public String getDisplayString() {
+        return fentry.key;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getImage()
+     */
+    public Image getImage() {
+        return null;
+    }
+
+    /* (non-Javadoc)
+     * @see org.eclipse.jface.text.contentassist.ICompletionProposal#getContextInformation()
+     */
+    public IContextInformation getContextInformation() {
+        return null;
+    }
+}
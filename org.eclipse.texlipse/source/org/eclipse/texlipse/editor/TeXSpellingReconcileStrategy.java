@@ -117,25 +117,49 @@ public class TeXSpellingReconcileStrategy implements IReconcilingStrategy, IReco
         
         /*
          * @see org.eclipse.ui.texteditor.spelling.ISpellingProblemCollector#endCollecting()
+         * 
+         * Only changes the annotations that differ from the collected
+         * problems. An annotation of a checked region is kept if a problem
+         * with the same position and message was found again.
          */
         public void endCollecting() {
             List<Annotation> toRemove= new ArrayList<Annotation>();
             
+            // the new annotations by position
+            Map<Position, Annotation> added= new HashMap<Position, Annotation>();
+            for (Map.Entry<Annotation, Position> entry : fAddAnnotations.entrySet()) {
+                added.put(entry.getValue(), entry.getKey());
+            }
+            
             synchronized (fLockObject) {
                 Iterator<Annotation> iter= fAnnotationModel.getAnnotationIterator();
                 while (iter.hasNext()) {
                     Annotation annotation= (Annotation)iter.next();
                     if (SpellingAnnotation.TYPE.equals(annotation.getType())) { 
                         final Position p = fAnnotationModel.getPosition(annotation);
-                        if (wasChecked(p)) toRemove.add(annotation);
-                        else {
-                            //Update position (Bug 2983142)
-                            SpellingAnnotation spAnn = (SpellingAnnotation) annotation;
+                        if (p == null) continue;
+                        if (wasChecked(p)) {
+                            Annotation same= added.remove(new Position(p.getOffset(), p.getLength()));
+                            if (same != null && same.getText() != null && same.getText().equals(annotation.getText())) {
+                                fAddAnnotations.remove(same);
+                            } else {
+                                if (same != null) added.put(new Position(p.getOffset(), p.getLength()), same);
+                                toRemove.add(annotation);
+                                continue;
+                            }
+                        }
+                        //Update position (Bug 2983142)
+                        SpellingAnnotation spAnn = (SpellingAnnotation) annotation;
+                        if (spAnn.getSpellingProblem() instanceof TexSpellingProblem) {
                             TexSpellingProblem problem = (TexSpellingProblem) spAnn.getSpellingProblem();
                             problem.setOffset(p.getOffset());
                         }
                     }
                 }
+                if (toRemove.isEmpty() && fAddAnnotations.isEmpty()) {
+                    fAddAnnotations= null;
+                    return;
+                }
                 Annotation[] annotationsToRemove= (Annotation[])toRemove.toArray(new Annotation[toRemove.size()]);
 
                 if (fAnnotationModel instanceof IAnnotationModelExtension)
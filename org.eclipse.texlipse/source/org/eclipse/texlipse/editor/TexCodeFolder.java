@@ -13,12 +13,14 @@ package org.eclipse.texlipse.editor;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 
 import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.model.OutlineNode;
@@ -28,6 +30,13 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
 /**
  * Updates code folding marks into the given editor.
  * 
+ * The annotations are kept by a key made of the type and the name of
+ * their node and of its parents, so the annotations of a new outline are
+ * matched to the old ones with a map. A matched annotation is kept, with
+ * its position moved to the new node, so it stays collapsed or expanded.
+ * All the changes of an update are made in one call to the annotation
+ * model.
+ * 
  * @author Oskar Ojala
  */
 public class TexCodeFolder {
@@ -35,8 +44,10 @@ public class TexCodeFolder {
     private TexEditor editor;
     private ProjectionAnnotationModel model;
     
-//  private ArrayList<TexProjectionAnnotation> oldNodes;
-    private ArrayList oldNodes;
+    /**
+     * The annotations of the last update by the keys of their nodes
+     */
+    private Map<String, TexProjectionAnnotation> annotations;
 
     private boolean firstRun;
 
@@ -56,6 +67,7 @@ public class TexCodeFolder {
      */
     public TexCodeFolder(TexEditor editor) {
         this.editor = editor;
+        this.annotations = new HashMap<String, TexProjectionAnnotation>();
         firstRun = true;
     }
     
@@ -93,60 +105,100 @@ public class TexCodeFolder {
             paragraph = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.CODE_FOLDING_PARAGRAPH);
             
             Map map = new HashMap();
-            fillAnnotationMap(outline, map);
+            annotations.clear();
+            fillAnnotationMap(outline, map, "");
             model.modifyAnnotations(null, map, null);
             firstRun = false;
             environments = null; // frees up the memory
         } else {
-            // save old nodes
-            oldNodes = new ArrayList();
+            // the annotations in the model, the ones left over are removed
+            Map<Annotation, Annotation> oldNodes = new IdentityHashMap<Annotation, Annotation>();
             for (Iterator iter = model.getAnnotationIterator(); iter.hasNext();) {
-                oldNodes.add((TexProjectionAnnotation) iter.next());
+                Annotation annotation = (Annotation) iter.next();
+                oldNodes.put(annotation, annotation);
             }
             
-            markTreeNodes(outline);
+            List<Annotation> deletions = new ArrayList<Annotation>();
+            Map<Annotation, Position> additions = new HashMap<Annotation, Position>();
+            List<Annotation> modifications = new ArrayList<Annotation>();
+            Map<String, TexProjectionAnnotation> newAnnotations = new HashMap<String, TexProjectionAnnotation>();
+            markTreeNodes(outline, "", oldNodes, deletions, additions, modifications, newAnnotations);
+            annotations = newAnnotations;
             
-            TexProjectionAnnotation[] deletes = new TexProjectionAnnotation[oldNodes.size()];
-            oldNodes.toArray(deletes);
-            model.modifyAnnotations(deletes, null, null);
+            deletions.addAll(oldNodes.keySet());
+            if (!deletions.isEmpty() || !additions.isEmpty() || !modifications.isEmpty()) {
+                model.modifyAnnotations(deletions.toArray(new Annotation[deletions.size()]),
+                        additions, modifications.toArray(new Annotation[modifications.size()]));
+            }
         }
     }
 
     /**
-     * Traverses the <code>documentTree</code> and updates each node's
-     * corresponding marker.
+     * Returns the key of a node, which is unique among the nodes of the
+     * document and stays the same when the text of the node changes.
+     * 
+     * @param node The node
+     * @param parentKey The key of the parent of the node
+     * @param siblings The keys of the previous siblings of the node, with
+     *  the number of nodes that have each key
+     * @return The key
+     */
+    private static String getKey(OutlineNode node, String parentKey, Map<String, Integer> siblings) {
+        String key = parentKey + '/' + node.getType() + ':' + node.getName();
+        Integer count = siblings.get(key);
+        siblings.put(key, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+        return count == null ? key : key + '#' + count;
+    }
+
+    /**
+     * Traverses the <code>documentTree</code> and finds the annotation of
+     * each node. An old annotation with the same key is kept; if the range
+     * of the node has changed, its position is updated in place and it is
+     * reported as modified, so the folding state isn't lost. Nodes that
+     * didn't have an annotation get a new one.
      * 
      * @param documentTree The document outline data structure containing the document positions
+     * @param parentKey The key of the parent of the nodes
+     * @param oldNodes The annotations in the model that haven't been matched
+     * @param deletions The annotations to remove
+     * @param additions The annotations to add with their positions
+     * @param modifications The kept annotations whose positions have changed
+     * @param newAnnotations The annotations of the nodes by their keys
      */
-    private void markTreeNodes(ArrayList documentTree) {
+    private void markTreeNodes(List documentTree, String parentKey, Map<Annotation, Annotation> oldNodes,
+            List<Annotation> deletions, Map<Annotation, Position> additions,
+            List<Annotation> modifications, Map<String, TexProjectionAnnotation> newAnnotations) {
+        Map<String, Integer> siblings = new HashMap<String, Integer>();
         for (ListIterator iter = documentTree.listIterator(); iter.hasNext();) {
             OutlineNode on = (OutlineNode) iter.next();
+            String key = getKey(on, parentKey, siblings);
+            Position pos = on.getPosition();
 
-            // Here, call the appropriate method on the node
-            inspectAndAddMark(on);
+            TexProjectionAnnotation annotation = annotations.get(key);
+            if (annotation != null && oldNodes.remove(annotation) != null) {
+                annotation.setNode(on);
+                Position oldPos = model.getPosition(annotation);
+                if (oldPos == null) {
+                    deletions.add(annotation);
+                    annotation = new TexProjectionAnnotation(on, annotation.isCollapsed());
+                    additions.put(annotation, pos);
+                } else if (oldPos.getOffset() != pos.getOffset()
+                        || oldPos.getLength() != pos.getLength()) {
+                    oldPos.setOffset(pos.getOffset());
+                    oldPos.setLength(pos.getLength());
+                    modifications.add(annotation);
+                }
+            } else {
+                annotation = new TexProjectionAnnotation(on);
+                additions.put(annotation, pos);
+            }
+            newAnnotations.put(key, annotation);
             
             // ...and recurse over the children...
             if (on.getChildren() != null)
-                markTreeNodes(on.getChildren());
-        }
-    }
-
-    /**
-     * Inspects a folding mark and if necessary adds a new mark.
-     * 
-     * @param node The node to inspect
-     */
-    private void inspectAndAddMark(OutlineNode node) {
-        Position pos = node.getPosition();
-        for (ListIterator iter = oldNodes.listIterator(); iter.hasNext();) {
-            TexProjectionAnnotation cAnnotation = (TexProjectionAnnotation) iter.next();
-            if (cAnnotation.likelySame(node)) {
-                oldNodes.remove(cAnnotation);
-                //model.modifyAnnotationPosition(cAnnotation, pos);
-                return;
-            }
+                markTreeNodes(on.getChildren(), key, oldNodes, deletions, additions,
+                        modifications, newAnnotations);
         }
-        model.addAnnotation(new TexProjectionAnnotation(node), pos);
     }
 
     /**
@@ -156,10 +208,13 @@ public class TexCodeFolder {
      * 
      * @param documentTree The document outline tree
      * @param map A <code>Map</code> where to put the annotations
+     * @param parentKey The key of the parent of the nodes
      */
-    private void fillAnnotationMap(List documentTree, Map map) {
+    private void fillAnnotationMap(List documentTree, Map map, String parentKey) {
+        Map<String, Integer> siblings = new HashMap<String, Integer>();
         for (ListIterator iter = documentTree.listIterator(); iter.hasNext();) {
             OutlineNode node = (OutlineNode) iter.next();
+            String key = getKey(node, parentKey, siblings);
 
             Position pos = node.getPosition();
             
@@ -198,9 +253,10 @@ public class TexCodeFolder {
             
             TexProjectionAnnotation tpa = new TexProjectionAnnotation(node, folding);
             map.put(tpa, pos);
+            annotations.put(key, tpa);
 
             if (node.getChildren() != null)
-                fillAnnotationMap(node.getChildren(), map);
+                fillAnnotationMap(node.getChildren(), map, key);
         }
     }
 }
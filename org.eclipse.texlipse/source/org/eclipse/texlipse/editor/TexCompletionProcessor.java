@@ -333,12 +333,9 @@ public class TexCompletionProcessor implements IContentAssistProcessor {
 		if (bibEntries != null) {
 			for (int i = 0; i < bibEntries.size(); i++) {
 				ReferenceEntry bib = bibEntries.get(i);
-				String infoText = bib.info.length() > assistLineLength ? wrapString(
-						bib.info, assistLineLength)
-						: bib.info;
-						resultAsList.add(new CompletionProposal(bib.key, offset
-								- replacementLength, replacementLength, bib.key.length(),
-								null, bib.key, null, infoText));
+				// the info is read from the file only for the selected entry
+				resultAsList.add(new ReferenceCompletionProposal(bib, offset
+						- replacementLength, replacementLength));
 			}
 		}
 		//the extension points
@@ -48,6 +48,16 @@ public class TexProjectionAnnotation extends ProjectionAnnotation {
         this.node = node;
     }
     
+    /**
+     * Makes this annotation correspond to the node of a new outline, when
+     * the annotation is kept over an update.
+     * 
+     * @param node The new node of this annotation
+     */
+    void setNode(OutlineNode node) {
+        this.node = node;
+    }
+
 	/**
 	 * @return The position data of this annotation
 	 */
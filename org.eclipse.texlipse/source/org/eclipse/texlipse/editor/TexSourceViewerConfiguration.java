@@ -18,6 +18,7 @@ import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IInformationControl;
 import org.eclipse.jface.text.IInformationControlCreator;
 import org.eclipse.jface.text.ITextHover;
+import org.eclipse.jface.text.ITextViewer;
 import org.eclipse.jface.text.TextAttribute;
 import org.eclipse.jface.text.TextPresentation;
 import org.eclipse.jface.text.contentassist.ContentAssistant;
@@ -48,6 +49,7 @@ import org.eclipse.texlipse.editor.scanner.TexOptArgScanner;
 import org.eclipse.texlipse.editor.scanner.TexScanner;
 import org.eclipse.texlipse.editor.scanner.TexTikzScanner;
 import org.eclipse.texlipse.properties.TexlipseProperties;
+import org.eclipse.texlipse.spelling.TexSpellingEngine;
 import org.eclipse.ui.editors.text.EditorsUI;
 import org.eclipse.ui.editors.text.TextSourceViewerConfiguration;
 import org.eclipse.ui.texteditor.spelling.SpellingService;
@@ -98,7 +100,40 @@ public class TexSourceViewerConfiguration extends TextSourceViewerConfiguration
             return null;
         IReconcilingStrategy strategy= new TeXSpellingReconcileStrategy(sourceViewer, spellingService);
         
-        MonoReconciler reconciler= new MonoReconciler(strategy, true);
+        MonoReconciler reconciler= new MonoReconciler(strategy, true) {
+            private Display display;
+            private volatile boolean installed;
+
+            // the document isn't checked while the dictionary is loaded
+            // in the background, so it is checked again when it's ready
+            private final Runnable recheck = new Runnable() {
+                public void run() {
+                    if (!installed || display.isDisposed()) {
+                        return;
+                    }
+                    display.asyncExec(new Runnable() {
+                        public void run() {
+                            if (installed) {
+                                forceReconciling();
+                            }
+                        }
+                    });
+                }
+            };
+
+            public void install(ITextViewer textViewer) {
+                super.install(textViewer);
+                display = textViewer.getTextWidget().getDisplay();
+                installed = true;
+                TexSpellingEngine.addLoadListener(recheck);
+            }
+
+            public void uninstall() {
+                TexSpellingEngine.removeLoadListener(recheck);
+                installed = false;
+                super.uninstall();
+            }
+        };
         reconciler.setDelay(500);
         reconciler.setProgressMonitor(new NullProgressMonitor());
         return reconciler;
@@ -36,6 +36,8 @@ import org.eclipse.jface.viewers.ISelection;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
 import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.model.OccurrenceIndex;
+import org.eclipse.texlipse.model.TexDocumentModel;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.texlipse.texparser.LatexParserUtils;
 import org.eclipse.ui.texteditor.AbstractTextEditor;
@@ -97,9 +99,11 @@ public class TexlipseAnnotationUpdater implements ISelectionChangedListener {
      * Updates the annotations. It first checks if the current selection is
      * already annotated, if not it clears all annotations and tries to detect
      * if the current selection is part of a \[a-zA-Z]*ref, \label, \begin{...}
-     * or \end{...} string. If the last is true, it searches with regular expressions
-     * to find the associated part(s) and highlights them (The last uses a non UI-Job
-     * which do not influence the responsiveness of the editor). 
+     * or \end{...} string. If the last is true, it looks up the associated part(s)
+     * in the occurrence index of the last parse and highlights them. If the
+     * command under the cursor isn't in the index yet, it searches with regular
+     * expressions instead (The last uses a non UI-Job which do not influence the
+     * responsiveness of the editor). 
      * 
      * @param viewer
      */
@@ -140,6 +144,15 @@ public class TexlipseAnnotationUpdater implements ISelectionChangedListener {
                     final IRegion startRegion = new Region(lineOff + r.getOffset(), r2.getOffset() + r2.getLength() - r.getOffset() + 1);
 
                     final String refName = line.substring(r2.getOffset(), r2.getOffset() + r2.getLength());
+                    OccurrenceIndex index = getOccurrenceIndex();
+                    if (index != null) {
+                        IRegion partner = index.getPartner(startRegion.getOffset());
+                        if (partner != null) {
+                            createNewAnnotation(partner, "Environment", model);
+                            createNewAnnotation(startRegion, "Environment", model);
+                            return;
+                        }
+                    }
                     //Create a job to update the annotations in the background
                     fUpdateJob = createMatchEnvironmentJob(document, model, offset, command, startRegion, refName);
                     fUpdateJob.setPriority(Job.DECORATE);
@@ -152,6 +165,16 @@ public class TexlipseAnnotationUpdater implements ISelectionChangedListener {
                     if (r2 == null) return;
 
                     final String refName = line.substring(r2.getOffset(), r2.getOffset() + r2.getLength());
+                    OccurrenceIndex index = getOccurrenceIndex();
+                    if (index != null) {
+                        List<IRegion> refs = index.getReferences(refName);
+                        if (refs != null && containsOffset(refs, offset)) {
+                            for (IRegion ref : refs) {
+                                createNewAnnotation(ref, "References", model);
+                            }
+                            return;
+                        }
+                    }
                     //Create a job to update the annotations in the background
                     fUpdateJob = createMatchReferenceJob(document, model, refName);
                     fUpdateJob.setPriority(Job.DECORATE);
@@ -164,6 +187,34 @@ public class TexlipseAnnotationUpdater implements ISelectionChangedListener {
         }
     }
 
+    /**
+     * @return The occurrence index of the last parse of the document, or null
+     *  if there is none
+     */
+    private OccurrenceIndex getOccurrenceIndex() {
+        if (fEditor instanceof TexEditor) {
+            TexDocumentModel model = ((TexEditor) fEditor).getDocumentModel();
+            if (model != null) {
+                return model.getOccurrenceIndex();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param regions
+     * @param offset
+     * @return true, if one of the regions contains the offset
+     */
+    private static boolean containsOffset(List<IRegion> regions, int offset) {
+        for (IRegion r : regions) {
+            if (r.getOffset() <= offset && offset <= r.getOffset() + r.getLength()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Creates and returns a background job which searches and highlights all \label and \*ref. 
      * @param document
@@ -180,7 +180,8 @@ public class TexInformationControl implements IInformationControl,
         if (bibentry != null) {
             entry = bibentry;
             initTextBox();
-            hoverText.setText(bibentry.info);
+            String info = bibentry.getInfo();
+            hoverText.setText(info != null ? info : "");
         }
     }
 
@@ -10,13 +10,18 @@
  *******************************************************************************/
 package org.eclipse.texlipse.model;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.texlipse.TexlipsePlugin;
@@ -31,6 +36,195 @@ import org.eclipse.ui.texteditor.MarkerUtilities;
  */
 public class MarkerHandler {
 
+    /**
+     * The attributes that tell markers apart when they are compared
+     */
+    private static final String[] KEY_ATTRIBUTES = {IMarker.LINE_NUMBER,
+        IMarker.CHAR_START, IMarker.CHAR_END, IMarker.SEVERITY, IMarker.PRIORITY,
+        IMarker.MESSAGE};
+
+    /**
+     * An update of the problem and task markers of an editor's file. The
+     * markers of a parse are collected into the update, and when it is
+     * applied, only the markers that differ from the ones the file had
+     * when the update was started are created and deleted. All the
+     * changes are made in one workspace operation, so the listeners of
+     * the markers (e.g. the Problems view) get a single notification.
+     *
+     * Markers created by other means while the update is open are left
+     * alone.
+     */
+    public static class MarkerUpdate {
+        private final IResource resource;
+        private final IDocument document;
+
+        // the earlier markers by their attributes
+        private final Map<String, List<IMarker>> oldMarkers = new HashMap<String, List<IMarker>>();
+
+        // the new markers and their types
+        private final List<Map<String, Object>> newMarkers = new ArrayList<Map<String, Object>>();
+        private final List<String> newTypes = new ArrayList<String>();
+
+        private MarkerUpdate(ITextEditor editor, boolean replace) {
+            resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
+            document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+            if (resource == null || !replace) {
+                return;
+            }
+            try {
+                addOldMarkers(resource.findMarkers(IMarker.PROBLEM, false, IResource.DEPTH_INFINITE));
+                addOldMarkers(resource.findMarkers(IMarker.TASK, false, IResource.DEPTH_INFINITE));
+            } catch (CoreException e) {
+                TexlipsePlugin.log("Finding markers", e);
+            }
+        }
+
+        private void addOldMarkers(IMarker[] markers) throws CoreException {
+            for (IMarker m : markers) {
+                String key = getKey(m.getType(), m.getAttributes(KEY_ATTRIBUTES));
+                List<IMarker> same = oldMarkers.get(key);
+                if (same == null) {
+                    same = new LinkedList<IMarker>();
+                    oldMarkers.put(key, same);
+                }
+                same.add(m);
+            }
+        }
+
+        /**
+         * Adds error markers from the given <code>ParseErrorMessage</code>s.
+         * 
+         * @param errors The errors to add
+         */
+        public void addErrors(List<ParseErrorMessage> errors) {
+            addMessages(errors, IMarker.PROBLEM);
+        }
+
+        /**
+         * Adds task markers from the given <code>ParseErrorMessage</code>s.
+         * 
+         * @param tasks The tasks to add
+         */
+        public void addTasks(List<ParseErrorMessage> tasks) {
+            addMessages(tasks, IMarker.TASK);
+        }
+
+        private void addMessages(List<ParseErrorMessage> messages, String markerType) {
+            if (resource == null) return;
+            for (ParseErrorMessage msg : messages) {
+                try {
+                    int beginOffset = document.getLineOffset(msg.getLine() - 1) + msg.getPos();
+
+                    Map<String, Object> map = new HashMap<String, Object>();
+                    map.put(IMarker.LINE_NUMBER, Integer.valueOf(msg.getLine()));
+                    map.put(IMarker.CHAR_START, Integer.valueOf(beginOffset));
+                    map.put(IMarker.CHAR_END, Integer.valueOf(beginOffset + msg.getLength()));
+                    map.put(IMarker.MESSAGE, msg.getMsg());
+
+                    // we can do this since we're referring to a static field
+                    if (IMarker.PROBLEM == markerType)
+                        map.put(IMarker.SEVERITY, Integer.valueOf(msg.getSeverity()));
+
+                    if (IMarker.TASK == markerType)
+                        map.put(IMarker.PRIORITY, Integer.valueOf(msg.getSeverity()));
+
+                    newMarkers.add(map);
+                    newTypes.add(markerType);
+                } catch (BadLocationException ble) {
+                    TexlipsePlugin.log("Creating marker", ble);
+                }
+            }
+        }
+
+        /**
+         * Adds warning markers for undefined references.
+         * 
+         * @param errors The undefined references
+         */
+        public void addReferencingErrors(List<DocumentReference> errors) {
+            if (resource == null) return;
+            for (DocumentReference msg : errors) {
+                try {
+                    int beginOffset = document.getLineOffset(msg.getLine() - 1) + msg.getPos();
+
+                    Map<String, Object> map = new HashMap<String, Object>();
+                    map.put(IMarker.LINE_NUMBER, Integer.valueOf(msg.getLine()));
+                    map.put(IMarker.CHAR_START, Integer.valueOf(beginOffset));
+                    map.put(IMarker.CHAR_END, Integer.valueOf(beginOffset + msg.getLength()));
+                    map.put(IMarker.MESSAGE, "Key " + msg.getKey() + " is undefined");
+                    map.put(IMarker.SEVERITY, Integer.valueOf(IMarker.SEVERITY_WARNING));
+
+                    newMarkers.add(map);
+                    newTypes.add(IMarker.PROBLEM);
+                } catch (BadLocationException ble) {
+                    TexlipsePlugin.log("Creating marker", ble);
+                }
+            }
+        }
+
+        /**
+         * Creates the new markers that the file doesn't have yet, and
+         * deletes the earlier markers that are not among the new ones.
+         */
+        public void apply() {
+            if (resource == null) return;
+            IWorkspace workspace = resource.getWorkspace();
+            try {
+                workspace.run(new IWorkspaceRunnable() {
+                    public void run(IProgressMonitor monitor) throws CoreException {
+                        for (int i = 0; i < newMarkers.size(); i++) {
+                            Map<String, Object> map = newMarkers.get(i);
+                            Object[] values = new Object[KEY_ATTRIBUTES.length];
+                            for (int j = 0; j < values.length; j++) {
+                                values[j] = map.get(KEY_ATTRIBUTES[j]);
+                            }
+                            if (!removeOldMarker(getKey(newTypes.get(i), values))) {
+                                IMarker m = resource.createMarker(newTypes.get(i));
+                                m.setAttributes(map);
+                            }
+                        }
+                        List<IMarker> deleted = new ArrayList<IMarker>();
+                        for (List<IMarker> same : oldMarkers.values()) {
+                            deleted.addAll(same);
+                        }
+                        if (!deleted.isEmpty()) {
+                            resource.getWorkspace().deleteMarkers(deleted.toArray(new IMarker[deleted.size()]));
+                        }
+                        oldMarkers.clear();
+                    }
+                }, workspace.getRuleFactory().markerRule(resource), IWorkspace.AVOID_UPDATE, null);
+            } catch (CoreException ce) {
+                TexlipsePlugin.log("Updating markers", ce);
+            }
+            newMarkers.clear();
+            newTypes.clear();
+        }
+
+        /**
+         * Keeps an earlier marker with the given attributes, if there is
+         * one that still exists.
+         *
+         * @return True if a marker was found
+         */
+        private boolean removeOldMarker(String key) {
+            List<IMarker> same = oldMarkers.get(key);
+            while (same != null && !same.isEmpty()) {
+                if (same.remove(0).exists()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static String getKey(String type, Object[] values) {
+            StringBuilder sb = new StringBuilder(type);
+            for (Object value : values) {
+                sb.append('\0').append(value);
+            }
+            return sb.toString();
+        }
+    }
+
     private static MarkerHandler theInstance;
     
     private MarkerHandler() {
@@ -48,6 +242,20 @@ public class MarkerHandler {
         return theInstance;
     }
 
+    /**
+     * Starts an update of the problem and task markers of the editor's
+     * file. The markers are collected into the update and created when
+     * it is applied.
+     * 
+     * @param editor The editor whose markers to update
+     * @param replace True if the earlier problem and task markers are
+     *  replaced, false if the markers are only added
+     * @return The update
+     */
+    public MarkerUpdate beginUpdate(ITextEditor editor, boolean replace) {
+        return new MarkerUpdate(editor, replace);
+    }
+
     /**
      * Create error markers from the given <code>ParseErrorMessage</code>s.
      * 
@@ -76,35 +284,9 @@ public class MarkerHandler {
      * @param markerType The type of the markers as <code>IMarker</code> types
      */
     private void createMarkers(ITextEditor editor, List<ParseErrorMessage> markers, final String markerType) {
-        IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
-        if (resource == null) return;
-        //IResource resource = ((FileEditorInput)editor.getEditorInput()).getFile();
-        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
-        
-        for (ParseErrorMessage msg : markers) {
-            try {
-                int beginOffset = document.getLineOffset(msg.getLine() - 1) + msg.getPos();
-                
-                Map<String, ? super Object> map = new HashMap<String, Object>();
-                map.put(IMarker.LINE_NUMBER, Integer.valueOf(msg.getLine()));
-                map.put(IMarker.CHAR_START, Integer.valueOf(beginOffset));
-                map.put(IMarker.CHAR_END, Integer.valueOf(beginOffset + msg.getLength()));
-                map.put(IMarker.MESSAGE, msg.getMsg());
-                
-                // we can do this since we're referring to a static field
-                if (IMarker.PROBLEM == markerType)
-                    map.put(IMarker.SEVERITY, Integer.valueOf(msg.getSeverity()));
-                
-                if (IMarker.TASK == markerType)
-                    map.put(IMarker.PRIORITY, Integer.valueOf(msg.getSeverity()));
-                
-                MarkerUtilities.createMarker(resource, map, markerType);
-            } catch (CoreException ce) {
-                TexlipsePlugin.log("Creating marker", ce);
-            } catch (BadLocationException ble) {
-                TexlipsePlugin.log("Creating marker", ble);
-            }
-        }
+        MarkerUpdate update = beginUpdate(editor, false);
+        update.addMessages(markers, markerType);
+        update.apply();
     }
 
     /**
@@ -114,29 +296,9 @@ public class MarkerHandler {
      * @param errors The errors to add as instances of <code>DocumentReference</code>
      */
     public void createReferencingErrorMarkers(ITextEditor editor, List<DocumentReference> errors) {
-        
-        IResource resource = (IResource) editor.getEditorInput().getAdapter(IResource.class);
-        if (resource == null) return;
-        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
-        
-        for (DocumentReference msg : errors) {
-            try {
-                int beginOffset = document.getLineOffset(msg.getLine() - 1) + msg.getPos();
-                
-                Map<String, ? super Object> map = new HashMap<String, Object>();
-                map.put(IMarker.LINE_NUMBER, Integer.valueOf(msg.getLine()));
-                map.put(IMarker.CHAR_START, Integer.valueOf(beginOffset));
-                map.put(IMarker.CHAR_END, Integer.valueOf(beginOffset + msg.getLength()));
-                map.put(IMarker.MESSAGE, "Key " + msg.getKey() + " is undefined");
-                map.put(IMarker.SEVERITY, Integer.valueOf(IMarker.SEVERITY_WARNING));
-                
-                MarkerUtilities.createMarker(resource, map, IMarker.PROBLEM);
-            } catch (CoreException ce) {
-                TexlipsePlugin.log("Creating marker", ce);
-            } catch (BadLocationException ble) {
-                TexlipsePlugin.log("Creating marker", ble);
-            }
-        }
+        MarkerUpdate update = beginUpdate(editor, false);
+        update.addReferencingErrors(errors);
+        update.apply();
     }
     
     /**
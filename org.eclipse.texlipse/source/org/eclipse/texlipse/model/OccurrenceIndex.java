@@ -0,0 +1,386 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.DefaultPositionUpdater;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IPositionUpdater;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.Region;
+import org.eclipse.texlipse.texparser.LatexParserUtils;
+
+/**
+ * The occurrences of the labels and the environments of a document, built
+ * from the results of the parser: the \label and \...ref commands of each
+ * label and the matching \end of each \begin and vice versa.
+ *
+ * The offsets of the occurrences are computed in the parse job from a copy
+ * of the parsed text. When the UI thread applies the results of the parse,
+ * the index is installed: the occurrences are added to the document as
+ * positions, so they follow the edits until the next parse replaces the
+ * index. The text at a position is checked again when it is looked up, so
+ * occurrences that were changed since the parse are not returned.
+ *
+ * After it has been created, the index must only be installed, used and
+ * disposed in the UI thread.
+ *
+ * @author The TeXlipse team
+ */
+public final class OccurrenceIndex {
+
+    private static final String CATEGORY = "__occurrences";
+
+    /**
+     * Sorts positions by their offsets, for adding them to the document
+     */
+    private static final Comparator<Position> BY_OFFSET = new Comparator<Position>() {
+        public int compare(Position a, Position b) {
+            return a.getOffset() < b.getOffset() ? -1 : (a.getOffset() > b.getOffset() ? 1 : 0);
+        }
+    };
+
+    /**
+     * The modification stamp of the parsed text
+     */
+    private final long stamp;
+
+    /**
+     * The offsets of the arguments (i.e. of the opening braces) of the
+     * \label and \...ref commands by label, until the index is installed
+     */
+    private Map<String, int[]> referenceOffsets;
+
+    /**
+     * The offsets and lengths of the \begin and \end commands in document
+     * order, until the index is installed
+     */
+    private int[] environmentOffsets;
+    private int[] environmentLengths;
+
+    /**
+     * The index of the command matching each \begin and \end command, or
+     * -1 if there is none
+     */
+    private final int[] partners;
+
+    // set when the index is installed
+    private IDocument document;
+    private final IPositionUpdater updater = new DefaultPositionUpdater(CATEGORY);
+
+    /**
+     * The positions of the arguments (including the braces) of the \label
+     * and \...ref commands by label
+     */
+    private Map<String, Position[]> references;
+
+    /**
+     * The positions of the \begin and \end commands in document order
+     */
+    private Position[] environments;
+
+    /**
+     * Creates the index. Called in the parse job with the results of the
+     * parse.
+     *
+     * @param text A copy of the parsed text
+     * @param stamp The modification stamp of the document when it was parsed
+     * @param labels The labels found by the parser
+     * @param refs The references found by the parser
+     * @param begins The \begin commands found by the parser
+     * @param ends The \end commands found by the parser
+     */
+    public OccurrenceIndex(IDocument text, long stamp, List<ReferenceEntry> labels,
+            List<DocumentReference> refs, List<DocumentReference> begins,
+            List<DocumentReference> ends) {
+        this.stamp = stamp;
+
+        Map<String, List<Integer>> found = new HashMap<String, List<Integer>>();
+        for (ReferenceEntry label : labels) {
+            if (label.position != null) {
+                addReference(found, text, label.key, label.startLine, label.position.getOffset());
+            }
+        }
+        for (DocumentReference ref : refs) {
+            addReference(found, text, ref.getKey(), ref.getLine(), ref.getPos());
+        }
+        this.referenceOffsets = new HashMap<String, int[]>(found.size() * 2);
+        for (Map.Entry<String, List<Integer>> entry : found.entrySet()) {
+            List<Integer> list = entry.getValue();
+            int[] offsets = new int[list.size()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = list.get(i).intValue();
+            }
+            referenceOffsets.put(entry.getKey(), offsets);
+        }
+
+        // merge the commands into document order and match them like the
+        // parser does
+        int[] envs = new int[begins.size() + ends.size()];
+        int[] lengths = new int[envs.length];
+        int[] match = new int[envs.length];
+        Arrays.fill(match, -1);
+        int[] open = new int[begins.size()];
+        String[] openNames = new String[begins.size()];
+        int count = 0;
+        int depth = 0;
+        int b = 0, e = 0;
+        while (b < begins.size() || e < ends.size()) {
+            boolean isBegin = e == ends.size()
+                    || (b < begins.size() && compare(begins.get(b), ends.get(e)) < 0);
+            DocumentReference env = isBegin ? begins.get(b++) : ends.get(e++);
+            int offset = getOffset(text, env.getLine(), env.getPos() - 1, env.getLength());
+            if (offset < 0) {
+                continue;
+            }
+            int index = count++;
+            envs[index] = offset;
+            lengths[index] = env.getLength();
+            if (isBegin) {
+                open[depth] = index;
+                openNames[depth++] = env.getKey();
+            } else if (depth > 0 && openNames[depth - 1].equals(env.getKey())) {
+                depth--;
+                match[index] = open[depth];
+                match[open[depth]] = index;
+            } else {
+                // unbalanced, don't guess
+                depth = 0;
+            }
+        }
+        this.environmentOffsets = Arrays.copyOf(envs, count);
+        this.environmentLengths = Arrays.copyOf(lengths, count);
+        this.partners = Arrays.copyOf(match, count);
+    }
+
+    /**
+     * Adds the occurrences to the document as positions. Called in the UI
+     * thread when the results of the parse are applied.
+     *
+     * @param document The parsed document
+     * @return false if the document has been changed since it was parsed,
+     *  the index can't be used then
+     */
+    public boolean install(IDocument document) {
+        if (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP
+                || !(document instanceof IDocumentExtension4)
+                || ((IDocumentExtension4) document).getModificationStamp() != stamp) {
+            return false;
+        }
+        List<Position> all = new ArrayList<Position>();
+        references = new HashMap<String, Position[]>(referenceOffsets.size() * 2);
+        for (Map.Entry<String, int[]> entry : referenceOffsets.entrySet()) {
+            int[] offsets = entry.getValue();
+            int length = entry.getKey().length() + 2;
+            Position[] positions = new Position[offsets.length];
+            for (int i = 0; i < offsets.length; i++) {
+                positions[i] = new Position(offsets[i], length);
+                all.add(positions[i]);
+            }
+            references.put(entry.getKey(), positions);
+        }
+        environments = new Position[environmentOffsets.length];
+        for (int i = 0; i < environments.length; i++) {
+            environments[i] = new Position(environmentOffsets[i], environmentLengths[i]);
+            all.add(environments[i]);
+        }
+        referenceOffsets = null;
+        environmentOffsets = null;
+        environmentLengths = null;
+
+        // the document keeps its positions sorted, so adding them in order
+        // appends them
+        Position[] sorted = all.toArray(new Position[all.size()]);
+        Arrays.sort(sorted, BY_OFFSET);
+        this.document = document;
+        document.addPositionCategory(CATEGORY);
+        document.addPositionUpdater(updater);
+        try {
+            for (Position p : sorted) {
+                document.addPosition(CATEGORY, p);
+            }
+        } catch (BadLocationException e) {
+            dispose();
+            return false;
+        } catch (BadPositionCategoryException e) {
+            dispose();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the positions of this index from the document.
+     */
+    public void dispose() {
+        if (document == null) {
+            return;
+        }
+        try {
+            document.removePositionCategory(CATEGORY);
+        } catch (BadPositionCategoryException e) {
+            // already removed
+        }
+        document.removePositionUpdater(updater);
+        document = null;
+    }
+
+    /**
+     * Returns the \label and \...ref commands of the given label.
+     *
+     * @param label The label
+     * @return The regions of the commands including their arguments, or
+     *  null if the label isn't in the index
+     */
+    public List<IRegion> getReferences(String label) {
+        Position[] positions = document != null ? references.get(label) : null;
+        if (positions == null) {
+            return null;
+        }
+        List<IRegion> regions = new ArrayList<IRegion>(positions.length);
+        String arg = "{" + label + "}";
+        for (Position p : positions) {
+            if (p.isDeleted() || p.getLength() != arg.length()) {
+                continue;
+            }
+            try {
+                if (!arg.equals(document.get(p.getOffset(), p.getLength()))) {
+                    continue;
+                }
+                int lineOffset = document.getLineInformationOfOffset(p.getOffset()).getOffset();
+                String line = document.get(lineOffset, p.getOffset() + p.getLength() - lineOffset);
+                IRegion command = LatexParserUtils.getCommand(line, p.getOffset() - lineOffset);
+                if (command != null) {
+                    regions.add(new Region(lineOffset + command.getOffset(),
+                            line.length() - command.getOffset()));
+                }
+            } catch (BadLocationException e) {
+                // the position is checked again on the next parse
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Returns the matching \end of a \begin command or the matching \begin
+     * of an \end command.
+     *
+     * @param offset The offset of the backslash of the command
+     * @return The region of the matching command including its argument,
+     *  or null if the command isn't in the index or has no partner
+     */
+    public IRegion getPartner(int offset) {
+        if (document == null) {
+            return null;
+        }
+        int low = 0;
+        int high = environments.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midOffset = environments[mid].getOffset();
+            if (midOffset < offset) {
+                low = mid + 1;
+            } else if (midOffset > offset) {
+                high = mid - 1;
+            } else {
+                // positions deleted by an edit may share the offset
+                for (int i = mid; i >= 0 && environments[i].getOffset() == offset; i--) {
+                    if (!environments[i].isDeleted()) {
+                        return getCommandRegion(partners[i]);
+                    }
+                }
+                for (int i = mid + 1; i < environments.length && environments[i].getOffset() == offset; i++) {
+                    if (!environments[i].isDeleted()) {
+                        return getCommandRegion(partners[i]);
+                    }
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The region of the \begin or \end command with the given
+     *  index including its argument, or null if it was changed
+     */
+    private IRegion getCommandRegion(int index) {
+        if (index < 0 || environments[index].isDeleted()) {
+            return null;
+        }
+        int offset = environments[index].getOffset();
+        try {
+            IRegion lineInfo = document.getLineInformationOfOffset(offset);
+            String line = document.get(lineInfo.getOffset(), lineInfo.getLength());
+            int start = offset - lineInfo.getOffset();
+            if (!line.startsWith("\\begin", start) && !line.startsWith("\\end", start)) {
+                return null;
+            }
+            IRegion arg = LatexParserUtils.getCommandArgument(line, start);
+            if (arg == null) {
+                return null;
+            }
+            return new Region(offset, arg.getOffset() + arg.getLength() - start + 1);
+        } catch (BadLocationException e) {
+            return null;
+        }
+    }
+
+    private static void addReference(Map<String, List<Integer>> found, IDocument text,
+            String key, int line, int pos) {
+        // the offset of an argument is that of its opening brace
+        int offset = getOffset(text, line, pos - 1, key.length() + 2);
+        if (offset >= 0) {
+            List<Integer> offsets = found.get(key);
+            if (offsets == null) {
+                offsets = new ArrayList<Integer>(2);
+                found.put(key, offsets);
+            }
+            offsets.add(Integer.valueOf(offset));
+        }
+    }
+
+    /**
+     * @param text The parsed text
+     * @param line The line, starting from 1
+     * @param column The offset on the line, starting from 0
+     * @param length The length
+     * @return The offset, or -1 if the range is outside the text
+     */
+    private static int getOffset(IDocument text, int line, int column, int length) {
+        try {
+            int offset = text.getLineOffset(line - 1) + column;
+            if (offset < 0 || offset + length > text.getLength()) {
+                return -1;
+            }
+            return offset;
+        } catch (BadLocationException e) {
+            return -1;
+        }
+    }
+
+    private static int compare(DocumentReference a, DocumentReference b) {
+        if (a.getLine() != b.getLine()) {
+            return a.getLine() < b.getLine() ? -1 : 1;
+        }
+        return a.getPos() < b.getPos() ? -1 : (a.getPos() > b.getPos() ? 1 : 0);
+    }
+}
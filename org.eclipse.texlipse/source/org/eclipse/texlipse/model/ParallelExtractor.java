@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.texlipse.TexlipsePlugin;
+
+/**
+ * Runs the extraction of references from the project files in a bounded
+ * pool of worker threads. The parsers used for the extraction have no
+ * shared state, so the files can be parsed concurrently; the results are
+ * returned in the order of the tasks, so that the caller can merge them
+ * into the reference containers in one go.
+ *
+ * @author The TeXlipse team
+ */
+final class ParallelExtractor {
+
+    /**
+     * How often (in milliseconds) cancellation is checked while waiting
+     * for the workers
+     */
+    private static final long CANCEL_POLL_INTERVAL = 100;
+
+    private static ExecutorService pool;
+
+    private ParallelExtractor() {
+    }
+
+    /**
+     * Returns the shared worker pool, creating it if necessary. The pool
+     * has one thread per processor; the threads are daemons, so the pool
+     * doesn't need to be shut down.
+     *
+     * @return The worker pool
+     */
+    private static synchronized ExecutorService getPool() {
+        if (pool == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TeXlipse reference extractor " + (++count));
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * Runs the given tasks concurrently and waits for them to finish.
+     * Progress is reported to the monitor as each task completes. A task
+     * that fails is logged and its result is <code>null</code>.
+     *
+     * @param taskName The name of the task shown in the monitor
+     * @param names The names of the tasks (e.g. the file names), shown
+     *        in the monitor as they complete
+     * @param tasks The tasks to run
+     * @param monitor The progress monitor
+     * @return The results of the tasks, in the same order as the tasks
+     * @throws OperationCanceledException If the monitor was canceled, in
+     *         which case the unfinished tasks are canceled as well
+     */
+    static <T> List<T> run(String taskName, List<String> names, List<Callable<T>> tasks,
+            IProgressMonitor monitor) {
+        SubMonitor progress = SubMonitor.convert(monitor, taskName, tasks.size());
+        List<T> results = new ArrayList<T>(tasks.size());
+
+        // a single file isn't worth the hand-off
+        if (tasks.size() == 1) {
+            progress.subTask(names.get(0));
+            results.add(call(tasks.get(0)));
+            progress.worked(1);
+            return results;
+        }
+
+        ExecutorService executor = getPool();
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(waitFor(futures.get(i), names.get(i), progress));
+                progress.subTask(names.get(i));
+                progress.worked(1);
+            }
+        } finally {
+            // no-op for the tasks that have finished
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Waits for the given task to finish, checking the monitor for
+     * cancellation.
+     */
+    private static <T> T waitFor(Future<T> future, String name, IProgressMonitor monitor) {
+        while (true) {
+            if (monitor.isCanceled()) {
+                throw new OperationCanceledException();
+            }
+            try {
+                return future.get(CANCEL_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // check for cancellation and wait again
+            } catch (InterruptedException e) {
+                throw new OperationCanceledException();
+            } catch (ExecutionException e) {
+                TexlipsePlugin.log("Unable to extract references from " + name, e.getCause());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Runs the given task in the current thread.
+     */
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            TexlipsePlugin.log("Unable to extract references", e);
+            return null;
+        }
+    }
+}
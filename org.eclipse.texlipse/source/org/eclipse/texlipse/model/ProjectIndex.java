@@ -0,0 +1,582 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.bibparser.BibEntrySource;
+import org.eclipse.texlipse.properties.TexlipseProperties;
+import org.eclipse.texlipse.texparser.LatexRefExtractingParser;
+
+/**
+ * Persistent index of the labels, commands and BibTeX entries extracted
+ * from the files of a project. The index is stored in the plugin state
+ * location, so that the project files don't need to be parsed again
+ * when the workbench is restarted.
+ *
+ * Each file is keyed by its path and validated with its modification
+ * stamp, and with the length and the SHA-1 digest of its contents: if the
+ * stamp has changed but the contents haven't, the indexed data is still
+ * used. The data of a file is only decoded when it is requested.
+ *
+ * @author The TeXlipse team
+ */
+public class ProjectIndex {
+
+    /**
+     * The data extracted from a LaTeX file for the project datastructures.
+     */
+    public static class TexFileData {
+        public List<ReferenceEntry> labels;
+        public List<TexCommandEntry> commands;
+        public String[] bibs;
+        public String bibstyle;
+        public boolean biblatexMode;
+        public String biblatexBackend;
+        public String preamble;
+        public boolean fatalErrors;
+
+        /**
+         * Creates the data from the results of the given parser.
+         *
+         * @param parser The parser that has parsed the file
+         */
+        public TexFileData(LatexRefExtractingParser parser) {
+            labels = parser.getLabels();
+            commands = parser.getCommands();
+            bibs = parser.getBibs();
+            bibstyle = parser.getBibstyle();
+            biblatexMode = parser.isBiblatexMode();
+            biblatexBackend = parser.getBiblatexBackend();
+            preamble = parser.getPreamble();
+            fatalErrors = parser.isFatalErrors();
+        }
+
+        private TexFileData() {
+        }
+    }
+
+    /**
+     * An indexed file. The data is kept encoded until it is needed.
+     */
+    private static class Entry {
+        long stamp;
+        long length;
+        byte[] digest;
+        byte[] data;
+        boolean used;
+    }
+
+    private static final String INDEX_DIR = "index";
+    private static final int MAGIC = 0x54584958;
+    private static final int VERSION = 4;
+    private static final byte KIND_TEX = 1;
+    private static final byte KIND_BIB = 2;
+
+    private final File indexFile;
+    private final Map<String, Entry> texFiles;
+    private final Map<String, Entry> bibFiles;
+    private boolean changed;
+
+    /**
+     * Returns the index of the given project, reading it from the disk
+     * if this is the first time it is needed in this session.
+     *
+     * @param project The project
+     * @return The index of the project
+     */
+    public static synchronized ProjectIndex getIndex(IProject project) {
+        ProjectIndex index = (ProjectIndex) TexlipseProperties.getSessionProperty(project,
+                TexlipseProperties.SESSION_PROJECT_INDEX);
+        if (index == null) {
+            File dir = TexlipsePlugin.getDefault().getStateLocation().append(INDEX_DIR).toFile();
+            index = new ProjectIndex(new File(dir, project.getName() + ".idx"));
+            index.read();
+            TexlipseProperties.setSessionProperty(project,
+                    TexlipseProperties.SESSION_PROJECT_INDEX, index);
+        }
+        return index;
+    }
+
+    /**
+     * Creates a new empty index.
+     *
+     * @param indexFile The file where the index is stored
+     */
+    private ProjectIndex(File indexFile) {
+        this.indexFile = indexFile;
+        this.texFiles = new HashMap<String, Entry>();
+        this.bibFiles = new HashMap<String, Entry>();
+    }
+
+    /**
+     * Returns the indexed data of the given LaTeX file, if the file has
+     * not been modified since it was indexed.
+     *
+     * @param file The file
+     * @return The data, or null if the file is not indexed or has been modified
+     */
+    public synchronized TexFileData getTexFile(IResource file) {
+        Entry e = texFiles.get(file.getProjectRelativePath().toString());
+        if (e == null || e.stamp != file.getLocalTimeStamp()) {
+            return null;
+        }
+        return decodeTex(e);
+    }
+
+    /**
+     * Returns the indexed data of the given LaTeX file, if the contents of
+     * the file are the same as when it was indexed.
+     *
+     * @param file The file
+     * @param contents The current contents of the file
+     * @return The data, or null if the file is not indexed or has been changed
+     */
+    public synchronized TexFileData getTexFile(IResource file, String contents) {
+        Entry e = texFiles.get(file.getProjectRelativePath().toString());
+        if (e == null || e.length != contents.length()
+                || !MessageDigest.isEqual(e.digest, digest(contents))) {
+            return null;
+        }
+        e.stamp = file.getLocalTimeStamp();
+        changed = true;
+        return decodeTex(e);
+    }
+
+    /**
+     * Stores the data extracted from the given LaTeX file.
+     *
+     * @param file The file
+     * @param contents The contents the data was extracted from
+     * @param data The data
+     */
+    public synchronized void putTexFile(IResource file, String contents, TexFileData data) {
+        Entry e = new Entry();
+        e.stamp = file.getLocalTimeStamp();
+        e.length = contents.length();
+        e.digest = digest(contents);
+        try {
+            e.data = encodeTex(data);
+        } catch (IOException ioe) {
+            return;
+        }
+        e.used = true;
+        texFiles.put(file.getProjectRelativePath().toString(), e);
+        changed = true;
+    }
+
+    /**
+     * Removes the LaTeX files that are not in the given set from the index.
+     *
+     * @param paths The project relative paths of the files to keep
+     */
+    public synchronized void retainTexFiles(Set<String> paths) {
+        if (texFiles.keySet().retainAll(paths)) {
+            changed = true;
+        }
+    }
+
+    /**
+     * Returns the indexed entries of the given BibTeX file, if the file
+     * has not been changed since it was indexed.
+     *
+     * @param filepath The path of the file in the file system
+     * @return The entries, or null if the file is not indexed or has been changed
+     */
+    public List<ReferenceEntry> getBibFile(String filepath) {
+        Entry e;
+        long indexedStamp;
+        synchronized (this) {
+            e = bibFiles.get(filepath);
+            if (e == null) {
+                return null;
+            }
+            indexedStamp = e.stamp;
+        }
+        // the file is read and decoded without holding the index, the
+        // data of an entry is not changed after it has been stored
+        File f = new File(filepath);
+        long stamp = bibStamp(f);
+        if (indexedStamp != stamp) {
+            try {
+                if (e.length != f.length() || !MessageDigest.isEqual(e.digest, digest(f))) {
+                    return null;
+                }
+            } catch (IOException ioe) {
+                return null;
+            }
+        }
+        List<ReferenceEntry> entries;
+        try {
+            entries = decodeBibEntries(e.data, filepath);
+        } catch (IOException ioe) {
+            synchronized (this) {
+                if (bibFiles.get(filepath) == e) {
+                    bibFiles.remove(filepath);
+                }
+            }
+            return null;
+        }
+        synchronized (this) {
+            if (indexedStamp != stamp) {
+                e.stamp = stamp;
+                changed = true;
+            }
+            e.used = true;
+        }
+        return entries;
+    }
+
+    /**
+     * Stores the entries parsed from the given BibTeX file.
+     *
+     * @param filepath The path of the file in the file system
+     * @param entries The entries
+     */
+    public void putBibFile(String filepath, List<ReferenceEntry> entries) {
+        File f = new File(filepath);
+        Entry e = new Entry();
+        e.stamp = bibStamp(f);
+        try {
+            e.length = f.length();
+            e.digest = digest(f);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            writeSource(out, entries);
+            writeEntries(out, entries);
+            out.close();
+            e.data = bytes.toByteArray();
+        } catch (IOException ioe) {
+            return;
+        }
+        e.used = true;
+        synchronized (this) {
+            bibFiles.put(filepath, e);
+            changed = true;
+        }
+    }
+
+    /**
+     * Writes the index to the disk if it has changed. BibTeX files that
+     * have not been used in this session and no longer exist are dropped.
+     */
+    public synchronized void save() {
+        for (Iterator<Map.Entry<String, Entry>> iter = bibFiles.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, Entry> e = iter.next();
+            if (!e.getValue().used && !new File(e.getKey()).exists()) {
+                iter.remove();
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        File dir = indexFile.getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        File tmpFile = new File(dir, indexFile.getName() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(texFiles.size() + bibFiles.size());
+                writeEntries(out, KIND_TEX, texFiles);
+                writeEntries(out, KIND_BIB, bibFiles);
+            } finally {
+                out.close();
+            }
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexFile)) {
+                TexlipsePlugin.log("Unable to write project index " + indexFile, null);
+                return;
+            }
+            changed = false;
+        } catch (IOException ioe) {
+            TexlipsePlugin.log("Unable to write project index " + indexFile, ioe);
+            tmpFile.delete();
+        }
+    }
+
+    /**
+     * Reads the index from the disk. The data of the files is not decoded.
+     * A missing, outdated or corrupted index is ignored.
+     */
+    private void read() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(indexFile)));
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    return;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte kind = in.readByte();
+                    String path = in.readUTF();
+                    Entry e = new Entry();
+                    e.stamp = in.readLong();
+                    e.length = in.readLong();
+                    e.digest = new byte[in.readUnsignedByte()];
+                    in.readFully(e.digest);
+                    e.data = new byte[in.readInt()];
+                    in.readFully(e.data);
+                    if (kind == KIND_TEX) {
+                        texFiles.put(path, e);
+                    } else {
+                        bibFiles.put(path, e);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            texFiles.clear();
+            bibFiles.clear();
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, byte kind,
+            Map<String, Entry> entries) throws IOException {
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            out.writeByte(kind);
+            out.writeUTF(e.getKey());
+            out.writeLong(e.getValue().stamp);
+            out.writeLong(e.getValue().length);
+            out.writeByte(e.getValue().digest.length);
+            out.write(e.getValue().digest);
+            out.writeInt(e.getValue().data.length);
+            out.write(e.getValue().data);
+        }
+    }
+
+    private TexFileData decodeTex(Entry e) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(e.data));
+            TexFileData data = new TexFileData();
+            data.labels = readEntries(in, null);
+            int count = in.readInt();
+            data.commands = new ArrayList<TexCommandEntry>(count);
+            for (int i = 0; i < count; i++) {
+                TexCommandEntry command = new TexCommandEntry(in.readUTF(), "", 0);
+                command.info = readString(in);
+                command.arguments = in.readInt();
+                command.startLine = in.readInt();
+                data.commands.add(command);
+            }
+            data.bibs = new String[in.readInt()];
+            for (int i = 0; i < data.bibs.length; i++) {
+                data.bibs[i] = readString(in);
+            }
+            data.bibstyle = readString(in);
+            data.biblatexMode = in.readBoolean();
+            data.biblatexBackend = readString(in);
+            data.preamble = readString(in);
+            data.fatalErrors = in.readBoolean();
+            e.used = true;
+            return data;
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private static byte[] encodeTex(TexFileData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeEntries(out, data.labels);
+        out.writeInt(data.commands.size());
+        for (TexCommandEntry command : data.commands) {
+            out.writeUTF(command.key);
+            writeString(out, command.info);
+            out.writeInt(command.arguments);
+            out.writeInt(command.startLine);
+        }
+        out.writeInt(data.bibs.length);
+        for (String bib : data.bibs) {
+            writeString(out, bib);
+        }
+        writeString(out, data.bibstyle);
+        out.writeBoolean(data.biblatexMode);
+        writeString(out, data.biblatexBackend);
+        writeString(out, data.preamble);
+        out.writeBoolean(data.fatalErrors);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static List<ReferenceEntry> decodeBibEntries(byte[] data, String filepath)
+    throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        BibEntrySource source = null;
+        if (in.readBoolean()) {
+            String charset = in.readUTF();
+            int count = in.readInt();
+            Map<String, String> abbrevs = new HashMap<String, String>();
+            for (int i = 0; i < count; i++) {
+                abbrevs.put(in.readUTF(), readString(in));
+            }
+            source = new BibEntrySource(filepath, charset, abbrevs);
+        }
+        return readEntries(in, source);
+    }
+
+    /**
+     * Writes the file the entries read their texts from, the entries of
+     * a BibTeX file all have the same one.
+     */
+    private static void writeSource(DataOutputStream out, List<ReferenceEntry> entries)
+    throws IOException {
+        BibEntrySource source = entries.isEmpty() ? null : entries.get(0).getSource();
+        out.writeBoolean(source != null);
+        if (source != null) {
+            out.writeUTF(source.getCharset());
+            out.writeInt(source.getAbbrevs().size());
+            for (Map.Entry<String, String> abbrev : source.getAbbrevs().entrySet()) {
+                out.writeUTF(abbrev.getKey());
+                writeString(out, abbrev.getValue());
+            }
+        }
+    }
+
+    private static void writeEntries(DataOutputStream out, List<ReferenceEntry> entries)
+    throws IOException {
+        out.writeInt(entries.size());
+        for (ReferenceEntry entry : entries) {
+            out.writeUTF(entry.key);
+            writeString(out, entry.info);
+            writeString(out, entry.author);
+            writeString(out, entry.journal);
+            writeString(out, entry.year);
+            out.writeInt(entry.startLine);
+            out.writeInt(entry.endLine);
+            out.writeBoolean(entry.position != null);
+            if (entry.position != null) {
+                out.writeInt(entry.position.getOffset());
+                out.writeInt(entry.position.getLength());
+            }
+            out.writeBoolean(entry.getSource() != null);
+            if (entry.getSource() != null) {
+                out.writeInt(entry.getSourceOffset());
+                out.writeInt(entry.getSourceLength());
+            }
+        }
+    }
+
+    private static List<ReferenceEntry> readEntries(DataInputStream in, BibEntrySource source)
+    throws IOException {
+        int count = in.readInt();
+        List<ReferenceEntry> entries = new ArrayList<ReferenceEntry>(count);
+        for (int i = 0; i < count; i++) {
+            ReferenceEntry entry = new ReferenceEntry(in.readUTF());
+            entry.info = readString(in);
+            entry.author = readString(in);
+            entry.journal = readString(in);
+            entry.year = readString(in);
+            entry.startLine = in.readInt();
+            entry.endLine = in.readInt();
+            if (in.readBoolean()) {
+                entry.setPosition(in.readInt(), in.readInt());
+            }
+            if (in.readBoolean()) {
+                entry.setSource(source, in.readInt(), in.readInt());
+            }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Writes a string that may be null or longer than what
+     * <code>writeUTF</code> supports.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = s.getBytes("UTF-8");
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] digest(String contents) {
+        try {
+            return newDigest().digest(contents.getBytes("UTF-8"));
+        } catch (IOException ioe) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    private static byte[] digest(File f) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(f);
+        try {
+            byte[] buff = new byte[8192];
+            int len;
+            while ((len = in.read(buff)) != -1) {
+                digest.update(buff, 0, len);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            // every Java platform has SHA-1
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    private static long bibStamp(File f) {
+        return f.lastModified() ^ (f.length() << 40);
+    }
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IncrementalProjectBuilder;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.texlipse.properties.TexlipseProperties;
+
+/**
+ * The document properties of a project that the builder depends on, i.e.
+ * the bibliography settings and the preamble of the main document. The
+ * parser publishes them here as it finds them, and the builder takes a
+ * snapshot of them when a build starts instead of waiting for the running
+ * parser jobs.
+ *
+ * The properties are also stored as session properties of the project, so
+ * they can still be read with <code>TexlipseProperties</code>. If a parse
+ * changes a property that a running build has used, another build is
+ * triggered when it has finished. If the build has already finished, the
+ * project is only marked to be rebuilt on the next build, since the
+ * editors also parse text that hasn't been saved.
+ *
+ * @author The TeXlipse team
+ */
+public final class ProjectState {
+
+    private final IProject project;
+
+    /**
+     * The current values of the properties
+     */
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    /**
+     * Increased whenever a property changes
+     */
+    private long version;
+
+    /**
+     * The snapshot of the running or last finished build
+     */
+    private Snapshot lastBuild;
+
+    private boolean building;
+
+    private ProjectState(IProject project) {
+        this.project = project;
+    }
+
+    /**
+     * Returns the state of the given project, creating it if necessary.
+     *
+     * @param project the project
+     * @return the state of the project
+     */
+    public static synchronized ProjectState getState(IProject project) {
+        ProjectState state = (ProjectState) TexlipseProperties.getSessionProperty(project,
+                TexlipseProperties.SESSION_PROJECT_STATE);
+        if (state == null) {
+            state = new ProjectState(project);
+            TexlipseProperties.setSessionProperty(project,
+                    TexlipseProperties.SESSION_PROJECT_STATE, state);
+        }
+        return state;
+    }
+
+    /**
+     * Publishes a property found by the parser.
+     *
+     * @param key the name of the property, one of the session property
+     *  names in <code>TexlipseProperties</code>
+     * @param value the new value, or null to remove the property
+     */
+    public synchronized void set(String key, Object value) {
+        TexlipseProperties.setSessionProperty(project, key, value);
+        if (equal(values.get(key), value)) {
+            return;
+        }
+        values.put(key, value instanceof Object[] ? ((Object[]) value).clone() : value);
+        version++;
+        // a running build checks the changes when it has finished
+        if (!building && lastBuild != null && lastBuild.isOutdated(key, value)) {
+            lastBuild = null;
+            TexlipseProperties.setSessionProperty(project,
+                    TexlipseProperties.FORCED_REBUILD, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Takes a snapshot of the properties for a build that starts now.
+     *
+     * @return the snapshot
+     */
+    public synchronized Snapshot startBuild() {
+        building = true;
+        lastBuild = new Snapshot(version, new HashMap<String, Object>(values));
+        return lastBuild;
+    }
+
+    /**
+     * Called when the build using the given snapshot has finished.
+     * Triggers another build if a property the build used has changed
+     * in the meantime.
+     *
+     * @param snapshot the snapshot of the build
+     */
+    public void buildFinished(Snapshot snapshot) {
+        boolean rebuild = false;
+        synchronized (this) {
+            if (snapshot != lastBuild) {
+                return;
+            }
+            building = false;
+            if (snapshot.version != version) {
+                for (Map.Entry<String, Object> entry : values.entrySet()) {
+                    if (snapshot.isOutdated(entry.getKey(), entry.getValue())) {
+                        rebuild = true;
+                    }
+                }
+                // properties that have been removed since
+                for (String key : snapshot.values.keySet()) {
+                    if (!values.containsKey(key) && snapshot.isOutdated(key, null)) {
+                        rebuild = true;
+                    }
+                }
+            }
+            if (rebuild) {
+                lastBuild = null;
+            }
+        }
+        if (rebuild) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * Makes sure the project is built again, even if the output looks
+     * up to date. With autobuild on, the build is started right away,
+     * otherwise it happens on the next build. Only called when a build
+     * that used an outdated property has finished.
+     */
+    private void scheduleRebuild() {
+        TexlipseProperties.setSessionProperty(project,
+                TexlipseProperties.FORCED_REBUILD, Boolean.TRUE);
+        if (!project.getWorkspace().isAutoBuilding()) {
+            return;
+        }
+        WorkspaceJob job = new WorkspaceJob("Rebuilding " + project.getName()) {
+            public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+                project.build(IncrementalProjectBuilder.INCREMENTAL_BUILD, monitor);
+                return Status.OK_STATUS;
+            }
+        };
+        job.setRule(project.getWorkspace().getRuleFactory().buildRule());
+        job.setSystem(true);
+        job.schedule();
+    }
+
+    /**
+     * @return true if the given property values are equal
+     */
+    private static boolean equal(Object a, Object b) {
+        return Arrays.deepEquals(new Object[] { a }, new Object[] { b });
+    }
+
+    /**
+     * The properties at the start of a build. Remembers which properties
+     * the build has read.
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final Map<String, Object> values;
+        private final Set<String> used = new HashSet<String>();
+
+        private Snapshot(long version, Map<String, Object> values) {
+            this.version = version;
+            this.values = values;
+        }
+
+        /**
+         * Returns the value of a property at the start of the build and
+         * records that the build depends on it.
+         *
+         * @param key the name of the property
+         * @return the value, or null if the property isn't set
+         */
+        public synchronized Object get(String key) {
+            used.add(key);
+            Object value = values.get(key);
+            return value instanceof Object[] ? ((Object[]) value).clone() : value;
+        }
+
+        /**
+         * @return true if the build used the given property and its value
+         *  is now different
+         */
+        private synchronized boolean isOutdated(String key, Object value) {
+            return used.contains(key) && !equal(values.get(key), value);
+        }
+    }
+}
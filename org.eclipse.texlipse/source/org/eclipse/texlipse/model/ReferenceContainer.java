@@ -11,26 +11,168 @@
 package org.eclipse.texlipse.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 
 /**
  * Container for referencing data (BibTeX and labels.) Holds the reference
- * lists of each file as well as a (case insensitive) sorted array of all references, so that
- * not all files need to be reparsed when the data changes.
+ * lists of each file as well as a (case insensitive) sorted run of the
+ * references of each file, so that not all files need to be reparsed or
+ * resorted when the data of one file changes. Queries search the runs
+ * with binary search and merge the matches; the sorted list of all
+ * references is only merged when it is asked for.
  * 
  * @author Oskar Ojala
  * @author Boris von Loesch
  */
 public class ReferenceContainer {
 
+    /**
+     * The references of one source sorted case insensitively, with the
+     * lower case keys cached for the searches.
+     */
+    private static final class SortedRun {
+        final ReferenceEntry[] entries;
+        final String[] keys;
+
+        SortedRun(List<ReferenceEntry> refs) {
+            entries = refs.toArray(new ReferenceEntry[refs.size()]);
+            Arrays.sort(entries, new Comparator<ReferenceEntry>() {
+                public int compare(ReferenceEntry o1, ReferenceEntry o2) {
+                    return o1.getkey(true).compareTo(o2.getkey(true));
+                }
+            });
+            keys = new String[entries.length];
+            for (int i = 0; i < entries.length; i++) {
+                keys[i] = entries[i].getkey(true);
+            }
+        }
+
+        private SortedRun(ReferenceEntry[] entries, String[] keys) {
+            this.entries = entries;
+            this.keys = keys;
+        }
+
+        /**
+         * Creates a run from this one by removing and adding some
+         * references. The added references are merged into the run, so
+         * the run is not sorted again.
+         *
+         * @param removed The references to remove (compared by identity)
+         * @param added The references to add
+         * @return The new run, or null if some of the removed references
+         *  are not in this run
+         */
+        SortedRun update(List<ReferenceEntry> removed, List<ReferenceEntry> added) {
+            Map<ReferenceEntry, Boolean> gone = new IdentityHashMap<ReferenceEntry, Boolean>(removed.size() * 2);
+            for (ReferenceEntry r : removed) {
+                gone.put(r, Boolean.TRUE);
+            }
+            SortedRun add = new SortedRun(added);
+            int count = 0;
+            for (ReferenceEntry r : entries) {
+                if (!gone.containsKey(r)) {
+                    count++;
+                }
+            }
+            if (gone.size() != removed.size() || entries.length - count != removed.size()) {
+                // the run was built from other objects, e.g. parsed from the file
+                return null;
+            }
+            ReferenceEntry[] newEntries = new ReferenceEntry[count + add.entries.length];
+            String[] newKeys = new String[newEntries.length];
+            int i = 0, j = 0, k = 0;
+            while (k < newEntries.length) {
+                while (i < entries.length && gone.containsKey(entries[i])) {
+                    i++;
+                }
+                if (j == add.entries.length
+                        || (i < entries.length && keys[i].compareTo(add.keys[j]) <= 0)) {
+                    newEntries[k] = entries[i];
+                    newKeys[k++] = keys[i++];
+                } else {
+                    newEntries[k] = add.entries[j];
+                    newKeys[k++] = add.keys[j++];
+                }
+            }
+            return new SortedRun(newEntries, newKeys);
+        }
+
+        /**
+         * @return The index of the first key that is not less than
+         * <code>key</code>
+         */
+        int lowerBound(String key, int from) {
+            int low = from, high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return The index after the last key starting with
+         * <code>prefix</code>, given that the key at <code>from</code>
+         * starts with it
+         */
+        int prefixEnd(String prefix, int from) {
+            int low = from, high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].startsWith(prefix)) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /**
+     * A position in a sorted run, used for merging runs.
+     */
+    private static final class RunCursor implements Comparable<RunCursor> {
+        final SortedRun run;
+        int pos;
+        final int end;
+
+        RunCursor(SortedRun run, int pos, int end) {
+            this.run = run;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        public int compareTo(RunCursor other) {
+            return run.keys[pos].compareTo(other.run.keys[other.pos]);
+        }
+    }
+
+    private static final SortedRun[] NO_RUNS = new SortedRun[0];
+
     private Map<String, List<ReferenceEntry>> referenceHash;
-    private List<ReferenceEntry> sortedReferences;
+    private Map<String, SortedRun> sortedRuns;
+    /**
+     * The runs of the last <code>organize()</code>, searched by the queries
+     */
+    private volatile SortedRun[] organizedRuns;
+    /**
+     * All organized references merged, created when first needed
+     */
+    private volatile List<ReferenceEntry> sortedReferences;
     private int size;
     
     /**
@@ -38,14 +180,17 @@ public class ReferenceContainer {
      */
     public ReferenceContainer() {
         referenceHash = new HashMap<String, List<ReferenceEntry>>(4);
+        sortedRuns = new HashMap<String, SortedRun>(4);
+        organizedRuns = null;
         sortedReferences = null;
         size = 0;
     }
     
     /**
      * Adds a reference source <code>refs</code> 
-     * associated with <code>key</code> into this object. Does not
-     * update the sorted array of references.
+     * associated with <code>key</code> into this object. Sorts the
+     * references, but does not make them visible to the queries before
+     * <code>organize()</code> is called.
      * 
      * @param key The key associated with these references in the internal set
      * @param refs The references to store
@@ -71,6 +216,7 @@ public class ReferenceContainer {
         List<ReferenceEntry> al = referenceHash.put(key, refs);
         if (al != null)
             size -= al.size();
+        sortedRuns.put(key, new SortedRun(refs));
     }
         
     /**
@@ -96,33 +242,57 @@ public class ReferenceContainer {
     }
 
     /**
-     * Organizes the data from the reference hashes to the sorted array
-     * <code>sortedReferences</code>.
+     * Updates the contents of this object with the changes of a reference
+     * source, if the key exists in the internal set. Only the changed
+     * references are merged into the sorted run of the source.
+     * 
+     * @param key The key with which the reference source is associated
+     * @param refs All the references of the source after the changes
+     * @param removed The references that were removed from the source
+     * @param added The references that were added to the source
+     * @return True if the internal set was changed
+     * @see #updateRefSource(String, List)
      */
-    public void organize() {
-        if (referenceHash.size() == 0) {
-            sortedReferences = new ArrayList<ReferenceEntry>(0);
-        	return;
+    public boolean updateRefSource(String key, List<ReferenceEntry> refs,
+            List<ReferenceEntry> removed, List<ReferenceEntry> added) {
+        List<ReferenceEntry> al = referenceHash.get(key);
+        SortedRun run = sortedRuns.get(key);
+        SortedRun updated = run != null ? run.update(removed, added) : null;
+        if (al == null || updated == null || updated.entries.length != refs.size()) {
+            return updateRefSource(key, refs);
         }
-        
-        List<ReferenceEntry> allRefs = new ArrayList<ReferenceEntry>(size);
-        if (referenceHash.size() > 1) {
-            for (Iterator<List<ReferenceEntry>> iter = referenceHash.values().iterator(); iter.hasNext();) {
-                List<ReferenceEntry> refList = iter.next();
-                allRefs.addAll(refList);
-            }
-        } else if (referenceHash.size() == 1) {
-            Iterator<List<ReferenceEntry>> iter = referenceHash.values().iterator();
-            allRefs = iter.next();
+        for (ReferenceEntry r : added) {
+            r.fileName = key;
         }
-        sortedReferences = allRefs;
-        
-        //Sort collections case insensitive
-        Collections.sort(sortedReferences, new Comparator<ReferenceEntry>() {
-            public int compare(ReferenceEntry o1, ReferenceEntry o2) {
-                return o1.getkey(true).compareTo(o2.getkey(true).toLowerCase());
+        size += refs.size() - al.size();
+        referenceHash.put(key, refs);
+        sortedRuns.put(key, updated);
+        this.organize();
+        return true;
+    }
+
+    /**
+     * Makes the current references visible to the queries. The runs are
+     * already sorted, so this only takes time proportional to the number
+     * of sources.
+     */
+    public void organize() {
+        List<SortedRun> runs = new ArrayList<SortedRun>(sortedRuns.size());
+        for (SortedRun run : sortedRuns.values()) {
+            if (run.entries.length > 0) {
+                runs.add(run);
             }
-        });
+        }
+        sortedReferences = null;
+        organizedRuns = runs.toArray(new SortedRun[runs.size()]);
+    }
+
+    /**
+     * @return The runs of the last <code>organize()</code>
+     */
+    private SortedRun[] getRuns() {
+        SortedRun[] runs = organizedRuns;
+        return runs != null ? runs : NO_RUNS;
     }
     
     /**
@@ -156,6 +326,7 @@ public class ReferenceContainer {
             }
         }
         referenceHash = newHash;
+        sortedRuns.keySet().retainAll(newHash.keySet());
         size = newSize;
         
         return toParse;
@@ -187,10 +358,58 @@ public class ReferenceContainer {
      * @return True if <code>key</code> was found, false if it was not found
      */
     public boolean binTest(String key) {
-        if (sortedReferences == null || sortedReferences.size() == 0)
-            return false;
-        int nr = PartialRetriever.getEntry(key, sortedReferences, true);
-        return (nr >= 0);
+        return getEntry(key) != null;
+    }
+
+    /**
+     * Returns the entry with the given key, searching each sorted run
+     * with binary search.
+     * 
+     * @param key The key to look for
+     * @return The entry or null if it was not found
+     */
+    public ReferenceEntry getEntry(String key) {
+        String lKey = key.toLowerCase();
+        for (SortedRun run : getRuns()) {
+            // different keys may have the same lower case form
+            for (int i = run.lowerBound(lKey, 0); i < run.keys.length && run.keys[i].equals(lKey); i++) {
+                if (run.entries[i].key.equals(key)) {
+                    return run.entries[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the references whose keys start (case insensitively) with
+     * the given string in alphabetical order. Only the matching ranges of
+     * the sorted runs are merged.
+     * 
+     * @param start The string with which the keys should start
+     * @return The matching references or null if there were none
+     */
+    public List<ReferenceEntry> getCompletions(String start) {
+        if (start.length() == 0) {
+            // null if the container hasn't been organized yet
+            List<ReferenceEntry> all = getSortedReferences();
+            return all == null || all.isEmpty() ? null : all;
+        }
+        String prefix = start.toLowerCase();
+        List<RunCursor> matches = new ArrayList<RunCursor>();
+        int count = 0;
+        for (SortedRun run : getRuns()) {
+            int first = run.lowerBound(prefix, 0);
+            if (first < run.keys.length && run.keys[first].startsWith(prefix)) {
+                int end = run.prefixEnd(prefix, first);
+                matches.add(new RunCursor(run, first, end));
+                count += end - first;
+            }
+        }
+        if (matches.isEmpty()) {
+            return null;
+        }
+        return merge(matches, count);
     }
     
     /**
@@ -215,10 +434,59 @@ public class ReferenceContainer {
     
     /**
      * Returns all the references in this container alphabetically sorted.
+     * The list is merged from the sorted runs when first needed after
+     * <code>organize()</code>.
      * 
-     * @return Returns the sortedReferences.
+     * @return Returns the sortedReferences, or null if the container
+     * hasn't been organized yet.
      */
     public List<ReferenceEntry> getSortedReferences() {
-        return sortedReferences;
+        List<ReferenceEntry> refs = sortedReferences;
+        if (refs == null) {
+            SortedRun[] runs = organizedRuns;
+            if (runs == null) {
+                return null;
+            }
+            List<RunCursor> cursors = new ArrayList<RunCursor>(runs.length);
+            int count = 0;
+            for (SortedRun run : runs) {
+                cursors.add(new RunCursor(run, 0, run.entries.length));
+                count += run.entries.length;
+            }
+            refs = Collections.unmodifiableList(merge(cursors, count));
+            if (organizedRuns == runs) {
+                sortedReferences = refs;
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Merges the given ranges of sorted runs into one sorted list.
+     * 
+     * @param cursors The ranges to merge
+     * @param count The total number of references in the ranges
+     * @return The merged references
+     */
+    private static List<ReferenceEntry> merge(List<RunCursor> cursors, int count) {
+        if (cursors.size() == 1) {
+            RunCursor c = cursors.get(0);
+            return Arrays.asList(c.run.entries).subList(c.pos, c.end);
+        }
+        List<ReferenceEntry> merged = new ArrayList<ReferenceEntry>(count);
+        PriorityQueue<RunCursor> queue = new PriorityQueue<RunCursor>(Math.max(1, cursors.size()));
+        for (RunCursor c : cursors) {
+            if (c.pos < c.end) {
+                queue.add(c);
+            }
+        }
+        while (!queue.isEmpty()) {
+            RunCursor c = queue.poll();
+            merged.add(c.run.entries[c.pos++]);
+            if (c.pos < c.end) {
+                queue.add(c);
+            }
+        }
+        return merged;
     }
 }
@@ -10,10 +10,10 @@
  *******************************************************************************/
 package org.eclipse.texlipse.model;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.StringReader;
+import java.util.Arrays;
+
+import org.eclipse.texlipse.bibparser.BibEntrySource;
 
 
 /**
@@ -24,7 +24,8 @@ import java.io.StringReader;
 public final class ReferenceEntry extends AbstractEntry {
 
     /**
-     * A descriptive text of the reference
+     * A descriptive text of the reference, null if it is read from the
+     * source file when needed (see <code>getInfo()</code>)
      */
     public String info;
     /**
@@ -41,6 +42,14 @@ public final class ReferenceEntry extends AbstractEntry {
      */
     public File refFile;
     
+    /**
+     * The BibTeX file the info is read from, and the position of the
+     * entry in it, in bytes or characters depending on the source
+     */
+    private BibEntrySource source;
+    private int sourceOffset;
+    private int sourceLength;
+    
     /**
      * Constructs a new entry with the given key (reference key/name)
      * 
@@ -78,9 +87,64 @@ public final class ReferenceEntry extends AbstractEntry {
         re.refFile = refFile;
         re.fileName = fileName;
         re.position = position;
+        re.source = source;
+        re.sourceOffset = sourceOffset;
+        re.sourceLength = sourceLength;
         return re;
     }
     
+    /**
+     * Returns the descriptive text of the reference. If the text isn't
+     * kept in memory, it is read from the source file of the entry.
+     * 
+     * @return The text, or null if there is none or it can't be read
+     */
+    public String getInfo() {
+        if (info != null || source == null) {
+            return info;
+        }
+        return source.getInfo(key, sourceOffset, sourceLength);
+    }
+    
+    /**
+     * Sets the file the descriptive text is read from when it is needed,
+     * instead of keeping it in memory.
+     * 
+     * @param source The BibTeX file
+     * @param offset The offset of the entry in the file, in bytes or
+     *  characters as given by <code>source.hasByteOffsets()</code>
+     * @param length The length of the entry, in the same unit
+     */
+    public void setSource(BibEntrySource source, int offset, int length) {
+        this.source = source;
+        this.sourceOffset = offset;
+        this.sourceLength = length;
+    }
+    
+    /**
+     * @return The file the descriptive text is read from, or null if
+     *  the text is kept in memory
+     */
+    public BibEntrySource getSource() {
+        return source;
+    }
+    
+    /**
+     * @return The offset of the entry in its source file, in bytes or
+     *  characters as given by the source
+     */
+    public int getSourceOffset() {
+        return sourceOffset;
+    }
+    
+    /**
+     * @return The length of the entry in its source file, in the unit
+     *  of the offset
+     */
+    public int getSourceLength() {
+        return sourceLength;
+    }
+    
     /* (non-Javadoc)
      * @see java.lang.Object#toString()
      */
@@ -88,32 +152,75 @@ public final class ReferenceEntry extends AbstractEntry {
         return key;
     }
     
-    private int labelPrecedingLines = 2;
-    private int labelFollowingLines = 2;
+    /**
+     * The number of lines before and after a label in its info
+     */
+    public static final int LABEL_INFO_LINES = 2;
+
+    private int labelPrecedingLines = LABEL_INFO_LINES;
+    private int labelFollowingLines = LABEL_INFO_LINES;
     
+    /**
+     * Sets the info of a label to the lines around its declaration.
+     * 
+     * @param input The document
+     * @see #setLabelInfo(String, int[])
+     */
     public void setLabelInfo(String input) {
-    	int lineno = startLine;
+        setLabelInfo(input, getLineStarts(input));
+    }
+
+    /**
+     * Sets the info of a label to the lines around its declaration. The
+     * starts of the lines are computed once for all the labels of a
+     * document, so that this doesn't read the document from the start.
+     * 
+     * @param input The document
+     * @param lineStarts The offsets where the lines of the document start
+     * @see #getLineStarts(String)
+     */
+    public void setLabelInfo(String input, int[] lineStarts) {
+        int first = Math.max(startLine - labelPrecedingLines, 0);
+        int last = Math.min(startLine + labelFollowingLines, lineStarts.length - 1);
+        String separator = System.getProperty("line.separator");
         StringBuilder extract = new StringBuilder();
-        try {
-            BufferedReader in = new BufferedReader(new StringReader(input));
-            int currentLine = 0;
-            int startLine = (lineno - labelPrecedingLines) >= 0 ?
-                    lineno - labelPrecedingLines : 0;
-            int endLine = lineno + labelFollowingLines;
-            String str;
-            while ((str = in.readLine()) != null) {
-                if (currentLine > endLine) {
-                    break;
-                } else if (currentLine >= startLine) {
-                    extract.append(str);
-                    extract.append(System.getProperty("line.separator"));
-                }
-                currentLine++;
+        for (int line = first; line <= last; line++) {
+            int end = lineStarts[line];
+            while (end < input.length() && input.charAt(end) != '\n' && input.charAt(end) != '\r') {
+                end++;
             }
-            in.close();
-        } catch (IOException e) {
+            extract.append(input, lineStarts[line], end);
+            extract.append(separator);
         }
         info = extract.toString();
     }
 
+    /**
+     * Returns the offsets where the lines of a document start. The lines
+     * end with \n, \r or \r\n, and a line terminator at the end of the
+     * document doesn't start a new line.
+     * 
+     * @param input The document
+     * @return The offsets of the lines
+     */
+    public static int[] getLineStarts(String input) {
+        int[] starts = new int[16];
+        int count = 0;
+        int i = 0;
+        int length = input.length();
+        while (i < length) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            starts[count++] = i;
+            while (i < length && input.charAt(i) != '\n' && input.charAt(i) != '\r') {
+                i++;
+            }
+            if (i < length && input.charAt(i++) == '\r' && i < length && input.charAt(i) == '\n') {
+                i++;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
 }
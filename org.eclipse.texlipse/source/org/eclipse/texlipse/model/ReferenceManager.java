@@ -50,10 +50,7 @@ public class ReferenceManager extends PartialRetriever {
     // B-----borisvl
     
     public ReferenceEntry getBib(String name) {
-        List<ReferenceEntry> bibEntries = bibContainer.getSortedReferences();
-        int nr = getEntry(name, bibEntries, true);
-        if (nr != -1) return bibEntries.get(nr);
-        else return null;
+        return bibContainer.getEntry(name);
     }
 
     /**
@@ -63,10 +60,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return The adequate entry or null if no entry was found
      */
     public ReferenceEntry getLabel(String ref) {
-        List<ReferenceEntry> labels = labelContainer.getSortedReferences();
-        int nr = getEntry(ref, labels, true);
-        if (nr != -1) return labels.get(nr);
-        else return null;
+        return labelContainer.getEntry(ref);
     }
 
     /**
@@ -96,25 +90,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return An array of completions or null if there were no completions
      */
     public List<ReferenceEntry> getCompletionsRef(String start) {
-        List<ReferenceEntry> labels = labelContainer.getSortedReferences();
-
-        if (labels == null)
-            return null;
-        if (start.equals(""))
-            return labels;
-
-        // don't refetch the proposal list in partial fill;
-        // use the existing proposal list and make it smaller
-        int[] bounds;
-        // if (lastLab.length() > 0 && start.startsWith(lastLab))
-        // bounds = getCompletionsBin(start, labels, lastLabBounds);
-        // else
-        // bounds = getCompletionsBin(start, labels);
-
-        bounds = getCompletionsBin(start, labels, true);
-
-        if (bounds[0] == -1) return null;
-        return labels.subList(bounds[0], bounds[1]);
+        return labelContainer.getCompletions(start);
     }
 
     /**
@@ -125,26 +101,7 @@ public class ReferenceManager extends PartialRetriever {
      * @return An array of completions or null if there were no completions
      */
     public List<ReferenceEntry> getCompletionsBib(String start) {
-        List<ReferenceEntry> bibEntries = bibContainer.getSortedReferences();
-
-        if (bibEntries == null)
-            return null;
-        if (start.equals(""))
-            return bibEntries;
-
-        // don't refetch the proposal list in partial fill;
-        // use the existing proposal list and make it smaller
-        int[] bounds;
-        // if (lastBib.length() > 0 && start.startsWith(lastBib))
-        // bounds = getCompletionsBin(start, bibEntries, lastBibBounds);
-        // else
-        // bounds = getCompletionsBin(start, bibEntries);
-
-        // ...either solve problems with bounds or remove them...
-        bounds = getCompletionsBin(start, bibEntries, true);
-
-        if (bounds[0] == -1) return null;
-        return bibEntries.subList(bounds[0], bounds[1]);
+        return bibContainer.getCompletions(start);
     }
 
     /**
@@ -14,8 +14,14 @@ import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.eclipse.core.resources.IContainer;
 import org.eclipse.core.resources.IFile;
@@ -25,6 +31,7 @@ import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
@@ -33,8 +40,10 @@ import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.action.SubStatusLineManager;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.BadPositionCategoryException;
+import org.eclipse.jface.text.Document;
 import org.eclipse.jface.text.DocumentEvent;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.util.IPropertyChangeListener;
@@ -93,12 +102,20 @@ public class TexDocumentModel implements IDocumentListener {
         protected IStatus run(IProgressMonitor monitor) {
             try {
                 // before parsing stuff, only takes time when run the first time
+                IProject project = getCurrentProject();
                 if (bibContainer == null) {
-                    createReferenceContainers();
+                    createReferenceContainers(monitor);
+                } else if (project != null
+                        && TexlipseProperties.getSessionProperty(project,
+                                TexlipseProperties.SESSION_PROJECT_INCOMPLETE) != null) {
+                    // the previous extraction was canceled
+                    createProjectDatastructs(project, monitor);
                 }
                 pollCancel(monitor);
                 
                 // parsing
+                IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+                long stamp = getModificationStamp(document);
                 ArrayList<OutlineNode> rootNodes;
                 try {
                     rootNodes = doParse(monitor);
@@ -107,8 +124,24 @@ public class TexDocumentModel implements IDocumentListener {
                 }
                 pollCancel(monitor);
                 
+                // the outline, its offsets and the occurrences are computed
+                // here from the parsed text, so that the ui thread only
+                // updates the document positions
+                IDocument parsed = copyParsedText(document, stamp);
+                OutlineUpdate outline = createOutlineUpdate(rootNodes, parsed, stamp, monitor);
+                pollCancel(monitor);
+                OccurrenceIndex occurrences = null;
+                if (parsed != null) {
+                    occurrences = new OccurrenceIndex(parsed, stamp, parser.getLabels(),
+                            parser.getRefs(), parser.getEnvironmentBegins(),
+                            parser.getEnvironmentEnds());
+                }
+                pollCancel(monitor);
+
                 // handling of parse results
                 postParseJob.setRootNodes(rootNodes);
+                postParseJob.setOutlineUpdate(outline);
+                postParseJob.setOccurrenceIndex(occurrences);
                 postParseJob.schedule();
                 
                 try {
@@ -127,6 +160,7 @@ public class TexDocumentModel implements IDocumentListener {
                         lock.acquire();
                         pollCancel(monitor);
                         setDirty(false);
+                        setParserUpToDate();
                     } finally {
                         lock.release();
                     }
@@ -155,6 +189,8 @@ public class TexDocumentModel implements IDocumentListener {
     private class PostParseJob extends WorkbenchJob {
         
         private ArrayList<OutlineNode> rootNodes;
+        private OutlineUpdate outlineUpdate;
+        private OccurrenceIndex occurrences;
         private List<OutlineNode> fullOutlineNodes;
 
         /**
@@ -172,6 +208,21 @@ public class TexDocumentModel implements IDocumentListener {
             this.rootNodes = rootNodes;
         }
         
+        /**
+         * @param outlineUpdate the outline input and the offsets of its nodes
+         */
+        public void setOutlineUpdate(OutlineUpdate outlineUpdate) {
+            this.outlineUpdate = outlineUpdate;
+        }
+        
+        /**
+         * @param occurrences the occurrence index of the parse, or null if
+         *  the document was changed while parsing
+         */
+        public void setOccurrenceIndex(OccurrenceIndex occurrences) {
+            this.occurrences = occurrences;
+        }
+        
         /**
          * @param rootNodes
          */
@@ -185,8 +236,9 @@ public class TexDocumentModel implements IDocumentListener {
         public IStatus runInUIThread(IProgressMonitor monitor) {
             try {
             	//long time = System.currentTimeMillis();
-                updateDocumentPositions(rootNodes, monitor);
+                updateDocumentPositions(outlineUpdate, monitor);
                 //System.out.println("updateDocPos: " + (System.currentTimeMillis() - time));
+                updateOccurrenceIndex(occurrences);
                 
                 pollCancel(monitor);
                 
@@ -227,6 +279,11 @@ public class TexDocumentModel implements IDocumentListener {
     private TexProjectOutline projectOutline;
     
     private TexOutlineInput outlineInput;
+    private OccurrenceIndex occurrenceIndex;
+    
+    // the positions of the outline nodes in the document, in the order of
+    // the nodes; the list is replaced, not changed
+    private volatile List<Position> outlinePositions = Collections.emptyList();
     
     private ReferenceContainer bibContainer;
     private ReferenceContainer labelContainer;
@@ -247,6 +304,23 @@ public class TexDocumentModel implements IDocumentListener {
     private int parseDelay;
     private boolean autoParseEnabled;
     private boolean sectionCheckEnabled;
+    private boolean incrementalParseEnabled;
+    
+    // lines changed since the previous parse (in current document lines),
+    // used for parsing only the changed section
+    private int changedFirstLine = -1;
+    private int changedLastLine;
+    private int changedLineDelta;
+    private int changedBraceBalance;
+    private boolean structuralChange;
+    // true if the parser holds the results of the last completed parse
+    private boolean parserUpToDate;
+    
+    // the change in progress, recorded before the document changes
+    private int pendingFirstLine;
+    private int pendingLastLine;
+    private int pendingBraceBalance;
+    private boolean pendingStructural;
     
     /**
      * Constructs a new document model.
@@ -266,6 +340,7 @@ public class TexDocumentModel implements IDocumentListener {
         this.parseDelay = TexlipsePlugin.getDefault().getPreferenceStore().getInt(TexlipseProperties.AUTO_PARSING_DELAY);
         this.autoParseEnabled = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.AUTO_PARSING);
         this.sectionCheckEnabled = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SECTION_CHECK);
+        this.incrementalParseEnabled = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.INCREMENTAL_PARSING);
         
         // add preference change listener
 		TexlipsePlugin.getDefault().getPreferenceStore()
@@ -279,6 +354,10 @@ public class TexDocumentModel implements IDocumentListener {
 		            parseDelay = TexlipsePlugin.getDefault().getPreferenceStore().getInt(TexlipseProperties.AUTO_PARSING_DELAY);
 		        } else if (TexlipseProperties.SECTION_CHECK.equals(property)) {
                     sectionCheckEnabled = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SECTION_CHECK);
+                    // the section check warnings of the whole document need updating
+                    invalidateParser();
+                } else if (TexlipseProperties.INCREMENTAL_PARSING.equals(property)) {
+                    incrementalParseEnabled = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.INCREMENTAL_PARSING);
                 }
 		    }	
 		});	
@@ -291,7 +370,7 @@ public class TexDocumentModel implements IDocumentListener {
     public void initializeModel() {
         MarkerHandler.getInstance().clearErrorMarkers(editor);
         MarkerHandler.getInstance().clearTaskMarkers(editor);
-        createReferenceContainers();
+        createReferenceContainers(new NullProgressMonitor());
     }
 
     /**
@@ -324,6 +403,17 @@ public class TexDocumentModel implements IDocumentListener {
         }
     }
 
+    /**
+     * Returns the occurrences of the labels and environments found by the
+     * last successful parse. Must only be used in the UI thread.
+     * 
+     * @return The index, or null if the document hasn't been parsed yet or
+     *  was changed before the results of the parse were applied
+     */
+    public OccurrenceIndex getOccurrenceIndex() {
+        return occurrenceIndex;
+    }
+
     /**
      * Returns the reference (label and BibTeX) for this model
      * (ie. project).
@@ -332,7 +422,7 @@ public class TexDocumentModel implements IDocumentListener {
      */
     public ReferenceManager getRefMana() {
         if (refMana == null) {
-            if (bibContainer == null) createReferenceContainers();
+            if (bibContainer == null) createReferenceContainers(new NullProgressMonitor());
             refMana = new ReferenceManager(bibContainer,
                     labelContainer,
                     commandContainer);
@@ -351,12 +441,23 @@ public class TexDocumentModel implements IDocumentListener {
     }
 
     /** 
-     * Does nothing atm.
+     * Records the lines and the removed text of the change, which are
+     * needed to decide whether only the changed section can be parsed.
      * 
      * @see org.eclipse.jface.text.IDocumentListener#documentAboutToBeChanged(org.eclipse.jface.text.DocumentEvent)
      */
     public void documentAboutToBeChanged(DocumentEvent event) {
-    
+        IDocument document = event.getDocument();
+        try {
+            pendingFirstLine = document.getLineOfOffset(event.getOffset());
+            pendingLastLine = document.getLineOfOffset(event.getOffset() + event.getLength());
+            String removed = document.get(event.getOffset(), event.getLength());
+            pendingStructural = TexParser.isStructuralChange(removed)
+                    || isInsideCommand(document, event.getOffset());
+            pendingBraceBalance = -braceBalance(removed);
+        } catch (BadLocationException e) {
+            pendingStructural = true;
+        }
     }
 
     /**
@@ -373,6 +474,12 @@ public class TexDocumentModel implements IDocumentListener {
      */
     public void documentChanged(DocumentEvent event) {
     
+        String inserted = event.getText() != null ? event.getText() : "";
+        recordChange(pendingFirstLine, pendingLastLine,
+                event.getDocument().computeNumberOfLines(inserted),
+                pendingStructural || TexParser.isStructuralChange(inserted),
+                pendingBraceBalance + braceBalance(inserted));
+        
         // set isDirty true and prevent possibly running parseJob from
         // changing it back to false
         // order of acquire, cancel and setDirty matters!
@@ -404,6 +511,100 @@ public class TexDocumentModel implements IDocumentListener {
     }
 
     
+    /**
+     * Adds a change to the lines changed since the previous parse.
+     * 
+     * @param firstLine The first line of the replaced text
+     * @param lastLine The last line of the replaced text
+     * @param insertedLines The number of line delimiters in the inserted text
+     * @param structural Whether the change requires a full parse
+     * @param braceBalance The change in the number of opening minus closing braces
+     */
+    private synchronized void recordChange(int firstLine, int lastLine,
+            int insertedLines, boolean structural, int braceBalance) {
+        int delta = insertedLines - (lastLine - firstLine);
+        if (changedFirstLine == -1) {
+            changedFirstLine = firstLine;
+            changedLastLine = firstLine + insertedLines;
+        } else {
+            if (changedLastLine > lastLine) {
+                changedLastLine += delta;
+            }
+            changedLastLine = Math.max(changedLastLine, firstLine + insertedLines);
+            changedFirstLine = Math.min(changedFirstLine, firstLine);
+        }
+        changedLineDelta += delta;
+        changedBraceBalance += braceBalance;
+        structuralChange |= structural;
+    }
+    
+    /**
+     * Returns the lines changed since the previous parse and starts
+     * recording the changes for the next parse.
+     * 
+     * @return The first and last changed line in the lines of the previous
+     * parse (0-based) and the number of lines added, or null if the whole
+     * document needs to be parsed
+     */
+    private synchronized int[] takeChangedLines() {
+        int[] changedLines = null;
+        if (incrementalParseEnabled && parserUpToDate && !structuralChange
+                && changedBraceBalance == 0 && changedFirstLine != -1) {
+            changedLines = new int[] {changedFirstLine,
+                    changedLastLine - changedLineDelta,
+                    changedLineDelta};
+        }
+        changedFirstLine = -1;
+        changedLineDelta = 0;
+        changedBraceBalance = 0;
+        structuralChange = false;
+        // until this parse completes, the parser results can't be trusted
+        parserUpToDate = false;
+        return changedLines;
+    }
+    
+    /**
+     * Makes the next parse a full parse of the document.
+     */
+    private synchronized void invalidateParser() {
+        parserUpToDate = false;
+    }
+    
+    /**
+     * Checks whether the given offset is inside the name of a command,
+     * i.e. a change at the offset would change the command.
+     * 
+     * @param document The document
+     * @param offset The offset
+     * @return True if the offset follows a backslash and letters only
+     * @throws BadLocationException
+     */
+    private static boolean isInsideCommand(IDocument document, int offset)
+    throws BadLocationException {
+        int i = offset - 1;
+        while (i >= 0 && Character.isLetter(document.getChar(i)))
+            i--;
+        return i >= 0 && document.getChar(i) == '\\';
+    }
+    
+    /**
+     * @param text The text
+     * @return The number of opening braces minus the number of closing
+     * braces in the text
+     */
+    private static int braceBalance(String text) {
+        int balance = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '{') {
+                balance++;
+            } else if (c == '}') {
+                balance--;
+            }
+        }
+        return balance;
+    }
+    
     /**
      * Creates if not exist the ProjectOutline
      *
@@ -440,8 +641,13 @@ public class TexDocumentModel implements IDocumentListener {
             createProjectOutline();
         }
         
+        int[] changedLines = takeChangedLines();
         try {
-            parser.parseDocument(sectionCheckEnabled);
+            // parse only the section containing the changes if possible
+            if (changedLines == null
+                    || !parser.parseChangedLines(changedLines[0] + 1, changedLines[1] + 1, changedLines[2])) {
+                parser.parseDocument(sectionCheckEnabled);
+            }
         } catch (IOException e) {
             TexlipsePlugin.log("Can't read file.", e);
             throw new TexDocumentParseException(e);
@@ -450,16 +656,11 @@ public class TexDocumentModel implements IDocumentListener {
 
         List<ParseErrorMessage> errors = parser.getErrors();
         List<ParseErrorMessage> tasks = parser.getTasks();
-        MarkerHandler marker = MarkerHandler.getInstance();
-        
+        // only the markers that differ from the previous parse are changed;
         // somewhat inelegantly ensures that errors marked in createProjectDatastructs()
         // aren't removed immediately
-        if (!firstRun) {
-            marker.clearErrorMarkers(editor);
-            marker.clearTaskMarkers(editor);
-        } else {
-            firstRun = false;
-        }
+        MarkerHandler.MarkerUpdate markers = MarkerHandler.getInstance().beginUpdate(editor, !firstRun);
+        firstRun = false;
 
 
         if (editor.getProject() != null && editor.getFullOutline() != null) {
@@ -476,13 +677,10 @@ public class TexDocumentModel implements IDocumentListener {
         
         processIncludes(parser.getInputs(), editor.getEditorInput());
         
-        if (errors.size() > 0) {
-            marker.createErrorMarkers(editor, errors);
-        }
-        if (tasks.size() > 0) {
-            marker.createTaskMarkers(editor, tasks);
-        }
+        markers.addErrors(errors);
+        markers.addTasks(tasks);
         if (parser.isFatalErrors()) {
+            markers.apply();
             throw new TexDocumentParseException("Fatal errors in file, parsing aborted.");
         }
         
@@ -497,7 +695,7 @@ public class TexDocumentModel implements IDocumentListener {
         	}
 		}
         if (bibErrors != null) {
-        	marker.createReferencingErrorMarkers(editor, bibErrors);
+        	markers.addReferencingErrors(bibErrors);
         }
 
         List<DocumentReference> refs = parser.getRefs();
@@ -509,100 +707,103 @@ public class TexDocumentModel implements IDocumentListener {
 			}				
 		}
         if (refErrors != null) {
-        	marker.createReferencingErrorMarkers(editor, refErrors);
+        	markers.addReferencingErrors(refErrors);
         }
+        markers.apply();
         
         return this.parser.getOutlineTree();
     }
 
     
     /**
-     * Traverses the OutlineNode tree and adds a Position for each
-     * node to Document.
-     * 
-     * Also adds the nodes to type lists of the OutlineInput and 
-     * calculates the tree depth.
+     * Copies the text of the document if it hasn't been changed since it
+     * was parsed. Called in the parse job.
      * 
-     * Old Positions are removed before adding new ones.
+     * @param document the parsed document
+     * @param stamp the modification stamp of the document before parsing
+     * @return the copy, or null if the document has been changed
+     */
+    private static IDocument copyParsedText(IDocument document, long stamp) {
+        if (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP) {
+            return null;
+        }
+        String text = document.get();
+        if (getModificationStamp(document) != stamp) {
+            return null;
+        }
+        return new Document(text);
+    }
+
+    /**
+     * The outline of a parse with the document offsets of its nodes, and
+     * the earlier positions that can be kept for them.
+     */
+    private static class OutlineUpdate {
+        final TexOutlineInput input;
+        // the nodes in document order
+        final List<OutlineNode> nodes = new ArrayList<OutlineNode>();
+        // the modification stamp of the text the offsets were computed from
+        long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+        int[] offsets;
+        int[] lengths;
+        Position[] kept;
+
+        OutlineUpdate(List<OutlineNode> rootNodes) {
+            input = new TexOutlineInput(rootNodes);
+        }
+    }
+
+    /**
+     * Builds the outline input of the parsed nodes and computes their
+     * offsets from a copy of the parsed text. Called in the parse job.
      * 
      * @param rootNodes
+     * @param parsed a copy of the parsed text, or null if the document was
+     *  changed while parsing
+     * @param stamp the modification stamp of the parsed text
      * @param monitor monitor for the job calling this method
+     * @return the outline update for the ui thread
      */
-    private void updateDocumentPositions(List<OutlineNode> rootNodes, IProgressMonitor monitor) {
-        TexOutlineInput newOutlineInput = new TexOutlineInput(rootNodes);
-        
-        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
-        
-        // remove previous positions
-        try {
-        	document.removePositionCategory("__outline");
-        } catch (BadPositionCategoryException bpce) {
-            // do nothing, the category will be added again next, it does not exists the first time
-        }
-        
-        document.addPositionCategory("__outline");
-        pollCancel(monitor);
-        
-        // add new positions for nodes and their children
+    private OutlineUpdate createOutlineUpdate(List<OutlineNode> rootNodes, IDocument parsed,
+            long stamp, IProgressMonitor monitor) {
+        OutlineUpdate update = new OutlineUpdate(rootNodes);
         int maxDepth = 0;
         for (Iterator<OutlineNode> iter = rootNodes.iterator(); iter.hasNext(); ) {
-            OutlineNode node = iter.next();
-            int localDepth = addNodePosition(node, document, 0, newOutlineInput); 
-            
+            int localDepth = addNode(iter.next(), 0, update);
             if (localDepth > maxDepth) {
                 maxDepth = localDepth;
             }
-            pollCancel(monitor);
         }
+        update.input.setTreeDepth(maxDepth);
         pollCancel(monitor);
 
-        // set the new outline input
-        newOutlineInput.setTreeDepth(maxDepth);
-        this.outlineInput = newOutlineInput;
+        if (parsed != null && computeOffsets(update, parsed)) {
+            update.stamp = stamp;
+            matchPositions(update);
+        }
+        return update;
     }
-    
+
     /** 
      * Handles a single node when traversing the outline tree. Used
      * recursively.
      * 
      * @param node
-     * @param document
      * @param parentDepth
-     * @param newOutlineInput
-     * @return
+     * @param update
+     * @return the depth of the tree below the node
      */
-    private int addNodePosition(OutlineNode node, IDocument document,
-            int parentDepth, TexOutlineInput newOutlineInput) {        
-        
-        // add the Document position
-        int beginOffset = 0;
-        int length = 0;
-        Position position = null;
-        
-        try {
-            beginOffset = document.getLineOffset(node.getBeginLine() - 1);
-            if (node.getEndLine() -1 == document.getNumberOfLines())
-            	length = document.getLength() - beginOffset;
-            else
-            	length =  document.getLineOffset(node.getEndLine() - 1) - beginOffset;
-            position = new Position(beginOffset, length);
-            document.addPosition("__outline", position);
-        } catch (BadLocationException bpe) {
-            throw new OperationCanceledException();
-        } catch (BadPositionCategoryException bpce) {
-            throw new OperationCanceledException();
-        }
-        node.setPosition(position);
-        
+    private int addNode(OutlineNode node, int parentDepth, OutlineUpdate update) {
         // add node to outline input
-        newOutlineInput.addNode(node);
+        update.input.addNode(node);
+        update.nodes.add(node);
         
         // iterate through the children
         List<OutlineNode> children = node.getChildren();
         int maxDepth = parentDepth + 1;
         if (children != null) {
             for (Iterator<OutlineNode> iter = children.iterator(); iter.hasNext();) {
-                int localDepth = addNodePosition(iter.next(), document, parentDepth + 1, newOutlineInput);
+                int localDepth = addNode(iter.next(), parentDepth + 1, update);
                 if (localDepth > maxDepth) {
                     maxDepth = localDepth;
                 }
@@ -611,6 +812,136 @@ public class TexDocumentModel implements IDocumentListener {
         return maxDepth;
     }
 
+    /**
+     * Computes the offsets and the lengths of the lines of the nodes.
+     * 
+     * @return false if a node is outside of the document
+     */
+    private static boolean computeOffsets(OutlineUpdate update, IDocument document) {
+        int n = update.nodes.size();
+        int[] offsets = new int[n];
+        int[] lengths = new int[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                OutlineNode node = update.nodes.get(i);
+                int beginOffset = document.getLineOffset(node.getBeginLine() - 1);
+                if (node.getEndLine() - 1 == document.getNumberOfLines())
+                    lengths[i] = document.getLength() - beginOffset;
+                else
+                    lengths[i] = document.getLineOffset(node.getEndLine() - 1) - beginOffset;
+                offsets[i] = beginOffset;
+            }
+        } catch (BadLocationException e) {
+            return false;
+        }
+        update.offsets = offsets;
+        update.lengths = lengths;
+        return true;
+    }
+
+    /**
+     * Finds the earlier positions that have the offsets and lengths of
+     * the nodes, so they can be kept.
+     */
+    private void matchPositions(OutlineUpdate update) {
+        List<Position> previous = outlinePositions;
+        Map<Long, Position> byRange = new HashMap<Long, Position>(previous.size() * 2);
+        for (Position p : previous) {
+            byRange.put(Long.valueOf(((long) p.getOffset() << 32) | p.getLength()), p);
+        }
+        update.kept = new Position[update.offsets.length];
+        for (int i = 0; i < update.kept.length; i++) {
+            update.kept[i] = byRange.remove(Long.valueOf(((long) update.offsets[i] << 32) | update.lengths[i]));
+        }
+    }
+
+    private static long getModificationStamp(IDocument document) {
+        if (document instanceof IDocumentExtension4) {
+            return ((IDocumentExtension4) document).getModificationStamp();
+        }
+        return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+    }
+
+    /**
+     * Replaces the occurrence index with the one built in the parse job
+     * and adds its positions to the document. Called in the UI thread
+     * after parsing.
+     * 
+     * @param occurrences the occurrence index of the parse, or null if the
+     *  document was changed while parsing
+     */
+    private void updateOccurrenceIndex(OccurrenceIndex occurrences) {
+        if (occurrenceIndex != null) {
+            occurrenceIndex.dispose();
+        }
+        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+        if (occurrences != null && occurrences.install(document)) {
+            occurrenceIndex = occurrences;
+        } else {
+            occurrenceIndex = null;
+        }
+    }
+
+    /**
+     * Updates the positions of the outline nodes in the document with the
+     * offsets computed in the parse job. Positions that haven't changed
+     * are kept and only the new ones are added. If the document has been
+     * changed after the offsets were computed, they are computed again.
+     * 
+     * @param update the outline input and the offsets of its nodes
+     * @param monitor monitor for the job calling this method
+     */
+    private void updateDocumentPositions(OutlineUpdate update, IProgressMonitor monitor) {
+        IDocument document = editor.getDocumentProvider().getDocument(editor.getEditorInput());
+        if (update.offsets == null || update.stamp != getModificationStamp(document)) {
+            if (!computeOffsets(update, document)) {
+                throw new OperationCanceledException();
+            }
+            matchPositions(update);
+        }
+        pollCancel(monitor);
+
+        List<Position> previous = outlinePositions;
+        List<Position> positions = new ArrayList<Position>(update.offsets.length);
+        List<Position> added = new ArrayList<Position>();
+        for (int i = 0; i < update.offsets.length; i++) {
+            Position p = update.kept[i];
+            if (p == null || p.isDeleted() || p.getOffset() != update.offsets[i]
+                    || p.getLength() != update.lengths[i]) {
+                p = new Position(update.offsets[i], update.lengths[i]);
+                added.add(p);
+            }
+            update.nodes.get(i).setPosition(p);
+            positions.add(p);
+        }
+
+        try {
+            if (positions.size() - added.size() < previous.size()
+                    || !document.containsPositionCategory("__outline")) {
+                // removing positions one by one is slow, so the category
+                // is filled again when positions were removed
+                try {
+                    document.removePositionCategory("__outline");
+                } catch (BadPositionCategoryException bpce) {
+                    // do nothing, the category will be added again next, it does not exists the first time
+                }
+                document.addPositionCategory("__outline");
+                added = positions;
+            }
+            for (Position p : added) {
+                document.addPosition("__outline", p);
+            }
+        } catch (BadLocationException bpe) {
+            throw new OperationCanceledException();
+        } catch (BadPositionCategoryException bpce) {
+            throw new OperationCanceledException();
+        }
+        outlinePositions = Collections.unmodifiableList(positions);
+
+        // set the new outline input
+        this.outlineInput = update.input;
+    }
+
     /**
      * Updates the settings for the BibLaTeX package. If this is not the initial run,
      * checks if settings have changed from previous parse job and, if applicable, sets a
@@ -652,16 +983,16 @@ public class TexDocumentModel implements IDocumentListener {
             }
         }
         if (biblatexMode) {
-            TexlipseProperties.setSessionProperty(project,
+            ProjectState.getState(project).set(
                     TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY,
                     new Boolean(true));
         }
         else {
-            TexlipseProperties.setSessionProperty(project,
+            ProjectState.getState(project).set(
                     TexlipseProperties.SESSION_BIBLATEXMODE_PROPERTY,
                     null);
         }
-        TexlipseProperties.setSessionProperty(project,
+        ProjectState.getState(project).set(
                 TexlipseProperties.SESSION_BIBLATEXBACKEND_PROPERTY,
                 biblatexBackend);
     }
@@ -684,12 +1015,12 @@ public class TexDocumentModel implements IDocumentListener {
         
         // After here we just store those fun properties...
         if (parser.isLocalBib()) {
-            TexlipseProperties.setSessionProperty(project,
+            ProjectState.getState(project).set(
                     TexlipseProperties.SESSION_BIBLATEXLOCALBIB_PROPERTY,
                     new Boolean(true));
         }
         else {
-            TexlipseProperties.setSessionProperty(project,
+            ProjectState.getState(project).set(
                     TexlipseProperties.SESSION_BIBLATEXLOCALBIB_PROPERTY,
                     null);
         }
@@ -700,13 +1031,13 @@ public class TexDocumentModel implements IDocumentListener {
             updateBiblatex(project, biblatexMode, parser.getBiblatexBackend(), false);
 
             String[] bibs = parser.getBibs();
-            this.updateBibs(bibs, biblatexMode, cFile);
+            this.updateBibs(bibs, biblatexMode, cFile, monitor);
 
             pollCancel(monitor);
 
             String preamble = parser.getPreamble();
             if (preamble != null) {
-                TexlipseProperties.setSessionProperty(project, 
+                ProjectState.getState(project).set(
                         TexlipseProperties.PREAMBLE_PROPERTY, 
                         preamble);
             }
@@ -717,7 +1048,7 @@ public class TexDocumentModel implements IDocumentListener {
                             TexlipseProperties.BIBSTYLE_PROPERTY);
 
                     if (oldStyle == null || !bibstyle.equals(oldStyle)) {
-                        TexlipseProperties.setSessionProperty(project, 
+                        ProjectState.getState(project).set(
                                 TexlipseProperties.BIBSTYLE_PROPERTY, 
                                 bibstyle);
 
@@ -736,8 +1067,10 @@ public class TexDocumentModel implements IDocumentListener {
      * 
      * @param bibNames Names of the BibTeX -files that the document uses
      * @param resource The resource of the document
+     * @param monitor Progress monitor
      */
-    private void updateBibs(String[] bibNames, boolean biblatexMode, IResource resource) {
+    private void updateBibs(String[] bibNames, boolean biblatexMode, IResource resource,
+            IProgressMonitor monitor) {
         IProject project = getCurrentProject();
         if (project == null) return;
 
@@ -753,7 +1086,7 @@ public class TexDocumentModel implements IDocumentListener {
             return;
         }
         
-        TexlipseProperties.setSessionProperty(project,
+        ProjectState.getState(project).set(
                 TexlipseProperties.BIBFILE_PROPERTY,
                 bibNames);
         
@@ -764,6 +1097,26 @@ public class TexDocumentModel implements IDocumentListener {
             path = path.addTrailingSeparator();
         
         KpsewhichRunner filesearch = new KpsewhichRunner();
+        final ProjectIndex index = ProjectIndex.getIndex(project);
+        List<String> keys = new ArrayList<String>();
+        List<String> filepaths = new ArrayList<String>();
+        List<Callable<List<ReferenceEntry>>> tasks = new ArrayList<Callable<List<ReferenceEntry>>>();
+
+        // look up the files that are not in the project with one kpsewhich run
+        List<String> external = new ArrayList<String>();
+        for (String name : newBibs) {
+            if (project.findMember(path + name) == null
+                    && TexlipseProperties.getProjectSourceDir(project).findMember(name) == null) {
+                external.add(name);
+            }
+        }
+        if (external.size() > 1) {
+            try {
+                filesearch.getFiles(resource, external.toArray(new String[external.size()]), "bibtex");
+            } catch (CoreException ce) {
+                TexlipsePlugin.log("Can't run Kpathsea", ce);
+            }
+        }
                 
         for (Iterator<String> iter = newBibs.iterator(); iter.hasNext();) {
         	String name = iter.next();
@@ -808,19 +1161,14 @@ public class TexDocumentModel implements IDocumentListener {
         	    }
         	    
         		if (filepath.length() > 0) {
-        			BibParser parser = new BibParser(filepath);
-        			try {
-        				List<ReferenceEntry> bibEntriesList = parser.getEntries();
-        				if (bibEntriesList != null && bibEntriesList.size() > 0) {
-        					bibContainer.addRefSource(path + name, bibEntriesList);
-        				} else if (bibEntriesList == null) {
-        					MarkerHandler marker = MarkerHandler.getInstance();
-        					marker.addFatalError(editor, "The BibTeX file " + filepath + " contains fatal errors, parsing aborted.");
-        					continue;
-        				}
-        			} catch (IOException ioe) {
-        				TexlipsePlugin.log("Can't read BibTeX file " + filepath, ioe);
-        			}
+        			final String bibFile = filepath;
+        			keys.add(path + name);
+        			filepaths.add(filepath);
+        			tasks.add(new Callable<List<ReferenceEntry>>() {
+        			    public List<ReferenceEntry> call() {
+        			        return extractBibFile(index, bibFile);
+        			    }
+        			});
         		} else {
         			MarkerHandler marker = MarkerHandler.getInstance();
         			marker.addFatalError(editor, "The BibTeX file " +name+ " not found.");
@@ -830,8 +1178,52 @@ public class TexDocumentModel implements IDocumentListener {
         		TexlipsePlugin.log("Can't run Kpathsea", ce);
         	}
         }
+
+        // parse the files concurrently and merge the results in order
+        List<List<ReferenceEntry>> results;
+        try {
+            results = ParallelExtractor.run("Parsing BibTeX files", filepaths, tasks, monitor);
+        } finally {
+            index.save();
+        }
+        for (int i = 0; i < results.size(); i++) {
+            List<ReferenceEntry> bibEntriesList = results.get(i);
+            if (bibEntriesList != null && bibEntriesList.size() > 0) {
+                bibContainer.addRefSource(keys.get(i), bibEntriesList);
+            } else if (bibEntriesList == null) {
+                MarkerHandler marker = MarkerHandler.getInstance();
+                marker.addFatalError(editor, "The BibTeX file " + filepaths.get(i) + " contains fatal errors, parsing aborted.");
+            }
+        }
         bibContainer.organize();
     }
+
+    /**
+     * Parses the given BibTeX file, using the project index if the file
+     * hasn't changed since it was indexed. Called from the extractor
+     * threads.
+     * 
+     * @param index The project index
+     * @param filepath The path of the file in the file system
+     * @return The entries of the file, an empty list if the file can't be
+     * read or null if the file contains fatal errors
+     */
+    private static List<ReferenceEntry> extractBibFile(ProjectIndex index, String filepath) {
+        List<ReferenceEntry> bibEntriesList = index.getBibFile(filepath);
+        if (bibEntriesList == null) {
+            BibParser parser = new BibParser(filepath);
+            try {
+                bibEntriesList = parser.getEntries();
+            } catch (IOException ioe) {
+                TexlipsePlugin.log("Can't read BibTeX file " + filepath, ioe);
+                return new ArrayList<ReferenceEntry>();
+            }
+            if (bibEntriesList != null) {
+                index.putBibFile(filepath, bibEntriesList);
+            }
+        }
+        return bibEntriesList;
+    }
     
     /**
      * Updates the labels.
@@ -889,8 +1281,9 @@ public class TexDocumentModel implements IDocumentListener {
     /**
      * Creates the reference containers.
      *
+     * @param monitor Progress monitor
      */
-    private void createReferenceContainers() {
+    private void createReferenceContainers(IProgressMonitor monitor) {
         boolean parseAll = false;
         IProject project = getCurrentProject();
         if (project == null) {
@@ -934,7 +1327,7 @@ public class TexDocumentModel implements IDocumentListener {
         }
         
         if (parseAll) {
-            createProjectDatastructs(project);
+            createProjectDatastructs(project, monitor);
         }
     }
     
@@ -944,67 +1337,133 @@ public class TexDocumentModel implements IDocumentListener {
      * the BibTeX style.
      * 
      * @param project The current project
+     * @param monitor Progress monitor
+     * @throws OperationCanceledException If the monitor was canceled, in
+     *         which case the extraction is redone on the next parse
      */
-    private void createProjectDatastructs(IProject project) {
+    private void createProjectDatastructs(IProject project, IProgressMonitor monitor) {
+        // the containers are shared by the editors of the project, so any
+        // of them can redo a canceled extraction
+        TexlipseProperties.setSessionProperty(project,
+                TexlipseProperties.SESSION_PROJECT_INCOMPLETE, Boolean.TRUE);
         //IResource resource = ((FileEditorInput)editor.getEditorInput()).getFile();
         
         IResource[] files = TexlipseProperties.getAllProjectFiles(project);        
         
         if (files != null) {
             IFile mainFile = TexlipseProperties.getProjectSourceFile(project);
+            final ProjectIndex index = ProjectIndex.getIndex(project);
+            Set<String> indexedFiles = new HashSet<String>();
 
+            // extract the references of all files concurrently...
+            List<IResource> texFiles = new ArrayList<IResource>();
+            List<String> names = new ArrayList<String>();
+            List<Callable<ProjectIndex.TexFileData>> tasks = new ArrayList<Callable<ProjectIndex.TexFileData>>();
             for (int i = 0; i < files.length; i++) {
                 //IPath path = files[i].getFullPath();
                 String ext = files[i].getFileExtension();
 				// here are the file types we want to parse
                 if ("tex".equals(ext) || "ltx".equals(ext) || "sty".equals(ext)) {
-                    try {
-                        String input = TexlipseProperties.getFileContents(files[i]);
-                        LatexRefExtractingParser lrep = new LatexRefExtractingParser();
-                        lrep.parse(input);
-                        if (lrep.isFatalErrors()) {
-                            MarkerHandler marker = MarkerHandler.getInstance();
-                            marker.addFatalError(editor, "The file " + files[i].getFullPath() + " contains fatal errors, parsing aborted.");
-                            continue;
-                        }
-                        List<ReferenceEntry> labels = lrep.getLabels();
-                        if (labels.size() > 0) {
-                            labelContainer.addRefSource(files[i].getProjectRelativePath().toString(), labels);
-                        }
-                        List<TexCommandEntry> commands = lrep.getCommands();
-                        if (commands.size() > 0) {
-                            commandContainer.addRefSource(files[i].getProjectRelativePath().toString(), commands);
+                    final IResource file = files[i];
+                    texFiles.add(file);
+                    names.add(file.getProjectRelativePath().toString());
+                    tasks.add(new Callable<ProjectIndex.TexFileData>() {
+                        public ProjectIndex.TexFileData call() {
+                            try {
+                                return extractTexFile(index, file);
+                            } catch (IOException ioe) {
+                                TexlipsePlugin.log("Unable to open file " + file.getFullPath() + " for parsing", ioe);
+                                return null;
+                            }
                         }
-                        //Only update Preamble, Bibstyle if main Document
-                        if (files[i].equals(mainFile)) {
-                            String[] bibs = lrep.getBibs();
-                            boolean biblatexMode = lrep.isBiblatexMode();
-                            String biblatexBackend = lrep.getBiblatexBackend();
-                            this.updateBiblatex(project, biblatexMode, biblatexBackend, true);
-                            this.updateBibs(bibs, biblatexMode, files[i]);
+                    });
+                }
+            }
+            List<ProjectIndex.TexFileData> results;
+            try {
+                results = ParallelExtractor.run("Extracting references", names, tasks, monitor);
+            } finally {
+                // keep what was parsed before a cancellation
+                index.save();
+            }
 
-                            String preamble = lrep.getPreamble();
-                            if (preamble != null) {
-                                TexlipseProperties.setSessionProperty(project, 
-                                        TexlipseProperties.PREAMBLE_PROPERTY,
-                                        preamble);
-                            }
+            // ...and merge them in one go
+            for (int i = 0; i < texFiles.size(); i++) {
+                IResource file = texFiles.get(i);
+                ProjectIndex.TexFileData data = results.get(i);
+                indexedFiles.add(names.get(i));
+                if (data == null) {
+                    continue;
+                }
+                if (data.fatalErrors) {
+                    MarkerHandler marker = MarkerHandler.getInstance();
+                    marker.addFatalError(editor, "The file " + file.getFullPath() + " contains fatal errors, parsing aborted.");
+                    continue;
+                }
+                List<ReferenceEntry> labels = data.labels;
+                if (labels.size() > 0) {
+                    labelContainer.addRefSource(names.get(i), labels);
+                }
+                List<TexCommandEntry> commands = data.commands;
+                if (commands.size() > 0) {
+                    commandContainer.addRefSource(names.get(i), commands);
+                }
+                //Only update Preamble, Bibstyle if main Document
+                if (file.equals(mainFile)) {
+                    String[] bibs = data.bibs;
+                    boolean biblatexMode = data.biblatexMode;
+                    String biblatexBackend = data.biblatexBackend;
+                    this.updateBiblatex(project, biblatexMode, biblatexBackend, true);
+                    this.updateBibs(bibs, biblatexMode, file, monitor);
 
-                            String bibstyle = lrep.getBibstyle();
-                            if (bibstyle != null)
-                                TexlipseProperties.setSessionProperty(project, 
-                                        TexlipseProperties.BIBSTYLE_PROPERTY,
-                                        bibstyle);
-                        }
-                    } catch (IOException ioe) {
-                        TexlipsePlugin.log("Unable to open file " + files[i].getFullPath() + " for parsing", ioe);
+                    String preamble = data.preamble;
+                    if (preamble != null) {
+                        ProjectState.getState(project).set(
+                                TexlipseProperties.PREAMBLE_PROPERTY,
+                                preamble);
                     }
+
+                    String bibstyle = data.bibstyle;
+                    if (bibstyle != null)
+                        ProjectState.getState(project).set(
+                                TexlipseProperties.BIBSTYLE_PROPERTY,
+                                bibstyle);
                 }
             }
+            index.retainTexFiles(indexedFiles);
+            index.save();
             // save time by doing this last
             labelContainer.organize();
             commandContainer.organize();
         }
+        TexlipseProperties.setSessionProperty(project,
+                TexlipseProperties.SESSION_PROJECT_INCOMPLETE, null);
+    }
+    
+    /**
+     * Extracts the references of the given file, using the project index
+     * if the file hasn't changed since it was indexed. Called from the
+     * extractor threads.
+     * 
+     * @param index The project index
+     * @param file The file
+     * @return The extracted data
+     * @throws IOException If the file can't be read
+     */
+    private static ProjectIndex.TexFileData extractTexFile(ProjectIndex index, IResource file)
+    throws IOException {
+        ProjectIndex.TexFileData data = index.getTexFile(file);
+        if (data == null) {
+            String input = TexlipseProperties.getFileContents(file);
+            data = index.getTexFile(file, input);
+            if (data == null) {
+                LatexRefExtractingParser lrep = new LatexRefExtractingParser();
+                lrep.parse(input);
+                data = new ProjectIndex.TexFileData(lrep);
+                index.putTexFile(file, input, data);
+            }
+        }
+        return data;
     }
     
     /**
@@ -1027,6 +1486,14 @@ public class TexDocumentModel implements IDocumentListener {
         return editor.getProject();
     }
 
+    /**
+     * Marks the parser results consistent with the document, so that the
+     * next parse can parse only the changed lines.
+     */
+    private synchronized void setParserUpToDate() {
+        this.parserUpToDate = true;
+    }
+
     /**
      * Marks the current OutlineInput dirty.
      * @param dirty true if OutlineInput is marked dirty
@@ -49,6 +49,7 @@ public class BuilderSettingsPreferencePage extends PreferencePage
 
     // checkbox for enabling console output
     private Button auxParserCheckBox;
+    private Button timingReportCheckBox;
 
     // field for browsing to tex distribution install dir
     private Text texDirField;
@@ -108,6 +109,7 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         addConsoleCheckBox(contents);
         //TexlipsePreferencePage.addSpacer(1, true, contents);
         addAuxParserCheckBox(contents);
+        addTimingReportCheckBox(contents);
         
         return contents;
 	}
@@ -246,6 +248,25 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         auxParserCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_PARSE_AUX_FILES));
     }
 
+    /**
+     * Add "Print build times" -checkbox.
+     * @param contents parent component
+     */
+    private void addTimingReportCheckBox(Composite contents) {
+        Composite checkField = new Composite(contents, SWT.NULL);
+        GridData checkData = new GridData(GridData.FILL_HORIZONTAL);
+        checkData.horizontalSpan = 2;
+        checkField.setLayoutData(checkData);
+        GridLayout checkLay = new GridLayout();
+        checkLay.numColumns = 2;
+        checkField.setLayout(checkLay);
+        
+        timingReportCheckBox = new Button(checkField, SWT.CHECK);
+        timingReportCheckBox.setLayoutData(new GridData());
+        timingReportCheckBox.setText(TexlipsePlugin.getResourceString("preferenceBuilderTimingReport"));
+        timingReportCheckBox.setSelection(getPreferenceStore().getBoolean(TexlipseProperties.BUILDER_TIMING_REPORT));
+    }
+
     /**
      * Called when ok-button (or apply-button) is pressed.
      * Saves all the field editor values to preferences.
@@ -255,6 +276,7 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         boolean ok = super.performOk();
         getPreferenceStore().setValue(TexlipseProperties.BUILDER_CONSOLE_OUTPUT, consoleOutputCheckBox.getSelection());
         getPreferenceStore().setValue(TexlipseProperties.BUILDER_PARSE_AUX_FILES, auxParserCheckBox.getSelection());
+        getPreferenceStore().setValue(TexlipseProperties.BUILDER_TIMING_REPORT, timingReportCheckBox.getSelection());
         changeTexDistribution();
         texDirField.setText("");
         builderList.setItems(getBuilderItems());
@@ -270,6 +292,7 @@ public class BuilderSettingsPreferencePage extends PreferencePage
         super.performDefaults();
         consoleOutputCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_CONSOLE_OUTPUT));
         auxParserCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_PARSE_AUX_FILES));
+        timingReportCheckBox.setSelection(getPreferenceStore().getDefaultBoolean(TexlipseProperties.BUILDER_TIMING_REPORT));
     }
     
     /**
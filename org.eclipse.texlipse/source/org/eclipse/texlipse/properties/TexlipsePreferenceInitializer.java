@@ -73,6 +73,7 @@ public class TexlipsePreferenceInitializer extends
         pref.setDefault(TexlipseProperties.BUILDER_NUMBER, 2);
         pref.setDefault(TexlipseProperties.BUILDER_CONSOLE_OUTPUT, true);
         pref.setDefault(TexlipseProperties.BUILDER_PARSE_AUX_FILES, true);
+        pref.setDefault(TexlipseProperties.BUILDER_TIMING_REPORT, false);
         pref.setDefault(TexlipseProperties.BUILD_BEFORE_VIEW, false);
         pref.setDefault(TexlipseProperties.FILE_LOCATION_PORT, FileLocationClient.DEFAULT_PORTNUMBER);
         
@@ -98,6 +99,7 @@ public class TexlipsePreferenceInitializer extends
         pref.setDefault(TexlipseProperties.AUTO_PARSING, true);
         pref.setDefault(TexlipseProperties.AUTO_PARSING_DELAY, 2000);
         pref.setDefault(TexlipseProperties.SECTION_CHECK, true);
+        pref.setDefault(TexlipseProperties.INCREMENTAL_PARSING, true);
         
         pref.setDefault(TexlipseProperties.BIB_CODE_FOLDING, true);
         pref.setDefault(TexlipseProperties.BIB_FOLD_INITIAL, false);
@@ -91,6 +91,8 @@ public class TexlipseProperties {
     
     public static final String SECTION_CHECK = "sectionCheck";
     
+    public static final String INCREMENTAL_PARSING = "incrementalParsing";
+    
     public static final String BIB_COMPLETION = "bibCompletion";
     public static final String BIB_COMPLETION_DELAY = "bibDelay";
     public static final String BIB_FREQSORT = "bibFreqSort";
@@ -152,6 +154,7 @@ public class TexlipseProperties {
     public static final String BUILD_BEFORE_VIEW = "buildBeforeView";
     public static final String BUILDER_RETURN_FOCUS = "returnFocusOnPreivew";
     public static final String BUILDER_PARSE_AUX_FILES = "builderParseAuxFiles";
+    public static final String BUILDER_TIMING_REPORT = "builderTimingReport";
     public static final String BUILDER_FORCE_RETURN_FOCUS = "forceReturnFocusOnInverseSearch";
     
     public static final String OUTPUT_FORMAT = "outputFormat";
@@ -172,10 +175,21 @@ public class TexlipseProperties {
     public static final String SESSION_BIBTEX_RERUN = "rerunBibtex";
     public static final String SESSION_LATEX_RERUN = "rerunLatex";
     public static final String SESSION_MAKEINDEX_RERUN = "rerunMakeindex";
+    // fingerprints of the inputs of the last bibtex and makeindex runs
+    public static final String SESSION_BIBTEX_INPUT = "bibtexInput";
+    public static final String SESSION_MAKEINDEX_INPUT = "makeindexInput";
+    public static final String SESSION_NOMENCL_INPUT = "nomenclInput";
     public static final String SESSION_PROPERTIES_LOAD = "propsLoaded";
     // attribute for session properties to hold the viewer process object
     public static final String SESSION_ATTRIBUTE_VIEWER = "active.viewer";
     public static final String SESSION_PROJECT_FULLOUTLINE = "project.fullTexParser";
+    public static final String SESSION_PROJECT_INDEX = "project.index";
+    // set while the references of the project files haven't all been extracted
+    public static final String SESSION_PROJECT_INCOMPLETE = "project.incomplete";
+    public static final String SESSION_PROJECT_STATE = "project.state";
+    public static final String SESSION_SYNCTEX_INDEX = "synctex.index";
+    public static final String SESSION_SYNCTEX_JOB = "synctex.job";
+    public static final String SESSION_BUILD_METRICS = "build.metrics";
     
     public static final String ECLIPSE_BUILDIN_SPELLCHECKER = "eclipseBuildInSpellChecker";
     public static final String SPELLCHECKER_DICT_DIR = "spellcheckerDictDir";
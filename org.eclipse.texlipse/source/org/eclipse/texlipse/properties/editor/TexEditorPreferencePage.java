@@ -104,6 +104,11 @@ public class TexEditorPreferencePage
         addField(new BooleanFieldEditor(TexlipseProperties.SECTION_CHECK,
                 TexlipsePlugin.getResourceString("preferenceSectionCheck"),
                 getFieldEditorParent()));
+        
+        // Parse only the changed section
+        addField(new BooleanFieldEditor(TexlipseProperties.INCREMENTAL_PARSING,
+                TexlipsePlugin.getResourceString("preferenceIncrementalParsing"),
+                getFieldEditorParent()));
 
         // Mark occurences (references and environments)
         addField(new BooleanFieldEditor(TexlipseProperties.TEX_EDITOR_ANNOTATATIONS,
@@ -12,12 +12,18 @@ package org.eclipse.texlipse.spelling;
 
 import java.text.MessageFormat;
 
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.eclipse.jface.text.contentassist.IContextInformation;
 import org.eclipse.jface.text.source.ISourceViewer;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.ui.ISharedImages;
 import org.eclipse.ui.PlatformUI;
@@ -45,9 +51,30 @@ public class AddToDictProposal implements ICompletionProposal {
     }
     
     public void apply(IDocument document) {
-        TexSpellDictionary dict = TexSpellingEngine.getDict(fLang);
-        dict.addWord(ferror.getInvalidWord());
-        SpellingProblem.removeAll(fviewer, ferror.getInvalidWord());
+        final String word = ferror.getInvalidWord();
+        final Display display = fviewer.getTextWidget().getDisplay();
+        // the dictionary may have to be loaded again, so don't wait for
+        // it in the ui thread
+        Job job = new Job("Adding " + word + " to the dictionary") {
+            protected IStatus run(IProgressMonitor monitor) {
+                TexSpellDictionary dict = TexSpellingEngine.getDict(fLang);
+                if (dict == null) {
+                    return Status.OK_STATUS;
+                }
+                dict.addWord(word);
+                TexSpellingEngine.clearCache();
+                display.asyncExec(new Runnable() {
+                    public void run() {
+                        if (fviewer.getTextWidget() != null && !fviewer.getTextWidget().isDisposed()) {
+                            SpellingProblem.removeAll(fviewer, word);
+                        }
+                    }
+                });
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.schedule();
     }
 
     public String getAdditionalProposalInfo() {
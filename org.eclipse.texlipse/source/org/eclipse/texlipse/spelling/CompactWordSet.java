@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.spelling;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An immutable set of words stored in a few flat arrays: the characters of
+ * all words in one buffer, an open-addressing hash table for looking up
+ * words and an index of the words by the hash of their phonetic code for
+ * finding suggestions.
+ *
+ * The set can be written to a file and read back by memory-mapping the
+ * file, so that a large dictionary doesn't have to be read and its
+ * phonetic codes computed again on the next start.
+ *
+ * @author The TeXlipse team
+ */
+final class CompactWordSet {
+
+    private static final int MAGIC = 0x54585344; // "TXSD"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 * 4 + 2 * 8 + 4;
+
+    private final int wordCount;
+    // start offsets of the words in chars, wordCount + 1 entries
+    private final IntBuffer offsets;
+    private final CharBuffer chars;
+    // word index + 1 for each used slot, 0 for empty slots
+    private final IntBuffer table;
+    private final int mask;
+    // phonetic code hashes in ascending order, and the words they belong to
+    private final IntBuffer codeHashes;
+    private final IntBuffer byCode;
+
+    private CompactWordSet(int wordCount, IntBuffer offsets, CharBuffer chars,
+            IntBuffer table, IntBuffer codeHashes, IntBuffer byCode) {
+        this.wordCount = wordCount;
+        this.offsets = offsets;
+        this.chars = chars;
+        this.table = table;
+        this.mask = table.capacity() - 1;
+        this.codeHashes = codeHashes;
+        this.byCode = byCode;
+    }
+
+    /**
+     * Creates a word set.
+     *
+     * @param words the words; duplicates are removed
+     * @param codes the phonetic codes of the words
+     * @return the word set
+     */
+    static CompactWordSet create(List<String> words, List<String> codes) {
+        // sort the indices by word to find the duplicates
+        Integer[] order = new Integer[words.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        final List<String> w = words;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return w.get(o1.intValue()).compareTo(w.get(o2.intValue()));
+            }
+        });
+        List<String> unique = new ArrayList<String>(order.length);
+        List<String> uniqueCodes = new ArrayList<String>(order.length);
+        String last = null;
+        int charCount = 0;
+        for (Integer i : order) {
+            String word = words.get(i.intValue());
+            if (!word.equals(last)) {
+                unique.add(word);
+                uniqueCodes.add(codes.get(i.intValue()));
+                charCount += word.length();
+                last = word;
+            }
+        }
+
+        int n = unique.size();
+        int[] offsets = new int[n + 1];
+        char[] chars = new char[charCount];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            String word = unique.get(i);
+            offsets[i] = pos;
+            word.getChars(0, word.length(), chars, pos);
+            pos += word.length();
+        }
+        offsets[n] = pos;
+
+        int[] table = new int[tableSize(n)];
+        int mask = table.length - 1;
+        for (int i = 0; i < n; i++) {
+            int slot = hash(unique.get(i), false) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+
+        // sort the words by the hash of their code, as long values to keep
+        // the word index with the hash
+        long[] byCode = new long[n];
+        for (int i = 0; i < n; i++) {
+            byCode[i] = ((long) uniqueCodes.get(i).hashCode() << 32) | i;
+        }
+        Arrays.sort(byCode);
+        int[] codeHashes = new int[n];
+        int[] codeWords = new int[n];
+        for (int i = 0; i < n; i++) {
+            codeHashes[i] = (int) (byCode[i] >> 32);
+            codeWords[i] = (int) byCode[i];
+        }
+
+        return new CompactWordSet(n, IntBuffer.wrap(offsets), CharBuffer.wrap(chars),
+                IntBuffer.wrap(table), IntBuffer.wrap(codeHashes), IntBuffer.wrap(codeWords));
+    }
+
+    /**
+     * Maps a word set written by <code>write()</code> into memory.
+     *
+     * @param file the file
+     * @param sourceLength the length of the word list the set was created from
+     * @param sourceModified the modification time of the word list
+     * @return the word set, or null if the file was not created from a word
+     *  list of the given length and modification time
+     * @throws IOException if the file can't be read
+     */
+    static CompactWordSet map(File file, long sourceLength, long sourceModified) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buf.capacity() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != sourceLength || buf.getLong() != sourceModified) {
+                return null;
+            }
+            int n = buf.getInt();
+            int charCount = buf.getInt();
+            int tableSize = buf.getInt();
+            long expected = HEADER_SIZE + 4L * ((n + 1) + n + n + tableSize) + 2L * charCount;
+            if (buf.capacity() != expected || Integer.bitCount(tableSize) != 1) {
+                return null;
+            }
+            IntBuffer offsets = slice(buf, 4 * (n + 1)).asIntBuffer();
+            IntBuffer codeHashes = slice(buf, 4 * n).asIntBuffer();
+            IntBuffer byCode = slice(buf, 4 * n).asIntBuffer();
+            IntBuffer table = slice(buf, 4 * tableSize).asIntBuffer();
+            CharBuffer chars = slice(buf, 2 * charCount).asCharBuffer();
+            return new CompactWordSet(n, offsets, chars, table, codeHashes, byCode);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the word set to a file that can be read with <code>map()</code>.
+     *
+     * @param file the file
+     * @param sourceLength the length of the word list the set was created from
+     * @param sourceModified the modification time of the word list
+     * @throws IOException if the file can't be written
+     */
+    void write(File file, long sourceLength, long sourceModified) throws IOException {
+        int charCount = offsets.get(wordCount);
+        int size = HEADER_SIZE + 4 * ((wordCount + 1) + 2 * wordCount + table.capacity()) + 2 * charCount;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(sourceLength).putLong(sourceModified);
+        buf.putInt(wordCount).putInt(charCount).putInt(table.capacity());
+        for (int i = 0; i <= wordCount; i++) {
+            buf.putInt(offsets.get(i));
+        }
+        for (int i = 0; i < wordCount; i++) {
+            buf.putInt(codeHashes.get(i));
+        }
+        for (int i = 0; i < wordCount; i++) {
+            buf.putInt(byCode.get(i));
+        }
+        for (int i = 0; i < table.capacity(); i++) {
+            buf.putInt(table.get(i));
+        }
+        for (int i = 0; i < charCount; i++) {
+            buf.putChar(chars.get(i));
+        }
+        buf.flip();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the number of words in the set
+     */
+    int size() {
+        return wordCount;
+    }
+
+    /**
+     * @return the size of the arrays of the set in bytes
+     */
+    long getMemoryUsage() {
+        return 4L * (offsets.capacity() + table.capacity() + codeHashes.capacity()
+                + byCode.capacity()) + 2L * chars.capacity();
+    }
+
+    /**
+     * Checks whether the set contains the given word. Doesn't allocate
+     * any objects.
+     *
+     * @param word the word
+     * @param lowerCase true to look up the word in lower case
+     * @return true if the set contains the word
+     */
+    boolean contains(String word, boolean lowerCase) {
+        int slot = hash(word, lowerCase) & mask;
+        int index;
+        while ((index = table.get(slot)) != 0) {
+            if (equalsWord(index - 1, word, lowerCase)) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the words whose phonetic code has the given hash code.
+     *
+     * @param codeHash the hash code of the phonetic code
+     * @return the words
+     */
+    List<String> getWords(int codeHash) {
+        // find the first entry with the hash
+        int low = 0;
+        int high = wordCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (codeHashes.get(mid) < codeHash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == wordCount || codeHashes.get(low) != codeHash) {
+            return new ArrayList<String>(1);
+        }
+        List<String> result = new ArrayList<String>(4);
+        for (int i = low; i < wordCount && codeHashes.get(i) == codeHash; i++) {
+            result.add(getWord(byCode.get(i)));
+        }
+        return result;
+    }
+
+    /**
+     * @return the word with the given index
+     */
+    private String getWord(int index) {
+        int start = offsets.get(index);
+        int end = offsets.get(index + 1);
+        char[] word = new char[end - start];
+        for (int i = start; i < end; i++) {
+            word[i - start] = chars.get(i);
+        }
+        return new String(word);
+    }
+
+    private boolean equalsWord(int index, String word, boolean lowerCase) {
+        int start = offsets.get(index);
+        int end = offsets.get(index + 1);
+        if (end - start != word.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = word.charAt(i - start);
+            if (lowerCase) {
+                c = Character.toLowerCase(c);
+            }
+            if (chars.get(i) != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(String word, boolean lowerCase) {
+        int h = 0;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            h = 31 * h + (lowerCase ? Character.toLowerCase(c) : c);
+        }
+        // spread the bits, the table is indexed with the low bits
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    /**
+     * @return a power of two at least twice the number of words
+     */
+    private static int tableSize(int n) {
+        int size = 16;
+        while (size < 2 * n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * @return the next <code>length</code> bytes of the buffer as a new
+     *  buffer, advancing the position of the buffer
+     */
+    private static ByteBuffer slice(ByteBuffer buf, int length) {
+        ByteBuffer slice = buf.slice();
+        slice.limit(length);
+        buf.position(buf.position() + length);
+        return slice;
+    }
+}
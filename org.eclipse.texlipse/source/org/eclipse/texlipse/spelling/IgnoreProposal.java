@@ -42,6 +42,7 @@ public class IgnoreProposal implements ICompletionProposal {
     
     public void apply(IDocument document) {
         fIgnore.add(fWord);
+        TexSpellingEngine.clearCache();
         SpellingProblem.removeAll(fViewer, fWord);
     }
 
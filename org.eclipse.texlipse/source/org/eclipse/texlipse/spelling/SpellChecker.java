@@ -21,6 +21,7 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +29,8 @@ import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.resources.WorkspaceJob;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -76,6 +79,48 @@ public class SpellChecker implements IPropertyChangeListener {
     // They are converted to actual strings in the constructor.
     public static String SPELL_CHECKER_IGNORE = "spellCheckerIgnoreWord";
     
+    // how many lines and encoded bytes may be sent to the program ahead
+    // of reading the replies; the bytes must fit in the pipe to the
+    // program, which is only 4 KB on Windows, or both sides could block
+    // writing to each other
+    private static final int MAX_PENDING_LINES = 64;
+    private static final int MAX_PENDING_BYTES = 2048;
+    
+    /**
+     * A line sent to the spelling program, waiting for the reply.
+     */
+    private static class PendingLine {
+        final String text;
+        final int offset;
+        final int lineNumber;
+        // the size of the line in the pipe, with the prefix and delimiter
+        final int bytes;
+
+        PendingLine(String text, int offset, int lineNumber) {
+            this.text = text;
+            this.offset = offset;
+            this.lineNumber = lineNumber;
+            this.bytes = 1 + encodedLength(text) + System.getProperty("line.separator").length();
+        }
+    }
+
+    /**
+     * A spelling error reported by the spelling program.
+     */
+    private static class SpellingError {
+        final String[] proposals;
+        final int charBegin;
+        final String word;
+        final int lineNumber;
+
+        SpellingError(String[] proposals, int charBegin, String word, int lineNumber) {
+            this.proposals = proposals;
+            this.charBegin = charBegin;
+            this.word = word;
+            this.lineNumber = lineNumber;
+        }
+    }
+    
     /**
      * A Spell-checker job.
      */
@@ -403,27 +448,59 @@ public class SpellChecker implements IPropertyChangeListener {
     /**
      * Check spelling of the entire document.
      * 
+     * The lines are sent to the spelling program ahead of reading the
+     * replies, so that the program doesn't wait for us between the lines.
+     * The replies come in the order of the lines, each terminated by an
+     * empty line.
+     * 
      * @param doc the document
      * @param file
      */
     private void checkDocumentSpelling(IDocument doc, IFile file, IProgressMonitor monitor) {
         deleteOldProposals(file);
         //doc.addDocumentListener(instance);
+        List<SpellingError> errors = new ArrayList<SpellingError>();
+        LinkedList<PendingLine> pending = new LinkedList<PendingLine>();
+        int pendingBytes = 0;
+        int i = 0;
         try {
             int num = doc.getNumberOfLines();
             monitor.beginTask("Check spelling", num);
-            for (int i = 0; i < num; i++) {
+            for (; i < num; i++) {
                 if (monitor.isCanceled()) break;
                 int offset = doc.getLineOffset(i);
                 int length = doc.getLineLength(i);
-                String line = doc.get(offset, length);
-                checkLineSpelling(line, offset, i+1, file);
+                String delim = doc.getLineDelimiter(i);
+                if (delim != null) {
+                    length -= delim.length();
+                }
+                PendingLine line = createLine(doc.get(offset, length), offset, i+1);
+                if (line != null) {
+                    // keep the pipes from filling up in both directions: a
+                    // longer line is only sent when nothing else is pending
+                    while (!pending.isEmpty() && (pending.size() >= MAX_PENDING_LINES
+                            || pendingBytes + line.bytes > MAX_PENDING_BYTES)) {
+                        PendingLine first = pending.removeFirst();
+                        pendingBytes -= first.bytes;
+                        readReply(first, errors);
+                    }
+                    postLine(line);
+                    pending.addLast(line);
+                    pendingBytes += line.bytes;
+                }
                 monitor.worked(1);
             }
+            while (!pending.isEmpty()) {
+                readReply(pending.removeFirst(), errors);
+            }
         } catch (BadLocationException e) {
             TexlipsePlugin.log("Checking spelling on a line", e);
+        } catch (IOException e) {
+            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
+            TexlipsePlugin.log("aspell error at line " + (pending.isEmpty() ? i : pending.getFirst().lineNumber), e);
         }
         stopProgram();
+        createMarkers(file, errors);
     }
 
     /**
@@ -494,22 +571,47 @@ public class SpellChecker implements IPropertyChangeListener {
     
     /**
      * Check spelling of a single line.
-     * This method parses ispell-style spelling error proposals.
      * 
      * @param line the line of text
      * @param offset start offset of the line in the document
      * @param file
-     * @return fix proposals, or empty array if all correct
      */
     private void checkLineSpelling(String line, int offset, int lineNumber, IFile file) {
-        
-        // check that there is text for the checker
-        if (line == null || line.length() == 0) {
+        // the line must not contain the line delimiter, it would be
+        // answered with another empty line
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        PendingLine pending = createLine(line.substring(0, end), offset, lineNumber);
+        if (pending == null) {
             return;
         }
+        postLine(pending);
+        List<SpellingError> errors = new ArrayList<SpellingError>();
+        try {
+            readReply(pending, errors);
+        } catch (IOException e) {
+            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
+            TexlipsePlugin.log("aspell error at line " + lineNumber + ": " + pending.text, e);
+        }
+        createMarkers(file, errors);
+    }
+
+    /**
+     * Prepares a line for the spelling program.
+     * 
+     * @param line the line of text without the line delimiter
+     * @param offset start offset of the line in the document
+     * @param lineNumber the number of the line in the document
+     * @return the line to send, or null if the line contains nothing
+     *  to check
+     */
+    private PendingLine createLine(String line, int offset, int lineNumber) {
         
-        if (line.trim().length() == 0) {
-            return;
+        // check that there is text for the checker
+        if (line == null || line.trim().length() == 0) {
+            return null;
         }
         
         // give the speller something to parse
@@ -518,6 +620,16 @@ public class SpellChecker implements IPropertyChangeListener {
             lineToPost = replaceUmlauts(line);
         }
         
+        return new PendingLine(lineToPost, offset, lineNumber);
+    }
+
+    /**
+     * Sends a line to the spelling program. The line is not flushed to the
+     * program until the reply is read.
+     * 
+     * @param line the line to send
+     */
+    private void postLine(PendingLine line) {
         /*
          * a prefixed "^" tells aspell to parse the line without exceptions. From
          * http://aspell.sourceforge.net/man-html/Through-A-Pipe.html#Through-A-Pipe:
@@ -526,34 +638,51 @@ public class SpellChecker implements IPropertyChangeListener {
          * Special meaning of "^" is to ignore all other prefixes.
          * 
          */
-        output.println("^" + lineToPost);
-        output.flush();
-        // wait until there is input
-        List<String> lines = new ArrayList<String>();
-        try {
-            String result = input.readLine();
-            while ((!"".equals(result)) && (result != null)) {
-                lines.add(result);
-                result = input.readLine();
-            }
-            //Wait a bit and clear the input buffer (sometimes there are more than one empty line)
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                //No problem
-            } 
-            while (input.ready()) { 
-                input.readLine();
+        output.println("^" + line.text);
+    }
+
+    /**
+     * @param text a line of text
+     * @return the length of the text in the encoding of the program
+     */
+    private static int encodedLength(String text) {
+        // UTF-8
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                // a surrogate pair takes four bytes
+                length += 2;
+            } else {
+                length += 3;
             }
-        } catch (IOException e) {
-            BuilderRegistry.printToConsole(TexlipsePlugin.getResourceString("spellProgramStartError"));
-            TexlipsePlugin.log("aspell error at line " + lineNumber + ": " + lineToPost, e);
         }
-        
-        // loop through the output lines (they contain only errors)
-        for (int i = 0; i < lines.size(); i++) {
-            String[] tmp = (lines.get(i)).split(":");
+        return length;
+    }
+
+    /**
+     * Reads the reply of the spelling program to the given line.
+     * This method parses ispell-style spelling error proposals.
+     * 
+     * @param line the line the reply belongs to
+     * @param errors the list to add the spelling errors of the line to
+     * @throws IOException if the spelling program has terminated
+     */
+    private void readReply(PendingLine line, List<SpellingError> errors) throws IOException {
+        output.flush();
+        // each reply is terminated by an empty line
+        for (String result = input.readLine(); !"".equals(result); result = input.readLine()) {
+            if (result == null) {
+                throw new IOException("Spelling program terminated");
+            }
+            // the reply contains only errors
+            String[] tmp = result.split(":");
             String[] error = tmp[0].split(" ");
+            if (error.length < 3) {
+                continue;
+            }
             String word = error[1].trim();
             // column, where the word starts in the line of text
             // is always the last entry in error (sometimes 3, if there
@@ -561,19 +690,6 @@ public class SpellChecker implements IPropertyChangeListener {
             // we have to subtract 1 since the first char is always "^"
             int column = Integer.valueOf(error[error.length - 1]).intValue() - 1;
             
-            /*
-            // if we have multi byte chars (e.g. umlauts in utf-8), then aspell
-            // returns them as multiple columns. computing the difference
-            // between byte-length and String-length:
-            byte[] bytes = lineToPost.getBytes();
-            byte[] before = new byte[column];
-            for (int j = 0; j < column; j++) {
-                before[j] = bytes[j];
-            }
-            int difference = column - (new String(before)).length();
-            column -= difference;
-            */
-            
             // list of proposals starts after the colon
             String[] options;
             if (tmp.length > 1) {
@@ -590,8 +706,32 @@ public class SpellChecker implements IPropertyChangeListener {
             options[options.length - 1] = MessageFormat.format(SPELL_CHECKER_ADD, 
                     new Object[] { word });
 
-            createMarker(file, options, offset + column, word,
-                    lineNumber);
+            errors.add(new SpellingError(options, line.offset + column, word, line.lineNumber));
+        }
+    }
+
+    /**
+     * Adds spelling error markers to the given file in one workspace
+     * operation.
+     * 
+     * @param file the resource to add the markers to
+     * @param errors the spelling errors
+     */
+    private void createMarkers(final IResource file, final List<SpellingError> errors) {
+        if (errors.isEmpty()) {
+            return;
+        }
+        try {
+            file.getWorkspace().run(new IWorkspaceRunnable() {
+                public void run(IProgressMonitor monitor) throws CoreException {
+                    for (SpellingError error : errors) {
+                        createMarker(file, error.proposals, error.charBegin, error.word,
+                                error.lineNumber);
+                    }
+                }
+            }, file, IWorkspace.AVOID_UPDATE, null);
+        } catch (CoreException e) {
+            TexlipsePlugin.log("Adding spelling markers", e);
         }
     }
 
@@ -12,32 +12,45 @@ package org.eclipse.texlipse.spelling;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
+import java.util.Set;
+
+import org.eclipse.texlipse.TexlipsePlugin;
 
 import com.swabunga.spell.engine.SpellDictionaryASpell;
 
 /**
- * A memory optimized dictionary class 
+ * A memory optimized dictionary class. The words of the word list are
+ * kept in a <code>CompactWordSet</code>; words added later, e.g. from the
+ * user dictionary, are kept in a small set of their own.
+ * 
  * @author Boris von Loesch
  *
  */
 public class TexSpellDictionary extends SpellDictionaryASpell {
-    private final static int INITIAL_CAPACITY = 32 * 1024;
 
-    private final static char SEP_CHAR = ';';
-    
-    protected Map<Integer, StringBuilder> mainDictionary = new HashMap<Integer, StringBuilder>(INITIAL_CAPACITY);
+    /**
+     * The words of the word list
+     */
+    private CompactWordSet mainDictionary;
+
+    /**
+     * The words added to the dictionary later, and their phonetic codes
+     */
+    private final Set<String> addedWords = new HashSet<String>();
+    private final Map<Integer, List<String>> addedCodes = new HashMap<Integer, List<String>>();
 
     /**
      * User dictionary
@@ -69,6 +82,44 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
         super(phonetic);
         createDictionary(new BufferedReader(wordList));
     }
+
+    /**
+     * Dictionary constructor that uses a precompiled copy of the word list.
+     * If the precompiled file is missing or older than the word list, the
+     * word list (UTF-8, one word per line) is read and compiled into the
+     * file, otherwise the file is mapped into memory.
+     * @param wordList The file containing the words list for the dictionary
+     * @param compiled The precompiled dictionary file
+     * @throws java.io.IOException indicates problems reading the words list
+     */
+    public TexSpellDictionary(File wordList, File compiled) throws IOException {
+        super((File) null);
+        long length = wordList.length();
+        long modified = wordList.lastModified();
+        if (compiled.exists()) {
+            try {
+                mainDictionary = CompactWordSet.map(compiled, length, modified);
+            } catch (IOException e) {
+                TexlipsePlugin.log("Unable to read the compiled dictionary " + compiled, e);
+            }
+        }
+        if (mainDictionary == null) {
+            BufferedReader r = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(wordList), "UTF-8"));
+            try {
+                createDictionary(r);
+            } finally {
+                r.close();
+            }
+            try {
+                compiled.getParentFile().mkdirs();
+                mainDictionary.write(compiled, length, modified);
+            } catch (IOException e) {
+                // the next start reads the word list again
+                TexlipsePlugin.log("Unable to write the compiled dictionary " + compiled, e);
+            }
+        }
+    }
     
     /**
      * Add words from a file to existing dictionary hashmap.
@@ -126,16 +177,21 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      * <p>
      * Each word in the reader should be on a separate line.
      * <p>
-     * This is a very slow function. On my machine it takes quite a while to
-     * load the data in. I suspect that we could speed this up quite allot.
+     * The phonetic code of every word is computed here, which is what
+     * takes most of the time.
      */
     protected void createDictionary(BufferedReader in) throws IOException {
+        List<String> words = new ArrayList<String>();
+        List<String> codes = new ArrayList<String>();
         String line;
         while ((line = in.readLine()) != null) {
             if (line.length() > 0) {
-                putWord(line.trim());
+                String word = line.trim();
+                words.add(word);
+                codes.add(getCode(word));
             }
         }
+        mainDictionary = CompactWordSet.create(words, codes);
     }
 
     /**
@@ -143,13 +199,6 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      * already exists in the dictionary, a new entry is not added.
      * <p>
      * Each word in the reader should be on a separate line.
-     * <p>
-     * Note: for whatever reason that I haven't yet looked into, the phonetic codes
-     * for a particular word map to a vector of words rather than a hash table.
-     * This is a drag since in order to check for duplicates you have to iterate
-     * through all the words that use the phonetic code.
-     * If the vector-based implementation is important, it may be better
-     * to subclass for the cases where duplicates are bad.
      */
     public void addDictionaryHelper(BufferedReader in) throws IOException {
         String line;
@@ -161,58 +210,37 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
     }
 
     /**
-     * Allocates a word in the dictionary
+     * Allocates a word, if it is not already present in the dictionary.
      * @param word The word to add
      */
-    protected void putWord(String word) {
-        int code = getCode(word).hashCode();
-        StringBuilder words = mainDictionary.get(code);
-        if (words != null) {
-            words.append(word);
-            words.append(SEP_CHAR);
-        } else {
-            words = new StringBuilder();
-            words.append(SEP_CHAR);
-            words.append(word);
-            words.append(SEP_CHAR);
-            mainDictionary.put(code, words);
+    protected synchronized void putWordUnique(String word) {
+        if (mainDictionary.contains(word, false) || !addedWords.add(word)) {
+            // the word is already in the dictionary
+            return;
         }
+        Integer code = Integer.valueOf(getCode(word).hashCode());
+        List<String> words = addedCodes.get(code);
+        if (words == null) {
+            words = new ArrayList<String>(2);
+            addedCodes.put(code, words);
+        }
+        words.add(word);
     }
 
     /**
-     * Allocates a word, if it is not already present in the dictionary. A word
-     * with a different case is considered the same.
-     * @param word The word to add
+     * Returns an estimate of the memory used by the dictionary.
+     * @return the size in bytes
      */
-    protected void putWordUnique(String word) {
-
-        int code = getCode(word).hashCode();
-        StringBuilder words = mainDictionary.get(code);
-
-        if (words != null) {
-            if (words.indexOf(SEP_CHAR + word + SEP_CHAR) == -1) {
-                words.append(word);
-                words.append(SEP_CHAR);            
-            }
-            //else the word is already in the dictionary
-        }
-        else {
-            words = new StringBuilder();
-            words.append(SEP_CHAR);
-            words.append(word);
-            words.append(SEP_CHAR);
-            mainDictionary.put(code, words);
-        }
+    public synchronized long getMemoryUsage() {
+        // a rough guess for the set and map entries of an added word
+        return mainDictionary.getMemoryUsage() + 64L * addedWords.size();
     }
 
     /**
-     * Compresses the dictionary so that it takes less memory
+     * Compresses the dictionary so that it takes less memory. Does nothing,
+     * the dictionary is always kept compact.
      */
     public void compress() {
-        Collection<StringBuilder> c = mainDictionary.values();
-        for (StringBuilder st : c) {
-            st.trimToSize();
-        }
     }
     
     /**
@@ -220,13 +248,16 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      */
     @Override
     public List<String> getWords(String code) {
-        //Check the main dictionary.
-        StringBuilder mainDictResult = mainDictionary.get(code.hashCode());
-        if (mainDictResult == null) return new ArrayList<String>(1);
-        StringTokenizer stk = new StringTokenizer(mainDictResult.toString(), ""+SEP_CHAR);
-        List<String> list = new ArrayList<String>(1);
-        while (stk.hasMoreTokens()) list.add(stk.nextToken());
-        return list;
+        int hash = code.hashCode();
+        List<String> words = mainDictionary.getWords(hash);
+        synchronized (this) {
+            List<String> added = addedCodes.get(Integer.valueOf(hash));
+            if (added != null) {
+                words = new ArrayList<String>(words);
+                words.addAll(added);
+            }
+        }
+        return words;
     }
 
     /**
@@ -234,13 +265,14 @@ public class TexSpellDictionary extends SpellDictionaryASpell {
      */
     @Override
     public boolean isCorrect(String word) {
-        StringBuilder words = mainDictionary.get(getCode(word).hashCode());
-        if (words == null) return false;
-        if (words.indexOf(SEP_CHAR + word + SEP_CHAR) >= 0) return true;
+        if (mainDictionary.contains(word, false)) return true;
         //JMH should we always try the lowercase version. If I dont then capitalised
         //words are always returned as incorrect.
-        if (words.indexOf(SEP_CHAR + word.toLowerCase() + SEP_CHAR) >= 0) return true;
-        return false;
+        if (mainDictionary.contains(word, true)) return true;
+        synchronized (this) {
+            if (addedWords.isEmpty()) return false;
+            return addedWords.contains(word) || addedWords.contains(word.toLowerCase());
+        }
     }
 
 }
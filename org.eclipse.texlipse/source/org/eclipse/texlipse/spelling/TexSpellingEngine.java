@@ -10,17 +10,19 @@
  *******************************************************************************/
 package org.eclipse.texlipse.spelling;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.eclipse.core.filebuffers.FileBuffers;
 import org.eclipse.core.filebuffers.ITextFileBuffer;
@@ -29,15 +31,21 @@ import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
 import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
 import org.eclipse.jface.text.contentassist.CompletionProposal;
 import org.eclipse.jface.text.contentassist.ICompletionProposal;
 import org.eclipse.jface.text.quickassist.IQuickAssistInvocationContext;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.texlipse.TexlipsePlugin;
+import org.eclipse.texlipse.builder.TexlipseNature;
 import org.eclipse.texlipse.editor.TeXSpellingReconcileStrategy.TeXSpellingProblemCollector;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.ui.texteditor.spelling.ISpellingEngine;
@@ -126,68 +134,250 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
     
     private final static String DEFAULT_DICT_PATH = "/dict/";
     private final static String DEFAULT_LANG = "en";
+    // the directory in the plugin state location for the compiled dictionaries
+    private final static String COMPILED_DICT_DIR = "dict";
     
-    private static SpellChecker spellCheck;
-    private static TexSpellDictionary dict;
-    private static String currentLang;
+    // the estimated memory the loaded dictionaries may use together;
+    // the dictionary used last is kept even if it is bigger
+    private final static long MAX_DICT_MEMORY = 64L * 1024 * 1024;
+    
+    /**
+     * A loaded dictionary with its checker
+     */
+    private static class LoadedDictionary {
+        final TexSpellDictionary dict;
+        final SpellChecker spellCheck;
+        
+        LoadedDictionary(TexSpellDictionary dict) {
+            this.dict = dict;
+            this.spellCheck = new SpellChecker(dict);
+        }
+    }
+    
+    // the number of paragraphs whose results are cached per document
+    private final static int MAX_CACHED_PARAGRAPHS = 5000;
+    
+    /**
+     * The spelling errors of the paragraphs of a document that have been
+     * checked, keyed by the text of the paragraph. The offsets of the
+     * errors are relative to the start of the paragraph, so the results
+     * stay valid when text is inserted before the paragraph.
+     */
+    private static class ParagraphCache extends LinkedHashMap<String, List<SpellCheckEvent>> {
+        private static final long serialVersionUID = 1L;
+        
+        // the language and settings the results were computed with
+        String settings;
+        int version;
+        
+        ParagraphCache() {
+            super(64, 0.75f, true);
+        }
+        
+        protected boolean removeEldestEntry(Map.Entry<String, List<SpellCheckEvent>> eldest) {
+            return size() > MAX_CACHED_PARAGRAPHS;
+        }
+    }
+    
+    // the results of the open documents
+    private static final Map<IDocument, ParagraphCache> paragraphCaches =
+        new WeakHashMap<IDocument, ParagraphCache>();
+    // increased when a word is ignored or added to a dictionary
+    private static volatile int cacheVersion;
+    
+    // the loaded dictionaries by language, the least recently used first
+    private static final Map<String, LoadedDictionary> dictionaries =
+        new LinkedHashMap<String, LoadedDictionary>(8, 0.75f, true);
+    // the jobs loading dictionaries by language
+    private static final Map<String, Job> loading = new HashMap<String, Job>();
+    // notified when a dictionary has been loaded
+    private static final List<Runnable> loadListeners = new CopyOnWriteArrayList<Runnable>();
     private static Set<String> ignore;
     
     private List<SpellCheckEvent> errors;
     
     /**
-     * Returns a SpellChecker that checks the language of the current project
-     * @param project
-     * @return null, if no dictionary for the current language was found
+     * Returns a SpellChecker for the given language. If the dictionary of
+     * the language isn't loaded yet, it is loaded in the background and
+     * null is returned, so that the reconciler doesn't wait for it.
+     * @param lang the language
+     * @return null, if no dictionary for the language was found or if it
+     *  is still being loaded
      */
     private static SpellChecker getSpellChecker(String lang) {
+        LoadedDictionary d = getDictionary(lang, false);
+        return d != null ? d.spellCheck : null;
+    }
+    
+    /**
+     * Returns the loaded dictionary of the given language, starting to
+     * load it if necessary.
+     * @param lang the language
+     * @param wait whether to wait for the dictionary to be loaded
+     * @return the dictionary, or null if no dictionary for the language
+     *  was found or if it is being loaded and <code>wait</code> is false
+     */
+    private static LoadedDictionary getDictionary(String lang, boolean wait) {
         //Return null, when no language is set
         if (lang == null) return null;
         
-        if (lang.equals(currentLang)) return spellCheck;
-                
+        Job job;
+        synchronized (dictionaries) {
+            LoadedDictionary d = dictionaries.get(lang);
+            if (d != null) return d;
+            job = scheduleLoad(lang);
+        }
+        if (job == null || !wait) return null;
+        try {
+            job.join();
+        } catch (InterruptedException e) {
+            return null;
+        }
+        synchronized (dictionaries) {
+            return dictionaries.get(lang);
+        }
+    }
+    
+    /**
+     * Starts loading the dictionary of the given language in the
+     * background, unless it is already being loaded.
+     * @param lang the language
+     * @return the loading job, or null if there is no dictionary for
+     *  the language
+     */
+    private static Job scheduleLoad(final String lang) {
+        Job job = loading.get(lang);
+        if (job != null) return job;
+        
         //Get dictionary path from preferences and check if it exists
         String dictPathSt = TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_DICT_DIR);
         if (dictPathSt == null || "".equals(dictPathSt.trim())) return null;
         File dictPath = new File(dictPathSt);
         if (!dictPath.exists() || !dictPath.isDirectory()) return null;
 
-        File f = new File(dictPath.getAbsolutePath() + File.separator + lang + ".dict");
+        final File f = new File(dictPath.getAbsolutePath() + File.separator + lang + ".dict");
         if (!f.exists() || !f.canRead()) return null;
-        
-        //Set spellCheck to null to allow the GC to trash the current dictionary
-        spellCheck = null;
-        dict = null;
-        currentLang = lang;
 
-        try {
-            FileInputStream input = new FileInputStream(f);
-            Reader r = new BufferedReader(new InputStreamReader(input, "UTF-8"));
-            dict = new TexSpellDictionary(r);
-            r.close();
+        job = new Job("Loading " + lang + " dictionary") {
+            protected IStatus run(IProgressMonitor monitor) {
+                LoadedDictionary d = null;
+                try {
+                    d = new LoadedDictionary(loadDictionary(f, lang));
+                } catch (IOException e) {
+                    TexlipsePlugin.log("Error while loading dictionary", e);
+                }
+                synchronized (dictionaries) {
+                    loading.remove(lang);
+                    if (d != null) {
+                        dictionaries.put(lang, d);
+                        evictDictionaries();
+                    }
+                }
+                if (d != null) {
+                    for (Runnable listener : loadListeners) {
+                        listener.run();
+                    }
+                }
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.setPriority(Job.LONG);
+        loading.put(lang, job);
+        job.schedule();
+        return job;
+    }
+    
+    /**
+     * Loads a dictionary and the user dictionary of its language.
+     * @param f the word list
+     * @param lang the language
+     * @return the dictionary
+     * @throws IOException if the word list can't be read
+     */
+    private static TexSpellDictionary loadDictionary(File f, String lang) throws IOException {
+        File compiled = TexlipsePlugin.getDefault().getStateLocation()
+                .append(COMPILED_DICT_DIR).append(lang + ".bin").toFile();
+        TexSpellDictionary dict = new TexSpellDictionary(f, compiled);
 
-            String customDictPath = TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_CUSTOM_DICT_DIR);
-            if (customDictPath != null && !"".equals(customDictPath.trim())) {
-                dict.setUserDict(new File (customDictPath + File.separator + lang + "_user.dict"));
+        String customDictPath = TexlipsePlugin.getPreference(TexlipseProperties.SPELLCHECKER_CUSTOM_DICT_DIR);
+        if (customDictPath != null && !"".equals(customDictPath.trim())) {
+            dict.setUserDict(new File (customDictPath + File.separator + lang + "_user.dict"));
+        }
+        return dict;
+    }
+    
+    /**
+     * Drops the least recently used dictionaries until the others fit
+     * in the memory budget. Must be called with the lock on
+     * <code>dictionaries</code>.
+     */
+    private static void evictDictionaries() {
+        long total = 0;
+        for (LoadedDictionary d : dictionaries.values()) {
+            total += d.dict.getMemoryUsage();
+        }
+        Iterator<LoadedDictionary> iter = dictionaries.values().iterator();
+        while (total > MAX_DICT_MEMORY && dictionaries.size() > 1) {
+            total -= iter.next().dict.getMemoryUsage();
+            iter.remove();
+        }
+    }
+    
+    /**
+     * Adds a listener that is run when a dictionary has been loaded in
+     * the background, e.g. to check the documents that were skipped while
+     * the dictionary was missing. The listener is run in the loading job.
+     * @param listener the listener
+     */
+    public static void addLoadListener(Runnable listener) {
+        loadListeners.add(listener);
+    }
+    
+    /**
+     * Removes a listener added with <code>addLoadListener()</code>.
+     * @param listener the listener
+     */
+    public static void removeLoadListener(Runnable listener) {
+        loadListeners.remove(listener);
+    }
+    
+    /**
+     * Starts loading the dictionaries of the languages of the open
+     * LaTeX projects in the background.
+     */
+    public static void preloadDictionaries() {
+        IProject[] projects = ResourcesPlugin.getWorkspace().getRoot().getProjects();
+        for (IProject project : projects) {
+            try {
+                if (!project.isOpen() || !project.hasNature(TexlipseNature.NATURE_ID)) {
+                    continue;
+                }
+            } catch (CoreException e) {
+                continue;
+            }
+            String lang = TexlipseProperties.getProjectProperty(project, TexlipseProperties.LANGUAGE_PROPERTY);
+            if (lang != null && lang.length() > 0) {
+                synchronized (dictionaries) {
+                    if (!dictionaries.containsKey(lang)) {
+                        scheduleLoad(lang);
+                    }
+                }
             }
-            spellCheck = new SpellChecker(dict);
-            return spellCheck;
-        } catch (IOException e) {
-            TexlipsePlugin.log("Error while loading dictionary", e);
         }
-        return null;
     }
     
     /**
-     * <p>Returns the dictionary for that language, or the default dictionary if no
-     * exists.</p> 
+     * <p>Returns the dictionary for that language, waiting for it to be
+     * loaded if necessary. Don't call this from the UI thread.</p> 
      * <p><b>Beware:</b> Only use local references for the dictionary, otherwise
      * it can not be trashed by the GC and we get memory problems.
      * @param lang Language of the file
-     * @return The dictionary
+     * @return The dictionary, or null if there is no dictionary for the language
      */
     public static TexSpellDictionary getDict(String lang) {
-        getSpellChecker(lang);
-        return dict;
+        LoadedDictionary d = getDictionary(lang, true);
+        return d != null ? d.dict : null;
     }
     
     
@@ -210,6 +400,105 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
         return null;
     }
     
+    /**
+     * Invalidates the cached results of all documents. Called when the
+     * set of correct words has changed.
+     */
+    static void clearCache() {
+        cacheVersion++;
+    }
+    
+    /**
+     * Returns the cached results of the given document, clearing them if
+     * they were computed with other settings.
+     * @param document the document
+     * @param settings the language and the settings of the word finder
+     * @return the cache
+     */
+    private static ParagraphCache getParagraphCache(IDocument document, String settings) {
+        synchronized (paragraphCaches) {
+            ParagraphCache cache = paragraphCaches.get(document);
+            if (cache == null) {
+                cache = new ParagraphCache();
+                paragraphCaches.put(document, cache);
+            }
+            if (!settings.equals(cache.settings) || cache.version != cacheVersion) {
+                cache.clear();
+                cache.settings = settings;
+                cache.version = cacheVersion;
+            }
+            return cache;
+        }
+    }
+    
+    /**
+     * Splits the given regions into paragraphs, i.e. runs of lines that are
+     * separated by empty lines. The regions are extended to whole
+     * paragraphs. Paragraphs which are in several regions are returned once.
+     * @param document the document
+     * @param regions the regions
+     * @return the paragraphs in document order
+     * @throws BadLocationException if a region is outside the document
+     */
+    private static List<IRegion> getParagraphs(IDocument document, IRegion[] regions)
+            throws BadLocationException {
+        List<IRegion> paragraphs = new ArrayList<IRegion>();
+        int lines = document.getNumberOfLines();
+        int lastChecked = -1;
+        for (IRegion r : regions) {
+            int firstLine = document.getLineOfOffset(r.getOffset());
+            int lastLine = document.getLineOfOffset(r.getOffset() + r.getLength());
+            while (firstLine > 0 && !isEmptyLine(document, firstLine - 1)) {
+                firstLine--;
+            }
+            while (lastLine < lines - 1 && !isEmptyLine(document, lastLine + 1)) {
+                lastLine++;
+            }
+            firstLine = Math.max(firstLine, lastChecked + 1);
+            
+            int start = -1;
+            int end = -1;
+            for (int line = firstLine; line <= lastLine; line++) {
+                if (isEmptyLine(document, line)) {
+                    if (start >= 0) {
+                        paragraphs.add(new Region(start, end - start));
+                        start = -1;
+                    }
+                } else {
+                    IRegion info = document.getLineInformation(line);
+                    if (start < 0) {
+                        start = info.getOffset();
+                    }
+                    end = info.getOffset() + info.getLength();
+                }
+            }
+            if (start >= 0) {
+                paragraphs.add(new Region(start, end - start));
+            }
+            lastChecked = Math.max(lastChecked, lastLine);
+        }
+        return paragraphs;
+    }
+    
+    /**
+     * @return true if the given line only contains white space
+     */
+    private static boolean isEmptyLine(IDocument document, int line) throws BadLocationException {
+        IRegion info = document.getLineInformation(line);
+        int end = info.getOffset() + info.getLength();
+        for (int i = info.getOffset(); i < end; i++) {
+            if (!Character.isWhitespace(document.getChar(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Checks the paragraphs in the given regions. Only the paragraphs whose
+     * text has changed since they were last checked are passed to the spell
+     * checker, the errors of the others are taken from the cache.
+     */
     public void check(IDocument document, IRegion[] regions, SpellingContext context, 
             ISpellingProblemCollector collector, IProgressMonitor monitor) {
         
@@ -227,30 +516,54 @@ public class TexSpellingEngine implements ISpellingEngine, SpellCheckListener {
         SpellChecker spellCheck = getSpellChecker(lang);
         if (spellCheck == null) return;
         
-        if (collector instanceof TeXSpellingProblemCollector) {
-            ((TeXSpellingProblemCollector) collector).setRegions(regions);
-        }
+        boolean ignoreComments = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_COMMENTS);
+        boolean ignoreMath = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_MATH);
+        boolean ignoreMixedCase = TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_MIXED_CASE);
+        ParagraphCache cache = getParagraphCache(document,
+                lang + ':' + ignoreComments + ':' + ignoreMath + ':' + ignoreMixedCase);
         
         try {
-            spellCheck.addSpellCheckListener(this);
-            for (final IRegion r : regions) {
-                errors = new LinkedList<SpellCheckEvent>();
-                int roffset = r.getOffset();
-                
-                //Create a new wordfinder and initialize it
-                TexlipseWordFinder wf = new TexlipseWordFinder();
-                wf.setIgnoreComments(TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_COMMENTS));
-                wf.setIgnoreMath(TexlipsePlugin.getDefault().getPreferenceStore().getBoolean(TexlipseProperties.SPELLCHECKER_IGNORE_MATH));
-                
-                spellCheck.checkSpelling(new StringWordTokenizer(
-                        document.get(roffset, r.getLength()), wf));
-                
-                for (SpellCheckEvent error : errors) {
-                    SpellingProblem p = new TexSpellingProblem(error, roffset, lang);
-                    collector.accept(p);
+            List<IRegion> paragraphs = getParagraphs(document, regions);
+            if (collector instanceof TeXSpellingProblemCollector) {
+                ((TeXSpellingProblemCollector) collector).setRegions(
+                        paragraphs.toArray(new IRegion[paragraphs.size()]));
+            }
+            
+            TexlipseWordFinder wf = null;
+            for (IRegion p : paragraphs) {
+                int poffset = p.getOffset();
+                String text = document.get(poffset, p.getLength());
+                List<SpellCheckEvent> result;
+                synchronized (cache) {
+                    result = cache.get(text);
+                }
+                if (result == null) {
+                    if (wf == null) {
+                        //Create a new wordfinder and initialize it
+                        wf = new TexlipseWordFinder();
+                        wf.setIgnoreComments(ignoreComments);
+                        wf.setIgnoreMath(ignoreMath);
+                    }
+                    // the checker of a language is shared by all editors
+                    synchronized (spellCheck) {
+                        errors = new ArrayList<SpellCheckEvent>();
+                        spellCheck.addSpellCheckListener(this);
+                        try {
+                            spellCheck.checkSpelling(new StringWordTokenizer(text, wf));
+                        } finally {
+                            spellCheck.removeSpellCheckListener(this);
+                        }
+                        result = errors;
+                    }
+                    synchronized (cache) {
+                        cache.put(text, result);
+                    }
+                }
+                for (SpellCheckEvent error : result) {
+                    SpellingProblem sp = new TexSpellingProblem(error, poffset, lang);
+                    collector.accept(sp);
                 }
             }
-            spellCheck.removeSpellCheckListener(this);                
         } catch (BadLocationException e) {
             e.printStackTrace();
         }
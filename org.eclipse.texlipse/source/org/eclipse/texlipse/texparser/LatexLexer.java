@@ -10,7 +10,8 @@
  *******************************************************************************/
 package org.eclipse.texlipse.texparser;
 
-import java.io.PushbackReader;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.util.HashSet;
 
 import org.eclipse.texlipse.texparser.lexer.Lexer;
@@ -18,195 +19,591 @@ import org.eclipse.texlipse.texparser.lexer.LexerException;
 import org.eclipse.texlipse.texparser.node.EOF;
 import org.eclipse.texlipse.texparser.node.TArgument;
 import org.eclipse.texlipse.texparser.node.TBverbatim;
+import org.eclipse.texlipse.texparser.node.TCbegin;
+import org.eclipse.texlipse.texparser.node.TCbib;
+import org.eclipse.texlipse.texparser.node.TCbibstyle;
+import org.eclipse.texlipse.texparser.node.TCchapter;
+import org.eclipse.texlipse.texparser.node.TCcite;
+import org.eclipse.texlipse.texparser.node.TCend;
+import org.eclipse.texlipse.texparser.node.TChref;
+import org.eclipse.texlipse.texparser.node.TCinclude;
+import org.eclipse.texlipse.texparser.node.TCinput;
+import org.eclipse.texlipse.texparser.node.TClabel;
 import org.eclipse.texlipse.texparser.node.TCnew;
+import org.eclipse.texlipse.texparser.node.TCpackage;
+import org.eclipse.texlipse.texparser.node.TCparagraph;
+import org.eclipse.texlipse.texparser.node.TCpart;
+import org.eclipse.texlipse.texparser.node.TCpbib;
+import org.eclipse.texlipse.texparser.node.TCpindex;
+import org.eclipse.texlipse.texparser.node.TCref;
+import org.eclipse.texlipse.texparser.node.TCrenew;
+import org.eclipse.texlipse.texparser.node.TCsection;
+import org.eclipse.texlipse.texparser.node.TCspace;
+import org.eclipse.texlipse.texparser.node.TCssection;
+import org.eclipse.texlipse.texparser.node.TCsssection;
+import org.eclipse.texlipse.texparser.node.TCsymbol;
+import org.eclipse.texlipse.texparser.node.TCverb;
 import org.eclipse.texlipse.texparser.node.TCword;
+import org.eclipse.texlipse.texparser.node.TCommentline;
 import org.eclipse.texlipse.texparser.node.TEverbatim;
 import org.eclipse.texlipse.texparser.node.TLBrace;
+import org.eclipse.texlipse.texparser.node.TLBracket;
 import org.eclipse.texlipse.texparser.node.TOptargument;
 import org.eclipse.texlipse.texparser.node.TRBrace;
 import org.eclipse.texlipse.texparser.node.TRBracket;
+import org.eclipse.texlipse.texparser.node.TSkippedArea;
+import org.eclipse.texlipse.texparser.node.TStar;
+import org.eclipse.texlipse.texparser.node.TTaskcomment;
 import org.eclipse.texlipse.texparser.node.TVtext;
 import org.eclipse.texlipse.texparser.node.TWhitespace;
+import org.eclipse.texlipse.texparser.node.TWord;
 import org.eclipse.texlipse.texparser.node.Token;
 
 
 /**
  * Lexer for LaTeX -files. Implements tokenizing curly brace-enclosed
  * areas and verb and verbatim environments.
- * 
+ *
+ * The input is scanned in place with the automaton of the generated
+ * lexer, so the characters aren't copied through a reader. Token objects
+ * are only created for the tokens given to the parser; the tokens inside
+ * arguments and verbatim text are only kept as ranges of the input, which
+ * are appended to the captured text.
+ *
  * @author Oskar Ojala
  */
 public class LatexLexer extends Lexer {
-    
+
+    // The token kinds, i.e. the indices of the tokens in the grammar
+    private static final int EOF_KIND = -1;
+    private static final int WHITESPACE = 0;
+    private static final int CNEW = 17;
+    private static final int BVERBATIM = 22;
+    private static final int EVERBATIM = 23;
+    private static final int VTEXT = 24;
+    private static final int LBRACE = 29;
+    private static final int RBRACE = 30;
+    private static final int RBRACKET = 32;
+    private static final int CWORD = 33;
+
+    /**
+     * The state following each token kind, indexed by the kind and the
+     * id of the current state, -1 keeps the current state. These are
+     * the state transitions of the grammar.
+     */
+    private static final int[][] TRANSITIONS = {
+        {0, 1, 2, 3, 4, 5},        // whitespace
+        {1, 1, -1, -1, -1, -1},    // part
+        {1, 1, -1, -1, -1, -1},    // chapter
+        {1, 1, -1, -1, -1, -1},    // section
+        {1, 1, -1, -1, -1, -1},    // subsection
+        {1, 1, -1, -1, -1, -1},    // subsubsection
+        {1, 1, -1, -1, -1, -1},    // paragraph
+        {1, 1, -1, -1, -1, -1},    // bibliography
+        {1, 1, -1, -1, -1, -1},    // bibliographystyle
+        {1, 1, -1, -1, -1, -1},    // label
+        {1, 1, -1, -1, -1, -1},    // href
+        {1, 1, -1, -1, -1, -1},    // ref
+        {1, 1, -1, -1, -1, -1},    // cite
+        {1, 1, -1, -1, -1, -1},    // begin
+        {1, 1, -1, -1, -1, -1},    // end
+        {1, 1, -1, -1, -1, -1},    // input
+        {1, 1, -1, -1, -1, -1},    // include
+        {1, 1, -1, -1, -1, -1},    // newcommand
+        {1, 1, -1, -1, -1, -1},    // renewcommand
+        {1, 1, -1, -1, -1, -1},    // usepackage
+        {0, -1, -1, -1, -1, -1},   // printindex
+        {0, -1, -1, -1, -1, -1},   // printbibliography
+        {4, 4, -1, -1, -1, -1},    // begin verbatim
+        {-1, -1, -1, -1, 0, -1},   // end verbatim
+        {-1, -1, -1, -1, 4, 5},    // verbatim text
+        {5, 5, -1, -1, -1, -1},    // verb
+        {-1, -1, 2, -1, -1, -1},   // argument
+        {-1, -1, -1, 3, -1, -1},   // optional argument
+        {-1, 1, -1, -1, -1, -1},   // *
+        {0, 2, 2, 3, -1, -1},      // {
+        {0, 0, 2, 3, -1, -1},      // }
+        {0, 3, -1, 3, -1, -1},     // [
+        {0, 0, -1, 3, -1, -1},     // ]
+        {1, 1, 2, 3, -1, -1},      // command word
+        {0, 0, 2, 3, -1, -1},      // command symbol
+        {0, 0, 2, 3, -1, -1},      // command space
+        {0, 0, -1, -1, -1, -1},    // word
+        {0, 1, -1, -1, -1, -1},    // skipped area
+        {0, 1, -1, -1, -1, -1},    // task comment
+        {0, 1, -1, -1, -1, -1}     // comment line
+    };
+
+    private static final State[] STATES = { State.NORMAL, State.COMCAPT,
+        State.BLOCKCAPT, State.OPTCAPT, State.VERBATIM, State.VERB };
+
+    /**
+     * The automaton of the generated lexer, read from the same file
+     */
+    private static int[][][][] gotoTable;
+    private static int[][] accept;
+
+    /**
+     * The number of slots in the cache of short token texts and the length
+     * of the longest text kept in it
+     */
+    private static final int TEXT_CACHE_SIZE = 512;
+    private static final int MAX_CACHED_LENGTH = 24;
+
+    private final CharSequence input;
+    private final int length;
+
+    // The scanning position
+    private int index;
+    private int line;
+    private int pos;
+    private boolean cr;
+
+    // The range and the position of the last scanned token
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenLine;
+    private int tokenPos;
+
+    /**
+     * The texts of the last short tokens, so that the repeating words,
+     * commands and whitespace share their strings
+     */
+    private final String[] textCache = new String[TEXT_CACHE_SIZE];
+
     /**
      * Counter for braces
      */
     private int count;
-    
-    private Token argStart;
-    //private Token verbStart;
-    private StringBuffer text;
-    
+
+    /**
+     * Whether an argument is being captured and its position
+     */
+    private boolean capturing;
+    private int argLine, argPos;
+
+    /**
+     * The text of the argument or verbatim being captured, reused for all
+     * of them
+     */
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * Terminator char for \verb, -1 if it hasn't been read yet
+     */
+    private int startChar = -1;
+    private int startLine, startPos;
+
     /**
-     * Terminator char for \verb
+     * The command that began the verbatim environment
      */
-    private char startChar;
-    
+    private String verbatimStart;
     private int vline, vpos;
-    
+
     private HashSet<String> defCommands;
     private boolean commandDef;
-    
+
     /**
-     * Creates a new lexer.
-     * 
-     * @param in The reader to read the character stream from
+     * Creates a new lexer that reads the given characters in place.
+     *
+     * @param input The characters to tokenize
      */
-    public LatexLexer(PushbackReader in) {
-        super(in);
+    public LatexLexer(CharSequence input) {
+        super(null);
+        this.input = input;
+        this.length = input.length();
         defCommands = new HashSet<String>();
         commandDef = false;
     }
-    
-    /**
-     * We define a filter that recognizes braced strings and verbatims
-     */
-    protected void filter() throws LexerException {
-        
-        if (state.equals(State.COMCAPT)) {
-//            if (token instanceof TCword) {
-//                System.out.println(token.getText().substring(1));
-//                System.out.println(defCommands.contains(token.getText().substring(1)));
-//            }
-            if (token instanceof TCnew) {
+
+    /**
+     * Scans the input until there is a token to give to the parser.
+     */
+    protected Token getToken() throws LexerException {
+        while (true) {
+            Token t = filter(scan());
+            if (t != null) {
+                return t;
+            }
+        }
+    }
+
+    /**
+     * Scans the next token and changes the state the way the grammar
+     * defines. The range and the position of the token are stored in
+     * the fields of this lexer.
+     *
+     * @return The kind of the token, <code>EOF_KIND</code> at the end
+     *  of the input
+     * @throws LexerException If the input doesn't match any token
+     */
+    private int scan() throws LexerException {
+        int dfaState = 0;
+
+        int start = index;
+        int startPos = pos;
+        int startLine = line;
+
+        int acceptToken = -1;
+        int acceptEnd = -1;
+        int acceptPos = -1;
+        int acceptLine = -1;
+
+        int[][][] stateTable = gotoTable[state.id()];
+        int[] stateAccept = accept[state.id()];
+
+        while (true) {
+            if (index < length) {
+                char c = input.charAt(index++);
+                switch (c) {
+                case '\n':
+                    if (cr) {
+                        cr = false;
+                    } else {
+                        line++;
+                        pos = 0;
+                    }
+                    break;
+                case '\r':
+                    line++;
+                    pos = 0;
+                    cr = true;
+                    break;
+                default:
+                    pos++;
+                    cr = false;
+                    break;
+                }
+
+                do {
+                    int[][] ranges = stateTable[dfaState < -1 ? -2 - dfaState : dfaState];
+                    dfaState = -1;
+                    int low = 0;
+                    int high = ranges.length - 1;
+                    while (low <= high) {
+                        int middle = (low + high) >>> 1;
+                        int[] range = ranges[middle];
+                        if (c < range[0]) {
+                            high = middle - 1;
+                        } else if (c > range[1]) {
+                            low = middle + 1;
+                        } else {
+                            dfaState = range[2];
+                            break;
+                        }
+                    }
+                } while (dfaState < -1);
+            } else {
+                dfaState = -1;
+            }
+
+            if (dfaState >= 0) {
+                if (stateAccept[dfaState] != -1) {
+                    acceptToken = stateAccept[dfaState];
+                    acceptEnd = index;
+                    acceptPos = pos;
+                    acceptLine = line;
+                }
+            } else {
+                tokenStart = start;
+                tokenLine = startLine + 1;
+                tokenPos = startPos + 1;
+                if (acceptToken != -1) {
+                    tokenEnd = acceptEnd;
+                    index = acceptEnd;
+                    pos = acceptPos;
+                    line = acceptLine;
+                    int next = TRANSITIONS[acceptToken][state.id()];
+                    if (next != -1) {
+                        state = STATES[next];
+                    }
+                    return acceptToken;
+                } else if (index > start) {
+                    throw new LexerException("[" + tokenLine + "," + tokenPos
+                            + "] Unknown token: " + input.subSequence(start, index));
+                } else {
+                    tokenEnd = start;
+                    return EOF_KIND;
+                }
+            }
+        }
+    }
+
+    /**
+     * Recognizes braced strings and verbatims.
+     *
+     * @param kind The kind of the scanned token
+     * @return The token to give to the parser or <code>null</code> if the
+     *  token is a part of a captured text
+     * @throws LexerException If the input ends in the middle of a captured
+     *  text
+     */
+    private Token filter(int kind) throws LexerException {
+
+        if (state == State.COMCAPT) {
+            if (kind == CNEW) {
                 commandDef = true;
-            } else if (token instanceof TCword && !commandDef 
-                    && !defCommands.contains(token.getText().substring(1))) {
+            } else if (kind == CWORD && !commandDef
+                    && !defCommands.contains(input.subSequence(tokenStart + 1, tokenEnd).toString())) {
                 state = State.NORMAL;
-                return;
             }
 
         // if we're to capture a brace-block
-        } else if (state.equals(State.BLOCKCAPT)) {
-            
+        } else if (state == State.BLOCKCAPT) {
+
             // if we are just entering this state
-            if (argStart == null) {                
-                argStart = token;
-                text = new StringBuffer("");
+            if (!capturing) {
+                startArgument();
                 count = 1;
-                token = null; // continue to scan the input.
-            } else {
-                if (token instanceof TLBrace)
-                    count++;
-                else if (token instanceof TRBrace)
-                    count--;
-                else if (token instanceof EOF) {
-                    throw new LexerException("[" + argStart.getLine() + 
-                            "," + (argStart.getPos() - 1) + "] There's a } missing: unexpected end of file");
-                }
-                if (count != 0) {
-                    // accumulate the string and continue to scan the input.
-                    if (token instanceof TWhitespace)
-                        text.append(" ");
-                    else
-                        text.append(token.getText());
-                    token = null;
-                } else {
-                    TArgument targ = new TArgument(text.toString(),
-                            argStart.getLine(),
-                            argStart.getPos());
-                    // emit the string
-                    token = targ;
-                    state = State.COMCAPT;
-                    argStart = null;
-                    commandDef = false;
-                }
+                return null; // continue to scan the input.
+            }
+            if (kind == LBRACE)
+                count++;
+            else if (kind == RBRACE)
+                count--;
+            else if (kind == EOF_KIND) {
+                throw new LexerException("[" + argLine +
+                        "," + (argPos - 1) + "] There's a } missing: unexpected end of file");
             }
+            if (count != 0) {
+                // accumulate the string and continue to scan the input.
+                appendArgument(kind);
+                return null;
+            }
+            // emit the string
+            endArgument();
+            return new TArgument(text.toString(), argLine, argPos);
+
             // Capture optional argument
-        } else if (state.equals(State.OPTCAPT)) {
-            if (argStart == null) {
-                argStart = token;
-                text = new StringBuffer("");
+        } else if (state == State.OPTCAPT) {
+            if (!capturing) {
+                startArgument();
                 count = 0;
-                token = null; // continue to scan the input.
-            } else {
-                if (token instanceof TLBrace)
-                    count++;
-                else if (token instanceof TRBrace)
-                    count--;
-                else if (token instanceof EOF) {
-                    throw new LexerException("[" + argStart.getLine() + 
-                            "," + argStart.getPos() + "] There's a } or a ] missing: unexpected end of file");
-                }
-                
-                if (count != 0 || !(token instanceof TRBracket)) {
-                    // accumulate the string and continue to scan the input.
-                    if (token instanceof TWhitespace)
-                        text.append(" ");
-                    else
-                        text.append(token.getText());
-                    token = null;
-                } else {
-                    TOptargument tsl = new TOptargument(text.toString(),
-                            argStart.getLine(),
-                            argStart.getPos());
-                    // emit the string
-                    token = tsl;
-                    state = State.COMCAPT;
-                    argStart = null;
-                    commandDef = false;
-                }
+                return null; // continue to scan the input.
+            }
+            if (kind == LBRACE)
+                count++;
+            else if (kind == RBRACE)
+                count--;
+            else if (kind == EOF_KIND) {
+                throw new LexerException("[" + argLine +
+                        "," + argPos + "] There's a } or a ] missing: unexpected end of file");
             }
-        } else if (state.equals(State.VERBATIM)) {
+            if (count != 0 || kind != RBRACKET) {
+                // accumulate the string and continue to scan the input.
+                appendArgument(kind);
+                return null;
+            }
+            // emit the string
+            endArgument();
+            return new TOptargument(text.toString(), argLine, argPos);
+
+        } else if (state == State.VERBATIM) {
             // we store some contents to be able to code fold
-            if (token instanceof TBverbatim) {
-                argStart = token;
-                text = new StringBuffer(token.getText());
-                vline = token.getLine();
-                vpos = token.getPos();
-            } else if (token instanceof TVtext || token instanceof TWhitespace) {
-                text.append(token.getText());
-                token = null;
-            } else if (token instanceof EOF) {
-                throw new LexerException("[" + vline + "," + vpos 
+            if (kind == BVERBATIM) {
+                Token token = newToken(kind);
+                verbatimStart = token.getText();
+                text.setLength(0);
+                text.append(verbatimStart);
+                vline = tokenLine;
+                vpos = tokenPos;
+                return token;
+            } else if (kind == VTEXT || kind == WHITESPACE) {
+                text.append(input, tokenStart, tokenEnd);
+                return null;
+            } else if (kind == EOF_KIND) {
+                throw new LexerException("[" + vline + "," + vpos
                         + "] The verbatim environment isn't closed: unexpected end of file");
             }
-        } else if (state.equals(State.VERB)) {
-            if (token instanceof TVtext) {
-                if (argStart == null) {
-                    argStart = token;
-                    startChar = token.getText().charAt(0);
-                } else {
-                    if (startChar == token.getText().charAt(0)) {
-                        state = State.NORMAL;
-                        startChar = '\0';
-                        argStart = null;
-                    }
+        } else if (state == State.VERB) {
+            if (kind == VTEXT) {
+                char c = input.charAt(tokenStart);
+                if (startChar == -1) {
+                    startChar = c;
+                    startLine = tokenLine;
+                    startPos = tokenPos;
+                } else if (startChar == c) {
+                    state = State.NORMAL;
+                    startChar = -1;
                 }
-                token = null;
-            } else if (token instanceof EOF) {
-                throw new LexerException("[" + argStart.getLine() + 
-                        "," + argStart.getPos() + "] The verb-command isn't closed: unexpected end of file");
-            }
-        } else if (state.equals(State.NORMAL)) {
-            if (token instanceof TEverbatim) {
-                String startCommand = argStart.getText().substring(argStart.getText().indexOf("{"));
-                String endCommand = token.getText().substring(token.getText().indexOf("{"));
+                return null;
+            } else if (kind == EOF_KIND) {
+                if (startChar == -1) {
+                    startLine = tokenLine;
+                    startPos = tokenPos;
+                }
+                throw new LexerException("[" + startLine +
+                        "," + startPos + "] The verb-command isn't closed: unexpected end of file");
+            }
+        } else if (state == State.NORMAL) {
+            if (kind == EVERBATIM) {
+                String endText = tokenText();
+                String startCommand = verbatimStart.substring(verbatimStart.indexOf('{'));
+                String endCommand = endText.substring(endText.indexOf('{'));
                 if (!startCommand.equals(endCommand)) {
-                    throw new LexerException("[" + vline + "," + vpos 
-                            + "] The verbatim environment isn't closed with the correct command");                    
+                    throw new LexerException("[" + vline + "," + vpos
+                            + "] The verbatim environment isn't closed with the correct command");
                 }
-                text.append(token.getText());
-                token = new TVtext(text.toString(), vline, vpos);
-                argStart = null;
+                text.append(endText);
+                verbatimStart = null;
+                return new TVtext(text.toString(), vline, vpos);
             }
         }
+        return newToken(kind);
     }
-    
+
+    /**
+     * Starts capturing an argument at the opening brace or bracket.
+     */
+    private void startArgument() {
+        capturing = true;
+        argLine = tokenLine;
+        argPos = tokenPos;
+        text.setLength(0);
+    }
+
+    /**
+     * Appends the last token to the captured argument, whitespace is
+     * collapsed to a single space.
+     *
+     * @param kind The kind of the token
+     */
+    private void appendArgument(int kind) {
+        if (kind == WHITESPACE)
+            text.append(' ');
+        else
+            text.append(input, tokenStart, tokenEnd);
+    }
+
+    /**
+     * Ends capturing an argument at the closing brace or bracket.
+     */
+    private void endArgument() {
+        state = State.COMCAPT;
+        capturing = false;
+        commandDef = false;
+    }
+
+    /**
+     * Returns the text of the last token. The texts of short tokens are
+     * taken from a cache that is keyed by their content, so a repeated
+     * word isn't copied again.
+     *
+     * @return The text of the token
+     */
+    private String tokenText() {
+        int len = tokenEnd - tokenStart;
+        if (len > MAX_CACHED_LENGTH) {
+            return input.subSequence(tokenStart, tokenEnd).toString();
+        }
+        int hash = 0;
+        for (int i = tokenStart; i < tokenEnd; i++) {
+            hash = 31 * hash + input.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & (TEXT_CACHE_SIZE - 1);
+        String cached = textCache[slot];
+        if (cached != null && cached.length() == len) {
+            int i = 0;
+            while (i < len && cached.charAt(i) == input.charAt(tokenStart + i)) {
+                i++;
+            }
+            if (i == len) {
+                return cached;
+            }
+        }
+        cached = input.subSequence(tokenStart, tokenEnd).toString();
+        textCache[slot] = cached;
+        return cached;
+    }
+
+    /**
+     * Creates the parser token for the last scanned token.
+     *
+     * @param kind The kind of the token
+     * @return The token
+     */
+    private Token newToken(int kind) {
+        int line = tokenLine;
+        int pos = tokenPos;
+        switch (kind) {
+        case EOF_KIND: return new EOF(line, pos);
+        case 0: return new TWhitespace(tokenText(), line, pos);
+        case 1: return new TCpart(line, pos);
+        case 2: return new TCchapter(line, pos);
+        case 3: return new TCsection(line, pos);
+        case 4: return new TCssection(line, pos);
+        case 5: return new TCsssection(line, pos);
+        case 6: return new TCparagraph(line, pos);
+        case 7: return new TCbib(tokenText(), line, pos);
+        case 8: return new TCbibstyle(line, pos);
+        case 9: return new TClabel(line, pos);
+        case 10: return new TChref(line, pos);
+        case 11: return new TCref(tokenText(), line, pos);
+        case 12: return new TCcite(tokenText(), line, pos);
+        case 13: return new TCbegin(line, pos);
+        case 14: return new TCend(line, pos);
+        case 15: return new TCinput(line, pos);
+        case 16: return new TCinclude(line, pos);
+        case 17: return new TCnew(tokenText(), line, pos);
+        case 18: return new TCrenew(line, pos);
+        case 19: return new TCpackage(line, pos);
+        case 20: return new TCpindex(line, pos);
+        case 21: return new TCpbib(tokenText(), line, pos);
+        case 22: return new TBverbatim(tokenText(), line, pos);
+        case 23: return new TEverbatim(tokenText(), line, pos);
+        case 24: return new TVtext(tokenText(), line, pos);
+        case 25: return new TCverb(tokenText(), line, pos);
+        case 26: return new TArgument(tokenText(), line, pos);
+        case 27: return new TOptargument(tokenText(), line, pos);
+        case 28: return new TStar(line, pos);
+        case 29: return new TLBrace(line, pos);
+        case 30: return new TRBrace(line, pos);
+        case 31: return new TLBracket(line, pos);
+        case 32: return new TRBracket(line, pos);
+        case 33: return new TCword(tokenText(), line, pos);
+        case 34: return new TCsymbol(tokenText(), line, pos);
+        case 35: return new TCspace(tokenText(), line, pos);
+        case 36: return new TWord(tokenText(), line, pos);
+        case 37: return new TSkippedArea(tokenText(), line, pos);
+        case 38: return new TTaskcomment(tokenText(), line, pos);
+        case 39: return new TCommentline(tokenText(), line, pos);
+        default: throw new IllegalStateException("Unknown token kind " + kind);
+        }
+    }
+
     public void registerCommand(String command) {
-//        System.out.println("---------------------");
-//        System.out.println(command);
-//        System.out.println("---------------------");
         defCommands.add(command);
     }
+
+    static {
+        try {
+            DataInputStream s = new DataInputStream(new BufferedInputStream(
+                    Lexer.class.getResourceAsStream("lexer.dat")));
+            try {
+                gotoTable = new int[s.readInt()][][][];
+                for (int i = 0; i < gotoTable.length; i++) {
+                    gotoTable[i] = new int[s.readInt()][][];
+                    for (int j = 0; j < gotoTable[i].length; j++) {
+                        gotoTable[i][j] = new int[s.readInt()][3];
+                        for (int k = 0; k < gotoTable[i][j].length; k++) {
+                            for (int l = 0; l < 3; l++) {
+                                gotoTable[i][j][k][l] = s.readInt();
+                            }
+                        }
+                    }
+                }
+                accept = new int[s.readInt()][];
+                for (int i = 0; i < accept.length; i++) {
+                    accept[i] = new int[s.readInt()];
+                    for (int j = 0; j < accept[i].length; j++) {
+                        accept[i][j] = s.readInt();
+                    }
+                }
+            } finally {
+                s.close();
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("The file \"lexer.dat\" is either missing or corrupted.");
+        }
+    }
 }
@@ -127,9 +127,85 @@ public class LatexParser {
         }
     }
 
+    /**
+     * Access to the line of an item extracted by the parser, used when
+     * splicing the results of parsing a fragment of the document.
+     */
+    private static abstract class LineAccess<E> {
+        /**
+         * @param item The item
+         * @return The line the item occurs on
+         */
+        abstract int getLine(E item);
+
+        /**
+         * @param item The item
+         * @param delta The number of lines to move the item by
+         * @return The item moved by <code>delta</code> lines
+         */
+        abstract E move(E item, int delta);
+    }
+
+    private static final LineAccess<ReferenceEntry> LABEL_LINES = new LineAccess<ReferenceEntry>() {
+        int getLine(ReferenceEntry item) {
+            return item.startLine;
+        }
+        ReferenceEntry move(ReferenceEntry item, int delta) {
+            // the entries of the previous parse may still be in use
+            ReferenceEntry moved = (ReferenceEntry) item.copy();
+            moved.startLine += delta;
+            return moved;
+        }
+    };
+
+    private static final LineAccess<TexCommandEntry> COMMAND_LINES = new LineAccess<TexCommandEntry>() {
+        int getLine(TexCommandEntry item) {
+            return item.startLine;
+        }
+        TexCommandEntry move(TexCommandEntry item, int delta) {
+            TexCommandEntry moved = new TexCommandEntry(item);
+            moved.startLine = item.startLine + delta;
+            moved.position = item.position;
+            moved.fileName = item.fileName;
+            return moved;
+        }
+    };
+
+    private static final LineAccess<DocumentReference> REFERENCE_LINES = new LineAccess<DocumentReference>() {
+        int getLine(DocumentReference item) {
+            return item.getLine();
+        }
+        DocumentReference move(DocumentReference item, int delta) {
+            return new DocumentReference(item.getKey(), item.getLine() + delta,
+                    item.getPos(), item.getLength());
+        }
+    };
+
+    private static final LineAccess<ParseErrorMessage> MESSAGE_LINES = new LineAccess<ParseErrorMessage>() {
+        int getLine(ParseErrorMessage item) {
+            return item.getLine();
+        }
+        ParseErrorMessage move(ParseErrorMessage item, int delta) {
+            return new ParseErrorMessage(item.getLine() + delta, item.getPos(),
+                    item.getLength(), item.getMsg(), item.getSeverity());
+        }
+    };
+
+    private static final LineAccess<OutlineNode> NODE_LINES = new LineAccess<OutlineNode>() {
+        int getLine(OutlineNode item) {
+            return item.getBeginLine();
+        }
+        OutlineNode move(OutlineNode item, int delta) {
+            // the nodes are moved when the outline tree is traversed
+            return item;
+        }
+    };
+
     private List<ReferenceEntry> labels;
     private List<DocumentReference> cites;
     private List<DocumentReference> refs;
+    private List<DocumentReference> envBegins;
+    private List<DocumentReference> envEnds;
     private ArrayList<TexCommandEntry> commands;
     private List<ParseErrorMessage> tasks;
     
@@ -157,6 +233,8 @@ public class LatexParser {
         this.labels = new ArrayList<ReferenceEntry>();
         this.cites = new ArrayList<DocumentReference>();
         this.refs = new ArrayList<DocumentReference>();
+        this.envBegins = new ArrayList<DocumentReference>();
+        this.envEnds = new ArrayList<DocumentReference>();
         this.commands = new ArrayList<TexCommandEntry>();
         this.tasks = new ArrayList<ParseErrorMessage>();
         
@@ -268,6 +346,41 @@ public class LatexParser {
         return parentLevel;
     }
 
+    /**
+     * Checks whether the definition of the given user-defined command
+     * contains a sectioning or label command, and if so, registers the
+     * command as one of that type.
+     *
+     * @param sectioning map from command names to node types
+     * @param command the user-defined command
+     */
+    private static void addSectioningCommand(final HashMap<String, Integer> sectioning,
+            final TexCommandEntry command) {
+        if (command.info == null) {
+            return;
+        }
+        if (PART_RE.matcher(command.info).find())
+            sectioning.put("\\" + command.key, OutlineNode.TYPE_PART);
+        //else if (command.info.indexOf("\\chapter") != -1)
+        else if (CHAPTER_RE.matcher(command.info).find())
+            sectioning.put("\\" + command.key, OutlineNode.TYPE_CHAPTER);
+        //else if (command.info.indexOf("\\section") != -1)
+        else if (SECTION_RE.matcher(command.info).find())
+            sectioning.put("\\" + command.key, OutlineNode.TYPE_SECTION);
+        //else if (command.info.indexOf("\\subsection") != -1)
+        else if (SSECTION_RE.matcher(command.info).find())
+            sectioning.put("\\" + command.key, OutlineNode.TYPE_SUBSECTION);
+        //else if (command.info.indexOf("\\subsubsection") != -1)
+        else if (SSSECTION_RE.matcher(command.info).find())
+            sectioning.put("\\" + command.key, OutlineNode.TYPE_SUBSUBSECTION);
+        //else if (command.info.indexOf("\\paragraph") != -1)
+        else if (PARAGRAPH_RE.matcher(command.info).find())
+            sectioning.put("\\" + command.key, OutlineNode.TYPE_PARAGRAPH);
+        //else if (command.info.indexOf("\\label") != -1)
+        else if (LABEL_RE.matcher(command.info).find())  
+            sectioning.put("\\" + command.key, LatexParser.TYPE_LABEL);
+    }
+
     /**
      * Evaluates package loading options for biblatex and locates the backend
      * option.
@@ -332,6 +445,29 @@ public class LatexParser {
     public void parse(final LatexLexer lexer,
             final OutlineNode preamble,
             final boolean checkForMissingSections)
+    throws LexerException, IOException {
+        parse(lexer, preamble, checkForMissingSections, null);
+    }
+
+    /**
+     * Parses a LaTeX document or a fragment of it. Uses the given lexer's
+     * <code>next()</code> method to receive tokens that are processed.
+     * 
+     * The given commands are treated as if they had been defined before
+     * the start of the input, which allows parsing a fragment that uses
+     * user-defined sectioning or label commands.
+     * 
+     * @param lexer The lexer to use for extracting the document tokens
+     * @param preamble An <code>OutlineNode</code> containing the preamble, null if there is no preamble
+     * @param checkForMissingSections
+     * @param definedCommands Commands defined before the input, or null
+     * @throws LexerException If the given lexer cannot tokenize the document
+     * @throws IOException If the document is unreadable
+     */
+    public void parse(final LatexLexer lexer,
+            final OutlineNode preamble,
+            final boolean checkForMissingSections,
+            final List<TexCommandEntry> definedCommands)
     throws LexerException, IOException {
         initializeDatastructs();
         StackUnsynch<OutlineNode> blocks = new StackUnsynch<OutlineNode>();
@@ -349,6 +485,12 @@ public class LatexParser {
         int nodeType;
         
         HashMap<String, Integer> sectioning = new HashMap<String, Integer>();
+        if (definedCommands != null) {
+            for (TexCommandEntry command : definedCommands) {
+                lexer.registerCommand(command.key);
+                addSectioningCommand(sectioning, command);
+            }
+        }
         
         if (preamble != null) {
             outlineTree.add(preamble);
@@ -403,6 +545,9 @@ public class LatexParser {
                         }
                         
                     } else if (prevToken instanceof TCbegin) { // \begin{...}
+                        this.envBegins.add(new DocumentReference(t.getText(),
+                                prevToken.getLine(), prevToken.getPos(),
+                                prevToken.getText().length() + accumulatedLength + t.getText().length()));
                         OutlineNode on = new OutlineNode(t.getText(),
                                 OutlineNode.TYPE_ENVIRONMENT,
                                 t.getLine(), prevToken.getPos(),
@@ -425,6 +570,9 @@ public class LatexParser {
                         }
                         
                     } else if (prevToken instanceof TCend) { // \end{...}
+                        this.envEnds.add(new DocumentReference(t.getText(),
+                                prevToken.getLine(), prevToken.getPos(),
+                                prevToken.getText().length() + accumulatedLength + t.getText().length()));
                         int endLine = t.getLine();
                         OutlineNode prev = null;
 
@@ -631,26 +779,7 @@ public class LatexParser {
                 if (t instanceof TArgument) {
                     currentCommand.info = t.getText();
                     commands.add(currentCommand);
-                    if (PART_RE.matcher(currentCommand.info).find())
-                        sectioning.put("\\" + currentCommand.key, OutlineNode.TYPE_PART);
-                    //else if (currentCommand.info.indexOf("\\chapter") != -1)
-                    else if (CHAPTER_RE.matcher(currentCommand.info).find())
-                        sectioning.put("\\" + currentCommand.key, OutlineNode.TYPE_CHAPTER);
-                    //else if (currentCommand.info.indexOf("\\section") != -1)
-                    else if (SECTION_RE.matcher(currentCommand.info).find())
-                        sectioning.put("\\" + currentCommand.key, OutlineNode.TYPE_SECTION);
-                    //else if (currentCommand.info.indexOf("\\subsection") != -1)
-                    else if (SSECTION_RE.matcher(currentCommand.info).find())
-                        sectioning.put("\\" + currentCommand.key, OutlineNode.TYPE_SUBSECTION);
-                    //else if (currentCommand.info.indexOf("\\subsubsection") != -1)
-                    else if (SSSECTION_RE.matcher(currentCommand.info).find())
-                        sectioning.put("\\" + currentCommand.key, OutlineNode.TYPE_SUBSUBSECTION);
-                    //else if (currentCommand.info.indexOf("\\paragraph") != -1)
-                    else if (PARAGRAPH_RE.matcher(currentCommand.info).find())
-                        sectioning.put("\\" + currentCommand.key, OutlineNode.TYPE_PARAGRAPH);
-                    //else if (currentCommand.info.indexOf("\\label") != -1)
-                    else if (LABEL_RE.matcher(currentCommand.info).find())  
-                        sectioning.put("\\" + currentCommand.key, LatexParser.TYPE_LABEL);
+                    addSectioningCommand(sectioning, currentCommand);
 
                     argCount = 0;
                     expectArg2 = false;
@@ -807,6 +936,161 @@ public class LatexParser {
         }
     }
     
+    /**
+     * Replaces the data extracted from the lines of the given outline node
+     * with the data extracted by another parser from the new text of those
+     * lines. The data after the node is moved by the number of lines the
+     * node grew or shrank.
+     * 
+     * The fragment parser must have parsed the text of the node starting
+     * from the first line of the node, and its outline tree must consist of
+     * exactly one node corresponding to <code>unit</code>.
+     * 
+     * @param unit The node of the outline tree whose lines were changed
+     * @param newEndLine The end line (exclusive) of the node after the change
+     * @param fragment The parser that parsed the new text of the node
+     */
+    void spliceFragment(final OutlineNode unit, final int newEndLine,
+            final LatexParser fragment) {
+        final int beginLine = unit.getBeginLine();
+        final int endLine = unit.getEndLine();
+        final int offset = beginLine - 1;
+        final int delta = newEndLine - endLine;
+
+        // the line numbers of the fragment start from the first line of the unit
+        OutlineNode newUnit = fragment.outlineTree.get(0);
+        moveNodes(fragment.outlineTree, 1, offset);
+        clampEndLines(newUnit, newEndLine);
+
+        labels = spliceList(labels, fragment.labels, beginLine, endLine, offset, delta, LABEL_LINES);
+        clearLabelInfos(labels, beginLine, newEndLine);
+        cites = spliceList(cites, fragment.cites, beginLine, endLine, offset, delta, REFERENCE_LINES);
+        refs = spliceList(refs, fragment.refs, beginLine, endLine, offset, delta, REFERENCE_LINES);
+        envBegins = spliceList(envBegins, fragment.envBegins, beginLine, endLine, offset, delta, REFERENCE_LINES);
+        envEnds = spliceList(envEnds, fragment.envEnds, beginLine, endLine, offset, delta, REFERENCE_LINES);
+        commands = spliceList(commands, fragment.commands, beginLine, endLine, offset, delta, COMMAND_LINES);
+        tasks = spliceList(tasks, fragment.tasks, beginLine, endLine, offset, delta, MESSAGE_LINES);
+        errors = spliceList(errors, fragment.errors, beginLine, endLine, offset, delta, MESSAGE_LINES);
+        // the inputs are nodes of the outline tree and are moved along with it
+        inputs = spliceList(inputs, fragment.inputs, beginLine, endLine, 0, 0, NODE_LINES);
+
+        moveNodes(outlineTree, endLine, delta);
+        if (documentEnv != null && documentEnv.getEndLine() >= endLine) {
+            documentEnv.setEndLine(documentEnv.getEndLine() + delta);
+        }
+
+        OutlineNode parent = unit.getParent();
+        List<OutlineNode> siblings = parent != null ? parent.getChildren() : outlineTree;
+        siblings.set(siblings.indexOf(unit), newUnit);
+        newUnit.setParent(parent);
+    }
+
+    /**
+     * Clears the infos of the labels whose info may contain lines of the
+     * reparsed unit, so that they are read again from the new text. The
+     * info of a label holds the lines around it.
+     * 
+     * @param labels The spliced labels, in document order
+     * @param beginLine The first line of the unit
+     * @param endLine The line after the unit, after the change
+     */
+    private static void clearLabelInfos(final List<ReferenceEntry> labels,
+            final int beginLine, final int endLine) {
+        final int margin = ReferenceEntry.LABEL_INFO_LINES + 1;
+        for (int i = 0; i < labels.size(); i++) {
+            ReferenceEntry label = labels.get(i);
+            if (label.startLine >= endLine + margin) {
+                break;
+            }
+            if (label.info != null && label.startLine >= beginLine - margin) {
+                // the entries of the previous parse may still be in use
+                ReferenceEntry cleared = (ReferenceEntry) label.copy();
+                cleared.info = null;
+                labels.set(i, cleared);
+            }
+        }
+    }
+
+    /**
+     * Builds a new list of items where the items between <code>beginLine</code>
+     * (inclusive) and <code>endLine</code> (exclusive) are replaced with the
+     * given items and the items after them are moved. Both lists are assumed
+     * to be in document order.
+     * 
+     * @param items The current items
+     * @param newItems The items replacing those on the changed lines
+     * @param beginLine The first changed line
+     * @param endLine The line after the last changed line
+     * @param offset The number of lines to move the new items by
+     * @param delta The number of lines to move the items after the change by
+     * @param access Access to the lines of the items
+     * @return The spliced list
+     */
+    private static <E> ArrayList<E> spliceList(final List<E> items, final List<E> newItems,
+            final int beginLine, final int endLine, final int offset, final int delta,
+            final LineAccess<E> access) {
+        ArrayList<E> result = new ArrayList<E>(items.size() + newItems.size());
+        int i = 0;
+        for (; i < items.size() && access.getLine(items.get(i)) < beginLine; i++) {
+            result.add(items.get(i));
+        }
+        for (E item : newItems) {
+            result.add(offset != 0 ? access.move(item, offset) : item);
+        }
+        for (; i < items.size(); i++) {
+            E item = items.get(i);
+            if (access.getLine(item) >= endLine) {
+                result.add(delta != 0 ? access.move(item, delta) : item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves the lines of the given nodes and their children that are on or
+     * after the given line.
+     * 
+     * @param nodes The nodes to move
+     * @param fromLine The first line to move
+     * @param delta The number of lines to move by
+     */
+    private static void moveNodes(final List<OutlineNode> nodes, final int fromLine,
+            final int delta) {
+        if (delta == 0) {
+            return;
+        }
+        for (OutlineNode node : nodes) {
+            if (node.getBeginLine() >= fromLine) {
+                node.setBeginLine(node.getBeginLine() + delta);
+            }
+            if (node.getEndLine() >= fromLine) {
+                node.setEndLine(node.getEndLine() + delta);
+            }
+            if (node.getChildren() != null) {
+                moveNodes(node.getChildren(), fromLine, delta);
+            }
+        }
+    }
+
+    /**
+     * Ensures that the given node and its children do not end after the
+     * given line. Nodes closed by the end of a fragment would otherwise
+     * extend past the position where the following node closes them.
+     * 
+     * @param node The node
+     * @param endLine The line the node ends on at the latest
+     */
+    private static void clampEndLines(final OutlineNode node, final int endLine) {
+        if (node.getEndLine() > endLine) {
+            node.setEndLine(endLine);
+        }
+        if (node.getChildren() != null) {
+            for (OutlineNode child : node.getChildren()) {
+                clampEndLines(child, endLine);
+            }
+        }
+    }
+
     /**
      * @return The labels defined in this document
      */
@@ -827,6 +1111,20 @@ public class LatexParser {
     public List<DocumentReference> getRefs() {
         return this.refs;
     }
+
+    /**
+     * @return The \begin commands, the positions are those of the commands
+     */
+    public List<DocumentReference> getEnvironmentBegins() {
+        return this.envBegins;
+    }
+
+    /**
+     * @return The \end commands, the positions are those of the commands
+     */
+    public List<DocumentReference> getEnvironmentEnds() {
+        return this.envEnds;
+    }
     
     /**
      * @return The bibliography files to use.
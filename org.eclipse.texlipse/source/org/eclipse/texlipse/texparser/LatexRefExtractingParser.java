@@ -11,8 +11,6 @@
 package org.eclipse.texlipse.texparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -120,7 +118,7 @@ public class LatexRefExtractingParser {
      */
     public void parse(String input) throws IOException {
         this.extractPreamble(input);
-        LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
+        LatexLexer lexer = new LatexLexer(input);
         boolean expectArg = false;
         boolean expectArg2 = false;
         Token prevToken = null;
@@ -129,6 +127,8 @@ public class LatexRefExtractingParser {
         //CommandEntry currentCommand = null;
         TexCommandEntry currentCommand = null;
         int argCount = 0;
+        // the starts of the lines for the infos of the labels
+        int[] lineStarts = null;
         
         try {
             for (Token t = lexer.next(); !(t instanceof EOF); t = lexer.next()) { 
@@ -139,7 +139,10 @@ public class LatexRefExtractingParser {
                             ReferenceEntry l = new ReferenceEntry(t.getText());
                             l.setPosition(t.getPos(), t.getText().length());
                             l.startLine = t.getLine();
-                            l.setLabelInfo(input);
+                            if (lineStarts == null) {
+                                lineStarts = ReferenceEntry.getLineStarts(input);
+                            }
+                            l.setLabelInfo(input, lineStarts);
                             this.labels.add(l);
                         } else if (prevToken instanceof TCbib) {
                             String[] sBibs = t.getText().split(",");
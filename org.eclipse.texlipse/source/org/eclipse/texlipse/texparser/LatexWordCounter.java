@@ -11,8 +11,6 @@
 package org.eclipse.texlipse.texparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 
 import org.eclipse.texlipse.texparser.lexer.LexerException;
 import org.eclipse.texlipse.texparser.node.EOF;
@@ -60,7 +58,7 @@ public class LatexWordCounter {
      */
     public int countWords() {
         try {
-            LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(selection), 4096));
+            LatexLexer lexer = new LatexLexer(selection);
 
             int words = 0;
             boolean expectArg = false;
@@ -11,12 +11,11 @@
 package org.eclipse.texlipse.texparser;
 
 import java.io.IOException;
-import java.io.PushbackReader;
-import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.core.resources.IMarker;
+import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.texlipse.model.DocumentReference;
@@ -37,6 +36,18 @@ import org.eclipse.texlipse.texparser.lexer.LexerException;
  */
 public class TexParser {
 
+    /**
+     * Commands that affect the parse results of the whole document
+     * rather than only the lines they occur on. Changes to these
+     * require a full parse.
+     */
+    private static final String[] STRUCTURAL_COMMANDS = {
+        "\\documentclass", "\\usepackage", "\\newcommand", "\\providecommand",
+        "\\renewcommand", "\\bibliography", "\\bibliographystyle",
+        "\\addbibresource", "\\addglobalbib", "\\printbibliography",
+        "\\bibbysection", "\\bibbysegment", "\\bibbycategory", "\\printindex"
+    };
+
     private IDocument inputDoc;
     private LatexParser lparser;
 //    private LatexLexer llexer;
@@ -45,6 +56,9 @@ public class TexParser {
     private boolean fatalErrors;
     
     private String preamble;
+    
+    // the line where blocks left open at the end of the document end
+    private int docEndLine;
 
     /**
      * @param input The string representing the document to parse
@@ -148,7 +162,7 @@ public class TexParser {
         
         try {
             // start the parse
-            LatexLexer lexer = new LatexLexer(new PushbackReader(new StringReader(input), 4096));
+            LatexLexer lexer = new LatexLexer(input);
             //LatexLexer lexer = this.getLexer(input); 
             if (this.preamble != null) {
                 OutlineNode on = new OutlineNode("Preamble",
@@ -160,6 +174,7 @@ public class TexParser {
             }
             this.errors = lparser.getErrors();
             this.fatalErrors = lparser.isFatalErrors();
+            this.docEndLine = countLines(input) + 1;
         } catch (LexerException e) {
             // we must parse the lexer exception into a suitable format
             String msg = e.getMessage();
@@ -177,6 +192,190 @@ public class TexParser {
         }
     }
 
+    /**
+     * Parses only the sectioning unit (part, chapter, ..., paragraph) of the
+     * previous parse result that encloses the changed lines and splices the
+     * results into the previous outline tree, labels, references, commands,
+     * tasks and inputs. The data after the unit is moved by the number of
+     * lines the unit grew or shrank.
+     * 
+     * The caller must make sure that the change did not touch commands
+     * that affect the whole document (see {@link #isStructuralChange(String)})
+     * or the balance of braces. This method checks that the unit still
+     * parses without errors into a single node of the same type; if not,
+     * nothing is changed and <code>false</code> is returned.
+     * 
+     * @param firstLine The first changed line, in the lines of the previous parse
+     * @param lastLine The last changed line, in the lines of the previous parse
+     * @param lineDelta The number of lines added (negative if removed) by the change
+     * @return True if the document was parsed, false if a full parse is needed
+     * @throws IOException
+     */
+    public boolean parseChangedLines(int firstLine, int lastLine, int lineDelta)
+    throws IOException {
+        if (errors == null || fatalErrors) {
+            return false;
+        }
+        OutlineNode unit = findSectioningUnit(lparser.getOutlineTree(), firstLine, lastLine);
+        if (unit == null) {
+            return false;
+        }
+        for (OutlineNode parent = unit.getParent(); parent != null; parent = parent.getParent()) {
+            if (parent.getType() == OutlineNode.TYPE_PREAMBLE) {
+                return false;
+            }
+        }
+        int beginLine = unit.getBeginLine();
+        int endLine = unit.getEndLine();
+        for (ParseErrorMessage error : errors) {
+            if (error.getLine() >= beginLine && error.getLine() < endLine) {
+                return false;
+            }
+        }
+        
+        // blocks open at the end of the document end on the last non-whitespace line
+        boolean atEnd = endLine >= docEndLine;
+        int newDocEndLine;
+        String fragment;
+        try {
+            int lastChar = inputDoc.getLength() - 1;
+            while (lastChar >= 0 && Character.isWhitespace(inputDoc.getChar(lastChar)))
+                lastChar--;
+            newDocEndLine = inputDoc.getLineOfOffset(lastChar + 1) + 2;
+            
+            int newEndLine = atEnd ? newDocEndLine : endLine + lineDelta;
+            if (newEndLine <= beginLine) {
+                return false;
+            }
+            int startOffset = inputDoc.getLineOffset(beginLine - 1);
+            int endOffset = newEndLine - 1 < inputDoc.getNumberOfLines()
+                    ? inputDoc.getLineOffset(newEndLine - 1) : inputDoc.getLength();
+            fragment = inputDoc.get(startOffset, endOffset - startOffset);
+            if (atEnd) {
+                fragment = rmTrailingWhitespace(fragment);
+            }
+            if (fragment.indexOf("{document}") != -1) {
+                return false;
+            }
+
+            List<TexCommandEntry> definedCommands = new ArrayList<TexCommandEntry>();
+            for (TexCommandEntry command : lparser.getCommands()) {
+                if (command.startLine < beginLine) {
+                    definedCommands.add(command);
+                }
+            }
+            
+            LatexParser fragmentParser = new LatexParser();
+            fragmentParser.parse(new LatexLexer(fragment),
+                    null, false, definedCommands);
+            if (fragmentParser.isFatalErrors() || fragmentParser.getErrors().size() > 0) {
+                return false;
+            }
+            List<OutlineNode> fragmentTree = fragmentParser.getOutlineTree();
+            if (fragmentTree.size() != 1) {
+                return false;
+            }
+            OutlineNode newUnit = fragmentTree.get(0);
+            if (newUnit.getType() != unit.getType() || newUnit.getBeginLine() != 1) {
+                return false;
+            }
+            
+            lparser.spliceFragment(unit, newEndLine, fragmentParser);
+        } catch (BadLocationException e) {
+            return false;
+        } catch (LexerException e) {
+            return false;
+        }
+        this.errors = lparser.getErrors();
+        this.docEndLine = newDocEndLine;
+        return true;
+    }
+    
+    /**
+     * Finds the innermost sectioning node whose lines contain the given lines.
+     * 
+     * @param nodes The nodes to search
+     * @param firstLine The first line
+     * @param lastLine The last line
+     * @return The sectioning node, or null if the lines are not inside one
+     */
+    private static OutlineNode findSectioningUnit(List<OutlineNode> nodes,
+            int firstLine, int lastLine) {
+        if (nodes == null) {
+            return null;
+        }
+        for (OutlineNode node : nodes) {
+            if (node.getBeginLine() <= firstLine && lastLine < node.getEndLine()) {
+                OutlineNode inner = findSectioningUnit(node.getChildren(), firstLine, lastLine);
+                if (inner != null) {
+                    return inner;
+                }
+                if (node.getType() >= OutlineNode.TYPE_PART
+                        && node.getType() <= OutlineNode.TYPE_PARAGRAPH) {
+                    return node;
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Counts the lines of the given text.
+     * 
+     * @param input The text
+     * @return The number of lines
+     */
+    private static int countLines(String input) {
+        int lines = 1;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\n') {
+                lines++;
+            } else if (c == '\r') {
+                if (i + 1 < input.length() && input.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                lines++;
+            }
+        }
+        return lines;
+    }
+    
+    /**
+     * Checks whether the given inserted or removed text may change the
+     * parse results outside of the lines it is on: it contains a comment
+     * character, an incomplete command or (part of) one of the commands
+     * that affect the whole document.
+     * 
+     * @param text The inserted or removed text
+     * @return True if the change requires a full parse
+     */
+    public static boolean isStructuralChange(String text) {
+        if (text.indexOf('%') != -1) {
+            return true;
+        }
+        int index = text.indexOf('\\');
+        while (index != -1) {
+            int end = index + 1;
+            while (end < text.length() && Character.isLetter(text.charAt(end)))
+                end++;
+            if (end == text.length()) {
+                // the command may continue outside of the text
+                return true;
+            }
+            if (end > index + 1) {
+                String command = text.substring(index, end);
+                for (String structural : STRUCTURAL_COMMANDS) {
+                    if (structural.startsWith(command)) {
+                        return true;
+                    }
+                }
+            }
+            index = text.indexOf('\\', end == index + 1 ? end + 1 : end);
+        }
+        return false;
+    }
+
     /**
      * @return The outline tree
      */
@@ -189,8 +388,17 @@ public class TexParser {
      */
     public List<ReferenceEntry> getLabels() {
     	List<ReferenceEntry> labels = lparser.getLabels();
+    	String input = null;
+    	int[] lineStarts = null;
     	for (ReferenceEntry label : labels) {
-    		label.setLabelInfo(inputDoc.get());
+    	    // labels kept from a previous parse already have their info
+    	    if (label.info == null) {
+    	        if (input == null) {
+    	            input = inputDoc.get();
+    	            lineStarts = ReferenceEntry.getLineStarts(input);
+    	        }
+    	        label.setLabelInfo(input, lineStarts);
+    	    }
     	}
         return labels;
     }
@@ -275,6 +483,20 @@ public class TexParser {
         return lparser.getRefs();
     }
     
+    /**
+     * @return The \begin commands of the environments
+     */
+    public List<DocumentReference> getEnvironmentBegins() {
+        return lparser.getEnvironmentBegins();
+    }
+    
+    /**
+     * @return The \end commands of the environments
+     */
+    public List<DocumentReference> getEnvironmentEnds() {
+        return lparser.getEnvironmentEnds();
+    }
+    
     /**
      * @return Get user-defined commands
      */
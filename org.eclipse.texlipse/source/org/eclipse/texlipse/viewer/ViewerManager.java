@@ -27,7 +27,10 @@ import org.eclipse.core.resources.IResource;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.debug.core.DebugPlugin;
 import org.eclipse.debug.core.ILaunch;
 import org.eclipse.debug.core.ILaunchConfiguration;
@@ -45,6 +48,7 @@ import org.eclipse.texlipse.builder.TexlipseNature;
 import org.eclipse.texlipse.properties.TexlipseProperties;
 import org.eclipse.texlipse.viewer.util.FileLocationListener;
 import org.eclipse.texlipse.viewer.util.FileLocationServer;
+import org.eclipse.texlipse.viewer.util.SyncTexIndex;
 import org.eclipse.texlipse.viewer.util.ViewerErrorScanner;
 import org.eclipse.ui.IWorkbenchPage;
 import org.eclipse.ui.IWorkbenchWindow;
@@ -93,6 +97,9 @@ public class ViewerManager {
     // the source file name variable in the arguments with absolute path
     public static final String TEX_FILENAME_FULLPATH_PATTERN = "%fulltexfile";
 
+    // the output page of the current line, from the SyncTeX file
+    public static final String PAGE_NUMBER_PATTERN = "%page";
+
     // viewer attributes
     private ViewerAttributeRegistry registry;
 
@@ -479,6 +486,116 @@ public class ViewerManager {
     }
     
 
+    /**
+     * Reads the SyncTeX file of the project's output again.
+     *
+     * @param project the project
+     */
+    private static void updateSyncTexIndex(IProject project) {
+        File file = getSyncTexFile(project);
+        SyncTexIndex index = null;
+        if (file != null) {
+            try {
+                IContainer sourceDir = TexlipseProperties.getProjectSourceDir(project);
+                index = SyncTexIndex.read(file, sourceDir.getLocation().toFile());
+            } catch (IOException e) {
+                TexlipsePlugin.log("Reading " + file, e);
+            }
+        }
+        TexlipseProperties.setSessionProperty(project,
+                TexlipseProperties.SESSION_SYNCTEX_INDEX, index);
+    }
+
+    /**
+     * Reads the SyncTeX file of the project's output again in a background
+     * job. Called when a build has finished, so that the index is ready
+     * when the viewer is launched. If the job is already waiting, it isn't
+     * scheduled twice.
+     *
+     * @param project the project
+     */
+    public static void scheduleSyncTexIndexUpdate(final IProject project) {
+        Job job;
+        synchronized (ViewerManager.class) {
+            Object o = TexlipseProperties.getSessionProperty(project,
+                    TexlipseProperties.SESSION_SYNCTEX_JOB);
+            if (o instanceof Job) {
+                job = (Job) o;
+            } else {
+                job = new Job("Reading the SyncTeX file of " + project.getName()) {
+                    protected IStatus run(IProgressMonitor monitor) {
+                        updateSyncTexIndex(project);
+                        return Status.OK_STATUS;
+                    }
+                };
+                job.setSystem(true);
+                TexlipseProperties.setSessionProperty(project,
+                        TexlipseProperties.SESSION_SYNCTEX_JOB, job);
+            }
+        }
+        job.schedule();
+    }
+
+    /**
+     * Returns the source to output mapping of the project's output, if it
+     * has already been read. The file is never read here; if the index is
+     * missing or the file has changed, it is read again in the background
+     * and the old index (or null) is returned.
+     *
+     * @param project the project
+     * @return the index, or null if it isn't ready or the output has no
+     *  SyncTeX file
+     */
+    public static SyncTexIndex getSyncTexIndex(IProject project) {
+        Object o = TexlipseProperties.getSessionProperty(project,
+                TexlipseProperties.SESSION_SYNCTEX_INDEX);
+        SyncTexIndex index = o instanceof SyncTexIndex ? (SyncTexIndex) o : null;
+        if (index == null ? getSyncTexFile(project) != null : index.isStale()) {
+            scheduleSyncTexIndexUpdate(project);
+        }
+        return index;
+    }
+
+    /**
+     * Finds the SyncTeX file next to the output file.
+     *
+     * @param project the project
+     * @return the file, or null if there is none
+     */
+    private static File getSyncTexFile(IProject project) {
+        IPath location = null;
+        try {
+            location = getOuputResource(project).getLocation();
+        } catch (CoreException e) {
+        }
+        if (location == null) {
+            return null;
+        }
+        String base = location.removeFileExtension().toOSString();
+        File file = new File(base + ".synctex.gz");
+        if (!file.exists()) {
+            file = new File(base + ".synctex");
+        }
+        return file.exists() ? file : null;
+    }
+
+    /**
+     * Returns the output page of the current line of the current page,
+     * if the SyncTeX file of the output has already been read.
+     *
+     * @return the page number, 1 if it is not known
+     */
+    private int getCurrentPageNumber() {
+        IResource selectedRes = SelectedResourceManager.getDefault().getSelectedTexResource();
+        SyncTexIndex index = getSyncTexIndex(project);
+        if (index == null || selectedRes == null || selectedRes.getLocation() == null) {
+            return 1;
+        }
+        SyncTexIndex.PdfLocation location = index.forward(
+                selectedRes.getLocation().toOSString(), getCurrentLineNumber());
+        return location != null ? location.page : 1;
+    }
+
     /**
      * Returns the current line number of the current page, if possible.
      * 
@@ -603,6 +720,10 @@ public class ViewerManager {
         if (input.indexOf(LINE_NUMBER_PATTERN) >= 0) {
         	input = input.replaceAll(LINE_NUMBER_PATTERN, "" + getCurrentLineNumber());
         }
+
+        if (input.indexOf(PAGE_NUMBER_PATTERN) >= 0) {
+            input = input.replaceAll(PAGE_NUMBER_PATTERN, "" + getCurrentPageNumber());
+        }
         
         if (input.indexOf(TEX_FILENAME_PATTERN) >= 0) {
         	
@@ -33,6 +33,9 @@ public class FileLocationClient {
 
     private String fileName;
     private int lineNumber;
+
+    private int repeat = 1;
+    private int connections = 1;
     
     /**
      * Create a new File Location client.
@@ -60,11 +63,28 @@ public class FileLocationClient {
         lineNumber = l;
     }
     
+    /**
+     * Sets the client to write the location many times over many open
+     * connections, for testing the server under load. The line number is
+     * increased by one on each write.
+     *
+     * @param r how many times the location is written
+     * @param c how many connections are kept open at the same time
+     */
+    public void setLoad(int r, int c) {
+        repeat = Math.max(r, 1);
+        connections = Math.max(c, 1);
+    }
+
     /**
      * Write the filename and line number to the server socket. 
      * Format: "fileName:lineNumber".
      */
     public void writeToSocket() {
+        if (repeat > 1 || connections > 1) {
+            writeLoad();
+            return;
+        }
         try {
             
             Socket socket = new Socket(hostName, portNumber);
@@ -84,12 +104,51 @@ public class FileLocationClient {
         }
     }
     
+    /**
+     * Writes the location repeatedly, spreading the writes over the open
+     * connections, and prints how long it took.
+     */
+    private void writeLoad() {
+        Socket[] sockets = new Socket[connections];
+        PrintWriter[] outs = new PrintWriter[connections];
+        try {
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < connections; i++) {
+                sockets[i] = new Socket(hostName, portNumber);
+                outs[i] = new PrintWriter(sockets[i].getOutputStream());
+            }
+            for (int i = 0; i < repeat; i++) {
+                PrintWriter out = outs[i % connections];
+                out.println(fileName + ':' + (lineNumber + i));
+                out.flush();
+            }
+            System.out.println("Wrote " + repeat + " locations over " + connections
+                    + " connections in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (UnknownHostException e) {
+            System.out.println("Don't know about host: " + hostName);
+        } catch (IOException e) {
+            System.out.println("Couldn't get I/O for the connection to: "
+                    + hostName);
+        } finally {
+            for (int i = 0; i < connections; i++) {
+                try {
+                    if (sockets[i] != null) {
+                        sockets[i].close();
+                    }
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
     /**
      * Command line arguments:
      *  -p port (default: 55555)
      *  -h host (default: localhost)
      *  -f filename
      *  -l line number
+     *  -n how many times to write the location, for load testing (default: 1)
+     *  -c how many connections to use, for load testing (default: 1)
      */
     public static FileLocationClient parseCommandLine(String[] args) {
 
@@ -97,6 +156,8 @@ public class FileLocationClient {
         String portNum = null;
         String file = null;
         String lineNum = null;
+        String repeatNum = null;
+        String connectionNum = null;
 
         // find values of possible parameters
         int i = 0;
@@ -113,6 +174,12 @@ public class FileLocationClient {
             } else if (args[i].equals("-l")) {
                 lineNum = args[i + 1];
                 i += 2;
+            } else if (args[i].equals("-n")) {
+                repeatNum = args[i + 1];
+                i += 2;
+            } else if (args[i].equals("-c")) {
+                connectionNum = args[i + 1];
+                i += 2;
             } else {
                 System.out.println("Unknown argument "+args[i]);
                 i++;
@@ -143,7 +210,17 @@ public class FileLocationClient {
         } catch (NumberFormatException e) {
         }
         
-        return new FileLocationClient(host, port, file, line);
+        FileLocationClient client = new FileLocationClient(host, port, file, line);
+        if (repeatNum != null || connectionNum != null) {
+            try {
+                client.setLoad(repeatNum != null ? Integer.parseInt(repeatNum) : 1,
+                        connectionNum != null ? Integer.parseInt(connectionNum) : 1);
+            } catch (NumberFormatException e) {
+                System.out.println("Invalid load: " + repeatNum + " " + connectionNum);
+                return null;
+            }
+        }
+        return client;
     }
 
     /**
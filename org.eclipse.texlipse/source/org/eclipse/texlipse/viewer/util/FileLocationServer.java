@@ -10,12 +10,21 @@
  *******************************************************************************/
 package org.eclipse.texlipse.viewer.util;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.texlipse.TexlipsePlugin;
 import org.eclipse.texlipse.properties.TexlipseProperties;
@@ -25,23 +34,76 @@ import org.eclipse.texlipse.properties.TexlipseProperties;
 /**
  * A server that takes in filename-linenumber commands
  * and passes these commands as events to its listener.
- * 
+ *
  * The server will listen to the specified socket until it gets
- * a command "QUIT". 
- * 
+ * a command "QUIT" or it is stopped.
+ *
+ * All the connections are served by one thread with a selector, so a
+ * viewer that keeps its connection open doesn't block the others. The
+ * listener is called in a separate thread; if more commands arrive while
+ * the listener is busy, only the latest one is passed on.
+ *
  * @author Esa Seuranen
  * @author Kimmo Karlsson
  */
 public class FileLocationServer implements Runnable {
 
+    /**
+     * A command that has been read but not yet passed to the listener
+     */
+    private static class Location {
+        final String file;
+        final int lineNumber;
+
+        Location(String file, int lineNumber) {
+            this.file = file;
+            this.lineNumber = lineNumber;
+        }
+    }
+
     // the singleton instance
     private static FileLocationServer instance = new FileLocationServer();
 
-    // the socket where the server is currently listening
-    private ServerSocket ssocket;
-    
+    // the selector of the server socket and the connections, while running
+    private volatile Selector selector;
+
     // the listener, which will be notified every time a file location command occurs
-    private FileLocationListener listener;
+    private volatile FileLocationListener listener;
+
+    // the latest command that hasn't been passed to the listener
+    private final AtomicReference<Location> pending = new AtomicReference<Location>();
+
+    // true while the dispatcher is passing commands to the listener
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+
+    // the thread that calls the listener
+    private ExecutorService dispatcher;
+
+    private final Charset charset = Charset.defaultCharset();
+
+    private final Runnable dispatch = new Runnable() {
+        public void run() {
+            while (true) {
+                Location location = pending.getAndSet(null);
+                if (location == null) {
+                    dispatching.set(false);
+                    // a command may have arrived after the check above
+                    if (pending.get() == null || !dispatching.compareAndSet(false, true)) {
+                        return;
+                    }
+                    continue;
+                }
+                FileLocationListener l = listener;
+                if (l != null) {
+                    try {
+                        l.showLineOfFile(location.file, location.lineNumber);
+                    } catch (RuntimeException e) {
+                        TexlipsePlugin.log("Showing " + location.file, e);
+                    }
+                }
+            }
+        }
+    };
 
 
     /**
@@ -49,7 +111,7 @@ public class FileLocationServer implements Runnable {
      */
     private FileLocationServer() {
     }
-    
+
     /**
      * @return the shared instance
      */
@@ -62,26 +124,19 @@ public class FileLocationServer implements Runnable {
      * @return true, if the server is running
      */
     public boolean isRunning() {
-        return ssocket != null;
+        return selector != null;
     }
-    
+
     /**
      * Stop the server.
      */
     public void stop() {
-        if (ssocket == null) {
+        Selector s = selector;
+        if (s == null) {
             return;
         }
-        
-        try {
-            Socket s = new Socket("localhost", ssocket.getLocalPort());
-            s.getOutputStream().write("QUIT\n".getBytes());
-            s.close();
-        } catch (UnknownHostException e) {
-            //shouldn't happen
-        } catch (IOException e) {
-            TexlipsePlugin.log("Stopping FileLocation server: ", e);
-        }
+        selector = null;
+        s.wakeup();
     }
 
     /**
@@ -91,58 +146,173 @@ public class FileLocationServer implements Runnable {
     public void setListener(FileLocationListener listener) {
         this.listener = listener;
     }
-    
+
     /**
      * Run the socket listener.
      *
      */
     public void run() {
 
-    	// Try to open a server socket on port 
+    	// Try to open a server socket on port
     	// Note that we can't choose a port less than 1023 if we are not
     	// privileged users (root)
 
-        ssocket = null;
-    	try {
-    		ssocket = new ServerSocket(TexlipsePlugin.getDefault().getPreferenceStore().getInt(TexlipseProperties.FILE_LOCATION_PORT));
-    	} catch (IOException e) {
-    		TexlipsePlugin.log("Starting server", e);
-    	}   
-
-    	// Create a socket object from the ServerSocket to listen and accept connections.
-    	// Open input and output streams
-
-    	try {
-    		while (ssocket != null) {
-
-    		    // Wait for connection
-                Socket csocket = ssocket.accept();
-    	    	BufferedReader is = new BufferedReader(new InputStreamReader(csocket.getInputStream()));
-
-                String line = null;
-    	    	while ((line = is.readLine()) != null) {
-                    
-                    parseLine(line);
-    	    	}
-                
-    		}
-    	} catch (IOException e) {
-            ssocket = null;
-    		TexlipsePlugin.log("Server error: ", e);
-    	}    
+        Selector s = null;
+        ServerSocketChannel server = null;
+        try {
+            s = Selector.open();
+            server = ServerSocketChannel.open();
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(TexlipsePlugin.getDefault()
+                    .getPreferenceStore().getInt(TexlipseProperties.FILE_LOCATION_PORT)));
+            server.configureBlocking(false);
+            server.register(s, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            TexlipsePlugin.log("Starting server", e);
+            close(s, server);
+            return;
+        }
+
+        selector = s;
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        try {
+            while (selector == s) {
+                s.select();
+                Iterator<SelectionKey> keys = s.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept(server, s);
+                    } else if (key.isReadable()) {
+                        read(key, buffer);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            TexlipsePlugin.log("Server error: ", e);
+        } finally {
+            if (selector == s) {
+                selector = null;
+            }
+            for (SelectionKey key : s.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                }
+            }
+            close(s, server);
+        }
+    }
+
+    /**
+     * Accepts the waiting connections.
+     */
+    private void accept(ServerSocketChannel server, Selector s) throws IOException {
+        SocketChannel client;
+        while ((client = server.accept()) != null) {
+            client.configureBlocking(false);
+            client.register(s, SelectionKey.OP_READ, new ByteArrayOutputStream());
+        }
+    }
+
+    /**
+     * Reads what a client has sent, and parses the complete lines. The
+     * rest of the last line is kept with the connection until the next
+     * read, or until the client closes the connection.
+     */
+    private void read(SelectionKey key, ByteBuffer buffer) {
+        SocketChannel client = (SocketChannel) key.channel();
+        ByteArrayOutputStream line = (ByteArrayOutputStream) key.attachment();
+        int n;
+        do {
+            buffer.clear();
+            try {
+                n = client.read(buffer);
+            } catch (IOException e) {
+                // the client went away
+                n = -1;
+            }
+            for (int i = 0; i < Math.max(n, 0); i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    parseLine(toLine(line));
+                } else {
+                    line.write(b);
+                }
+            }
+        } while (n == buffer.capacity());
+
+        if (n < 0) {
+            if (line.size() > 0) {
+                parseLine(toLine(line));
+            }
+            key.cancel();
+            try {
+                client.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private String toLine(ByteArrayOutputStream line) {
+        String s = new String(line.toByteArray(), charset);
+        line.reset();
+        if (s.endsWith("\r")) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return s;
+    }
+
+    private static void close(Selector s, ServerSocketChannel server) {
+        try {
+            if (server != null) {
+                server.close();
+            }
+            if (s != null) {
+                s.close();
+            }
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Passes a command to the listener in the dispatcher thread.
+     */
+    private void post(Location location) {
+        pending.set(location);
+        if (dispatching.compareAndSet(false, true)) {
+            getDispatcher().execute(dispatch);
+        }
+    }
+
+    private synchronized ExecutorService getDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TeXlipse inverse search");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return dispatcher;
     }
 
     /**
      * Try to parse a "filename:linenumber" -combination
      * and notify listener if parsing is successful.
-     * 
+     *
      * @param line the line of characters to parse
      */
     private void parseLine(String line) {
-        
+
         int index = line.lastIndexOf(':');
         if (index > 0) {
-            
+
             String file = line.substring(0, index);
 
             int i = index+1;
@@ -151,19 +321,17 @@ public class FileLocationServer implements Runnable {
                 i++;
             }
             String num = line.substring(index+1, i);
-            
+
             int lineNumber = -1;
             try {
                 lineNumber = Integer.parseInt(num);
             } catch (NumberFormatException e) {
             }
-    
-            if (listener != null) {
-                listener.showLineOfFile(file, lineNumber);
-            }
+
+            post(new Location(file, lineNumber));
         } else {
             if (line.startsWith("QUIT")) {
-                ssocket = null;
+                stop();
             }
         }
     }
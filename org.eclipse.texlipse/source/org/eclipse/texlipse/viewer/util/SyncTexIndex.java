@@ -0,0 +1,519 @@
+/*******************************************************************************
+ * Copyright (c) 2017 the TeXlipse team and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     The TeXlipse team - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.texlipse.viewer.util;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The source to output mapping of a document, read from the
+ * <code>.synctex.gz</code> (or <code>.synctex</code>) file written by
+ * latex when it is run with <code>-synctex=1</code>.
+ *
+ * The file is read once into an index, so that the page and the box of a
+ * source line (forward search) are found without running the
+ * <code>synctex</code> program. The records of the file are kept in arrays
+ * of ints, sorted by page as in the file and, for each input file, by line.
+ *
+ * Coordinates are in big points (1/72 inch) from the top left corner of
+ * the page, as in PDF viewers. Pages and lines start from 1.
+ *
+ * The index is not changed after it has been read, so it can be used from
+ * any thread.
+ *
+ * @author The TeXlipse team
+ */
+public final class SyncTexIndex {
+
+    /**
+     * A box on a page of the output
+     */
+    public static final class PdfLocation {
+        public final int page;
+        public final float x;
+        public final float y;
+        public final float width;
+        public final float height;
+
+        PdfLocation(int page, float x, float y, float width, float height) {
+            this.page = page;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        public String toString() {
+            return page + ":" + x + "," + y + ":" + width + "," + height;
+        }
+    }
+
+    /**
+     * How many scaled points are in a big point
+     */
+    private static final double SP_PER_BP = 65781.76;
+
+    private final File file;
+    private final long lastModified;
+
+    // the input files by tag, and the tags by canonical path
+    private String[] inputs = new String[8];
+    private final Map<String, Integer> tags = new HashMap<String, Integer>();
+
+    // the records in the order of the file
+    private int count;
+    private int[] recTags = new int[1024];
+    private int[] recLines = new int[1024];
+    private int[] recPages = new int[1024];
+    private int[] hs = new int[1024];
+    private int[] vs = new int[1024];
+    private int[] widths = new int[1024];
+    private int[] heights = new int[1024];
+    private int[] depths = new int[1024];
+
+    // the number of pages started so far
+    private int pageCount;
+
+    // the records of each tag, sorted by line
+    private int[][] byLine;
+
+    // conversion from the units of the file to big points
+    private double scale = 1 / SP_PER_BP;
+    private double xOffset;
+    private double yOffset;
+
+    private SyncTexIndex(File file) {
+        this.file = file;
+        this.lastModified = file.lastModified();
+    }
+
+    /**
+     * Reads the index of a SyncTeX file.
+     *
+     * @param file The <code>.synctex.gz</code> or <code>.synctex</code> file
+     * @param baseDir The directory latex was run in, against which relative
+     *  input file names are resolved
+     * @return The index
+     * @throws IOException If the file can't be read
+     */
+    public static SyncTexIndex read(File file, File baseDir) throws IOException {
+        SyncTexIndex index = new SyncTexIndex(file);
+        InputStream in = new FileInputStream(file);
+        try {
+            if (file.getName().endsWith(".gz")) {
+                in = new GZIPInputStream(in, 1 << 16);
+            } else {
+                in = new BufferedInputStream(in, 1 << 16);
+            }
+            new Reader(index, in, baseDir).read();
+        } finally {
+            in.close();
+        }
+        index.buildLineIndex();
+        return index;
+    }
+
+    /**
+     * @return The file this index was read from
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return True if the file has been written again since it was read
+     */
+    public boolean isStale() {
+        return file.lastModified() != lastModified;
+    }
+
+    /**
+     * @return The number of pages of the output
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Finds the output of a source line. If the line itself has no output
+     * (e.g. it is empty or a comment), the nearest line with output is used.
+     *
+     * @param sourceFile The path of the source file
+     * @param line The line number
+     * @return The first page where the line appears, with the box containing
+     *  all its output on that page, or null if the file has no output
+     */
+    public PdfLocation forward(String sourceFile, int line) {
+        Integer tag = tags.get(canonicalPath(new File(sourceFile)));
+        if (tag == null || tag.intValue() >= byLine.length || byLine[tag.intValue()] == null) {
+            return null;
+        }
+        int[] recs = byLine[tag.intValue()];
+
+        // the first record on or after the line, or the last one before it
+        int lo = 0;
+        int hi = recs.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (recLines[recs[mid]] < line) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == recs.length
+                || (lo > 0 && line - recLines[recs[lo - 1]] < recLines[recs[lo]] - line)) {
+            // the previous line is closer, find its first record
+            int previous = recLines[recs[lo - 1]];
+            lo--;
+            while (lo > 0 && recLines[recs[lo - 1]] == previous) {
+                lo--;
+            }
+        }
+        int found = recLines[recs[lo]];
+
+        // the records of the line are sorted by their order in the file,
+        // so the ones on the first page come first
+        int page = recPages[recs[lo]];
+        int left = Integer.MAX_VALUE;
+        int top = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = lo; i < recs.length && recLines[recs[i]] == found
+                && recPages[recs[i]] == page; i++) {
+            int r = recs[i];
+            left = Math.min(left, hs[r]);
+            right = Math.max(right, hs[r] + Math.max(widths[r], 0));
+            top = Math.min(top, vs[r] - heights[r]);
+            bottom = Math.max(bottom, vs[r] + depths[r]);
+        }
+        return new PdfLocation(page, toX(left), toY(top),
+                (float) ((right - left) * scale), (float) ((bottom - top) * scale));
+    }
+
+    private float toX(int h) {
+        return (float) (h * scale + xOffset);
+    }
+
+    private float toY(int v) {
+        return (float) (v * scale + yOffset);
+    }
+
+    /**
+     * Sorts the records of each input file by line, keeping the order of
+     * the file for records of the same line.
+     */
+    private void buildLineIndex() {
+        int[] sizes = new int[inputs.length];
+        for (int r = 0; r < count; r++) {
+            if (recLines[r] > 0 && recTags[r] < sizes.length) {
+                sizes[recTags[r]]++;
+            }
+        }
+        long[][] keys = new long[inputs.length][];
+        for (int t = 0; t < keys.length; t++) {
+            keys[t] = new long[sizes[t]];
+            sizes[t] = 0;
+        }
+        for (int r = 0; r < count; r++) {
+            int t = recTags[r];
+            if (recLines[r] > 0 && t < keys.length) {
+                keys[t][sizes[t]++] = ((long) recLines[r] << 32) | r;
+            }
+        }
+        byLine = new int[inputs.length][];
+        for (int t = 0; t < keys.length; t++) {
+            if (keys[t].length == 0) {
+                continue;
+            }
+            Arrays.sort(keys[t]);
+            int[] recs = new int[keys[t].length];
+            for (int i = 0; i < recs.length; i++) {
+                recs[i] = (int) keys[t][i];
+            }
+            byLine[t] = recs;
+        }
+    }
+
+    private void addInput(int tag, String path) {
+        if (tag < 0) {
+            return;
+        }
+        if (tag >= inputs.length) {
+            inputs = Arrays.copyOf(inputs, Math.max(inputs.length * 2, tag + 1));
+        }
+        inputs[tag] = path;
+        tags.put(path, Integer.valueOf(tag));
+    }
+
+    private void startPage() {
+        pageCount++;
+    }
+
+    private void addRecord(int tag, int line, int h, int v,
+            int width, int height, int depth) {
+        if (count == recTags.length) {
+            int size = count * 2;
+            recTags = Arrays.copyOf(recTags, size);
+            recLines = Arrays.copyOf(recLines, size);
+            recPages = Arrays.copyOf(recPages, size);
+            hs = Arrays.copyOf(hs, size);
+            vs = Arrays.copyOf(vs, size);
+            widths = Arrays.copyOf(widths, size);
+            heights = Arrays.copyOf(heights, size);
+            depths = Arrays.copyOf(depths, size);
+        }
+        recTags[count] = tag;
+        recLines[count] = line;
+        recPages[count] = pageCount;
+        hs[count] = h;
+        vs[count] = v;
+        widths[count] = width;
+        heights[count] = height;
+        depths[count] = depth;
+        count++;
+    }
+
+    private static String canonicalPath(File f) {
+        try {
+            return f.getCanonicalPath();
+        } catch (IOException e) {
+            return f.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Reads the lines of a SyncTeX file into an index. The bytes of each
+     * line are parsed in place, so no strings are made for the records.
+     */
+    private static final class Reader {
+
+        private final SyncTexIndex index;
+        private final InputStream in;
+        private final File baseDir;
+
+        private final byte[] buffer = new byte[1 << 16];
+        private int bufferPos;
+        private int bufferEnd;
+
+        private byte[] line = new byte[256];
+        private int length;
+        private int pos;
+
+        private int unit = 1;
+        private int magnification = 1000;
+        private int xOffset;
+        private int yOffset;
+
+        Reader(SyncTexIndex index, InputStream in, File baseDir) {
+            this.index = index;
+            this.in = in;
+            this.baseDir = baseDir;
+        }
+
+        /**
+         * Reads the file.
+         *
+         * @throws IOException If the file can't be read or isn't a SyncTeX
+         *  file
+         */
+        void read() throws IOException {
+            if (!readLine() || !startsWith("SyncTeX Version:")) {
+                throw new IOException("Not a SyncTeX file: " + index.file);
+            }
+            boolean content = false;
+            while (readLine()) {
+                if (length == 0) {
+                    continue;
+                }
+                if (startsWith("Input:")) {
+                    pos = 6;
+                    int tag = parseInt();
+                    pos++;
+                    index.addInput(tag, resolve(new String(line, pos, length - pos, "UTF-8")));
+                } else if (!content) {
+                    if (startsWith("Content:")) {
+                        content = true;
+                    } else if (startsWith("Unit:")) {
+                        unit = parseValue(5);
+                    } else if (startsWith("Magnification:")) {
+                        magnification = parseValue(14);
+                    } else if (startsWith("X Offset:")) {
+                        xOffset = parseValue(9);
+                    } else if (startsWith("Y Offset:")) {
+                        yOffset = parseValue(9);
+                    }
+                } else if (startsWith("Postamble:")) {
+                    break;
+                } else {
+                    readRecord();
+                }
+            }
+
+            double scale = unit / SP_PER_BP * magnification / 1000;
+            index.scale = scale;
+            index.xOffset = xOffset * scale;
+            index.yOffset = yOffset * scale;
+        }
+
+        /**
+         * Reads a record of the content section.
+         */
+        private void readRecord() {
+            boolean box;
+            switch (line[0]) {
+            case '{':
+                index.startPage();
+                return;
+            case '[':
+            case '(':
+            case 'v':
+            case 'h':
+                box = true;
+                break;
+            case 'x':
+            case 'k':
+            case 'g':
+            case '$':
+                box = false;
+                break;
+            default:
+                // page and box ends and byte counts
+                return;
+            }
+            if (index.pageCount == 0) {
+                return;
+            }
+            pos = 1;
+            int tag = parseInt();
+            if (!skip(',')) {
+                return;
+            }
+            int lineNumber = parseInt();
+            // newer versions may add a column
+            if (pos < length && line[pos] == ',') {
+                pos++;
+                parseInt();
+            }
+            if (!skip(':')) {
+                return;
+            }
+            int h = parseInt();
+            if (!skip(',')) {
+                return;
+            }
+            int v = parseInt();
+            int width = 0;
+            int height = 0;
+            int depth = 0;
+            if (skip(':')) {
+                width = parseInt();
+                if (skip(',')) {
+                    height = parseInt();
+                    if (skip(',')) {
+                        depth = parseInt();
+                    }
+                }
+            }
+            if (!box) {
+                // the width of a kern is not the size of anything
+                width = 0;
+            }
+            index.addRecord(tag, lineNumber, h, v, width, height, depth);
+        }
+
+        private String resolve(String name) {
+            File f = new File(name);
+            if (!f.isAbsolute() && baseDir != null) {
+                f = new File(baseDir, name);
+            }
+            return canonicalPath(f);
+        }
+
+        private boolean startsWith(String prefix) {
+            if (length < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (line[i] != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean skip(char c) {
+            if (pos < length && line[pos] == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private int parseValue(int start) {
+            pos = start;
+            while (pos < length && line[pos] == ' ') {
+                pos++;
+            }
+            return parseInt();
+        }
+
+        private int parseInt() {
+            boolean negative = false;
+            if (pos < length && line[pos] == '-') {
+                negative = true;
+                pos++;
+            }
+            int value = 0;
+            while (pos < length && line[pos] >= '0' && line[pos] <= '9') {
+                value = value * 10 + (line[pos++] - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * Reads the next line into the line buffer, without the line end.
+         *
+         * @return False at the end of the file
+         */
+        private boolean readLine() throws IOException {
+            length = 0;
+            while (true) {
+                if (bufferPos == bufferEnd) {
+                    bufferEnd = in.read(buffer, 0, buffer.length);
+                    bufferPos = 0;
+                    if (bufferEnd <= 0) {
+                        bufferEnd = 0;
+                        return length > 0;
+                    }
+                }
+                byte b = buffer[bufferPos++];
+                if (b == '\n') {
+                    if (length > 0 && line[length - 1] == '\r') {
+                        length--;
+                    }
+                    return true;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+        }
+    }
+}